@@ -49,7 +49,9 @@ import uk.ac.gla.cvr.gluetools.core.datamodel.builder.GlueSchemaUpdateStrategy;
 import uk.ac.gla.cvr.gluetools.core.datamodel.builder.ModelBuilder;
 import uk.ac.gla.cvr.gluetools.core.datamodel.builder.ModelBuilderException;
 import uk.ac.gla.cvr.gluetools.core.datamodel.builder.ModelBuilderException.Code;
+import uk.ac.gla.cvr.gluetools.core.datamodel.builder.ProjectRuntimeCache;
 import uk.ac.gla.cvr.gluetools.core.datamodel.meta.SchemaVersion;
+import uk.ac.gla.cvr.gluetools.core.datamodel.projectSetting.ProjectSettingsCache;
 import uk.ac.gla.cvr.gluetools.core.plugins.Plugin;
 import uk.ac.gla.cvr.gluetools.core.plugins.PluginConfigContext;
 import uk.ac.gla.cvr.gluetools.core.plugins.PluginFactory;
@@ -91,6 +93,8 @@ public class GluetoolsEngine implements Plugin {
 	private DatabaseConfiguration dbConfiguration = new DatabaseConfiguration();
 	private PropertiesConfiguration propertiesConfiguration = new PropertiesConfiguration();
 	private ServerRuntime rootServerRuntime;
+	private ProjectRuntimeCache projectRuntimeCache = new ProjectRuntimeCache(this);
+	private ProjectSettingsCache projectSettingsCache = new ProjectSettingsCache();
 	private Properties gluecoreProperties;
 	private Map<String, byte[]> classNameToBytes = new LinkedHashMap<String, byte[]>();
 	private GlueClassLoader glueClassLoader = new GlueClassLoader(GluetoolsEngine.class.getClassLoader(), this);
@@ -226,6 +230,14 @@ public class GluetoolsEngine implements Plugin {
 		return rootServerRuntime;
 	}
 
+	public ProjectRuntimeCache getProjectRuntimeCache() {
+		return projectRuntimeCache;
+	}
+
+	public ProjectSettingsCache getProjectSettingsCache() {
+		return projectSettingsCache;
+	}
+
 	public String getDbSchemaVersion() {
 		return dbSchemaVersion;
 	}
@@ -250,6 +262,7 @@ public class GluetoolsEngine implements Plugin {
 		if(requestQueueManager != null) {
 			requestQueueManager.dispose();
 		}
+		projectRuntimeCache.dispose();
 		if(rootServerRuntime != null) {
 			rootServerRuntime.shutdown();
 		}
@@ -43,6 +43,7 @@ import uk.ac.gla.cvr.gluetools.core.command.CompleterClass;
 import uk.ac.gla.cvr.gluetools.core.command.project.module.ModulePluginCommand;
 import uk.ac.gla.cvr.gluetools.core.command.project.module.ProvidedProjectModeCommand;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
+import uk.ac.gla.cvr.gluetools.core.datamodel.KeysetBatchIterator;
 import uk.ac.gla.cvr.gluetools.core.datamodel.sequence.Sequence;
 import uk.ac.gla.cvr.gluetools.core.logging.GlueLogger;
 import uk.ac.gla.cvr.gluetools.core.plugins.PluginConfigContext;
@@ -94,14 +95,12 @@ public class RecogniseSequenceCommand extends ModulePluginCommand<BlastSequenceR
 		int totalNumSeqs = GlueDataObject.count(cmdContext, selectQuery);
 		int batchSize = 200;
 		int processed = 0;
-		int offset = 0;
+		KeysetBatchIterator<Sequence> sequenceBatches = 
+				new KeysetBatchIterator<Sequence>(cmdContext, Sequence.class, selectQuery.getQualifier(), batchSize);
 
-		while(processed < totalNumSeqs) {
-			selectQuery.setFetchLimit(batchSize);
-			selectQuery.setPageSize(batchSize);
-			selectQuery.setFetchOffset(offset);
+		while(sequenceBatches.hasNext()) {
 			GlueLogger.getGlueLogger().finest("Retrieving sequences");
-			List<Sequence> sequences = GlueDataObject.query(cmdContext, Sequence.class, selectQuery);
+			List<Sequence> sequences = sequenceBatches.next();
 
 			Map<String, DNASequence> querySequenceMap = new LinkedHashMap<String, DNASequence>();
 			sequences.forEach(seq -> {
@@ -112,7 +111,6 @@ public class RecogniseSequenceCommand extends ModulePluginCommand<BlastSequenceR
 			Map<String, List<RecognitionCategoryResult>> queryIdToCatResult = blastSequenceRecogniser.recognise(cmdContext, querySequenceMap);
 			resultRows.addAll(BlastSequenceRecogniserResultRow.rowsFromMap(queryIdToCatResult));
 
-			offset += batchSize;
 			processed += sequences.size();
 			GlueLogger.getGlueLogger().finest("Processed "+processed+" of "+totalNumSeqs+" sequences");
 			cmdContext.newObjectContext();
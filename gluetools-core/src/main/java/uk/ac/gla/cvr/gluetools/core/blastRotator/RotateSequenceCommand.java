@@ -43,6 +43,7 @@ import uk.ac.gla.cvr.gluetools.core.command.CompleterClass;
 import uk.ac.gla.cvr.gluetools.core.command.project.module.ModulePluginCommand;
 import uk.ac.gla.cvr.gluetools.core.command.project.module.ProvidedProjectModeCommand;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
+import uk.ac.gla.cvr.gluetools.core.datamodel.KeysetBatchIterator;
 import uk.ac.gla.cvr.gluetools.core.datamodel.sequence.Sequence;
 import uk.ac.gla.cvr.gluetools.core.logging.GlueLogger;
 import uk.ac.gla.cvr.gluetools.core.plugins.PluginConfigContext;
@@ -94,14 +95,12 @@ public class RotateSequenceCommand extends ModulePluginCommand<BlastSequenceRota
 		int totalNumSeqs = GlueDataObject.count(cmdContext, selectQuery);
 		int batchSize = 200;
 		int processed = 0;
-		int offset = 0;
+		KeysetBatchIterator<Sequence> sequenceBatches = 
+				new KeysetBatchIterator<Sequence>(cmdContext, Sequence.class, selectQuery.getQualifier(), batchSize);
 
-		while(processed < totalNumSeqs) {
-			selectQuery.setFetchLimit(batchSize);
-			selectQuery.setPageSize(batchSize);
-			selectQuery.setFetchOffset(offset);
+		while(sequenceBatches.hasNext()) {
 			GlueLogger.getGlueLogger().finest("Retrieving sequences");
-			List<Sequence> sequences = GlueDataObject.query(cmdContext, Sequence.class, selectQuery);
+			List<Sequence> sequences = sequenceBatches.next();
 
 			Map<String, DNASequence> querySequenceMap = new LinkedHashMap<String, DNASequence>();
 			sequences.forEach(seq -> {
@@ -111,7 +110,6 @@ public class RotateSequenceCommand extends ModulePluginCommand<BlastSequenceRota
 			GlueLogger.getGlueLogger().finest("Rotating sequences");
 			Map<String, RotationResultRow> queryIdToResultRow = blastSequenceRotator.rotate(cmdContext, querySequenceMap);
 			resultRows.addAll(queryIdToResultRow.values());
-			offset += batchSize;
 			processed += sequences.size();
 			GlueLogger.getGlueLogger().finest("Processed "+processed+" of "+totalNumSeqs+" sequences");
 			cmdContext.newObjectContext();
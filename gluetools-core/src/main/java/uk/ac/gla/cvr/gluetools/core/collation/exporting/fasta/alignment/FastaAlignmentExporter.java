@@ -27,6 +27,7 @@ package uk.ac.gla.cvr.gluetools.core.collation.exporting.fasta.alignment;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +37,7 @@ import uk.ac.gla.cvr.gluetools.core.collation.exporting.fasta.memberSupplier.Abs
 import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.CommandException;
 import uk.ac.gla.cvr.gluetools.core.command.CommandException.Code;
+import uk.ac.gla.cvr.gluetools.core.command.project.alignment.AlignmentListMemberCommand;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignment.Alignment;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignmentMember.AlignmentMember;
@@ -84,22 +86,17 @@ public class FastaAlignmentExporter extends AbstractFastaAlignmentExporter<Fasta
 			translateToRefName = alignment.getConstrainingRef().getName();
 		}
 		
-		int numMembers = memberSupplier.countMembers(cmdContext);
-		//GlueLogger.getGlueLogger().log(Level.FINEST, "processing "+numMembers+" alignment members");
-		int offset = 0;
-		//int processed = 0;
 		int batchSize = 500;
-		while(offset < numMembers) {
+		Iterator<List<AlignmentMember>> memberBatches = memberSupplier.supplyMemberBatches(cmdContext, batchSize, 
+				AlignmentListMemberCommand.MEMBER_SEQUENCE_DATA_PREFETCH);
+		while(memberBatches.hasNext()) {
 			alignment = memberSupplier.supplyAlignment(cmdContext);
-			List<AlignmentMember> almtMembers = memberSupplier.supplyMembers(cmdContext, offset, batchSize);
+			List<AlignmentMember> almtMembers = memberBatches.next();
 			ReferenceSequence translateToRef = null;
 			if(translateToRefName != null) {
 				translateToRef = GlueDataObject.lookup(cmdContext, ReferenceSequence.class, ReferenceSequence.pkMap(translateToRefName));
 			}
 			createAlignment(cmdContext, excludeEmptyRows, translateToRef, outputRefSegs, almtMembers, almtRowConsumer);
-			//processed += almtMembers.size();
-			//GlueLogger.getGlueLogger().log(Level.FINEST, "processed "+processed+" alignment members");
-			offset += batchSize;
 			cmdContext.newObjectContext();
 		}
 		
@@ -119,16 +116,15 @@ public class FastaAlignmentExporter extends AbstractFastaAlignmentExporter<Fasta
 				minMaxSeg.setRefEnd(alignmentRef.getSequence().getSequenceObject().getNucleotides(cmdContext).length());
 			} else {
 				// unconstrained alignment
-				int numMembers = memberSupplier.countMembers(cmdContext);
-				int offset = 0;
 				int batchSize = 500;
-				while(offset < numMembers) {
-					List<AlignmentMember> almtMembers = memberSupplier.supplyMembers(cmdContext, offset, batchSize);
+				Iterator<List<AlignmentMember>> memberBatches = memberSupplier.supplyMemberBatches(cmdContext, batchSize, 
+						AlignmentListMemberCommand.MEMBER_SEGMENTS_PREFETCH);
+				while(memberBatches.hasNext()) {
+					List<AlignmentMember> almtMembers = memberBatches.next();
 					for(AlignmentMember almtMember: almtMembers) {
 						Integer maxRefEnd = ReferenceSegment.maxRefEnd(almtMember.getAlignedSegments());
 						if(maxRefEnd != null) { minMaxSeg.setRefEnd(Math.max(maxRefEnd, minMaxSeg.getRefEnd())); }
 					}
-					offset += batchSize;
 					cmdContext.newObjectContext();
 				}
 			}
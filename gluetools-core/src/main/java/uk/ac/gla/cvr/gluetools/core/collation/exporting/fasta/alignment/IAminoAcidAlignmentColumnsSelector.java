@@ -26,6 +26,7 @@
 package uk.ac.gla.cvr.gluetools.core.collation.exporting.fasta.alignment;
 
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +38,7 @@ import uk.ac.gla.cvr.gluetools.core.codonNumbering.LabeledCodon;
 import uk.ac.gla.cvr.gluetools.core.codonNumbering.LabeledQueryAminoAcid;
 import uk.ac.gla.cvr.gluetools.core.collation.exporting.fasta.memberSupplier.AbstractMemberSupplier;
 import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
+import uk.ac.gla.cvr.gluetools.core.command.project.alignment.AlignmentListMemberCommand;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignment.Alignment;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignmentMember.AlignmentMember;
 import uk.ac.gla.cvr.gluetools.core.datamodel.sequence.NucleotideContentProvider;
@@ -89,14 +91,13 @@ public interface IAminoAcidAlignmentColumnsSelector extends IAlignmentColumnsSel
 	public default void generateLqaaAlignmentRows(CommandContext cmdContext, Boolean excludeEmptyRows,
 			AbstractMemberSupplier memberSupplier, AbstractLqaaAlmtRowConsumer lqaaAlmtRowConsumer) {
 		checkAminoAcidSelector(cmdContext);
-		int numMembers = memberSupplier.countMembers(cmdContext);
-		//GlueLogger.getGlueLogger().log(Level.FINE, "processing "+numMembers+" alignment members");
-		int offset = 0;
 		//int processed = 0;
 		int batchSize = 500;
-		while(offset < numMembers) {
+		Iterator<List<AlignmentMember>> memberBatches = memberSupplier.supplyMemberBatches(cmdContext, batchSize, 
+				AlignmentListMemberCommand.MEMBER_SEQUENCE_DATA_PREFETCH);
+		while(memberBatches.hasNext()) {
 			Alignment alignment = memberSupplier.supplyAlignment(cmdContext);
-			List<AlignmentMember> almtMembers = memberSupplier.supplyMembers(cmdContext, offset, batchSize);
+			List<AlignmentMember> almtMembers = memberBatches.next();
 			for(AlignmentMember almtMember: almtMembers) {
 				List<LabeledQueryAminoAcid> lqaas = generateAminoAcidAlmtRow(cmdContext, alignment, almtMember);
 				if((!excludeEmptyRows) || !lqaas.isEmpty()) {
@@ -105,7 +106,6 @@ public interface IAminoAcidAlignmentColumnsSelector extends IAlignmentColumnsSel
 			}
 			//processed += almtMembers.size();
 			//GlueLogger.getGlueLogger().log(Level.FINE, "processed "+processed+" alignment members");
-			offset += batchSize;
 			cmdContext.newObjectContext();
 		}
 		
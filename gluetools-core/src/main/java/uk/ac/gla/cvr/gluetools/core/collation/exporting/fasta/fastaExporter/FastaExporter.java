@@ -25,6 +25,7 @@
 */
 package uk.ac.gla.cvr.gluetools.core.collation.exporting.fasta.fastaExporter;
 
+import java.util.Iterator;
 import java.util.List;
 
 import uk.ac.gla.cvr.gluetools.core.collation.exporting.fasta.AbstractFastaExporter;
@@ -54,15 +55,14 @@ public class FastaExporter extends AbstractFastaExporter<FastaExporter> {
 		
 		int batchSize = 500;
 		int processed = 0;
-		int offset = 0;
 		int totalNumSeqs = sequenceSupplier.countSequences(cmdContext);
 
-		while(processed < totalNumSeqs) {
-			List<Sequence> sequences = sequenceSupplier.supplySequences(cmdContext, offset, batchSize);
+		Iterator<List<Sequence>> sequenceBatches = sequenceSupplier.supplySequenceBatches(cmdContext, batchSize);
+		while(sequenceBatches.hasNext()) {
+			List<Sequence> sequences = sequenceBatches.next();
 			sequences.forEach(seq -> {
 				sequenceConsumer.consumeSequence(cmdContext, seq);
 			});
-			offset += batchSize;
 			processed += sequences.size();
 			GlueLogger.getGlueLogger().finest("Processed "+processed+" of "+totalNumSeqs+" sequences");
 			cmdContext.newObjectContext();
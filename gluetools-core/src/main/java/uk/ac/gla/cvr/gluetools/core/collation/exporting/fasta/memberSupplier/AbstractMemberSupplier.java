@@ -25,7 +25,10 @@
 */
 package uk.ac.gla.cvr.gluetools.core.collation.exporting.fasta.memberSupplier;
 
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
@@ -46,6 +49,33 @@ public abstract class AbstractMemberSupplier {
 	
 	public abstract int countMembers(CommandContext cmdContext);
 	
-	public abstract List<AlignmentMember> supplyMembers(CommandContext cmdContext, int offset, int number);
+	public final List<AlignmentMember> supplyMembers(CommandContext cmdContext, int offset, int number) {
+		return supplyMembers(cmdContext, offset, number, Collections.emptyList());
+	}
+
+	// supply a batch of members, prefetching the related objects on the given paths, 
+	// e.g. AlignmentListMemberCommand.MEMBER_SEQUENCE_DATA_PREFETCH
+	public abstract List<AlignmentMember> supplyMembers(CommandContext cmdContext, int offset, int number, List<String> prefetchPaths);
+
+	// supply all members in batches; each batch is fetched in the current object context when hasNext() is called.
+	public Iterator<List<AlignmentMember>> supplyMemberBatches(CommandContext cmdContext, int batchSize, List<String> prefetchPaths) {
+		int numMembers = countMembers(cmdContext);
+		return new Iterator<List<AlignmentMember>>() {
+			private int offset = 0;
+			@Override
+			public boolean hasNext() {
+				return offset < numMembers;
+			}
+			@Override
+			public List<AlignmentMember> next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				List<AlignmentMember> batch = supplyMembers(cmdContext, offset, batchSize, prefetchPaths);
+				offset += batchSize;
+				return batch;
+			}
+		};
+	}
 	
 }
@@ -25,11 +25,16 @@
 */
 package uk.ac.gla.cvr.gluetools.core.collation.exporting.fasta.memberSupplier;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import org.apache.cayenne.exp.Expression;
+import org.apache.cayenne.query.SelectQuery;
+
 import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
+import uk.ac.gla.cvr.gluetools.core.command.project.alignment.AlignmentListMemberCommand;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignmentMember.AlignmentMember;
 
@@ -48,10 +53,28 @@ public class ExplicitMemberSupplier extends AbstractMemberSupplier {
 	}
 
 	@Override
-	public List<AlignmentMember> supplyMembers(CommandContext cmdContext, int offset, int number) {
+	public List<AlignmentMember> supplyMembers(CommandContext cmdContext, int offset, int number, List<String> prefetchPaths) {
 		List<Map<String,String>> subList = pkMaps.subList(offset, Math.min(offset+number, pkMaps.size()));
+		if(prefetchPaths.isEmpty() || subList.isEmpty()) {
+			return subList.stream()
+					.map(pkMap -> GlueDataObject.lookup(cmdContext, AlignmentMember.class, pkMap))
+					.collect(Collectors.toList());
+		}
+		// fetch the batch with a single query so that the prefetches apply to all of it.
+		Expression qualifier = subList.stream()
+				.map(pkMap -> GlueDataObject.pkMapToExpression(pkMap))
+				.reduce(Expression::orExp).get();
+		SelectQuery selectQuery = new SelectQuery(AlignmentMember.class, qualifier);
+		AlignmentListMemberCommand.addPrefetches(selectQuery, prefetchPaths);
+		Map<Map<String,String>, AlignmentMember> pkMapToMember = new LinkedHashMap<Map<String,String>, AlignmentMember>();
+		GlueDataObject.query(cmdContext, AlignmentMember.class, selectQuery)
+			.forEach(member -> pkMapToMember.put(member.pkMap(), member));
+		// members not found (e.g. uncommitted) fall back to lookup.
 		return subList.stream()
-				.map(pkMap -> GlueDataObject.lookup(cmdContext, AlignmentMember.class, pkMap))
+				.map(pkMap -> {
+					AlignmentMember member = pkMapToMember.get(pkMap);
+					return member != null ? member : GlueDataObject.lookup(cmdContext, AlignmentMember.class, pkMap);
+				})
 				.collect(Collectors.toList());
 	}
 
@@ -25,6 +25,7 @@
 */
 package uk.ac.gla.cvr.gluetools.core.collation.exporting.fasta.memberSupplier;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 
@@ -52,9 +53,15 @@ public class QueryMemberSupplier extends AbstractMemberSupplier {
 	}
 
 	@Override
-	public List<AlignmentMember> supplyMembers(CommandContext cmdContext, int offset, int number) {
+	public List<AlignmentMember> supplyMembers(CommandContext cmdContext, int offset, int number, List<String> prefetchPaths) {
 		Alignment alignment = supplyAlignment(cmdContext);
-		return AlignmentListMemberCommand.listMembers(cmdContext, alignment, recursive, whereClause, offset, number, number);
+		return AlignmentListMemberCommand.listMembers(cmdContext, alignment, recursive, whereClause, offset, number, number, prefetchPaths);
+	}
+
+	@Override
+	public Iterator<List<AlignmentMember>> supplyMemberBatches(CommandContext cmdContext, int batchSize, List<String> prefetchPaths) {
+		Alignment alignment = supplyAlignment(cmdContext);
+		return AlignmentListMemberCommand.memberBatchIterator(cmdContext, alignment, recursive, whereClause, batchSize, prefetchPaths);
 	}
 
 }
@@ -25,7 +25,9 @@
 */
 package uk.ac.gla.cvr.gluetools.core.collation.exporting.fasta.sequenceSupplier;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.datamodel.sequence.Sequence;
@@ -38,5 +40,26 @@ public abstract class AbstractSequenceSupplier {
 	public abstract int countSequences(CommandContext cmdContext);
 	
 	public abstract List<Sequence> supplySequences(CommandContext cmdContext, int offset, int number);
+
+	// supply all sequences in batches; each batch is fetched in the current object context when hasNext() is called.
+	public Iterator<List<Sequence>> supplySequenceBatches(CommandContext cmdContext, int batchSize) {
+		int numSequences = countSequences(cmdContext);
+		return new Iterator<List<Sequence>>() {
+			private int offset = 0;
+			@Override
+			public boolean hasNext() {
+				return offset < numSequences;
+			}
+			@Override
+			public List<Sequence> next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				List<Sequence> batch = supplySequences(cmdContext, offset, batchSize);
+				offset += batchSize;
+				return batch;
+			}
+		};
+	}
 	
 }
@@ -25,6 +25,8 @@
 */
 package uk.ac.gla.cvr.gluetools.core.collation.exporting.fasta.sequenceSupplier;
 
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -34,7 +36,9 @@ import org.apache.cayenne.exp.Expression;
 import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.project.alignment.AlignmentListMemberCommand;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
+import uk.ac.gla.cvr.gluetools.core.datamodel.KeysetBatchIterator;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignment.Alignment;
+import uk.ac.gla.cvr.gluetools.core.datamodel.alignmentMember.AlignmentMember;
 import uk.ac.gla.cvr.gluetools.core.datamodel.sequence.Sequence;
 
 public class MemberQuerySequenceSupplier extends AbstractSequenceSupplier {
@@ -60,12 +64,32 @@ public class MemberQuerySequenceSupplier extends AbstractSequenceSupplier {
 	public List<Sequence> supplySequences(CommandContext cmdContext, int offset, int number) {
 		Alignment alignment = supplyAlignment(cmdContext);
 		return AlignmentListMemberCommand
-				.listMembers(cmdContext, alignment, recursive, whereClause, offset, number, number)
+				.listMembers(cmdContext, alignment, recursive, whereClause, offset, number, number, 
+						Arrays.asList(AlignmentMember.SEQUENCE_PROPERTY))
 				.stream()
 				.map(almtMember -> almtMember.getSequence())
 				.collect(Collectors.toList());
 	}
 
+	@Override
+	public Iterator<List<Sequence>> supplySequenceBatches(CommandContext cmdContext, int batchSize) {
+		Alignment alignment = supplyAlignment(cmdContext);
+		KeysetBatchIterator<AlignmentMember> memberBatches = AlignmentListMemberCommand.memberBatchIterator(cmdContext, 
+				alignment, recursive, whereClause, batchSize, Arrays.asList(AlignmentMember.SEQUENCE_PROPERTY));
+		return new Iterator<List<Sequence>>() {
+			@Override
+			public boolean hasNext() {
+				return memberBatches.hasNext();
+			}
+			@Override
+			public List<Sequence> next() {
+				return memberBatches.next().stream()
+						.map(almtMember -> almtMember.getSequence())
+						.collect(Collectors.toList());
+			}
+		};
+	}
+
 	private Alignment supplyAlignment(CommandContext cmdContext) {
 		return GlueDataObject.lookup(cmdContext, Alignment.class, Alignment.pkMap(this.almtName), false);
 	}
@@ -25,6 +25,7 @@
 */
 package uk.ac.gla.cvr.gluetools.core.collation.exporting.fasta.sequenceSupplier;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 
@@ -33,6 +34,7 @@ import org.apache.cayenne.query.SelectQuery;
 
 import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
+import uk.ac.gla.cvr.gluetools.core.datamodel.KeysetBatchIterator;
 import uk.ac.gla.cvr.gluetools.core.datamodel.sequence.Sequence;
 
 public class QuerySequenceSupplier extends AbstractSequenceSupplier {
@@ -69,4 +71,9 @@ public class QuerySequenceSupplier extends AbstractSequenceSupplier {
 		return GlueDataObject.query(cmdContext, Sequence.class, selectQuery);
 	}
 
+	@Override
+	public Iterator<List<Sequence>> supplySequenceBatches(CommandContext cmdContext, int batchSize) {
+		return new KeysetBatchIterator<Sequence>(cmdContext, Sequence.class, whereClause.orElse(null), batchSize);
+	}
+
 }
@@ -80,6 +80,7 @@ import uk.ac.gla.cvr.gluetools.core.command.project.DeleteSequenceCommand;
 import uk.ac.gla.cvr.gluetools.core.command.project.InsideProjectMode;
 import uk.ac.gla.cvr.gluetools.core.config.PropertiesConfiguration;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
+import uk.ac.gla.cvr.gluetools.core.datamodel.KeysetBatchIterator;
 import uk.ac.gla.cvr.gluetools.core.datamodel.builder.ConfigurableTable;
 import uk.ac.gla.cvr.gluetools.core.datamodel.field.FieldType;
 import uk.ac.gla.cvr.gluetools.core.datamodel.project.Project;
@@ -278,13 +279,11 @@ public class NcbiImporter extends SequenceImporter<NcbiImporter> {
 		int foundInField = 0; 
 		int foundInDocument = 0;
 		int batchSize = 1000;
-		selectQuery.setFetchLimit(batchSize); 
-		selectQuery.setPageSize(batchSize);
 		log("Checking for GI numbers in sequences in source \""+sourceName+"\"");
-		int startIndex = 0;
-		while(startIndex < numSequences) {
-			selectQuery.setFetchOffset(startIndex);
-			List<Sequence> sequences = GlueDataObject.query(cmdContext, Sequence.class, selectQuery);
+		KeysetBatchIterator<Sequence> sequenceBatches = 
+				new KeysetBatchIterator<Sequence>(cmdContext, Sequence.class, selectQuery.getQualifier(), batchSize);
+		while(sequenceBatches.hasNext()) {
+			List<Sequence> sequences = sequenceBatches.next();
 			for(Sequence sequence: sequences) {
 				if(!sequence.getFormat().equals(SequenceFormat.GENBANK_XML.name())) {
 					continue;
@@ -316,7 +315,6 @@ public class NcbiImporter extends SequenceImporter<NcbiImporter> {
 			}
 			cmdContext.newObjectContext();
 			updates = 0;
-			startIndex = startIndex + batchSize;
 		}
 		return giNumbersExisting;
 	}
@@ -55,6 +55,7 @@ import uk.ac.gla.cvr.gluetools.core.command.result.CommandResult;
 import uk.ac.gla.cvr.gluetools.core.command.result.OkResult;
 import uk.ac.gla.cvr.gluetools.core.command.result.TableResult;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
+import uk.ac.gla.cvr.gluetools.core.datamodel.KeysetBatchIterator;
 import uk.ac.gla.cvr.gluetools.core.datamodel.sequence.Sequence;
 import uk.ac.gla.cvr.gluetools.core.datamodel.sequence.SequenceFormat;
 import uk.ac.gla.cvr.gluetools.core.plugins.PluginClass;
@@ -334,14 +335,12 @@ public class GenbankXmlPopulator extends SequencePopulator<GenbankXmlPopulator>
 		log("Found "+numberToProcess+" sequences to process");
 		List<Sequence> currentSequenceBatch;
 
-		selectQuery.setFetchLimit(batchSize);
-		selectQuery.setPageSize(batchSize);
+		KeysetBatchIterator<Sequence> sequenceBatches = 
+				new KeysetBatchIterator<Sequence>(cmdContext, Sequence.class, whereClause.orElse(null), batchSize);
 		int offset = 0;
-		while(offset < numberToProcess) {
-			selectQuery.setFetchOffset(offset);
-			int lastBatchIndex = Math.min(offset+batchSize, numberToProcess);
-			log("Retrieving sequences "+(offset+1)+" to "+lastBatchIndex+" of "+numberToProcess);
-			currentSequenceBatch = GlueDataObject.query(cmdContext, Sequence.class, selectQuery);
+		while(sequenceBatches.hasNext()) {
+			currentSequenceBatch = sequenceBatches.next();
+			int lastBatchIndex = offset+currentSequenceBatch.size();
 			log("Processing sequences "+(offset+1)+" to "+lastBatchIndex+" of "+numberToProcess);
 			for(Sequence sequence: currentSequenceBatch) {
 				sequenceConsumer.consumeSequence(sequence);
@@ -355,7 +354,7 @@ public class GenbankXmlPopulator extends SequencePopulator<GenbankXmlPopulator>
 			} 
 			cmdContext.newObjectContext();
 			sequenceConsumer.batchComplete();
-			offset = offset+batchSize;
+			offset = lastBatchIndex;
 		}
 		log("Processed "+numberToProcess+" sequences");
 		cmdContext.newObjectContext();
@@ -46,5 +46,9 @@ public class CmdMeta {
 		suppressDocs = "suppressDocs",
 		/** command consumes binary data as part of its input.
 		 *  this binary data must be provided in Base64 format using the property name specified in Command.BINARY_INPUT_PROPERTY */
-		consumesBinary = "consumesBinary";
+		consumesBinary = "consumesBinary",
+		/** command consumes binary data as part of its input.
+		 *  this binary data is streamed to a temporary file, whose path is provided using the property name 
+		 *  specified in Command.BINARY_INPUT_FILE_PROPERTY. The file is deleted when the command context is disposed. */
+		consumesBinaryFile = "consumesBinaryFile";
 }
@@ -35,6 +35,9 @@ public abstract class Command<R extends CommandResult> implements Plugin {
 	/** this property name must always be used for binary input in base64 form */
 	public static final String BINARY_INPUT_PROPERTY = "base64";
 
+	/** this property name must always be used for the path of a spooled binary input file */
+	public static final String BINARY_INPUT_FILE_PROPERTY = "binaryInputFile";
+
 	/** this property name must always be used for binary output in base64 form */
 	public static final String BINARY_OUTPUT_PROPERTY = "base64";
 
@@ -25,12 +25,14 @@
 */
 package uk.ac.gla.cvr.gluetools.core.command;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.stream.Collectors;
 
 import javax.xml.xpath.XPath;
@@ -41,12 +43,14 @@ import org.w3c.dom.Element;
 
 import uk.ac.gla.cvr.gluetools.core.GluetoolsEngine;
 import uk.ac.gla.cvr.gluetools.core.command.CommandException.Code;
+import uk.ac.gla.cvr.gluetools.core.command.project.ProjectMode;
 import uk.ac.gla.cvr.gluetools.core.command.result.CommandResult;
 import uk.ac.gla.cvr.gluetools.core.command.root.RootCommandMode;
 import uk.ac.gla.cvr.gluetools.core.command.scripting.NashornContext;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
 import uk.ac.gla.cvr.gluetools.core.datamodel.projectSetting.ProjectSetting;
 import uk.ac.gla.cvr.gluetools.core.datamodel.projectSetting.ProjectSettingOption;
+import uk.ac.gla.cvr.gluetools.core.logging.GlueLogger;
 import uk.ac.gla.cvr.gluetools.core.session.Session;
 import uk.ac.gla.cvr.gluetools.core.session.SessionException;
 import uk.ac.gla.cvr.gluetools.core.session.SessionFactory;
@@ -66,6 +70,8 @@ public abstract class CommandContext {
 	private Map<SessionKey, Session> currentSessions = new LinkedHashMap<SessionKey, Session>();
 	private String runningDescription = "Initialising";
 	private boolean parallelWorker = false;
+	// temporary files, e.g. spooled binary input, to be deleted when this context is disposed.
+	private List<File> disposableFiles = new ArrayList<File>();
 	
 	
 	public CommandContext(GluetoolsEngine gluetoolsEngine, String description) {
@@ -249,6 +255,16 @@ public abstract class CommandContext {
 	}
 
 	public String getProjectSettingValue(ProjectSettingOption projectSettingOption) {
+		// settings are read from the cached snapshot of the project whose DB context is current.
+		CommandMode<?> dbContextMode = commandModeStack.stream()
+				.filter(mode -> mode instanceof DbContextChangingMode)
+				.findFirst().orElse(null);
+		if(dbContextMode instanceof ProjectMode) {
+			String projectName = ((ProjectMode) dbContextMode).getProject().getName();
+			String valueText = gluetoolsEngine.getProjectSettingsCache()
+					.getSettings(this, projectName).get(projectSettingOption.name());
+			return valueText == null ? projectSettingOption.getDefaultValue() : valueText;
+		}
 		ProjectSetting projectSetting = 
 				GlueDataObject.lookup(this, ProjectSetting.class, 
 						ProjectSetting.pkMap(projectSettingOption.name()), true);
@@ -320,6 +336,25 @@ public abstract class CommandContext {
 		while(peekCommandMode() != null && !(peekCommandMode() instanceof RootCommandMode)) {
 			popCommandMode();
 		}
+		deleteDisposableFiles();
+	}
+
+	public synchronized void addDisposableFile(File file) {
+		disposableFiles.add(file);
+	}
+
+	public synchronized boolean isDisposableFile(File file) {
+		File absoluteFile = file.getAbsoluteFile();
+		return disposableFiles.stream().anyMatch(disposableFile -> disposableFile.getAbsoluteFile().equals(absoluteFile));
+	}
+
+	public synchronized void deleteDisposableFiles() {
+		for(File file: disposableFiles) {
+			if(file.exists() && !file.delete()) {
+				GlueLogger.getGlueLogger().log(Level.WARNING, "Unable to delete temporary file "+file.getAbsolutePath());
+			}
+		}
+		disposableFiles.clear();
 	}
 
 	public NashornContext getNashornContext() {
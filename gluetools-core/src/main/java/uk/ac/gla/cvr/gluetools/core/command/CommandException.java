@@ -39,6 +39,7 @@ public class CommandException extends GlueException {
 		NOT_EXECUTABLE_IN_CONTEXT("commandWords", "contextDescription"), 
 		ARGUMENT_FORMAT_ERROR("argName", "errorText", "argValue"), 
 		COMMAND_BINARY_INPUT_IO_ERROR("commandWords", "errorText"), 
+		CLIENT_SUPPLIED_BINARY_INPUT_FILE("commandText"), 
 		UNKNOWN_MODE_PATH("commandModePath"),
 		COMMAND_RESULT_NOT_A_TABLE("cmdClass", "resultClass"),
 		INVALID_RESULT_FORMAT("invalidFormat"),
@@ -26,6 +26,8 @@
 package uk.ac.gla.cvr.gluetools.core.command.project;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -123,13 +125,11 @@ public class AlignmentComputationUtils {
 		
 		QueryMemberSupplier memberSupplier = new QueryMemberSupplier(alignmentName, false, Optional.ofNullable(whereClause));
 		
-		int numMembers = memberSupplier.countMembers(cmdContext);
-		int offset = 0;
 		int batchSize = 500;
-		while(offset < numMembers) {
-			List<AlignmentMember> almtMembers = memberSupplier.supplyMembers(cmdContext, offset, batchSize);
+		Iterator<List<AlignmentMember>> memberBatches = memberSupplier.supplyMemberBatches(cmdContext, batchSize, Collections.emptyList());
+		while(memberBatches.hasNext()) {
+			List<AlignmentMember> almtMembers = memberBatches.next();
 			almtMembers.forEach(memb -> memberPkMaps.add(memb.pkMap()));
-			offset += batchSize;
 			cmdContext.newObjectContext();
 		}
 		return memberPkMaps;
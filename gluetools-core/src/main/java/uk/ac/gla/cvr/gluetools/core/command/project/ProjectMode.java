@@ -32,7 +32,7 @@ import uk.ac.gla.cvr.gluetools.core.command.CommandMode;
 import uk.ac.gla.cvr.gluetools.core.command.DbContextChangingMode;
 import uk.ac.gla.cvr.gluetools.core.command.root.CommandModeClass;
 import uk.ac.gla.cvr.gluetools.core.command.root.ProjectCommand;
-import uk.ac.gla.cvr.gluetools.core.datamodel.builder.ModelBuilder;
+import uk.ac.gla.cvr.gluetools.core.datamodel.builder.ProjectRuntimeCache;
 import uk.ac.gla.cvr.gluetools.core.datamodel.project.Project;
 
 @CommandModeClass(commandFactoryClass = ProjectModeCommandFactory.class)
@@ -41,11 +41,13 @@ public class ProjectMode extends CommandMode<ProjectCommand> implements InsidePr
 	
 	private Project project;
 	private ServerRuntime newServerRuntime;
+	private ProjectRuntimeCache projectRuntimeCache;
 	
 	public ProjectMode(CommandContext cmdContext, ProjectCommand command, Project project) {
 		super(command, project.getName());
 		this.project = project;
-		setNewServerRuntime(ModelBuilder.createProjectModel(cmdContext.getGluetoolsEngine(), project));
+		this.projectRuntimeCache = cmdContext.getGluetoolsEngine().getProjectRuntimeCache();
+		setNewServerRuntime(projectRuntimeCache.acquire(project));
 	}
 	
 	public Project getProject() {
@@ -67,7 +69,7 @@ public class ProjectMode extends CommandMode<ProjectCommand> implements InsidePr
 
 	@Override
 	public void exit() {
-		newServerRuntime.shutdown();
+		projectRuntimeCache.release(newServerRuntime);
 	}
 	
 }
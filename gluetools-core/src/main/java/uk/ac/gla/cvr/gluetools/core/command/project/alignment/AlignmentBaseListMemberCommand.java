@@ -25,11 +25,14 @@
 */
 package uk.ac.gla.cvr.gluetools.core.command.project.alignment;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
 import org.apache.cayenne.exp.Expression;
 import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.query.PrefetchTreeNode;
 import org.apache.cayenne.query.SelectQuery;
 import org.w3c.dom.Element;
 
@@ -37,12 +40,14 @@ import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.project.AbstractListCTableCommand.AbstractListCTableDelegate;
 import uk.ac.gla.cvr.gluetools.core.command.result.CommandResult;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
+import uk.ac.gla.cvr.gluetools.core.datamodel.KeysetBatchIterator;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignment.Alignment;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignment.AlignmentException;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignment.AlignmentException.Code;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignmentMember.AlignmentMember;
 import uk.ac.gla.cvr.gluetools.core.datamodel.builder.ConfigurableTable;
 import uk.ac.gla.cvr.gluetools.core.datamodel.refSequence.ReferenceSequence;
+import uk.ac.gla.cvr.gluetools.core.datamodel.sequence.Sequence;
 import uk.ac.gla.cvr.gluetools.core.plugins.PluginConfigContext;
 import uk.ac.gla.cvr.gluetools.core.plugins.PluginUtils;
 
@@ -50,6 +55,14 @@ import uk.ac.gla.cvr.gluetools.core.plugins.PluginUtils;
 public abstract class AlignmentBaseListMemberCommand<R extends CommandResult> extends AlignmentModeCommand<R> {
 
 	public static final String RECURSIVE = "recursive";
+
+	// prefetch paths for batches of members whose aligned segments and sequence data will be used.
+	public static final List<String> MEMBER_SEGMENTS_PREFETCH = 
+			Arrays.asList(AlignmentMember.ALIGNED_SEGMENTS_PROPERTY);
+	public static final List<String> MEMBER_SEQUENCE_DATA_PREFETCH = 
+			Arrays.asList(AlignmentMember.SEQUENCE_PROPERTY, 
+					AlignmentMember.SEQUENCE_PROPERTY+"."+Sequence.SEQ_ORIG_DATA_PROPERTY, 
+					AlignmentMember.ALIGNED_SEGMENTS_PROPERTY);
 	
 	private AbstractListCTableDelegate listCTableDelegate = new AbstractListCTableDelegate();
 	
@@ -109,6 +122,14 @@ public abstract class AlignmentBaseListMemberCommand<R extends CommandResult> ex
 	public static List<AlignmentMember> listMembers(CommandContext cmdContext,
 			Alignment alignment, Boolean recursive, Optional<Expression> whereClause,
 			Integer offset, Integer fetchLimit, Integer pageSize) {
+		return listMembers(cmdContext, alignment, recursive, whereClause, offset, fetchLimit, pageSize, Collections.emptyList());
+	}
+
+	// related objects on the prefetch paths are loaded with a constant number of queries per batch, 
+	// rather than being faulted in one member at a time.
+	public static List<AlignmentMember> listMembers(CommandContext cmdContext,
+			Alignment alignment, Boolean recursive, Optional<Expression> whereClause,
+			Integer offset, Integer fetchLimit, Integer pageSize, List<String> prefetchPaths) {
 		checkListMemberOptions(alignment, recursive);
 		
 		Expression matchExpression = getMatchExpression(alignment, recursive, whereClause);
@@ -123,10 +144,27 @@ public abstract class AlignmentBaseListMemberCommand<R extends CommandResult> ex
 		if(pageSize != null) {
 			selectQuery.setPageSize(pageSize);
 		}
+		addPrefetches(selectQuery, prefetchPaths);
 		return GlueDataObject.query(cmdContext, AlignmentMember.class, selectQuery);
 	}
 
 
+	// iterate over the members in batches using keyset pagination, see KeysetBatchIterator.
+	public static KeysetBatchIterator<AlignmentMember> memberBatchIterator(CommandContext cmdContext,
+			Alignment alignment, Boolean recursive, Optional<Expression> whereClause, int batchSize, List<String> prefetchPaths) {
+		checkListMemberOptions(alignment, recursive);
+		Expression matchExpression = getMatchExpression(alignment, recursive, whereClause);
+		return new KeysetBatchIterator<AlignmentMember>(cmdContext, AlignmentMember.class, matchExpression, batchSize, prefetchPaths);
+	}
+
+	// disjoint-by-id prefetching fetches only the related objects of the members in the batch, 
+	// so it remains correct when the query has a fetch offset and limit.
+	public static void addPrefetches(SelectQuery selectQuery, List<String> prefetchPaths) {
+		for(String prefetchPath: prefetchPaths) {
+			selectQuery.addPrefetch(prefetchPath).setSemantics(PrefetchTreeNode.DISJOINT_BY_ID_PREFETCH_SEMANTICS);
+		}
+	}
+
 	public static Expression getMatchExpression(Alignment alignment, Boolean recursive, Optional<Expression> whereClause) {
 		Expression matchAlignmentOrDescendent = ExpressionFactory.matchExp(AlignmentMember.ALIGNMENT_NAME_PATH, alignment.getName());
 		if(recursive) {
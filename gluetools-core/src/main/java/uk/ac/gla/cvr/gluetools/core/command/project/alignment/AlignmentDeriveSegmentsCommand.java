@@ -49,6 +49,7 @@ import uk.ac.gla.cvr.gluetools.core.command.CompletionSuggestion;
 import uk.ac.gla.cvr.gluetools.core.command.console.ConsoleCommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.result.TableResult;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
+import uk.ac.gla.cvr.gluetools.core.datamodel.KeysetBatchIterator;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignedSegment.AlignedSegment;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignment.Alignment;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignmentMember.AlignmentMember;
@@ -301,15 +302,13 @@ public class AlignmentDeriveSegmentsCommand extends AlignmentModeCommand<Alignme
 		int numberToProcess = GlueDataObject.count(cmdContext, selectQuery);
 		int batchSize = 250;
 
-		selectQuery.setFetchLimit(batchSize);
-		selectQuery.setPageSize(batchSize);
+		KeysetBatchIterator<AlignmentMember> memberBatches = 
+				new KeysetBatchIterator<AlignmentMember>(cmdContext, AlignmentMember.class, selectQuery.getQualifier(), batchSize);
 		int offset = 0;
-		while(offset < numberToProcess) {
+		while(memberBatches.hasNext()) {
 			Alignment targetAlmtForCtx = GlueDataObject.lookup(cmdContext, Alignment.class, Alignment.pkMap(targetAlignmentName));
-			selectQuery.setFetchOffset(offset);
-			int lastBatchIndex = Math.min(offset+batchSize, numberToProcess);
-			GlueLogger.getGlueLogger().finest("Retrieving source alignment members "+(offset+1)+" to "+lastBatchIndex+" of "+numberToProcess);
-			List<AlignmentMember> selectedAlmtMembers = GlueDataObject.query(cmdContext, AlignmentMember.class, selectQuery);
+			List<AlignmentMember> selectedAlmtMembers = memberBatches.next();
+			int lastBatchIndex = offset+selectedAlmtMembers.size();
 			GlueLogger.getGlueLogger().finest("Processing source alignment members "+(offset+1)+" to "+lastBatchIndex+" of "+numberToProcess);
 
 			// each batch is processed in 2 commits.
@@ -334,7 +333,7 @@ public class AlignmentDeriveSegmentsCommand extends AlignmentModeCommand<Alignme
 					targetMemberPkMapToAlmtMember);
 			cmdContext.commit();
 			cmdContext.newObjectContext();
-			offset = offset+batchSize;
+			offset = lastBatchIndex;
 		} 	
 	}
 
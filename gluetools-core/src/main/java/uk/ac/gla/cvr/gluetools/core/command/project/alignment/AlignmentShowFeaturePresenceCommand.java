@@ -39,6 +39,7 @@ import uk.ac.gla.cvr.gluetools.core.command.CommandClass;
 import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.CompleterClass;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
+import uk.ac.gla.cvr.gluetools.core.datamodel.KeysetBatchIterator;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignment.Alignment;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignmentMember.AlignmentMember;
 import uk.ac.gla.cvr.gluetools.core.datamodel.featureLoc.FeatureLocation;
@@ -111,14 +112,11 @@ public class AlignmentShowFeaturePresenceCommand extends AlignmentModeCommand<Al
 		}
 		
 		int offset = 0;
-		selectQuery.setFetchLimit(BATCH_SIZE);
-		selectQuery.setPageSize(BATCH_SIZE);
-		while(offset < totalMembers) {
-			selectQuery.setFetchOffset(offset);
-			
-			int lastBatchIndex = Math.min(offset+BATCH_SIZE, totalMembers);
-			GlueLogger.getGlueLogger().finest("Retrieving members "+(offset+1)+" to "+lastBatchIndex+" of "+totalMembers);
-			List<AlignmentMember> almtMembers = GlueDataObject.query(cmdContext, AlignmentMember.class, selectQuery);
+		KeysetBatchIterator<AlignmentMember> memberBatches = 
+				new KeysetBatchIterator<AlignmentMember>(cmdContext, AlignmentMember.class, selectQuery.getQualifier(), BATCH_SIZE);
+		while(memberBatches.hasNext()) {
+			List<AlignmentMember> almtMembers = memberBatches.next();
+			int lastBatchIndex = offset+almtMembers.size();
 			GlueLogger.getGlueLogger().finest("Processing members "+(offset+1)+" to "+lastBatchIndex+" of "+totalMembers);
 			for(AlignmentMember almtMember: almtMembers) {
 				for(FeatureLocation scannedFeatureLoc: featureLocations) {
@@ -129,7 +127,7 @@ public class AlignmentShowFeaturePresenceCommand extends AlignmentModeCommand<Al
 					}
 				}
 			}
-			offset += BATCH_SIZE;
+			offset = lastBatchIndex;
 		}
 		return new AlignmentShowFeaturePresenceResult(new ArrayList<FeaturePresence>(fLocPkMapToMembFeatCvg.values()));
 	}
@@ -27,6 +27,7 @@ package uk.ac.gla.cvr.gluetools.core.command.project.alignment;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -84,25 +85,26 @@ public class AlignmentVariationFrequencyCmdDelegate {
 	// returns alignment name to list of VariationScanMemberCount
 	public Map<String, List<VariationScanMemberCount>> execute(String namedAlignmentName, boolean alignmentRecursive, CommandContext cmdContext) {
 		int totalMembers;
+		Iterator<List<AlignmentMember>> memberBatches;
 		{
 			Alignment namedAlignment = GlueDataObject.lookup(cmdContext, Alignment.class, Alignment.pkMap(namedAlignmentName));
 			totalMembers = countTotalMembers(cmdContext, namedAlignment);
+			memberBatches = AlignmentListMemberCommand.memberBatchIterator(cmdContext, namedAlignment, recursive, whereClause, 
+					BATCH_SIZE, AlignmentListMemberCommand.MEMBER_SEQUENCE_DATA_PREFETCH);
 		}
 
 		Map<String, Map<Map<String,String>, VariationInfo>> almtNameToVarPkMapToInfo = 
 				new LinkedHashMap<String, Map<Map<String,String>,VariationInfo>>();
 
 		int offset = 0;
-		while(offset < totalMembers) {
+		while(memberBatches.hasNext()) {
+			List<AlignmentMember> memberBatch = memberBatches.next();
 			Alignment namedAlignment = GlueDataObject.lookup(cmdContext, Alignment.class, Alignment.pkMap(namedAlignmentName));
-			int lastBatchIndex = Math.min(offset+BATCH_SIZE, totalMembers);
-			GlueLogger.getGlueLogger().log(Level.FINEST, "Retrieving members "+(offset+1)+" to "+lastBatchIndex+" of "+totalMembers);
-			List<AlignmentMember> memberBatch = AlignmentListMemberCommand
-					.listMembers(cmdContext, namedAlignment, recursive, whereClause, offset, BATCH_SIZE, BATCH_SIZE);
+			int lastBatchIndex = offset+memberBatch.size();
 			GlueLogger.getGlueLogger().log(Level.FINEST, "Processing members "+(offset+1)+" to "+lastBatchIndex+" of "+totalMembers);
 
 			processBatch(cmdContext, namedAlignment, alignmentRecursive, almtNameToVarPkMapToInfo, memberBatch);
-			offset = offset+BATCH_SIZE;
+			offset = lastBatchIndex;
 			cmdContext.commit();
 			cmdContext.newObjectContext();
 		}
@@ -44,6 +44,7 @@ import uk.ac.gla.cvr.gluetools.core.command.console.ConsoleCommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.project.alignment.member.MemberVariationScanCommand;
 import uk.ac.gla.cvr.gluetools.core.command.result.CommandResult;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
+import uk.ac.gla.cvr.gluetools.core.datamodel.KeysetBatchIterator;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignment.Alignment;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignmentMember.AlignmentMember;
 import uk.ac.gla.cvr.gluetools.core.datamodel.featureLoc.FeatureLocation;
@@ -164,9 +165,10 @@ public class AlignmentVariationMemberScanCommand extends AlignmentModeCommand<Co
 		
 		List<MemberVariationScanResult> membVsrList = new ArrayList<MemberVariationScanResult>();
 
-		while(offset < totalMembers) {
-			int lastBatchIndex = Math.min(offset+batchSize, totalMembers);
-
+		KeysetBatchIterator<AlignmentMember> memberBatches = AlignmentListMemberCommand.memberBatchIterator(cmdContext, 
+				GlueDataObject.lookup(cmdContext, Alignment.class, Alignment.pkMap(alignmentName), false), 
+				recursive, whereClause, batchSize, AlignmentListMemberCommand.MEMBER_SEQUENCE_DATA_PREFETCH);
+		while(memberBatches.hasNext()) {
 			Alignment alignment = GlueDataObject.lookup(cmdContext, Alignment.class, Alignment.pkMap(alignmentName), false);
 			ReferenceSequence relatedRef = alignment.getRelatedRef(cmdContext, relatedRefName);
 			FeatureLocation scannedFeatureLoc = 
@@ -174,8 +176,8 @@ public class AlignmentVariationMemberScanCommand extends AlignmentModeCommand<Co
 			Variation variation = 
 					GlueDataObject.lookup(cmdContext, Variation.class, Variation.pkMap(relatedRefName, featureName, variationName), false);
 
-			GlueLogger.getGlueLogger().finest("Retrieving members "+(offset+1)+" to "+lastBatchIndex+" of "+totalMembers);
-			List<AlignmentMember> almtMembers = AlignmentListMemberCommand.listMembers(cmdContext, alignment, recursive, whereClause, offset, batchSize, batchSize);
+			List<AlignmentMember> almtMembers = memberBatches.next();
+			int lastBatchIndex = offset+almtMembers.size();
 			GlueLogger.getGlueLogger().finest("Scanning variation for members "+(offset+1)+" to "+lastBatchIndex+" of "+totalMembers);
 
 			
@@ -186,7 +188,7 @@ public class AlignmentVariationMemberScanCommand extends AlignmentModeCommand<Co
 				variationScanResults.forEach(vsr -> membVsrList.add(new MemberVariationScanResult(almtMember, vsr)));
 			}
 			cmdContext.newObjectContext();
-			offset = offset+batchSize;
+			offset = lastBatchIndex;
 		}
 		GlueLogger.getGlueLogger().finest("Scanned variation for "+totalMembers+" members");
 		cmdContext.newObjectContext();
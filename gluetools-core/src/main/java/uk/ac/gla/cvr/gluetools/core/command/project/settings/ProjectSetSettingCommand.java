@@ -83,10 +83,12 @@ public class ProjectSetSettingCommand extends ProjectSettingCommand<OkResult> {
 			ProjectSetting newSetting = GlueDataObject.create(cmdContext, ProjectSetting.class, ProjectSetting.pkMap(projectSettingOption.name()), false);
 			newSetting.setValue(settingValue);
 			cmdContext.commit();
+			cmdContext.getGluetoolsEngine().getProjectSettingsCache().invalidate(getProjectMode(cmdContext).getProject().getName());
 			return new CreateResult(ProjectSetting.class, 1);
 		} else {
 			existingSetting.setValue(settingValue);
 			cmdContext.commit();
+			cmdContext.getGluetoolsEngine().getProjectSettingsCache().invalidate(getProjectMode(cmdContext).getProject().getName());
 			return new UpdateResult(ProjectSetting.class, 1);
 		}
 	}
@@ -51,6 +51,7 @@ public class ProjectUnsetSettingCommand extends ProjectSettingCommand<DeleteResu
 				GlueDataObject.delete(cmdContext, ProjectSetting.class, 
 						ProjectSetting.pkMap(getProjectSettingOption().name()), true);
 		cmdContext.commit();
+		cmdContext.getGluetoolsEngine().getProjectSettingsCache().invalidate(getProjectMode(cmdContext).getProject().getName());
 		return deleteResult;
 	}
 
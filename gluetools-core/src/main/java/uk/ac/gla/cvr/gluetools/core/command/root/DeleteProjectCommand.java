@@ -62,6 +62,8 @@ public class DeleteProjectCommand extends RootModeCommand<DeleteResult> {
 		ModelBuilder.deleteProjectModel(cmdContext.getGluetoolsEngine(), project);
 		DeleteResult result = GlueDataObject.delete(cmdContext, Project.class, Project.pkMap(projectName), true);
 		cmdContext.commit();
+		cmdContext.getGluetoolsEngine().getProjectRuntimeCache().invalidate(projectName);
+		cmdContext.getGluetoolsEngine().getProjectSettingsCache().invalidate(projectName);
 		return result;
 	}
 
@@ -72,6 +72,7 @@ public class CreateCustomTableCommand extends ProjectSchemaModeCommand<CreateRes
 		ModelBuilder.addCustomTableToModel(cmdContext.getGluetoolsEngine(), project, customTable);
 		customTable.setProject(project);
 		cmdContext.commit();
+		cmdContext.getGluetoolsEngine().getProjectRuntimeCache().invalidate(getProjectName());
 		return new CreateResult(CustomTable.class, 1);
 	}
 
@@ -116,6 +116,7 @@ public class CreateLinkCommand extends ProjectSchemaModeCommand<CreateResult> {
 		ModelBuilder.addLinkToModel(cmdContext.getGluetoolsEngine(), project, link);
 		link.setProject(project);
 		cmdContext.commit();
+		cmdContext.getGluetoolsEngine().getProjectRuntimeCache().invalidate(getProjectName());
 		return new CreateResult(Link.class, 1);
 	}
 
@@ -89,6 +89,7 @@ public class DeleteCustomTableCommand extends ProjectSchemaModeCommand<DeleteRes
 			ModelBuilder.deleteCustomTableFromModel(cmdContext.getGluetoolsEngine(), project, customTable);
 			GlueDataObject.delete(cmdContext, CustomTable.class, CustomTable.pkMap(projectName, tableName), false);
 			cmdContext.commit();
+			cmdContext.getGluetoolsEngine().getProjectRuntimeCache().invalidate(projectName);
 			return new DeleteResult(CustomTable.class, 1);
 		} else {
 			return new DeleteResult(CustomTable.class, 0);
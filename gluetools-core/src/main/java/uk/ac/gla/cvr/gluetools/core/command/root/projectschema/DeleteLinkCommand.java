@@ -73,6 +73,7 @@ public class DeleteLinkCommand extends ProjectSchemaModeCommand<DeleteResult> {
 		if(link != null) {
 			deleteLink(cmdContext, link);
 			cmdContext.commit();
+			cmdContext.getGluetoolsEngine().getProjectRuntimeCache().invalidate(getProjectName());
 			return new DeleteResult(Link.class, 1);
 		} else {
 			return new DeleteResult(Link.class, 0);
@@ -91,6 +91,7 @@ public class CreateFieldCommand extends TableModeCommand<CreateResult> {
 		ModelBuilder.addFieldToModel(cmdContext.getGluetoolsEngine(), project, field);
 		field.setProject(project);
 		cmdContext.commit();
+		cmdContext.getGluetoolsEngine().getProjectRuntimeCache().invalidate(getProjectName());
 		return new CreateResult(Field.class, 1);
 	}
 
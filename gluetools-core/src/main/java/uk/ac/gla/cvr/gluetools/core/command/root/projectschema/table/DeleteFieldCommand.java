@@ -73,6 +73,7 @@ public class DeleteFieldCommand extends TableModeCommand<DeleteResult> {
 			deleteField(cmdContext, field);
 			result = new DeleteResult(Field.class, 1);
 			cmdContext.commit();
+			cmdContext.getGluetoolsEngine().getProjectRuntimeCache().invalidate(getProjectName());
 		} else {
 			result = new DeleteResult(Field.class, 0);
 		}
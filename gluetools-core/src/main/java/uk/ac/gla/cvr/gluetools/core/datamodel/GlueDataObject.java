@@ -35,6 +35,8 @@ import org.apache.cayenne.CayenneDataObject;
 import org.apache.cayenne.CayenneException;
 import org.apache.cayenne.CayenneRuntimeException;
 import org.apache.cayenne.DeleteDenyException;
+import org.apache.cayenne.ObjectContext;
+import org.apache.cayenne.access.DataContext;
 import org.apache.cayenne.exp.Expression;
 import org.apache.cayenne.exp.ExpressionException;
 import org.apache.cayenne.exp.ExpressionFactory;
@@ -183,8 +185,46 @@ public abstract class GlueDataObject extends CayenneDataObject {
 	}
 
 	
+	// counts with SELECT COUNT(*) where possible, rather than fetching the matching rows.
 	@SuppressWarnings("rawtypes")
 	public static int count(CommandContext cmdContext, SelectQuery query) {
+		ObjectContext objectContext = cmdContext.getObjectContext();
+		if(!(objectContext instanceof DataContext) || query.getFetchLimit() > 0 || query.getFetchOffset() > 0) {
+			return countByFetching(cmdContext, query);
+		}
+		try {
+			long startTime = System.currentTimeMillis();
+			int count = SelectCountTranslator.count((DataContext) objectContext, query);
+			timeSpentInDbOperations += System.currentTimeMillis() - startTime;
+			return count;
+		} catch(Exception e) {
+			Expression qualifier = query.getQualifier();
+			Throwable cause = e;
+			while(qualifier != null && cause != null) {
+				if(cause instanceof ExpressionException) {
+					throw new DataModelException(Code.EXPRESSION_ERROR, qualifier.toString(), cause.getMessage());
+				}
+				String causeMessage = cause.getMessage();
+				if(causeMessage != null) {
+					int detailStart = causeMessage.indexOf("Can't resolve path component:");
+					if(detailStart >= 0) {
+						int detailEnd = causeMessage.indexOf("].", detailStart);
+						if(detailEnd >= 0) {
+							throw new DataModelException(Code.QUERY_ERROR, qualifier.toString(), causeMessage.substring(detailStart, detailEnd+1));
+						}
+					}
+				}
+				cause = cause.getCause() == cause ? null : cause.getCause();
+			}
+			if(e instanceof RuntimeException) {
+				throw (RuntimeException) e;
+			}
+			throw new CayenneRuntimeException(e);
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static int countByFetching(CommandContext cmdContext, SelectQuery query) {
 		try {
 			long startTime = System.currentTimeMillis();
 			List<?> queryResults = cmdContext.getObjectContext().performQuery(query);
@@ -0,0 +1,158 @@
+/**
+ *    GLUE: A flexible system for virus sequence data
+ *    Copyright (C) 2018 The University of Glasgow
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Affero General Public License as published
+ *    by the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Affero General Public License for more details.
+
+ *    You should have received a copy of the GNU Affero General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact details:
+ *    MRC-University of Glasgow Centre for Virus Research
+ *    Sir Michael Stoker Building, Garscube Campus, 464 Bearsden Road, 
+ *    Glasgow G61 1QH, United Kingdom
+ *    
+ *    Josh Singer: josh.singer@glasgow.ac.uk
+ *    Rob Gifford: robert.gifford@glasgow.ac.uk
+*/
+package uk.ac.gla.cvr.gluetools.core.datamodel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.cayenne.exp.Expression;
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.query.Ordering;
+import org.apache.cayenne.query.PrefetchTreeNode;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.query.SortOrder;
+
+import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
+
+/*
+ * Iterates over the objects matching a qualifier in batches, using keyset pagination.
+ * 
+ * Each batch is ordered by the primary key columns and resumes after the last key of the previous batch, 
+ * rather than using a fetch offset, so the cost of fetching a batch does not grow with its position, 
+ * and objects are neither skipped nor repeated if the order of unordered rows changes between batches.
+ * 
+ * Each batch is fetched in the current object context when hasNext() is called, so callers may commit
+ * or call cmdContext.newObjectContext() between batches.
+ *
+ * The resume condition is expanded to (k1 > v1) OR (k1 = v1 AND k2 > v2) OR ..., rather than a row value
+ * comparison, which older MySQL versions do not use as an index range. For alignment members within one
+ * alignment, a batch after the first is:
+ *   WHERE (alignment_name = ?) AND ((alignment_name > ?) OR (alignment_name = ? AND sequence_id > ?)
+ *     OR (alignment_name = ? AND sequence_id = ? AND source_name > ?)) ORDER BY alignment_name, sequence_id, source_name
+ * The key columns are taken in the order Cayenne's DbEntity lists them, which need not be the column order
+ * of the table's primary key index. This has not been checked with EXPLAIN or timed against a large table.
+ */
+public class KeysetBatchIterator<C extends GlueDataObject> implements Iterator<List<C>> {
+
+	private CommandContext cmdContext;
+	private Class<C> objClass;
+	private Expression qualifier;
+	private int batchSize;
+	private List<String> prefetchPaths;
+	
+	private List<String> pkColumnNames;
+	private List<Object> lastKeyValues = null;
+	private List<C> nextBatch = null;
+	private boolean exhausted = false;
+
+	public KeysetBatchIterator(CommandContext cmdContext, Class<C> objClass, Expression qualifier, int batchSize) {
+		this(cmdContext, objClass, qualifier, batchSize, Collections.emptyList());
+	}
+
+	// related objects on the prefetch paths are loaded for each batch with disjoint-by-id semantics.
+	public KeysetBatchIterator(CommandContext cmdContext, Class<C> objClass, Expression qualifier, int batchSize, 
+			List<String> prefetchPaths) {
+		super();
+		this.cmdContext = cmdContext;
+		this.objClass = objClass;
+		this.qualifier = qualifier;
+		this.batchSize = batchSize;
+		this.prefetchPaths = prefetchPaths;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if(nextBatch == null && !exhausted) {
+			nextBatch = fetchNextBatch();
+		}
+		return nextBatch != null && !nextBatch.isEmpty();
+	}
+
+	@Override
+	public List<C> next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		List<C> batch = nextBatch;
+		nextBatch = null;
+		return batch;
+	}
+
+	private List<C> fetchNextBatch() {
+		if(pkColumnNames == null) {
+			ObjEntity objEntity = cmdContext.getObjectContext().getEntityResolver().lookupObjEntity(objClass);
+			pkColumnNames = new ArrayList<String>();
+			for(DbAttribute pkAttribute: objEntity.getDbEntity().getPrimaryKeys()) {
+				pkColumnNames.add(pkAttribute.getName());
+			}
+		}
+		Expression batchQualifier = qualifier;
+		if(lastKeyValues != null) {
+			Expression afterLastKey = afterLastKeyExpression();
+			batchQualifier = batchQualifier == null ? afterLastKey : batchQualifier.andExp(afterLastKey);
+		}
+		SelectQuery selectQuery = new SelectQuery(objClass, batchQualifier);
+		for(String pkColumnName: pkColumnNames) {
+			selectQuery.addOrdering(new Ordering("db:"+pkColumnName, SortOrder.ASCENDING));
+		}
+		selectQuery.setFetchLimit(batchSize);
+		for(String prefetchPath: prefetchPaths) {
+			selectQuery.addPrefetch(prefetchPath).setSemantics(PrefetchTreeNode.DISJOINT_BY_ID_PREFETCH_SEMANTICS);
+		}
+		List<C> batch = GlueDataObject.query(cmdContext, objClass, selectQuery);
+		// a short batch does not mean the end of the data: when Cayenne suppresses DISTINCT (e.g. LOB columns plus 
+		// a to-many qualifier) the limit applies to joined rows, which are then de-duplicated in memory.
+		if(batch.isEmpty()) {
+			exhausted = true;
+		} else {
+			Map<String, Object> lastIdSnapshot = batch.get(batch.size()-1).getObjectId().getIdSnapshot();
+			lastKeyValues = new ArrayList<Object>();
+			for(String pkColumnName: pkColumnNames) {
+				lastKeyValues.add(lastIdSnapshot.get(pkColumnName));
+			}
+		}
+		return batch;
+	}
+
+	// (k1 > v1) or (k1 = v1 and k2 > v2) or ... 
+	private Expression afterLastKeyExpression() {
+		List<Expression> disjuncts = new ArrayList<Expression>();
+		for(int i = 0; i < pkColumnNames.size(); i++) {
+			Expression disjunct = ExpressionFactory.greaterDbExp(pkColumnNames.get(i), lastKeyValues.get(i));
+			for(int j = i-1; j >= 0; j--) {
+				disjunct = ExpressionFactory.matchDbExp(pkColumnNames.get(j), lastKeyValues.get(j)).andExp(disjunct);
+			}
+			disjuncts.add(disjunct);
+		}
+		return ExpressionFactory.joinExp(Expression.OR, disjuncts);
+	}
+}
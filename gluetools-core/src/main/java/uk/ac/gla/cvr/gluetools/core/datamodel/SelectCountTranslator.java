@@ -0,0 +1,104 @@
+/**
+ *    GLUE: A flexible system for virus sequence data
+ *    Copyright (C) 2018 The University of Glasgow
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Affero General Public License as published
+ *    by the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Affero General Public License for more details.
+
+ *    You should have received a copy of the GNU Affero General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact details:
+ *    MRC-University of Glasgow Centre for Virus Research
+ *    Sir Michael Stoker Building, Garscube Campus, 464 Bearsden Road, 
+ *    Glasgow G61 1QH, United Kingdom
+ *    
+ *    Josh Singer: josh.singer@glasgow.ac.uk
+ *    Rob Gifford: robert.gifford@glasgow.ac.uk
+*/
+package uk.ac.gla.cvr.gluetools.core.datamodel;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cayenne.CayenneRuntimeException;
+import org.apache.cayenne.access.DataContext;
+import org.apache.cayenne.access.DataNode;
+import org.apache.cayenne.access.jdbc.ColumnDescriptor;
+import org.apache.cayenne.access.trans.SelectTranslator;
+import org.apache.cayenne.map.DbAttribute;
+import org.apache.cayenne.map.DbEntity;
+import org.apache.cayenne.map.ObjEntity;
+import org.apache.cayenne.query.SelectQuery;
+
+/*
+ * Counts the objects a SelectQuery would return, using the FROM / WHERE clauses Cayenne generates for it
+ * but selecting COUNT(DISTINCT ...) over the root entity's primary key columns in place of the result columns.
+ * So the joins implied by the qualifier are the same as for the query itself, each object is counted once 
+ * even where the qualifier joins to-many relationships, and no rows are transferred or turned into objects.
+ * Counting distinct keys rather than wrapping the query also covers the case where Cayenne suppresses 
+ * DISTINCT because the entity has LOB columns.
+ */
+public class SelectCountTranslator extends SelectTranslator {
+
+	@Override
+	protected void appendSelectColumns(StringBuilder buffer, List<String> selectColumnExpList) {
+		// the first entries of selectColumnExpList are the result columns, in the same order.
+		DbEntity rootDbEntity = getRootDbEntity();
+		ColumnDescriptor[] resultColumns = getResultColumns();
+		List<String> pkColumnExps = new ArrayList<String>();
+		for(DbAttribute pkAttribute: rootDbEntity.getPrimaryKeys()) {
+			for(int i = 0; i < resultColumns.length; i++) {
+				ColumnDescriptor resultColumn = resultColumns[i];
+				if(rootDbEntity.getName().equals(resultColumn.getTableName()) && 
+						pkAttribute.getName().equals(resultColumn.getDataRowKey())) {
+					pkColumnExps.add(selectColumnExpList.get(i));
+					break;
+				}
+			}
+		}
+		if(pkColumnExps.size() != rootDbEntity.getPrimaryKeys().size()) {
+			throw new CayenneRuntimeException("Unable to find primary key columns of "+rootDbEntity.getName()+" in count query");
+		}
+		buffer.append("COUNT(DISTINCT ").append(String.join(", ", pkColumnExps)).append(")");
+	}
+
+	@SuppressWarnings("rawtypes")
+	public static int count(DataContext dataContext, SelectQuery query) throws Exception {
+		SelectQuery countQuery = new SelectQuery();
+		countQuery.setRoot(query.getRoot());
+		countQuery.setQualifier(query.getQualifier());
+		// the count is over distinct primary keys in any case.
+		countQuery.setDistinct(false);
+
+		ObjEntity objEntity = countQuery.getMetaData(dataContext.getEntityResolver()).getObjEntity();
+		if(objEntity == null) {
+			throw new CayenneRuntimeException("Unable to resolve query root "+query.getRoot());
+		}
+		DataNode dataNode = dataContext.getParentDataDomain().lookupDataNode(objEntity.getDataMap());
+		
+		try(Connection connection = dataNode.getDataSource().getConnection()) {
+			SelectCountTranslator translator = new SelectCountTranslator();
+			translator.setQuery(countQuery);
+			translator.setAdapter(dataNode.getAdapter());
+			translator.setEntityResolver(dataNode.getEntityResolver());
+			translator.setJdbcEventLogger(dataNode.getJdbcEventLogger());
+			translator.setConnection(connection);
+			try(PreparedStatement statement = translator.createStatement();
+					ResultSet resultSet = statement.executeQuery()) {
+				resultSet.next();
+				return resultSet.getInt(1);
+			}
+		}
+	}
+}
@@ -441,6 +441,54 @@ public class ModelBuilder {
 		return projectRuntime;
 	}
 
+	/**
+	 * Give a Project object the table metadata which createProjectModel sets on the Project it is passed, 
+	 * using a runtime previously created for the same project and the PK fields recorded at that point.
+	 * Returns false if the runtime is out of date, i.e. lacks a custom table of the project.
+	 */
+	public static boolean associateProjectWithRuntime(Project project, ServerRuntime projectRuntime, 
+			Map<String, List<PkField>> tableNameToPkFields) {
+		EntityResolver entityResolver = projectRuntime.getDataDomain().getEntityResolver();
+		List<CustomTable> customTables = project.getCustomTables();
+		for(CustomTable customTable: customTables) {
+			if(entityResolver.getObjEntity(customTable.getName()) == null || !tableNameToPkFields.containsKey(customTable.getName())) {
+				return false;
+			}
+		}
+		tableNameToPkFields.forEach((tableName, pkFields) -> project.setTablePkFields(tableName, pkFields));
+		for(ConfigurableTable cTable : ConfigurableTable.values()) {
+			project.setClassTableName(cTable.dataObjectClass, cTable.name());
+		}
+		for(CustomTable customTable: customTables) {
+			@SuppressWarnings("unchecked")
+			Class<? extends CustomTableObject> customTableRowClass =
+					(Class<? extends CustomTableObject>) entityResolver
+					.getClassDescriptor(customTable.getName()).getObjectClass();
+			customTable.setRowObjectClass(customTableRowClass);
+			project.setClassTableName(customTableRowClass, customTable.getName());
+		}
+		return true;
+	}
+
+	/**
+	 * A string which changes whenever the project's custom tables, fields or links change, so that a runtime
+	 * built for an earlier version of the schema is not reused.
+	 */
+	public static String projectSchemaFingerprint(Project project) {
+		List<String> items = new ArrayList<String>();
+		for(CustomTable customTable: project.getCustomTables()) {
+			items.add("table:"+customTable.getName()+":"+customTable.getIdFieldLength());
+		}
+		for(Field field: project.getFields()) {
+			items.add("field:"+field.getTable()+":"+field.getName()+":"+field.getType()+":"+field.getMaxLength());
+		}
+		for(Link link: project.getLinks()) {
+			items.add("link:"+link.getSrcTableName()+":"+link.getSrcLinkName()+":"+
+					link.getDestTableName()+":"+link.getDestLinkName()+":"+link.getMultiplicity());
+		}
+		return items.stream().sorted().collect(Collectors.joining("\n"));
+	}
+
 	private static void ensureProjectTablePkFields(Document cayenneMapDocument,
 			Project project) {
 		for(String tableName: project.getTableNames()) {
@@ -0,0 +1,156 @@
+/**
+ *    GLUE: A flexible system for virus sequence data
+ *    Copyright (C) 2018 The University of Glasgow
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Affero General Public License as published
+ *    by the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Affero General Public License for more details.
+
+ *    You should have received a copy of the GNU Affero General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact details:
+ *    MRC-University of Glasgow Centre for Virus Research
+ *    Sir Michael Stoker Building, Garscube Campus, 464 Bearsden Road, 
+ *    Glasgow G61 1QH, United Kingdom
+ *    
+ *    Josh Singer: josh.singer@glasgow.ac.uk
+ *    Rob Gifford: robert.gifford@glasgow.ac.uk
+*/
+package uk.ac.gla.cvr.gluetools.core.datamodel.builder;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cayenne.access.DataRowStore;
+import org.apache.cayenne.configuration.server.ServerRuntime;
+
+import uk.ac.gla.cvr.gluetools.core.GluetoolsEngine;
+import uk.ac.gla.cvr.gluetools.core.datamodel.project.PkField;
+import uk.ac.gla.cvr.gluetools.core.datamodel.project.Project;
+import uk.ac.gla.cvr.gluetools.core.logging.GlueLogger;
+
+/*
+ * Engine-wide cache of the Cayenne runtime for each project, so that entering project mode does not
+ * build a new model and connection pool every time.
+ * 
+ * Runtimes are reference counted by the project modes using them. Schema commands invalidate the project's 
+ * entry once their change is committed: the invalidated runtime is shut down when its last project mode exits, 
+ * and the next project mode builds a new one. Schema changes made by another GLUE engine are detected when a 
+ * project mode is entered, by comparing a fingerprint of the project's custom tables, fields and links with 
+ * the one the runtime was built for; project modes already open keep using the old runtime until they exit.
+ * 
+ * A reused runtime's shared snapshot cache is cleared when a project mode is entered, so that objects looked up 
+ * by ID or reached through relationships reflect data changed by another GLUE engine or console, as they did 
+ * when each project mode built its own runtime. Commits made through the runtime itself keep its cache current.
+ */
+public class ProjectRuntimeCache {
+
+	private GluetoolsEngine gluetoolsEngine;
+	private Map<String, RuntimeEntry> projectNameToEntry = new LinkedHashMap<String, RuntimeEntry>();
+	private Map<ServerRuntime, RuntimeEntry> runtimeToEntry = new IdentityHashMap<ServerRuntime, RuntimeEntry>();
+	
+	public ProjectRuntimeCache(GluetoolsEngine gluetoolsEngine) {
+		super();
+		this.gluetoolsEngine = gluetoolsEngine;
+	}
+
+	/**
+	 * Return the runtime for the project, building it if necessary. 
+	 * The caller must release the runtime when it has finished with it.
+	 */
+	public synchronized ServerRuntime acquire(Project project) {
+		String projectName = project.getName();
+		String schemaFingerprint = ModelBuilder.projectSchemaFingerprint(project);
+		RuntimeEntry entry = projectNameToEntry.get(projectName);
+		if(entry != null && 
+				(!entry.schemaFingerprint.equals(schemaFingerprint) || 
+				!ModelBuilder.associateProjectWithRuntime(project, entry.serverRuntime, entry.tableNameToPkFields))) {
+			// schema was changed without invalidation, e.g. by another GLUE instance.
+			retire(entry);
+			entry = null;
+		}
+		if(entry == null) {
+			ServerRuntime serverRuntime = ModelBuilder.createProjectModel(gluetoolsEngine, project);
+			entry = new RuntimeEntry(projectName, schemaFingerprint, serverRuntime);
+			for(String tableName: project.getTableNames()) {
+				entry.tableNameToPkFields.put(tableName, project.getTablePkFields(tableName));
+			}
+			projectNameToEntry.put(projectName, entry);
+			runtimeToEntry.put(serverRuntime, entry);
+			GlueLogger.getGlueLogger().finest("Created runtime for project "+projectName);
+		} else {
+			DataRowStore sharedSnapshotCache = entry.serverRuntime.getDataDomain().getSharedSnapshotCache();
+			if(sharedSnapshotCache != null) {
+				sharedSnapshotCache.clear();
+			}
+		}
+		entry.refCount++;
+		return entry.serverRuntime;
+	}
+
+	public synchronized void release(ServerRuntime serverRuntime) {
+		RuntimeEntry entry = runtimeToEntry.get(serverRuntime);
+		if(entry == null) {
+			serverRuntime.shutdown();
+			return;
+		}
+		entry.refCount--;
+		if(entry.retired && entry.refCount <= 0) {
+			shutdown(entry);
+		}
+	}
+
+	// called after a change to the project's schema has been committed.
+	public synchronized void invalidate(String projectName) {
+		RuntimeEntry entry = projectNameToEntry.get(projectName);
+		if(entry != null) {
+			retire(entry);
+			GlueLogger.getGlueLogger().finest("Invalidated runtime for project "+projectName);
+		}
+	}
+
+	public synchronized void dispose() {
+		for(RuntimeEntry entry: new ArrayList<RuntimeEntry>(runtimeToEntry.values())) {
+			shutdown(entry);
+		}
+		projectNameToEntry.clear();
+	}
+	
+	private void retire(RuntimeEntry entry) {
+		projectNameToEntry.remove(entry.projectName);
+		entry.retired = true;
+		if(entry.refCount <= 0) {
+			shutdown(entry);
+		}
+	}
+
+	private void shutdown(RuntimeEntry entry) {
+		runtimeToEntry.remove(entry.serverRuntime);
+		entry.serverRuntime.shutdown();
+	}
+
+	private static class RuntimeEntry {
+		private String projectName;
+		private String schemaFingerprint;
+		private ServerRuntime serverRuntime;
+		private Map<String, List<PkField>> tableNameToPkFields = new LinkedHashMap<String, List<PkField>>();
+		private int refCount = 0;
+		private boolean retired = false;
+
+		public RuntimeEntry(String projectName, String schemaFingerprint, ServerRuntime serverRuntime) {
+			this.projectName = projectName;
+			this.schemaFingerprint = schemaFingerprint;
+			this.serverRuntime = serverRuntime;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ *    GLUE: A flexible system for virus sequence data
+ *    Copyright (C) 2018 The University of Glasgow
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Affero General Public License as published
+ *    by the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Affero General Public License for more details.
+
+ *    You should have received a copy of the GNU Affero General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact details:
+ *    MRC-University of Glasgow Centre for Virus Research
+ *    Sir Michael Stoker Building, Garscube Campus, 464 Bearsden Road, 
+ *    Glasgow G61 1QH, United Kingdom
+ *    
+ *    Josh Singer: josh.singer@glasgow.ac.uk
+ *    Rob Gifford: robert.gifford@glasgow.ac.uk
+*/
+package uk.ac.gla.cvr.gluetools.core.datamodel.projectSetting;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.cayenne.query.SelectQuery;
+
+import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
+import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
+
+/*
+ * Engine-wide cache of an immutable snapshot of each project's settings, so that reading a setting 
+ * inside per-sequence loops is a map lookup rather than a query.
+ * 
+ * The set / unset setting commands invalidate the project's snapshot once their change is committed. 
+ * A snapshot loaded concurrently with an invalidation is not cached, as it may predate the change.
+ * 
+ * Only this engine's commands invalidate snapshots. Settings changed by another GLUE engine or console 
+ * sharing the same database are picked up when the snapshot expires, SNAPSHOT_TTL_MS after it was loaded.
+ */
+public class ProjectSettingsCache {
+
+	// bounds how long a change made outside this engine goes unseen.
+	public static final long SNAPSHOT_TTL_MS = 10000;
+	
+	private Map<String, SettingsSnapshot> projectNameToSnapshot = new ConcurrentHashMap<String, SettingsSnapshot>();
+	private long generation = 0;
+	
+	// setting name to value, for settings which have been set in the project.
+	public Map<String, String> getSettings(CommandContext cmdContext, String projectName) {
+		SettingsSnapshot snapshot = projectNameToSnapshot.get(projectName);
+		long now = System.currentTimeMillis();
+		if(snapshot == null || now - snapshot.loadedTime > SNAPSHOT_TTL_MS) {
+			long loadGeneration;
+			synchronized(this) {
+				loadGeneration = generation;
+			}
+			snapshot = new SettingsSnapshot(loadSettings(cmdContext), now);
+			synchronized(this) {
+				if(generation == loadGeneration) {
+					projectNameToSnapshot.put(projectName, snapshot);
+				}
+			}
+		}
+		return snapshot.settings;
+	}
+
+	public synchronized void invalidate(String projectName) {
+		generation++;
+		projectNameToSnapshot.remove(projectName);
+	}
+
+	@SuppressWarnings("rawtypes")
+	private Map<String, String> loadSettings(CommandContext cmdContext) {
+		Map<String, String> settings = new LinkedHashMap<String, String>();
+		GlueDataObject.query(cmdContext, ProjectSetting.class, new SelectQuery(ProjectSetting.class))
+			.forEach(projectSetting -> settings.put(projectSetting.getName(), projectSetting.getValue()));
+		return Collections.unmodifiableMap(settings);
+	}
+
+	private static class SettingsSnapshot {
+		private Map<String, String> settings;
+		private long loadedTime;
+
+		private SettingsSnapshot(Map<String, String> settings, long loadedTime) {
+			this.settings = settings;
+			this.loadedTime = loadedTime;
+		}
+	}
+}
@@ -48,6 +48,7 @@ import uk.ac.gla.cvr.gluetools.core.command.project.alignment.MemberFeatureCover
 import uk.ac.gla.cvr.gluetools.core.command.project.alignment.member.MemberCreateFLocNoteCommand;
 import uk.ac.gla.cvr.gluetools.core.command.project.module.ModulePluginCommand;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
+import uk.ac.gla.cvr.gluetools.core.datamodel.KeysetBatchIterator;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignment.Alignment;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignmentMember.AlignmentMember;
 import uk.ac.gla.cvr.gluetools.core.datamodel.builder.ConfigurableTable;
@@ -127,14 +128,15 @@ public class RecordFeaturePresenceCommand extends ModulePluginCommand<RecordFeat
 		int totalMembers = countTotalMembers(cmdContext);
 
 		int offset = 0;
-		while(offset < totalMembers) {
+		KeysetBatchIterator<AlignmentMember> memberBatches = AlignmentListMemberCommand.memberBatchIterator(cmdContext, 
+				GlueDataObject.lookup(cmdContext, Alignment.class, Alignment.pkMap(this.almtName)), 
+				recursive, whereClause, BATCH_SIZE, AlignmentListMemberCommand.MEMBER_SEGMENTS_PREFETCH);
+		while(memberBatches.hasNext()) {
 			Alignment namedAlignment = GlueDataObject.lookup(cmdContext, Alignment.class, Alignment.pkMap(this.almtName));
 			ReferenceSequence namedAlignmentRef = namedAlignment.getConstrainingRef();
 			
-			int lastBatchIndex = Math.min(offset+BATCH_SIZE, totalMembers);
-			GlueLogger.getGlueLogger().log(Level.FINEST, "Retrieving members "+(offset+1)+" to "+lastBatchIndex+" of "+totalMembers);
-			List<AlignmentMember> memberBatch = AlignmentListMemberCommand
-					.listMembers(cmdContext, namedAlignment, recursive, whereClause, offset, BATCH_SIZE, BATCH_SIZE);
+			List<AlignmentMember> memberBatch = memberBatches.next();
+			int lastBatchIndex = offset+memberBatch.size();
 			GlueLogger.getGlueLogger().log(Level.FINEST, "Processing members "+(offset+1)+" to "+lastBatchIndex+" of "+totalMembers);
 
 			Project project = ((InsideProjectMode) cmdContext.peekCommandMode()).getProject();
@@ -165,7 +167,7 @@ public class RecordFeaturePresenceCommand extends ModulePluginCommand<RecordFeat
 					}
 				}
 			}
-			offset = offset+BATCH_SIZE;
+			offset = lastBatchIndex;
 			cmdContext.commit();
 			cmdContext.newObjectContext();
 		}
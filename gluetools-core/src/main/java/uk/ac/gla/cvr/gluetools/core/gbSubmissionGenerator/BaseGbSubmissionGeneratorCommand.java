@@ -25,6 +25,7 @@ import uk.ac.gla.cvr.gluetools.core.command.console.ConsoleCommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.project.module.ModulePluginCommand;
 import uk.ac.gla.cvr.gluetools.core.command.result.CommandResult;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
+import uk.ac.gla.cvr.gluetools.core.datamodel.KeysetBatchIterator;
 import uk.ac.gla.cvr.gluetools.core.datamodel.sequence.Sequence;
 import uk.ac.gla.cvr.gluetools.core.datamodel.source.Source;
 import uk.ac.gla.cvr.gluetools.core.gbSubmissionGenerator.featureProvider.FeatureProvider;
@@ -122,7 +123,6 @@ public abstract class BaseGbSubmissionGeneratorCommand<C, SR, R extends CommandR
 		
 		int batchSize = 250;
 		int processed = 0;
-		int offset = 0;
 
 		LinkedHashSet<String> generatedIDs = new LinkedHashSet<String>();
 
@@ -137,12 +137,11 @@ public abstract class BaseGbSubmissionGeneratorCommand<C, SR, R extends CommandR
 			sourceInfoProviders.add(glueNoteProvider);
 		}
 
-		while(processed < totalNumSeqs) {
-			selectQuery.setFetchLimit(batchSize);
-			selectQuery.setPageSize(batchSize);
-			selectQuery.setFetchOffset(offset);
+		KeysetBatchIterator<Sequence> sequenceBatches = 
+				new KeysetBatchIterator<Sequence>(cmdContext, Sequence.class, selectQuery.getQualifier(), batchSize);
+		while(sequenceBatches.hasNext()) {
 			GlueLogger.getGlueLogger().finest("Retrieving sequences");
-			List<Sequence> sequences = GlueDataObject.query(cmdContext, Sequence.class, selectQuery);
+			List<Sequence> sequences = sequenceBatches.next();
 
 			
 			List<FeatureProvider> featureProviders = gbSubmisisonGenerator.getFeatureProviders();
@@ -217,7 +216,6 @@ public abstract class BaseGbSubmissionGeneratorCommand<C, SR, R extends CommandR
 			});
 			
 			
-			offset += batchSize;
 			processed += sequences.size();
 			GlueLogger.getGlueLogger().finest("Processed "+processed+" of "+totalNumSeqs+" sequences");
 			cmdContext.newObjectContext();
@@ -36,6 +36,7 @@ import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SamReader;
 import uk.ac.gla.cvr.gluetools.core.command.AdvancedCmdCompleter;
 import uk.ac.gla.cvr.gluetools.core.command.Command;
+import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.CommandMode;
 import uk.ac.gla.cvr.gluetools.core.command.CompletionSuggestion;
 import uk.ac.gla.cvr.gluetools.core.command.console.ConsoleCommandContext;
@@ -53,6 +54,8 @@ public abstract class BaseSamReporterCommand<R extends CommandResult> extends Mo
 	public static final String SAM_REF_NAME = "samRefName";
 
 	private String fileName;
+	// set by the web API to the file spooled from the uploaded SAM/BAM data, which is read in place of <fileName>.
+	private String binaryInputFile;
 	private String samRefName;
 	
 	
@@ -60,10 +63,14 @@ public abstract class BaseSamReporterCommand<R extends CommandResult> extends Mo
 	public void configure(PluginConfigContext pluginConfigContext, Element configElem) {
 		super.configure(pluginConfigContext, configElem);
 		this.fileName = PluginUtils.configureStringProperty(configElem, FILE_NAME, true);
+		this.binaryInputFile = PluginUtils.configureStringProperty(configElem, BINARY_INPUT_FILE_PROPERTY, false);
 		this.samRefName = PluginUtils.configureStringProperty(configElem, SAM_REF_NAME, false);
 	}
 
 	public String getFileName() {
+		if(binaryInputFile != null) {
+			return binaryInputFile;
+		}
 		return fileName;
 	}
 
@@ -96,11 +103,11 @@ public abstract class BaseSamReporterCommand<R extends CommandResult> extends Mo
 		}
 	}
 	
-	protected SamRefInfo getSamRefInfo(ConsoleCommandContext consoleCmdContext, SamReporter samReporter) {
+	protected SamRefInfo getSamRefInfo(CommandContext cmdContext, SamReporter samReporter) {
 		String samRefName;
 		int samRefLength;
 		int samRefIndex;
-		try(SamReader samReader = SamUtils.newSamReader(consoleCmdContext, getFileName(), 
+		try(SamReader samReader = SamUtils.newSamReader(cmdContext, getFileName(), 
 				samReporter.getSamReaderValidationStringency())) {
 			samRefName = SamUtils.findReference(samReader, getFileName(), getSuppliedSamRefName()).getSequenceName();
 	        SAMSequenceRecord samReference = samReader.getFileHeader().getSequenceDictionary().getSequence(samRefName);
@@ -125,12 +132,11 @@ public abstract class BaseSamReporterCommand<R extends CommandResult> extends Mo
 			if(!(commandMode instanceof ModuleMode)) {
 				return null;
 			}
-			ConsoleCommandContext consoleCmdContext = (ConsoleCommandContext) cmdContext;
 			try {
 				String moduleName = ((ModuleMode) commandMode).getModuleName();
 				Module module = GlueDataObject.lookup(cmdContext, Module.class, Module.pkMap(moduleName));
 				SamReporter samReporter = (SamReporter) module.getModulePlugin(cmdContext);
-				try(SamReader samReader = SamUtils.newSamReader(consoleCmdContext, samBamPath, 
+				try(SamReader samReader = SamUtils.newSamReader(cmdContext, samBamPath, 
 						samReporter.getSamReaderValidationStringency())) {
 		        	List<SAMSequenceRecord> samSequenceRecords = samReader.getFileHeader().getSequenceDictionary().getSequences();
 		        	return samSequenceRecords.stream()
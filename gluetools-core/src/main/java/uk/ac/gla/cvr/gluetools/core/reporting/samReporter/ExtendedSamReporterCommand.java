@@ -84,6 +84,10 @@ public abstract class ExtendedSamReporterCommand<R extends CommandResult> extend
 	protected Optional<Integer> getSuppliedMinMapQ() {
 		return minMapQ;
 	}
+
+	protected Optional<SamRefSense> getSuppliedSamRefSense() {
+		return samRefSense;
+	}
 	
 
 	public int getConsensusMinDepth(SamReporter samReporter) {
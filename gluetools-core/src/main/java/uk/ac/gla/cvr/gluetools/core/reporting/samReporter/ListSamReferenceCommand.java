@@ -37,7 +37,6 @@ import uk.ac.gla.cvr.gluetools.core.command.CmdMeta;
 import uk.ac.gla.cvr.gluetools.core.command.CommandClass;
 import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.CompleterClass;
-import uk.ac.gla.cvr.gluetools.core.command.console.ConsoleCommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.project.module.ModulePluginCommand;
 import uk.ac.gla.cvr.gluetools.core.plugins.PluginConfigContext;
 import uk.ac.gla.cvr.gluetools.core.plugins.PluginUtils;
@@ -49,24 +48,26 @@ import uk.ac.gla.cvr.gluetools.core.plugins.PluginUtils;
 		docoptOptions = { 
 						"-i <fileName>, --fileName <fileName>                    SAM/BAM input file",
 				},
-		metaTags = {CmdMeta.consoleOnly}	
+		metaTags = {CmdMeta.consumesBinaryFile}	
 )
 public class ListSamReferenceCommand extends ModulePluginCommand<ListSamReferenceResult, SamReporter> {
 
 	public static final String FILE_NAME = "fileName";
 	
 	private String fileName;
+	// set by the web API to the file spooled from the uploaded SAM/BAM data, which is read in place of <fileName>.
+	private String binaryInputFile;
 	
 	@Override
 	public void configure(PluginConfigContext pluginConfigContext, Element configElem) {
 		super.configure(pluginConfigContext, configElem);
 		this.fileName = PluginUtils.configureStringProperty(configElem, FILE_NAME, true);
+		this.binaryInputFile = PluginUtils.configureStringProperty(configElem, BINARY_INPUT_FILE_PROPERTY, false);
 	}
 	
 	@Override
 	protected ListSamReferenceResult execute(CommandContext cmdContext, SamReporter samReporter) {
-		ConsoleCommandContext consoleCmdContext = (ConsoleCommandContext) cmdContext;
-        try(SamReader samReader = SamUtils.newSamReader(consoleCmdContext, fileName, 
+        try(SamReader samReader = SamUtils.newSamReader(cmdContext, binaryInputFile != null ? binaryInputFile : fileName, 
 				samReporter.getSamReaderValidationStringency())) {
         	List<SAMSequenceRecord> samSequenceRecords = samReader.getFileHeader().getSequenceDictionary().getSequences();
         	return new ListSamReferenceResult(samSequenceRecords);
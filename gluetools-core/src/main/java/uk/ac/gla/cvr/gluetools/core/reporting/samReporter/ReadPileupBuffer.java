@@ -0,0 +1,59 @@
+package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
+
+/*
+ * Reusable scratch buffer holding the bases and quality scores contributed by a single read, 
+ * indexed by pileup column (related ref nucleotide minus the minimum related ref nucleotide).
+ * A base value of zero means no base was contributed at that column. 
+ * The touched columns are tracked so that the buffer can be cleared in time proportional to the read length.
+ */
+public class ReadPileupBuffer {
+
+	private byte[] bases;
+	private byte[] qScores;
+	private int[] touchedColumns;
+	private int numTouched = 0;
+	
+	public ReadPileupBuffer(int numColumns) {
+		super();
+		this.bases = new byte[numColumns];
+		this.qScores = new byte[numColumns];
+		this.touchedColumns = new int[numColumns];
+	}
+
+	public void record(int column, byte base, byte qScore) {
+		if(bases[column] == 0) {
+			touchedColumns[numTouched] = column;
+			numTouched++;
+		}
+		bases[column] = base;
+		qScores[column] = qScore;
+	}
+	
+	public byte getBase(int column) {
+		return bases[column];
+	}
+
+	public int getQScore(int column) {
+		return qScores[column];
+	}
+
+	public void consume(int column) {
+		bases[column] = 0;
+	}
+	
+	public int getNumTouched() {
+		return numTouched;
+	}
+
+	public int getTouchedColumn(int index) {
+		return touchedColumns[index];
+	}
+
+	public void clear() {
+		for(int i = 0; i < numTouched; i++) {
+			bases[touchedColumns[i]] = 0;
+		}
+		numTouched = 0;
+	}
+	
+}
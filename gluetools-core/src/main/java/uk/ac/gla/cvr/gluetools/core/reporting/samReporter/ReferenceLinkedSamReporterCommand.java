@@ -174,11 +174,11 @@ public abstract class ReferenceLinkedSamReporterCommand<R extends CommandResult>
 	
 	protected List<QueryAlignedSegment> getSamRefToTargetRefSegs(
 			CommandContext cmdContext, SamReporter samReporter, SamReporterPreprocessorSession samReporterPreprocessorSession, 
-			ConsoleCommandContext consoleCmdContext, ReferenceSequence targetRef) {
+			ReferenceSequence targetRef) {
 		List<QueryAlignedSegment> samRefToTargetRefSegs;
 		if(autoAlign || maxLikelihoodPlacer) {
 			samRefToTargetRefSegs = samReporterPreprocessorSession.getSamRefToTargetRefSegs(
-					consoleCmdContext, samReporter, this, targetRef.getName());
+					cmdContext, samReporter, this, targetRef.getName());
 		} else {
 			SamRefSense samRefSense = getSamRefSense(samReporter);
 			if(!samRefSense.equals(SamRefSense.FORWARD)) {
@@ -186,7 +186,7 @@ public abstract class ReferenceLinkedSamReporterCommand<R extends CommandResult>
 			}
 			
 			// sam ref is same sequence as target ref, so just a single self-mapping segment.
-			int targetRefLength = targetRef.getSequence().getSequenceObject().getNucleotides(consoleCmdContext).length();
+			int targetRefLength = targetRef.getSequence().getSequenceObject().getNucleotides(cmdContext).length();
 			samRefToTargetRefSegs = Arrays.asList(new QueryAlignedSegment(1, targetRefLength, 1, targetRefLength));
 		}
 		return samRefToTargetRefSegs;
@@ -204,6 +204,10 @@ public abstract class ReferenceLinkedSamReporterCommand<R extends CommandResult>
 		return maxLikelihoodPlacer;
 	}
 
+	protected boolean useAutoAlign() {
+		return autoAlign;
+	}
+
 	protected String getTargetRefName() {
 		return targetRefName;
 	}
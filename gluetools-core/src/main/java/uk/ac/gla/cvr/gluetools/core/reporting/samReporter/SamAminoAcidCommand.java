@@ -43,7 +43,6 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.procedure.TCharIntProcedure;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SamReader;
-import htsjdk.samtools.ValidationStringency;
 import uk.ac.gla.cvr.gluetools.core.codonNumbering.LabeledCodon;
 import uk.ac.gla.cvr.gluetools.core.codonNumbering.LabeledCodonReferenceSegment;
 import uk.ac.gla.cvr.gluetools.core.codonNumbering.LabeledQueryAminoAcid;
@@ -54,7 +53,6 @@ import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.CommandException;
 import uk.ac.gla.cvr.gluetools.core.command.CommandException.Code;
 import uk.ac.gla.cvr.gluetools.core.command.CompleterClass;
-import uk.ac.gla.cvr.gluetools.core.command.console.ConsoleCommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.project.module.ProvidedProjectModeCommand;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignment.Alignment;
@@ -125,10 +123,11 @@ import uk.ac.gla.cvr.gluetools.utils.StringUtils;
 			"(default value is derived from the module config).\n"+
 			"Amino acid values will only display in the result if the percentage of reads contributing that value is at least <minAAPct> (default 0).",
 
-		metaTags = {CmdMeta.consoleOnly}	
+		metaTags = {CmdMeta.consumesBinaryFile}	
 )
 public class SamAminoAcidCommand extends ReferenceLinkedSamReporterCommand<SamAminoAcidResult> 
-	implements ProvidedProjectModeCommand, SamPairedParallelProcessor<SamAminoAcidCommand.SamAminoAcidContext, TIntObjectMap<SamAminoAcidCommand.AminoAcidReadCount>> {
+	implements ProvidedProjectModeCommand, SamPairedParallelProcessor<SamAminoAcidCommand.SamAminoAcidContext, TIntObjectMap<SamAminoAcidCommand.AminoAcidReadCount>>, 
+	SamReportPlanner<SamAminoAcidResult> {
 
 
 	public static final String MIN_AA_PCT = "minAAPct";
@@ -148,171 +147,187 @@ public class SamAminoAcidCommand extends ReferenceLinkedSamReporterCommand<SamAm
 
 	@Override
 	protected SamAminoAcidResult execute(CommandContext cmdContext, SamReporter samReporter) {
-		ConsoleCommandContext consoleCmdContext = (ConsoleCommandContext) cmdContext;
-
-		SamRefInfo samRefInfo = getSamRefInfo(consoleCmdContext, samReporter);
-		ValidationStringency validationStringency = samReporter.getSamReaderValidationStringency();
-		String samFileName = getFileName();
-
-		try(SamReporterPreprocessorSession samReporterPreprocessorSession = SamReporterPreprocessor.getPreprocessorSession(consoleCmdContext, samFileName, samReporter)) {
-			ReferenceSequence targetRef;
-			if(useMaxLikelihoodPlacer()) {
-				targetRef = samReporterPreprocessorSession.getTargetRefBasedOnPlacer(consoleCmdContext, samReporter, this);
-			} else {
-				targetRef = GlueDataObject.lookup(cmdContext, ReferenceSequence.class, 
-						ReferenceSequence.pkMap(getTargetRefName()));
-			}
-			Alignment linkingAlmt = GlueDataObject.lookup(cmdContext, Alignment.class, 
-					Alignment.pkMap(getLinkingAlmtName()));
+		try(SamReporterPreprocessorSession samReporterPreprocessorSession = SamReporterPreprocessor.getPreprocessorSession(cmdContext, getFileName(), samReporter)) {
+			SamReportPlan<SamAminoAcidResult> samReportPlan = planReport(cmdContext, samReporter, samReporterPreprocessorSession);
+			SamMultiReportProcessor.runPasses(samReportPlan.getPasses(), cmdContext, samReporterPreprocessorSession, 
+					samReporter.getSamReaderValidationStringency());
+			return samReportPlan.formResult();
+		}
+	}
 
-			IAminoAcidAlignmentColumnsSelector columnsSelector = getAminoAcidAlignmentColumnsSelector(cmdContext);
-			columnsSelector.checkAminoAcidSelector(cmdContext);
-			ReferenceSequence relatedRef = linkingAlmt.getRelatedRef(cmdContext, columnsSelector.getRelatedRefName());
-			
-			List<QueryAlignedSegment> samRefToTargetRefSegs = getSamRefToTargetRefSegs(cmdContext, samReporter, samReporterPreprocessorSession, consoleCmdContext, targetRef);
+	@Override
+	public SamReportPlan<SamAminoAcidResult> planReport(CommandContext cmdContext, SamReporter samReporter, 
+			SamReporterPreprocessorSession samReporterPreprocessorSession) {
 
-			AlignmentMember linkingAlmtMember = targetRef.getLinkingAlignmentMembership(getLinkingAlmtName());
+		SamRefInfo samRefInfo = getSamRefInfo(cmdContext, samReporter);
+		SamReportPlan<SamAminoAcidResult> samReportPlan = new SamReportPlan<SamAminoAcidResult>();
 
-			// translate segments to linking alignment coords
-			List<QueryAlignedSegment> samRefToLinkingAlmtSegs = linkingAlmt.translateToAlmt(cmdContext, 
-					linkingAlmtMember.getSequence().getSource().getName(), linkingAlmtMember.getSequence().getSequenceID(), 
-					samRefToTargetRefSegs);
+		ReferenceSequence targetRef;
+		if(useMaxLikelihoodPlacer()) {
+			targetRef = samReporterPreprocessorSession.getTargetRefBasedOnPlacer(cmdContext, samReporter, this);
+		} else {
+			targetRef = GlueDataObject.lookup(cmdContext, ReferenceSequence.class, 
+					ReferenceSequence.pkMap(getTargetRefName()));
+		}
+		Alignment linkingAlmt = GlueDataObject.lookup(cmdContext, Alignment.class, 
+				Alignment.pkMap(getLinkingAlmtName()));
 
-			// translate segments to related reference
-			List<QueryAlignedSegment> samRefToRelatedRefSegsFull = linkingAlmt.translateToRelatedRef(cmdContext, samRefToLinkingAlmtSegs, relatedRef);
+		IAminoAcidAlignmentColumnsSelector columnsSelector = getAminoAcidAlignmentColumnsSelector(cmdContext);
+		columnsSelector.checkAminoAcidSelector(cmdContext);
+		ReferenceSequence relatedRef = linkingAlmt.getRelatedRef(cmdContext, columnsSelector.getRelatedRefName());
+		
+		List<QueryAlignedSegment> samRefToTargetRefSegs = getSamRefToTargetRefSegs(cmdContext, samReporter, samReporterPreprocessorSession, targetRef);
 
-			List<LabeledCodon> selectedLabeledCodons = columnsSelector.selectLabeledCodons(cmdContext);
-			
-			List<LabeledCodonReferenceSegment> labeledCodonReferenceSegments = new ArrayList<LabeledCodonReferenceSegment>();
-			for(LabeledCodon selectedLabeledCodon: selectedLabeledCodons) {
-				labeledCodonReferenceSegments.addAll(selectedLabeledCodon.getLcRefSegments());
-			}
+		AlignmentMember linkingAlmtMember = targetRef.getLinkingAlignmentMembership(getLinkingAlmtName());
 
-			// trim down to the feature area.
-			List<QueryAlignedSegment> samRefToRelatedRefSegsUnmerged = 
-					ReferenceSegment.intersection(samRefToRelatedRefSegsFull, labeledCodonReferenceSegments, ReferenceSegment.cloneLeftSegMerger());
+		// translate segments to linking alignment coords
+		List<QueryAlignedSegment> samRefToLinkingAlmtSegs = linkingAlmt.translateToAlmt(cmdContext, 
+				linkingAlmtMember.getSequence().getSource().getName(), linkingAlmtMember.getSequence().getSequenceID(), 
+				samRefToTargetRefSegs);
 
-			List<QueryAlignedSegment> samRefToRelatedRefSegs = QueryAlignedSegment.mergeAbutting(samRefToRelatedRefSegsUnmerged, 
-					QueryAlignedSegment.mergeAbuttingFunctionQueryAlignedSegment(), 
-					QueryAlignedSegment.abutsPredicateQueryAlignedSegment());
+		// translate segments to related reference
+		List<QueryAlignedSegment> samRefToRelatedRefSegsFull = linkingAlmt.translateToRelatedRef(cmdContext, samRefToLinkingAlmtSegs, relatedRef);
 
-			if(samRefToRelatedRefSegs.isEmpty()) {
-				return new SamAminoAcidResult(Collections.emptyList());
-			}
+		List<LabeledCodon> selectedLabeledCodons = columnsSelector.selectLabeledCodons(cmdContext);
+		
+		List<LabeledCodonReferenceSegment> labeledCodonReferenceSegments = new ArrayList<LabeledCodonReferenceSegment>();
+		for(LabeledCodon selectedLabeledCodon: selectedLabeledCodons) {
+			labeledCodonReferenceSegments.addAll(selectedLabeledCodon.getLcRefSegments());
+		}
 
-			SamRefSense samRefSense = getSamRefSense(samReporter);
+		// trim down to the feature area.
+		List<QueryAlignedSegment> samRefToRelatedRefSegsUnmerged = 
+				ReferenceSegment.intersection(samRefToRelatedRefSegsFull, labeledCodonReferenceSegments, ReferenceSegment.cloneLeftSegMerger());
 
-			TIntObjectMap<LabeledCodon> relatedRefNtToLabeledCodon = new TIntObjectHashMap<LabeledCodon>();
+		List<QueryAlignedSegment> samRefToRelatedRefSegs = QueryAlignedSegment.mergeAbutting(samRefToRelatedRefSegsUnmerged, 
+				QueryAlignedSegment.mergeAbuttingFunctionQueryAlignedSegment(), 
+				QueryAlignedSegment.abutsPredicateQueryAlignedSegment());
 
-			for(LabeledCodon labeledCodon: selectedLabeledCodons) {
-				relatedRefNtToLabeledCodon.put(labeledCodon.getNtStart(), labeledCodon);
-			}
+		if(samRefToRelatedRefSegs.isEmpty()) {
+			samReportPlan.setResultFormer(() -> new SamAminoAcidResult(Collections.emptyList()));
+			return samReportPlan;
+		}
 
-			
-			// build a map from related ref NT to AA read count.
-			TIntObjectHashMap<AminoAcidReadCount> relatedRefNtToAminoAcidReadCount = new TIntObjectHashMap<AminoAcidReadCount>();
-			List<Integer> mappedRelatedRefNts = new ArrayList<Integer>();
-			for(QueryAlignedSegment qaSeg: samRefToRelatedRefSegs) {
-				for(int relatedRefNt = qaSeg.getRefStart(); relatedRefNt <= qaSeg.getRefEnd(); relatedRefNt++) {
-					LabeledCodon labeledCodon = relatedRefNtToLabeledCodon.get(relatedRefNt);
-					if(labeledCodon != null) {
-						mappedRelatedRefNts.add(relatedRefNt);
-						int samRefNt = relatedRefNt + qaSeg.getReferenceToQueryOffset();
-						int resultSamRefNt = samRefNt;
-						if(samRefSense.equals(SamRefSense.REVERSE_COMPLEMENT)) {
-							// we want to report results in the SAM file's own coordinates.
-							resultSamRefNt = ReferenceSegment.reverseLocationSense(samRefInfo.getSamRefLength(), samRefNt);
-						}
-						relatedRefNtToAminoAcidReadCount.put(relatedRefNt, new AminoAcidReadCount(labeledCodon, resultSamRefNt));
+		SamRefSense samRefSense = getSamRefSense(samReporter);
+
+		TIntObjectMap<LabeledCodon> relatedRefNtToLabeledCodon = new TIntObjectHashMap<LabeledCodon>();
+
+		for(LabeledCodon labeledCodon: selectedLabeledCodons) {
+			relatedRefNtToLabeledCodon.put(labeledCodon.getNtStart(), labeledCodon);
+		}
+
+		
+		// build a map from related ref NT to AA read count.
+		TIntObjectHashMap<AminoAcidReadCount> relatedRefNtToAminoAcidReadCount = new TIntObjectHashMap<AminoAcidReadCount>();
+		List<Integer> mappedRelatedRefNts = new ArrayList<Integer>();
+		for(QueryAlignedSegment qaSeg: samRefToRelatedRefSegs) {
+			for(int relatedRefNt = qaSeg.getRefStart(); relatedRefNt <= qaSeg.getRefEnd(); relatedRefNt++) {
+				LabeledCodon labeledCodon = relatedRefNtToLabeledCodon.get(relatedRefNt);
+				if(labeledCodon != null) {
+					mappedRelatedRefNts.add(relatedRefNt);
+					int samRefNt = relatedRefNt + qaSeg.getReferenceToQueryOffset();
+					int resultSamRefNt = samRefNt;
+					if(samRefSense.equals(SamRefSense.REVERSE_COMPLEMENT)) {
+						// we want to report results in the SAM file's own coordinates.
+						resultSamRefNt = ReferenceSegment.reverseLocationSense(samRefInfo.getSamRefLength(), samRefNt);
 					}
+					relatedRefNtToAminoAcidReadCount.put(relatedRefNt, new AminoAcidReadCount(labeledCodon, resultSamRefNt));
 				}
 			}
+		}
 
-			// translate reads.
-			final Translator translator = new CommandContextTranslator(cmdContext);
-
-			Supplier<SamAminoAcidContext> contextSupplier = () -> {
-				SamAminoAcidContext context = new SamAminoAcidContext();
-				context.samReporter = samReporter;
-				context.cmdContext = cmdContext;
-				context.translator = translator;
-				context.samRefInfo = samRefInfo;
-				context.samRefSense = samRefSense;
-				context.featureLocRefSegs = new ArrayList<FeatureLocRefSegs>();
-				synchronized(selectedLabeledCodons) {
-					Map<String, FeatureLocRefSegs> featureNameToFlrs = new LinkedHashMap<String, FeatureLocRefSegs>();
-					for(LabeledCodon lc: selectedLabeledCodons) {
-						String featureName = lc.getFeatureName();
-						FeatureLocRefSegs flrs = featureNameToFlrs.get(featureName);
-						if(flrs == null) {
-							flrs = new FeatureLocRefSegs();
-							flrs.featureLoc = GlueDataObject.lookup(cmdContext, FeatureLocation.class, 
-									FeatureLocation.pkMap(columnsSelector.getRelatedRefName(), featureName));
-							flrs.refSegs = new ArrayList<ReferenceSegment>();
-							featureNameToFlrs.put(featureName, flrs);
-						}
-						List<LabeledCodonReferenceSegment> lcRefSegs = lc.getLcRefSegments();
-						List<ReferenceSegment> overlaps = ReferenceSegment.intersection(flrs.refSegs, lcRefSegs, ReferenceSegment.cloneLeftSegMerger());
-						List<LabeledCodonReferenceSegment> newBits = ReferenceSegment.subtract(lcRefSegs, overlaps);
-						flrs.refSegs.addAll(newBits);
-						ReferenceSegment.sortByRefStart(flrs.refSegs);
+		// translate reads.
+		final Translator translator = new CommandContextTranslator(cmdContext);
+
+		SamRefToRelatedRefLookup samRefToRelatedRefLookup = 
+				samReporterPreprocessorSession.getSamRefToRelatedRefLookup(samRefInfo.getSamRefLength(), samRefToRelatedRefSegs);
+		SamRefRegionIndex samRefRegionIndex = 
+				samReporterPreprocessorSession.getSamRefRegionIndex(samRefInfo.getSamRefLength(), samRefSense, samRefToRelatedRefLookup);
+
+		Supplier<SamAminoAcidContext> contextSupplier = () -> {
+			SamAminoAcidContext context = new SamAminoAcidContext();
+			context.samReporter = samReporter;
+			context.cmdContext = cmdContext;
+			context.translator = translator;
+			context.samRefInfo = samRefInfo;
+			context.samRefSense = samRefSense;
+			context.featureLocRefSegs = new ArrayList<FeatureLocRefSegs>();
+			synchronized(selectedLabeledCodons) {
+				Map<String, FeatureLocRefSegs> featureNameToFlrs = new LinkedHashMap<String, FeatureLocRefSegs>();
+				for(LabeledCodon lc: selectedLabeledCodons) {
+					String featureName = lc.getFeatureName();
+					FeatureLocRefSegs flrs = featureNameToFlrs.get(featureName);
+					if(flrs == null) {
+						flrs = new FeatureLocRefSegs();
+						flrs.featureLoc = GlueDataObject.lookup(cmdContext, FeatureLocation.class, 
+								FeatureLocation.pkMap(columnsSelector.getRelatedRefName(), featureName));
+						flrs.refSegs = new ArrayList<ReferenceSegment>();
+						featureNameToFlrs.put(featureName, flrs);
 					}
-					context.featureLocRefSegs = new ArrayList<FeatureLocRefSegs>(featureNameToFlrs.values());
-					context.featureLocRefSegs.forEach(flrs -> 
-						{ 
-							flrs.refSegs = ReferenceSegment.mergeAbutting(flrs.refSegs, 
-									ReferenceSegment.mergeAbuttingFunctionReferenceSegment(),
-									ReferenceSegment.abutsPredicateReferenceSegment()); 
-						} );
+					List<LabeledCodonReferenceSegment> lcRefSegs = lc.getLcRefSegments();
+					List<ReferenceSegment> overlaps = ReferenceSegment.intersection(flrs.refSegs, lcRefSegs, ReferenceSegment.cloneLeftSegMerger());
+					List<LabeledCodonReferenceSegment> newBits = ReferenceSegment.subtract(lcRefSegs, overlaps);
+					flrs.refSegs.addAll(newBits);
+					ReferenceSegment.sortByRefStart(flrs.refSegs);
 				}
-				// clone these segments
-				synchronized(samRefToRelatedRefSegs) {
-					context.samRefToRelatedRefSegs = QueryAlignedSegment.cloneList(samRefToRelatedRefSegs);
-				}
-				// clone the table
-				synchronized(relatedRefNtToAminoAcidReadCount) {
-					context.relatedRefNtToAminoAcidReadCount = new TIntObjectHashMap<AminoAcidReadCount>();
-					for(int key: relatedRefNtToAminoAcidReadCount.keys()) {
-						AminoAcidReadCount aaReadCount = relatedRefNtToAminoAcidReadCount.get(key);
-						context.relatedRefNtToAminoAcidReadCount.put(key, new AminoAcidReadCount(aaReadCount.labeledCodon, aaReadCount.samRefNt));
-					}
+				context.featureLocRefSegs = new ArrayList<FeatureLocRefSegs>(featureNameToFlrs.values());
+				context.featureLocRefSegs.forEach(flrs -> 
+					{ 
+						flrs.refSegs = ReferenceSegment.mergeAbutting(flrs.refSegs, 
+								ReferenceSegment.mergeAbuttingFunctionReferenceSegment(),
+								ReferenceSegment.abutsPredicateReferenceSegment()); 
+					} );
+			}
+			// immutable, shared across workers
+			context.samRefToRelatedRefLookup = samRefToRelatedRefLookup;
+			context.samRefRegionIndex = samRefRegionIndex;
+			// clone the table
+			synchronized(relatedRefNtToAminoAcidReadCount) {
+				context.relatedRefNtToAminoAcidReadCount = new TIntObjectHashMap<AminoAcidReadCount>();
+				for(int key: relatedRefNtToAminoAcidReadCount.keys()) {
+					AminoAcidReadCount aaReadCount = relatedRefNtToAminoAcidReadCount.get(key);
+					context.relatedRefNtToAminoAcidReadCount.put(key, new AminoAcidReadCount(aaReadCount.labeledCodon, aaReadCount.samRefNt));
 				}
-				return context;
-			};
-			TIntObjectMap<AminoAcidReadCount> mergedResult = SamUtils.pairedParallelSamIterate(contextSupplier, consoleCmdContext, samReporterPreprocessorSession, 
-					validationStringency, this);
+			}
+			return context;
+		};
+		SamReportPass<SamAminoAcidContext, TIntObjectMap<AminoAcidReadCount>> samReportPass = 
+				samReportPlan.addPass(contextSupplier, this, samRefRegionIndex.toSamRefRegion(samRefInfo.getSamRefName()));
+		samReportPlan.setResultFormer(() -> formResult(samReporter, mappedRelatedRefNts, samReportPass.getMergedResult()));
+		return samReportPlan;
+	}
 
+	private SamAminoAcidResult formResult(SamReporter samReporter, List<Integer> mappedRelatedRefNts, 
+			TIntObjectMap<AminoAcidReadCount> mergedResult) {
 
-			final List<LabeledAminoAcidReadCount> rowData = new ArrayList<LabeledAminoAcidReadCount>();
+		final List<LabeledAminoAcidReadCount> rowData = new ArrayList<LabeledAminoAcidReadCount>();
 
-			for(Integer relatedRefNt: mappedRelatedRefNts) {
-				AminoAcidReadCount aminoAcidReadCount = mergedResult.get(relatedRefNt);
-				if(aminoAcidReadCount.totalReadsAtCodon <= getMinDepth(samReporter)) {
-					continue;
-				}
-				aminoAcidReadCount.aaToReadCount.forEachEntry(new TCharIntProcedure() {
-					@Override
-					public boolean execute(char aminoAcid, int numReads) {
-						double percentReadsWithAminoAcid = 100.0 * numReads / (double) aminoAcidReadCount.totalReadsAtCodon;
-						rowData.add(new LabeledAminoAcidReadCount(
-								aminoAcidReadCount.labeledCodon, 
-								new String(new char[]{aminoAcid}),
-								aminoAcidReadCount.samRefNt, 
-								numReads,
-								aminoAcidReadCount.totalReadsAtCodon - numReads,
-								percentReadsWithAminoAcid));
-						return true;
-					}
-				});
+		for(Integer relatedRefNt: mappedRelatedRefNts) {
+			AminoAcidReadCount aminoAcidReadCount = mergedResult.get(relatedRefNt);
+			if(aminoAcidReadCount.totalReadsAtCodon <= getMinDepth(samReporter)) {
+				continue;
 			}
+			aminoAcidReadCount.aaToReadCount.forEachEntry(new TCharIntProcedure() {
+				@Override
+				public boolean execute(char aminoAcid, int numReads) {
+					double percentReadsWithAminoAcid = 100.0 * numReads / (double) aminoAcidReadCount.totalReadsAtCodon;
+					rowData.add(new LabeledAminoAcidReadCount(
+							aminoAcidReadCount.labeledCodon, 
+							new String(new char[]{aminoAcid}),
+							aminoAcidReadCount.samRefNt, 
+							numReads,
+							aminoAcidReadCount.totalReadsAtCodon - numReads,
+							percentReadsWithAminoAcid));
+					return true;
+				}
+			});
+		}
 
-			List<LabeledAminoAcidReadCount> rowDataFiltered = rowData.stream()
-					.filter(row -> row.getPercentReadsWithAminoAcid() >= minAAPct)
-					.collect(Collectors.toList());
+		List<LabeledAminoAcidReadCount> rowDataFiltered = rowData.stream()
+				.filter(row -> row.getPercentReadsWithAminoAcid() >= minAAPct)
+				.collect(Collectors.toList());
 
-			return new SamAminoAcidResult(rowDataFiltered);
-		}
-	 
+		return new SamAminoAcidResult(rowDataFiltered);
 	}
 
 
@@ -328,7 +343,7 @@ public class SamAminoAcidCommand extends ReferenceLinkedSamReporterCommand<SamAm
 			readString = FastaUtils.reverseComplement(readString);
 			qualityString = StringUtils.reverseString(qualityString);
 		}
-		List<QueryAlignedSegment> readToRelatedRefSegs = QueryAlignedSegment.translateSegments(readToSamRefSegs, context.samRefToRelatedRefSegs);
+		List<QueryAlignedSegment> readToRelatedRefSegs = context.samRefToRelatedRefLookup.translateReadSegments(readToSamRefSegs);
 		
 		List<LabeledQueryAminoAcid> labeledReadAas = new ArrayList<LabeledQueryAminoAcid>(); 
 				
@@ -399,11 +414,17 @@ public class SamAminoAcidCommand extends ReferenceLinkedSamReporterCommand<SamAm
 
 	
 
+	// reads outside the selected region are rejected before they are translated.
+	private boolean readIsRelevant(SamAminoAcidContext context, SAMRecord read) {
+		return context.samRecordFilter.recordPasses(read) && 
+				context.samRefRegionIndex.overlapsSelected(read.getAlignmentStart(), read.getAlignmentEnd());
+	}
+
 	@Override
 	public void processPair(SamAminoAcidContext context, SAMRecord read1, SAMRecord read2) {
-		if(!context.samRecordFilter.recordPasses(read1)) {
+		if(!readIsRelevant(context, read1)) {
 			processSingleton(context, read2);
-		} else if(!context.samRecordFilter.recordPasses(read2)) {
+		} else if(!readIsRelevant(context, read2)) {
 			processSingleton(context, read1);
 		} else {
 			TIntObjectMap<AminoAcidWithQuality> read1TranslationWithQuals = translateReadWithQualityScores(context, read1);
@@ -446,7 +467,7 @@ public class SamAminoAcidCommand extends ReferenceLinkedSamReporterCommand<SamAm
 
 	@Override
 	public void processSingleton(SamAminoAcidContext context, SAMRecord read) {
-		if(context.samRecordFilter.recordPasses(read)) {
+		if(readIsRelevant(context, read)) {
 			TIntObjectMap<AminoAcidWithQuality> readTranslationWithQuals = translateReadWithQualityScores(context, read);
 			for(int relatedRefNt : readTranslationWithQuals.keys()) {
 				AminoAcidReadCount aminoAcidReadCount = context.relatedRefNtToAminoAcidReadCount.get(relatedRefNt);
@@ -460,7 +481,8 @@ public class SamAminoAcidCommand extends ReferenceLinkedSamReporterCommand<SamAm
 		CommandContext cmdContext;
 		SamReporter samReporter;
 		SamRefInfo samRefInfo;
-		List<QueryAlignedSegment> samRefToRelatedRefSegs;
+		SamRefToRelatedRefLookup samRefToRelatedRefLookup;
+		SamRefRegionIndex samRefRegionIndex;
 		SamRefSense samRefSense;
 		TIntObjectMap<AminoAcidReadCount> relatedRefNtToAminoAcidReadCount;
 		Translator translator;
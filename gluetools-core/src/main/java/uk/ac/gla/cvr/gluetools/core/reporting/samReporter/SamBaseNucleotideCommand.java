@@ -30,8 +30,8 @@ import java.util.List;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-import gnu.trove.map.TIntObjectMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.ValidationStringency;
@@ -40,7 +40,6 @@ import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.CommandException;
 import uk.ac.gla.cvr.gluetools.core.command.CommandException.Code;
 import uk.ac.gla.cvr.gluetools.core.command.CompleterClass;
-import uk.ac.gla.cvr.gluetools.core.command.console.ConsoleCommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.project.module.ProvidedProjectModeCommand;
 import uk.ac.gla.cvr.gluetools.core.command.result.CommandResult;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
@@ -52,190 +51,237 @@ import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporter.SamRefSens
 import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporterPreprocessor.SamReporterPreprocessorSession;
 import uk.ac.gla.cvr.gluetools.core.segments.QueryAlignedSegment;
 import uk.ac.gla.cvr.gluetools.core.segments.ReferenceSegment;
-import uk.ac.gla.cvr.gluetools.core.segments.SegmentUtils;
-import uk.ac.gla.cvr.gluetools.utils.FastaUtils;
-import uk.ac.gla.cvr.gluetools.utils.StringUtils;
+import uk.ac.gla.cvr.gluetools.core.translation.ResidueUtils;
 
 public abstract class SamBaseNucleotideCommand<R extends CommandResult, C extends SamBaseNucleotideCommandContext, IR extends SamBaseNucleotideCommandInterimResult> extends ReferenceLinkedSamReporterCommand<R> 
 	implements ProvidedProjectModeCommand, 
-	SamPairedParallelProcessor<C, IR>{
+	SamPairedParallelProcessor<C, IR>, SamReportPlanner<R> {
 
 
 	@Override
 	protected final R execute(CommandContext cmdContext, SamReporter samReporter) {
-		ConsoleCommandContext consoleCmdContext = (ConsoleCommandContext) cmdContext;
+		try(SamReporterPreprocessorSession samReporterPreprocessorSession = SamReporterPreprocessor.getPreprocessorSession(cmdContext, getFileName(), samReporter)) {
+			SamReportPlan<R> samReportPlan = planReport(cmdContext, samReporter, samReporterPreprocessorSession);
+			SamMultiReportProcessor.runPasses(samReportPlan.getPasses(), cmdContext, samReporterPreprocessorSession, 
+					samReporter.getSamReaderValidationStringency());
+			return samReportPlan.formResult();
+		}
+	}
+
+	@Override
+	public final SamReportPlan<R> planReport(CommandContext cmdContext, SamReporter samReporter, 
+			SamReporterPreprocessorSession samReporterPreprocessorSession) {
 
-		SamRefInfo samRefInfo = getSamRefInfo(consoleCmdContext, samReporter);
+		SamRefInfo samRefInfo = getSamRefInfo(cmdContext, samReporter);
 		ValidationStringency validationStringency = samReporter.getSamReaderValidationStringency();
 		String samFileName = getFileName();
 
-		try(SamReporterPreprocessorSession samReporterPreprocessorSession = SamReporterPreprocessor.getPreprocessorSession(consoleCmdContext, samFileName, samReporter)) {
-			ReferenceSequence targetRef;
-			if(useMaxLikelihoodPlacer()) {
-				targetRef = samReporterPreprocessorSession.getTargetRefBasedOnPlacer(consoleCmdContext, samReporter, this);
-			} else {
-				targetRef = GlueDataObject.lookup(cmdContext, ReferenceSequence.class, 
-						ReferenceSequence.pkMap(getTargetRefName()));
-			}
+		ReferenceSequence targetRef;
+		if(useMaxLikelihoodPlacer()) {
+			targetRef = samReporterPreprocessorSession.getTargetRefBasedOnPlacer(cmdContext, samReporter, this);
+		} else {
+			targetRef = GlueDataObject.lookup(cmdContext, ReferenceSequence.class, 
+					ReferenceSequence.pkMap(getTargetRefName()));
+		}
 
-			Alignment linkingAlmt = GlueDataObject.lookup(cmdContext, Alignment.class, 
-					Alignment.pkMap(getLinkingAlmtName()));
-			
-			IAlignmentColumnsSelector almtColsSelector = getNucleotideAlignmentColumnsSelector(cmdContext);
-			if(almtColsSelector == null) {
-				throw new CommandException(Code.COMMAND_FAILED_ERROR, "Unable to resolve alignment columns selector");
-			}
-			String relatedRefName = almtColsSelector.getRelatedRefName();
-			if(relatedRefName == null) {
-				throw new CommandException(Code.COMMAND_FAILED_ERROR, "Unable to use columns selector without related ref");
-			}
-			ReferenceSequence relatedRef = linkingAlmt.getRelatedRef(cmdContext, relatedRefName);
+		Alignment linkingAlmt = GlueDataObject.lookup(cmdContext, Alignment.class, 
+				Alignment.pkMap(getLinkingAlmtName()));
+		
+		IAlignmentColumnsSelector almtColsSelector = getNucleotideAlignmentColumnsSelector(cmdContext);
+		if(almtColsSelector == null) {
+			throw new CommandException(Code.COMMAND_FAILED_ERROR, "Unable to resolve alignment columns selector");
+		}
+		String relatedRefName = almtColsSelector.getRelatedRefName();
+		if(relatedRefName == null) {
+			throw new CommandException(Code.COMMAND_FAILED_ERROR, "Unable to use columns selector without related ref");
+		}
+		ReferenceSequence relatedRef = linkingAlmt.getRelatedRef(cmdContext, relatedRefName);
 
-			List<QueryAlignedSegment> samRefToTargetRefSegs = getSamRefToTargetRefSegs(cmdContext, samReporter, samReporterPreprocessorSession, consoleCmdContext, targetRef);
+		List<QueryAlignedSegment> samRefToTargetRefSegs = getSamRefToTargetRefSegs(cmdContext, samReporter, samReporterPreprocessorSession, targetRef);
 
-			AlignmentMember linkingAlmtMember = targetRef.getLinkingAlignmentMembership(getLinkingAlmtName());
+		AlignmentMember linkingAlmtMember = targetRef.getLinkingAlignmentMembership(getLinkingAlmtName());
 
-			
-			// translate segments to linking alignment coords
-			List<QueryAlignedSegment> samRefToLinkingAlmtSegs = linkingAlmt.translateToAlmt(cmdContext, 
-					linkingAlmtMember.getSequence().getSource().getName(), linkingAlmtMember.getSequence().getSequenceID(), 
-					samRefToTargetRefSegs);
+		
+		// translate segments to linking alignment coords
+		List<QueryAlignedSegment> samRefToLinkingAlmtSegs = linkingAlmt.translateToAlmt(cmdContext, 
+				linkingAlmtMember.getSequence().getSource().getName(), linkingAlmtMember.getSequence().getSequenceID(), 
+				samRefToTargetRefSegs);
 
-			// translate segments to related reference
-			List<QueryAlignedSegment> samRefToRelatedRefSegsFull = linkingAlmt.translateToRelatedRef(cmdContext, samRefToLinkingAlmtSegs, relatedRef);
+		// translate segments to related reference
+		List<QueryAlignedSegment> samRefToRelatedRefSegsFull = linkingAlmt.translateToRelatedRef(cmdContext, samRefToLinkingAlmtSegs, relatedRef);
 
-			// trim down to the selected area.
-			List<ReferenceSegment> selectedRefSegs = almtColsSelector.selectAlignmentColumns(linkingAlmt, cmdContext).stream()
-					.map(frs -> new ReferenceSegment(frs.getRefStart(), frs.getRefEnd())).collect(Collectors.toList());
-			
-			List<QueryAlignedSegment> samRefToRelatedRefSegs = 
-					ReferenceSegment.intersection(samRefToRelatedRefSegsFull, selectedRefSegs, ReferenceSegment.cloneLeftSegMerger());
+		// trim down to the selected area.
+		List<ReferenceSegment> selectedRefSegs = almtColsSelector.selectAlignmentColumns(linkingAlmt, cmdContext).stream()
+				.map(frs -> new ReferenceSegment(frs.getRefStart(), frs.getRefEnd())).collect(Collectors.toList());
+		
+		List<QueryAlignedSegment> samRefToRelatedRefSegs = 
+				ReferenceSegment.intersection(samRefToRelatedRefSegsFull, selectedRefSegs, ReferenceSegment.cloneLeftSegMerger());
 
-			SamRefSense samRefSense = getSamRefSense(samReporter);
+		SamRefSense samRefSense = getSamRefSense(samReporter);
 
 
-			SamRecordFilter samRecordFilter;
-			try(SamReader samReader = SamUtils.newSamReader(consoleCmdContext, samFileName, validationStringency)) {
-				samRecordFilter = new SamUtils.ConjunctionBasedRecordFilter(
-						new SamUtils.ReferenceBasedRecordFilter(samReader, samFileName, getSuppliedSamRefName()), 
-						new SamUtils.MappingQualityRecordFilter(getMinMapQ(samReporter))
-				);
+		SamRecordFilter samRecordFilter;
+		try(SamReader samReader = SamUtils.newSamReader(cmdContext, samFileName, validationStringency)) {
+			samRecordFilter = new SamUtils.ConjunctionBasedRecordFilter(
+					new SamUtils.ReferenceBasedRecordFilter(samReader, samFileName, getSuppliedSamRefName()), 
+					new SamUtils.MappingQualityRecordFilter(getMinMapQ(samReporter))
+			);
 
-				
-				
-			} catch (IOException e) {
-				throw new RuntimeException(e);
-			}
-			Supplier<C> contextSupplier = getContextSupplier(samRecordFilter, samRefInfo, samRefSense, samRefToRelatedRefSegs, selectedRefSegs, samReporter);
-			IR mergedResult = SamUtils.pairedParallelSamIterate(contextSupplier, consoleCmdContext, samReporterPreprocessorSession, validationStringency, this);
 			
-			return formResult(cmdContext, mergedResult, samReporter);
 			
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
+		SamRefToRelatedRefLookup samRefToRelatedRefLookup = 
+				samReporterPreprocessorSession.getSamRefToRelatedRefLookup(samRefInfo.getSamRefLength(), samRefToRelatedRefSegs);
+		SamRefRegionIndex samRefRegionIndex = 
+				samReporterPreprocessorSession.getSamRefRegionIndex(samRefInfo.getSamRefLength(), samRefSense, samRefToRelatedRefLookup);
+		Supplier<C> subclassContextSupplier = getContextSupplier(samRecordFilter, samRefInfo, samRefSense, samRefToRelatedRefSegs, samRefToRelatedRefLookup, selectedRefSegs, samReporter);
+		Supplier<C> contextSupplier = () -> {
+			C context = subclassContextSupplier.get();
+			context.setSamRefRegionIndex(samRefRegionIndex);
+			return context;
+		};
+		SamReportPlan<R> samReportPlan = new SamReportPlan<R>();
+		SamReportPass<C, IR> samReportPass = samReportPlan.addPass(contextSupplier, this, 
+				samRefRegionIndex.toSamRefRegion(samRefInfo.getSamRefName()));
+		samReportPlan.setResultFormer(() -> formResult(cmdContext, samReportPass.getMergedResult(), samReporter));
+		return samReportPlan;
 	}
 
-	protected abstract Supplier<C> getContextSupplier(SamRecordFilter samRecordFilter, SamRefInfo samRefInfo, SamRefSense samRefSense, List<QueryAlignedSegment> samRefToRelatedRefSegs, List<ReferenceSegment> selectedRefSegs, SamReporter samReporter);
+	protected abstract Supplier<C> getContextSupplier(SamRecordFilter samRecordFilter, SamRefInfo samRefInfo, SamRefSense samRefSense, List<QueryAlignedSegment> samRefToRelatedRefSegs, SamRefToRelatedRefLookup samRefToRelatedRefLookup, List<ReferenceSegment> selectedRefSegs, SamReporter samReporter);
 	
-	private TIntObjectMap<BaseWithQuality> getRelatedRefNtToBaseWithQuality(SamBaseNucleotideCommandContext context, SAMRecord samRecord) {
-		TIntObjectMap<BaseWithQuality> relatedRefNtToBaseWithQuality = new TIntObjectHashMap<BaseWithQuality>();
+	/*
+	 * Fill the pileup buffer with the bases of the read which map to the related reference 
+	 * and pass the quality threshold, working directly on the read's byte arrays and CIGAR.
+	 */
+	private void fillReadPileupBuffer(SamBaseNucleotideCommandContext context, SAMRecord samRecord, ReadPileupBuffer buffer, int minQScore) {
+		byte[] readBases = samRecord.getReadBases();
+		byte[] baseQualities = samRecord.getBaseQualities();
+		boolean hasQualities = baseQualities.length > 0;
+		boolean reverseComplement = context.getSamRefSense().equals(SamRefSense.REVERSE_COMPLEMENT);
+		int samRefLength = context.getSamRefInfo().getSamRefLength();
+		int relatedRefMin = context.getRelatedRefMin();
+		SamRefToRelatedRefLookup samRefToRelatedRefLookup = context.getSamRefToRelatedRefLookup();
 		
-		List<QueryAlignedSegment> readToSamRefSegs = context.getSamReporter().getReadToSamRefSegs(samRecord);
-		String readString = samRecord.getReadString().toUpperCase();
-		String qualityString = samRecord.getBaseQualityString();
-		if(context.getSamRefSense().equals(SamRefSense.REVERSE_COMPLEMENT)) {
-			readToSamRefSegs = QueryAlignedSegment.reverseSense(readToSamRefSegs, readString.length(), context.getSamRefInfo().getSamRefLength());
-			readString = FastaUtils.reverseComplement(readString);
-			qualityString = StringUtils.reverseString(qualityString);
-		}
-
-		List<QueryAlignedSegment> readToRelatedRefSegs = QueryAlignedSegment.translateSegments(readToSamRefSegs, context.getSamRefToRelatedRefSegs());
-
-		for(QueryAlignedSegment readToRelatedRefSeg: readToRelatedRefSegs) {
-			Integer queryStart = readToRelatedRefSeg.getQueryStart();
-			Integer queryEnd = readToRelatedRefSeg.getQueryEnd();
-			CharSequence readNts = SegmentUtils.base1SubString(readString, queryStart, queryEnd);
-			CharSequence readQuality = SegmentUtils.base1SubString(qualityString, queryStart, queryEnd);
-			Integer relatedRefNt = readToRelatedRefSeg.getRefStart();
-			for(int i = 0; i < readNts.length(); i++) {
-				char qualityChar = readQuality.charAt(i);
-				int qScore = SamUtils.qualityCharToQScore(qualityChar);
-				if(qScore < getMinQScore(context.getSamReporter())) {
-					continue;
+		List<CigarElement> cigarElements = samRecord.getCigar().getCigarElements();
+		int readIndex = 0;
+		int samRefNt = samRecord.getAlignmentStart();
+		for(int e = 0; e < cigarElements.size(); e++) {
+			CigarElement cigarElement = cigarElements.get(e);
+			int length = cigarElement.getLength();
+			CigarOperator operator = cigarElement.getOperator();
+			boolean consumesRead = operator.consumesReadBases();
+			boolean consumesRef = operator.consumesReferenceBases();
+			if(consumesRead && consumesRef) {
+				for(int i = 0; i < length; i++) {
+					int qScore = hasQualities ? baseQualities[readIndex+i] : Byte.MAX_VALUE;
+					if(qScore < minQScore) {
+						continue;
+					}
+					int forwardSamRefNt = samRefNt+i;
+					char readBase = Character.toUpperCase((char) readBases[readIndex+i]);
+					if(reverseComplement) {
+						forwardSamRefNt = ReferenceSegment.reverseLocationSense(samRefLength, forwardSamRefNt);
+						readBase = ResidueUtils.complementAmbigNtChar(readBase);
+					}
+					int relatedRefNt = samRefToRelatedRefLookup.relatedRefNt(forwardSamRefNt);
+					if(relatedRefNt == SamRefToRelatedRefLookup.NOT_MAPPED) {
+						continue;
+					}
+					buffer.record(relatedRefNt - relatedRefMin, (byte) readBase, (byte) qScore);
 				}
-				char readChar = readNts.charAt(i);
-				relatedRefNtToBaseWithQuality.put(relatedRefNt+i, new BaseWithQuality(readChar, qScore));
 			}
-		}
-		return relatedRefNtToBaseWithQuality;
-	}
-	
-	private class BaseWithQuality {
-		char base;
-		int quality;
-		public BaseWithQuality(char base, int quality) {
-			super();
-			this.base = base;
-			this.quality = quality;
+			if(consumesRead) {
+				readIndex += length;
+			}
+			if(consumesRef) {
+				samRefNt += length;
+			}
 		}
 	}
 	
-	
-	
 	@Override
 	public void initContextForReader(SamBaseNucleotideCommandContext context, SamReader reader) {
 	}
 
+	// reads outside the selected region are rejected before any bases are decoded.
+	private boolean readIsRelevant(C context, SAMRecord samRecord) {
+		return context.getSamRecordFilter().recordPasses(samRecord) && 
+				context.getSamRefRegionIndex().overlapsSelected(samRecord.getAlignmentStart(), samRecord.getAlignmentEnd());
+	}
+
 	@Override
 	public final void processPair(C context, SAMRecord record1, SAMRecord record2) {
-		if(!context.getSamRecordFilter().recordPasses(record1)) {
+		if(!readIsRelevant(context, record1)) {
     		processSingleton(context, record2);
-		} else if(!context.getSamRecordFilter().recordPasses(record2)) {
+		} else if(!readIsRelevant(context, record2)) {
     		processSingleton(context, record1);
     	} else {
-    		TIntObjectMap<BaseWithQuality> relatedRefNtToBaseWithQuality1 = getRelatedRefNtToBaseWithQuality(context, record1);
-    		TIntObjectMap<BaseWithQuality> relatedRefNtToBaseWithQuality2 = getRelatedRefNtToBaseWithQuality(context, record2);
+    		int minQScore = getMinQScore(context.getSamReporter());
+    		int relatedRefMin = context.getRelatedRefMin();
+    		ReadPileupBuffer buffer1 = context.getReadPileupBuffer1();
+    		ReadPileupBuffer buffer2 = context.getReadPileupBuffer2();
+    		fillReadPileupBuffer(context, record1, buffer1, minQScore);
+    		fillReadPileupBuffer(context, record2, buffer2, minQScore);
+    		String readName1 = record1.getReadName();
+    		String readName2 = record2.getReadName();
     		int read1MapQ = record1.getMappingQuality();
     		int read2MapQ = record2.getMappingQuality();
-			int readNameHashCoinFlip = Math.abs(record1.getReadName().hashCode()) % 2;
-
-    		for(int relatedRefNt: relatedRefNtToBaseWithQuality1.keys()) {
-    			BaseWithQuality baseWithQuality1 = relatedRefNtToBaseWithQuality1.get(relatedRefNt);
-    			BaseWithQuality baseWithQuality2 = relatedRefNtToBaseWithQuality2.remove(relatedRefNt);
-    			if(baseWithQuality2 == null) {
-    				processReadBase(context, record1.getReadName(), relatedRefNt, baseWithQuality1.base);
+			int readNameHashCoinFlip = Math.abs(readName1.hashCode()) % 2;
+
+			for(int i = 0; i < buffer1.getNumTouched(); i++) {
+				int column = buffer1.getTouchedColumn(i);
+				int relatedRefNt = column + relatedRefMin;
+				char base1 = (char) buffer1.getBase(column);
+				char base2 = (char) buffer2.getBase(column);
+    			if(base2 == 0) {
+    				processReadBase(context, readName1, relatedRefNt, base1);
     			} else {
-    				int read1qual = baseWithQuality1.quality;
-    				int read2qual = baseWithQuality2.quality;
+    				buffer2.consume(column);
+    				int read1qual = buffer1.getQScore(column);
+    				int read2qual = buffer2.getQScore(column);
     				if(read1qual < read2qual) {
-    					processReadBase(context, record2.getReadName(), relatedRefNt, baseWithQuality2.base);
+    					processReadBase(context, readName2, relatedRefNt, base2);
     				} else if(read1qual > read2qual) {
-    					processReadBase(context, record1.getReadName(), relatedRefNt, baseWithQuality1.base);
+    					processReadBase(context, readName1, relatedRefNt, base1);
     				} else if(read1MapQ != 255 && read2MapQ != 255 && read1MapQ < read2MapQ) {
-    					processReadBase(context, record2.getReadName(), relatedRefNt,  baseWithQuality2.base);
+    					processReadBase(context, readName2, relatedRefNt,  base2);
     				} else if(read1MapQ != 255 && read2MapQ != 255 && read1MapQ > read2MapQ) {
-    					processReadBase(context, record1.getReadName(), relatedRefNt, baseWithQuality1.base);
+    					processReadBase(context, readName1, relatedRefNt, base1);
     				} else if(readNameHashCoinFlip == 0) {
-    					processReadBase(context, record1.getReadName(), relatedRefNt, baseWithQuality1.base);
+    					processReadBase(context, readName1, relatedRefNt, base1);
     				} else {
-    					processReadBase(context, record2.getReadName(), relatedRefNt, baseWithQuality2.base);
+    					processReadBase(context, readName2, relatedRefNt, base2);
     				}
     			}
     		}
-    		for(int relatedRefNt: relatedRefNtToBaseWithQuality2.keys()) {
-    			processReadBase(context, record2.getReadName(), relatedRefNt, relatedRefNtToBaseWithQuality2.get(relatedRefNt).base);
-    		}
+			for(int i = 0; i < buffer2.getNumTouched(); i++) {
+				int column = buffer2.getTouchedColumn(i);
+				char base2 = (char) buffer2.getBase(column);
+				if(base2 != 0) {
+					processReadBase(context, readName2, column + relatedRefMin, base2);
+				}
+			}
+			buffer1.clear();
+			buffer2.clear();
     	}
 	}
 
 	@Override
 	public final void processSingleton(C context, SAMRecord samRecord) {
-		if(!context.getSamRecordFilter().recordPasses(samRecord)) {
+		if(!readIsRelevant(context, samRecord)) {
 			return;
 		}
-    	TIntObjectMap<BaseWithQuality> relatedRefNtToBaseWithQuality = getRelatedRefNtToBaseWithQuality(context, samRecord);
-		for(int relatedRefNt: relatedRefNtToBaseWithQuality.keys()) {
-			processReadBase(context, samRecord.getReadName(), relatedRefNt, relatedRefNtToBaseWithQuality.get(relatedRefNt).base);
+		int relatedRefMin = context.getRelatedRefMin();
+		ReadPileupBuffer buffer = context.getReadPileupBuffer1();
+		fillReadPileupBuffer(context, samRecord, buffer, getMinQScore(context.getSamReporter()));
+		String readName = samRecord.getReadName();
+		for(int i = 0; i < buffer.getNumTouched(); i++) {
+			int column = buffer.getTouchedColumn(i);
+			processReadBase(context, readName, column + relatedRefMin, (char) buffer.getBase(column));
 		}
+		buffer.clear();
 	}
 
 
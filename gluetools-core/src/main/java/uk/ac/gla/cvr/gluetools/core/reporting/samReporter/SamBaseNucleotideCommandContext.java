@@ -1,5 +1,6 @@
 package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
 
+import java.util.Arrays;
 import java.util.List;
 
 import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.BaseSamReporterCommand.SamRefInfo;
@@ -8,6 +9,10 @@ import uk.ac.gla.cvr.gluetools.core.segments.QueryAlignedSegment;
 import uk.ac.gla.cvr.gluetools.core.segments.ReferenceSegment;
 
 public class SamBaseNucleotideCommandContext {
+	
+	// value used in the column arrays where a related ref column has no corresponding SAM ref nucleotide.
+	public static final int NO_SAM_REF_NT = Integer.MIN_VALUE;
+	
 	private SamReporter samReporter;
 	private SamRefInfo samRefInfo;
 	private List<QueryAlignedSegment> samRefToRelatedRefSegs;
@@ -15,18 +20,77 @@ public class SamBaseNucleotideCommandContext {
 	private SamRefSense samRefSense;
 	private SamRecordFilter samRecordFilter;
 	
+	// pileup columns: one per related ref nucleotide from relatedRefMin to relatedRefMin+numColumns-1
+	private int relatedRefMin;
+	private int numColumns;
+	// for each column, the SAM ref nucleotide in the SAM file's own coordinates, or NO_SAM_REF_NT
+	private int[] columnSamRefNts;
+	// for each column, whether it lies within the selected region.
+	private boolean[] selectedColumns;
+
+	// shared dense lookup from SAM ref nucleotide to related ref nucleotide.
+	private SamRefToRelatedRefLookup samRefToRelatedRefLookup;
+	// shared index used to reject reads which cannot touch the selected region.
+	private SamRefRegionIndex samRefRegionIndex;
+	
+	// per-context (and therefore per-thread) scratch buffers, reused for every read.
+	private ReadPileupBuffer readPileupBuffer1;
+	private ReadPileupBuffer readPileupBuffer2;
+	
 	public SamBaseNucleotideCommandContext(SamReporter samReporter, SamRefInfo samRefInfo,
-			List<QueryAlignedSegment> samRefToRelatedRefSegs, List<ReferenceSegment> selectedRefSegs, SamRefSense samRefSense,
-			SamRecordFilter samRecordFilter) {
+			List<QueryAlignedSegment> samRefToRelatedRefSegs, SamRefToRelatedRefLookup samRefToRelatedRefLookup, 
+			List<ReferenceSegment> selectedRefSegs, SamRefSense samRefSense, SamRecordFilter samRecordFilter) {
 		super();
+		this.samRefToRelatedRefLookup = samRefToRelatedRefLookup;
 		this.samReporter = samReporter;
 		this.samRefInfo = samRefInfo;
 		this.samRefToRelatedRefSegs = samRefToRelatedRefSegs;
 		this.selectedRefSegs = selectedRefSegs;
 		this.samRefSense = samRefSense;
 		this.samRecordFilter = samRecordFilter;
+		initColumns();
+		this.readPileupBuffer1 = new ReadPileupBuffer(numColumns);
+		this.readPileupBuffer2 = new ReadPileupBuffer(numColumns);
 	}
 
+	private void initColumns() {
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		for(ReferenceSegment selectedRefSeg: selectedRefSegs) {
+			min = Math.min(min, selectedRefSeg.getRefStart());
+			max = Math.max(max, selectedRefSeg.getRefEnd());
+		}
+		for(QueryAlignedSegment samRefToRelatedRefSeg: samRefToRelatedRefSegs) {
+			min = Math.min(min, samRefToRelatedRefSeg.getRefStart());
+			max = Math.max(max, samRefToRelatedRefSeg.getRefEnd());
+		}
+		if(min > max) {
+			this.relatedRefMin = 1;
+			this.numColumns = 0;
+		} else {
+			this.relatedRefMin = min;
+			this.numColumns = (max - min) + 1;
+		}
+		this.columnSamRefNts = new int[numColumns];
+		Arrays.fill(columnSamRefNts, NO_SAM_REF_NT);
+		this.selectedColumns = new boolean[numColumns];
+		for(ReferenceSegment selectedRefSeg: selectedRefSegs) {
+			for(int relatedRefNt = selectedRefSeg.getRefStart(); relatedRefNt <= selectedRefSeg.getRefEnd(); relatedRefNt++) {
+				selectedColumns[relatedRefNt - relatedRefMin] = true;
+			}
+		}
+		for(QueryAlignedSegment seg: samRefToRelatedRefSegs) {
+			for(int samRefNt = seg.getQueryStart(); samRefNt <= seg.getQueryEnd(); samRefNt++) {
+				int resultSamRefNt = samRefNt;
+				if(samRefSense.equals(SamRefSense.REVERSE_COMPLEMENT)) {
+					// we want to report results in the SAM file's own coordinates.
+					resultSamRefNt = ReferenceSegment.reverseLocationSense(samRefInfo.getSamRefLength(), samRefNt);
+				}
+				columnSamRefNts[(samRefNt + seg.getQueryToReferenceOffset()) - relatedRefMin] = resultSamRefNt;
+			}
+		}
+	}
+	
 	public SamReporter getSamReporter() {
 		return samReporter;
 	}
@@ -39,6 +103,18 @@ public class SamBaseNucleotideCommandContext {
 		return samRefToRelatedRefSegs;
 	}
 
+	public SamRefToRelatedRefLookup getSamRefToRelatedRefLookup() {
+		return samRefToRelatedRefLookup;
+	}
+
+	public SamRefRegionIndex getSamRefRegionIndex() {
+		return samRefRegionIndex;
+	}
+
+	public void setSamRefRegionIndex(SamRefRegionIndex samRefRegionIndex) {
+		this.samRefRegionIndex = samRefRegionIndex;
+	}
+
 	public List<ReferenceSegment> getSelectedRefSegs() {
 		return selectedRefSegs;
 	}
@@ -50,7 +126,29 @@ public class SamBaseNucleotideCommandContext {
 	public SamRecordFilter getSamRecordFilter() {
 		return samRecordFilter;
 	}
+
+	public int getRelatedRefMin() {
+		return relatedRefMin;
+	}
+
+	public int getNumColumns() {
+		return numColumns;
+	}
+
+	public int[] getColumnSamRefNts() {
+		return columnSamRefNts;
+	}
+
+	public boolean[] getSelectedColumns() {
+		return selectedColumns;
+	}
+
+	public ReadPileupBuffer getReadPileupBuffer1() {
+		return readPileupBuffer1;
+	}
+
+	public ReadPileupBuffer getReadPileupBuffer2() {
+		return readPileupBuffer2;
+	}
 	
-	
-	
-}
\ No newline at end of file
+}
@@ -53,7 +53,6 @@ import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.CommandException;
 import uk.ac.gla.cvr.gluetools.core.command.CommandException.Code;
 import uk.ac.gla.cvr.gluetools.core.command.CompleterClass;
-import uk.ac.gla.cvr.gluetools.core.command.console.ConsoleCommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.project.module.ProvidedProjectModeCommand;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignment.Alignment;
@@ -125,7 +124,7 @@ import uk.ac.gla.cvr.gluetools.utils.StringUtils;
 			"(default value is derived from the module config).\n"+
 			"Triplet values will only display in the result if the percentage of reads contributing that value is at least <minTripletPct> (default 0).",
 
-		metaTags = {CmdMeta.consoleOnly}	
+		metaTags = {CmdMeta.consumesBinaryFile}	
 )
 public class SamCodonTripletsCommand extends ReferenceLinkedSamReporterCommand<SamCodonTripletsResult> 
 	implements ProvidedProjectModeCommand, SamPairedParallelProcessor<SamCodonTripletsCommand.SamCodonTripletsContext, TIntObjectMap<SamCodonTripletsCommand.TripletReadCount>> {
@@ -150,16 +149,15 @@ public class SamCodonTripletsCommand extends ReferenceLinkedSamReporterCommand<S
 
 	@Override
 	protected SamCodonTripletsResult execute(CommandContext cmdContext, SamReporter samReporter) {
-		ConsoleCommandContext consoleCmdContext = (ConsoleCommandContext) cmdContext;
 
-		SamRefInfo samRefInfo = getSamRefInfo(consoleCmdContext, samReporter);
+		SamRefInfo samRefInfo = getSamRefInfo(cmdContext, samReporter);
 		ValidationStringency validationStringency = samReporter.getSamReaderValidationStringency();
 		String samFileName = getFileName();
 
-		try(SamReporterPreprocessorSession samReporterPreprocessorSession = SamReporterPreprocessor.getPreprocessorSession(consoleCmdContext, samFileName, samReporter)) {
+		try(SamReporterPreprocessorSession samReporterPreprocessorSession = SamReporterPreprocessor.getPreprocessorSession(cmdContext, samFileName, samReporter)) {
 			ReferenceSequence targetRef;
 			if(useMaxLikelihoodPlacer()) {
-				targetRef = samReporterPreprocessorSession.getTargetRefBasedOnPlacer(consoleCmdContext, samReporter, this);
+				targetRef = samReporterPreprocessorSession.getTargetRefBasedOnPlacer(cmdContext, samReporter, this);
 			} else {
 				targetRef = GlueDataObject.lookup(cmdContext, ReferenceSequence.class, 
 						ReferenceSequence.pkMap(getTargetRefName()));
@@ -171,7 +169,7 @@ public class SamCodonTripletsCommand extends ReferenceLinkedSamReporterCommand<S
 			columnsSelector.checkAminoAcidSelector(cmdContext);
 			ReferenceSequence relatedRef = linkingAlmt.getRelatedRef(cmdContext, columnsSelector.getRelatedRefName());
 			
-			List<QueryAlignedSegment> samRefToTargetRefSegs = getSamRefToTargetRefSegs(cmdContext, samReporter, samReporterPreprocessorSession, consoleCmdContext, targetRef);
+			List<QueryAlignedSegment> samRefToTargetRefSegs = getSamRefToTargetRefSegs(cmdContext, samReporter, samReporterPreprocessorSession, targetRef);
 
 			AlignmentMember linkingAlmtMember = targetRef.getLinkingAlignmentMembership(getLinkingAlmtName());
 
@@ -233,6 +231,9 @@ public class SamCodonTripletsCommand extends ReferenceLinkedSamReporterCommand<S
 			// translate reads.
 			final Translator translator = new CommandContextTranslator(cmdContext);
 
+			SamRefToRelatedRefLookup samRefToRelatedRefLookup = 
+					samReporterPreprocessorSession.getSamRefToRelatedRefLookup(samRefInfo.getSamRefLength(), samRefToRelatedRefSegs);
+
 			Supplier<SamCodonTripletsContext> contextSupplier = () -> {
 				SamCodonTripletsContext context = new SamCodonTripletsContext();
 				context.samReporter = samReporter;
@@ -267,10 +268,8 @@ public class SamCodonTripletsCommand extends ReferenceLinkedSamReporterCommand<S
 									ReferenceSegment.abutsPredicateReferenceSegment()); 
 						} );
 				}
-				// clone these segments
-				synchronized(samRefToRelatedRefSegs) {
-					context.samRefToRelatedRefSegs = QueryAlignedSegment.cloneList(samRefToRelatedRefSegs);
-				}
+				// immutable, shared across workers
+				context.samRefToRelatedRefLookup = samRefToRelatedRefLookup;
 				// clone the table
 				synchronized(relatedRefNtToTripletReadCount) {
 					context.relatedRefNtToTripletReadCount = new TIntObjectHashMap<TripletReadCount>();
@@ -281,7 +280,7 @@ public class SamCodonTripletsCommand extends ReferenceLinkedSamReporterCommand<S
 				}
 				return context;
 			};
-			TIntObjectMap<TripletReadCount> mergedResult = SamUtils.pairedParallelSamIterate(contextSupplier, consoleCmdContext, samReporterPreprocessorSession, 
+			TIntObjectMap<TripletReadCount> mergedResult = SamUtils.pairedParallelSamIterate(contextSupplier, cmdContext, samReporterPreprocessorSession, 
 					validationStringency, this);
 
 
@@ -331,7 +330,7 @@ public class SamCodonTripletsCommand extends ReferenceLinkedSamReporterCommand<S
 			readString = FastaUtils.reverseComplement(readString);
 			qualityString = StringUtils.reverseString(qualityString);
 		}
-		List<QueryAlignedSegment> readToRelatedRefSegs = QueryAlignedSegment.translateSegments(readToSamRefSegs, context.samRefToRelatedRefSegs);
+		List<QueryAlignedSegment> readToRelatedRefSegs = context.samRefToRelatedRefLookup.translateReadSegments(readToSamRefSegs);
 		
 		List<LabeledQueryAminoAcid> labeledReadAas = new ArrayList<LabeledQueryAminoAcid>(); 
 				
@@ -463,7 +462,7 @@ public class SamCodonTripletsCommand extends ReferenceLinkedSamReporterCommand<S
 		CommandContext cmdContext;
 		SamReporter samReporter;
 		SamRefInfo samRefInfo;
-		List<QueryAlignedSegment> samRefToRelatedRefSegs;
+		SamRefToRelatedRefLookup samRefToRelatedRefLookup;
 		SamRefSense samRefSense;
 		TIntObjectMap<TripletReadCount> relatedRefNtToTripletReadCount;
 		Translator translator;
@@ -1,17 +1,14 @@
 package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
 
 import java.util.EnumSet;
-import java.util.List;
 import java.util.function.Supplier;
 
-import gnu.trove.map.TIntObjectMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
 import htsjdk.samtools.AlignmentBlock;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.ValidationStringency;
-import uk.ac.gla.cvr.gluetools.core.command.console.ConsoleCommandContext;
+import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporter.SamRefSense;
 import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporterPreprocessor.SamReporterPreprocessorSession;
 import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamUtilsException.Code;
@@ -19,7 +16,7 @@ import uk.ac.gla.cvr.gluetools.core.translation.ResidueUtils;
 
 public class SamConsensusGenerator implements SamPairedParallelProcessor<SamConsensusGenerator.ConsensusContext, SamConsensusGenerator.ConsensusResult>{
 
-	public String getNgsConsensus(ConsoleCommandContext cmdContext, SamReporterPreprocessorSession samReporterPreprocessorSession, ValidationStringency validationStringency, 
+	public String getNgsConsensus(CommandContext cmdContext, SamReporterPreprocessorSession samReporterPreprocessorSession, ValidationStringency validationStringency, 
 			String samRefName, int minQScore, int minMapQ, int minDepth, SamRefSense samRefSense,
 			boolean mayGenerateAmbiguities, 
 			boolean consensusProduceAmbiguityCodes, int consensusAmbiguityCodesMinDepth, 
@@ -39,18 +36,18 @@ public class SamConsensusGenerator implements SamPairedParallelProcessor<SamCons
 		ConsensusResult mergedResult = SamUtils.pairedParallelSamIterate(contextSupplier, cmdContext, samReporterPreprocessorSession, validationStringency, this);
 		
 	    StringBuffer consensus = new StringBuffer();	  
-	    int[] counts = new int[4];
+	    int[] counts;
 		char next;
 		int best;
-	    for(int i = 0; i < mergedResult.depth.length; i++) {
+	    for(int i = 0; i < mergedResult.ntCounts.length; i++) {
 	    	next = 'N';
-	    	int totalDepth = mergedResult.depth[i];
+	    	counts = mergedResult.ntCounts[i];
+	    	int totalDepth = 0;
+	    	for(int j = 0; j < ResidueUtils.CONCRETE_NT_NUM_VALUES; j++) {
+	    		totalDepth += counts[j];
+	    	}
 			if(totalDepth >= minDepth) {
 	    		best = 0;
-	    		counts[ResidueUtils.CONCRETE_NT_A] = mergedResult.aCounts[i];
-	    		counts[ResidueUtils.CONCRETE_NT_C] = mergedResult.cCounts[i];
-	    		counts[ResidueUtils.CONCRETE_NT_G] = mergedResult.gCounts[i];
-	    		counts[ResidueUtils.CONCRETE_NT_T] = mergedResult.tCounts[i];
 	    		if(mayGenerateAmbiguities && consensusProduceAmbiguityCodes && totalDepth > consensusAmbiguityCodesMinDepth) {
 	    			int concreteNtsBitmap = 0;
 		    		for(int j = 0; j < 4; j++) {
@@ -90,30 +87,27 @@ public class SamConsensusGenerator implements SamPairedParallelProcessor<SamCons
 		private int minMapQ;
 		private int samReferenceIndex;
 		private String samRefName; 
-	    private int[] depth;
-	    private int[] aCounts;
-	    private int[] cCounts;
-	    private int[] gCounts;
-	    private int[] tCounts;
+		// per forward-sense SAM ref position (0-based), the number of reads with each concrete nucleotide.
+		// depth at a position is the sum of its counts.
+	    private int[][] ntCounts;
 		public int samReferenceLength;
+		// per-context (and therefore per-thread) scratch buffers, indexed by forward-sense SAM ref position, reused for every read.
+		private ReadPileupBuffer readPileupBuffer1;
+		private ReadPileupBuffer readPileupBuffer2;
 		
 		public void recordBase(int samRefNt, char base) {
 			switch(base) {
 			case 'A':
-				depth[samRefNt]++;
-				aCounts[samRefNt]++;
+				ntCounts[samRefNt][ResidueUtils.CONCRETE_NT_A]++;
 				break;
 			case 'C':
-				depth[samRefNt]++;
-				cCounts[samRefNt]++;
+				ntCounts[samRefNt][ResidueUtils.CONCRETE_NT_C]++;
 				break;
 			case 'G':
-				depth[samRefNt]++;
-				gCounts[samRefNt]++;
+				ntCounts[samRefNt][ResidueUtils.CONCRETE_NT_G]++;
 				break;
 			case 'T':
-				depth[samRefNt]++;
-				tCounts[samRefNt]++;
+				ntCounts[samRefNt][ResidueUtils.CONCRETE_NT_T]++;
 				break;
 			case 'N':
 				break;
@@ -125,11 +119,7 @@ public class SamConsensusGenerator implements SamPairedParallelProcessor<SamCons
 	}
 
 	public static class ConsensusResult {
-	    private int[] depth;
-	    private int[] aCounts;
-	    private int[] cCounts;
-	    private int[] gCounts;
-	    private int[] tCounts;
+	    private int[][] ntCounts;
 	}
 
 	@Override
@@ -138,12 +128,9 @@ public class SamConsensusGenerator implements SamPairedParallelProcessor<SamCons
 		SAMSequenceRecord samReference = samReader.getFileHeader().getSequenceDictionary().getSequence(context.samRefName);
 		context.samReferenceLength = samReference.getSequenceLength();
 		context.samReferenceIndex = samReference.getSequenceIndex();
-		context.depth = new int[context.samReferenceLength];
-		context.aCounts = new int[context.samReferenceLength];
-		context.cCounts = new int[context.samReferenceLength];
-		context.gCounts = new int[context.samReferenceLength];
-		context.tCounts = new int[context.samReferenceLength];
-		
+		context.ntCounts = new int[context.samReferenceLength][ResidueUtils.CONCRETE_NT_NUM_VALUES];
+		context.readPileupBuffer1 = new ReadPileupBuffer(context.samReferenceLength);
+		context.readPileupBuffer2 = new ReadPileupBuffer(context.samReferenceLength);
 	}
 
 	@Override
@@ -151,40 +138,50 @@ public class SamConsensusGenerator implements SamPairedParallelProcessor<SamCons
     	if(record1.getReferenceIndex() != context.samReferenceIndex) {
     		processSingleton(context, record2);
     	} else if(record2.getReferenceIndex() != context.samReferenceIndex) {
-    		processSingleton(context, record2);
+    		processSingleton(context, record1);
     	} else {
-    		TIntObjectMap<BaseWithQuality> samRefNtToBaseWithQuality1 = getSamRefNtToBaseWithQuality(context, record1);
-    		TIntObjectMap<BaseWithQuality> samRefNtToBaseWithQuality2 = getSamRefNtToBaseWithQuality(context, record2);
+    		ReadPileupBuffer buffer1 = context.readPileupBuffer1;
+    		ReadPileupBuffer buffer2 = context.readPileupBuffer2;
+    		fillReadPileupBuffer(context, record1, buffer1);
+    		fillReadPileupBuffer(context, record2, buffer2);
     		int read1MapQ = record1.getMappingQuality();
     		int read2MapQ = record2.getMappingQuality();
 			int readNameHashCoinFlip = Math.abs(record1.getReadName().hashCode()) % 2;
 
-    		for(int samRefNt: samRefNtToBaseWithQuality1.keys()) {
-    			BaseWithQuality baseWithQuality1 = samRefNtToBaseWithQuality1.get(samRefNt);
-    			BaseWithQuality baseWithQuality2 = samRefNtToBaseWithQuality2.remove(samRefNt);
-    			if(baseWithQuality2 == null) {
-    				context.recordBase(samRefNt, baseWithQuality1.base);
+			for(int i = 0; i < buffer1.getNumTouched(); i++) {
+				int samRefNt = buffer1.getTouchedColumn(i);
+				char base1 = (char) buffer1.getBase(samRefNt);
+				char base2 = (char) buffer2.getBase(samRefNt);
+    			if(base2 == 0) {
+    				context.recordBase(samRefNt, base1);
     			} else {
-    				int read1qual = baseWithQuality1.quality;
-    				int read2qual = baseWithQuality2.quality;
+    				buffer2.consume(samRefNt);
+    				int read1qual = buffer1.getQScore(samRefNt);
+    				int read2qual = buffer2.getQScore(samRefNt);
     				if(read1qual < read2qual) {
-    					context.recordBase(samRefNt, baseWithQuality2.base);
+    					context.recordBase(samRefNt, base2);
     				} else if(read1qual > read2qual) {
-    					context.recordBase(samRefNt, baseWithQuality1.base);
+    					context.recordBase(samRefNt, base1);
     				} else if(read1MapQ != 255 && read2MapQ != 255 && read1MapQ < read2MapQ) {
-    					context.recordBase(samRefNt, baseWithQuality2.base);
+    					context.recordBase(samRefNt, base2);
     				} else if(read1MapQ != 255 && read2MapQ != 255 && read1MapQ > read2MapQ) {
-    					context.recordBase(samRefNt, baseWithQuality1.base);
+    					context.recordBase(samRefNt, base1);
     				} else if(readNameHashCoinFlip == 0) {
-    					context.recordBase(samRefNt, baseWithQuality1.base);
+    					context.recordBase(samRefNt, base1);
     				} else {
-    					context.recordBase(samRefNt, baseWithQuality2.base);
+    					context.recordBase(samRefNt, base2);
     				}
     			}
     		}
-    		for(int samRefNt: samRefNtToBaseWithQuality2.keys()) {
-				context.recordBase(samRefNt, samRefNtToBaseWithQuality2.get(samRefNt).base);
-    		}
+			for(int i = 0; i < buffer2.getNumTouched(); i++) {
+				int samRefNt = buffer2.getTouchedColumn(i);
+				char base2 = (char) buffer2.getBase(samRefNt);
+				if(base2 != 0) {
+					context.recordBase(samRefNt, base2);
+				}
+			}
+			buffer1.clear();
+			buffer2.clear();
     	}
 	}
 
@@ -193,93 +190,76 @@ public class SamConsensusGenerator implements SamPairedParallelProcessor<SamCons
     	if(samRecord.getReferenceIndex() != context.samReferenceIndex) {
     		return;
     	}
-    	TIntObjectMap<BaseWithQuality> samRefNtToBaseWithQuality = getSamRefNtToBaseWithQuality(context, samRecord);
-		for(int samRefNt: samRefNtToBaseWithQuality.keys()) {
-			context.recordBase(samRefNt, samRefNtToBaseWithQuality.get(samRefNt).base);
+    	ReadPileupBuffer buffer = context.readPileupBuffer1;
+    	fillReadPileupBuffer(context, samRecord, buffer);
+		for(int i = 0; i < buffer.getNumTouched(); i++) {
+			int samRefNt = buffer.getTouchedColumn(i);
+			context.recordBase(samRefNt, (char) buffer.getBase(samRefNt));
 		}
+		buffer.clear();
 	}
 
 	@Override
 	public ConsensusResult contextResult(ConsensusContext context) {
 		ConsensusResult consensusResult = new ConsensusResult();
-		consensusResult.aCounts = context.aCounts;
-		consensusResult.cCounts = context.cCounts;
-		consensusResult.gCounts = context.gCounts;
-		consensusResult.tCounts = context.tCounts;
-		consensusResult.depth = context.depth;
+		consensusResult.ntCounts = context.ntCounts;
 		return consensusResult;
 	}
 
+	// the context's counts are no longer needed once its result is formed, so result1 is accumulated in place.
 	@Override
 	public ConsensusResult reduceResults(ConsensusResult result1, ConsensusResult result2) {
-		ConsensusResult consensusResult = new ConsensusResult();
-		consensusResult.aCounts = new int[result1.aCounts.length];
-		consensusResult.cCounts = new int[result1.cCounts.length];
-		consensusResult.gCounts = new int[result1.gCounts.length];
-		consensusResult.tCounts = new int[result1.tCounts.length];
-		consensusResult.depth = new int[result1.depth.length];
-		for(int i = 0; i < result1.depth.length; i++) {
-			consensusResult.aCounts[i] = result1.aCounts[i]+result2.aCounts[i];
-			consensusResult.cCounts[i] = result1.cCounts[i]+result2.cCounts[i];
-			consensusResult.gCounts[i] = result1.gCounts[i]+result2.gCounts[i];
-			consensusResult.tCounts[i] = result1.tCounts[i]+result2.tCounts[i];
-			consensusResult.depth[i] = result1.depth[i]+result2.depth[i];
+		for(int i = 0; i < result1.ntCounts.length; i++) {
+			int[] counts1 = result1.ntCounts[i];
+			int[] counts2 = result2.ntCounts[i];
+			for(int j = 0; j < ResidueUtils.CONCRETE_NT_NUM_VALUES; j++) {
+				counts1[j] += counts2[j];
+			}
 		}
-		return consensusResult;
+		return result1;
 	}
 
-	private TIntObjectMap<BaseWithQuality> getSamRefNtToBaseWithQuality(ConsensusContext context, SAMRecord samRecord) {
-		TIntObjectMap<BaseWithQuality> samRefNtToBaseWithQuality = new TIntObjectHashMap<SamConsensusGenerator.BaseWithQuality>();
-
-		if(samRecord.getMappingQuality() >= context.minMapQ) {
-
-			String readString = samRecord.getReadString().toUpperCase();
-			String qualityString = samRecord.getBaseQualityString();
-			List<AlignmentBlock> alignmentBlocks = samRecord.getAlignmentBlocks();
-			alignmentBlocks.forEach(alignmentBlock -> {
-				int blockLength = alignmentBlock.getLength();
-				int readStart = alignmentBlock.getReadStart();
-				int refStart = alignmentBlock.getReferenceStart();
+	/*
+	 * Fill the buffer with the forward-sense bases of the read which pass the quality threshold, 
+	 * indexed by forward-sense SAM ref position, working directly on the read's byte arrays.
+	 */
+	private void fillReadPileupBuffer(ConsensusContext context, SAMRecord samRecord, ReadPileupBuffer buffer) {
+		if(samRecord.getMappingQuality() < context.minMapQ) {
+			return;
+		}
+		byte[] readBases = samRecord.getReadBases();
+		byte[] baseQualities = samRecord.getBaseQualities();
+		boolean hasQualities = baseQualities.length > 0;
+		for(AlignmentBlock alignmentBlock: samRecord.getAlignmentBlocks()) {
+			int blockLength = alignmentBlock.getLength();
+			int readStart = alignmentBlock.getReadStart();
+			int refStart = alignmentBlock.getReferenceStart();
 
-				for(int baseIndex = 0; baseIndex < blockLength; baseIndex++) {
-					char readQualityChar = qualityString.charAt((readStart+baseIndex)-1);
-					int qScore = SamUtils.qualityCharToQScore(readQualityChar);
-					if(qScore < context.minQScore) {
-						continue;
-					}
-					char readBase = Character.toUpperCase(readString.charAt((readStart+baseIndex)-1));
-					char forwardSenseReadBase = SamUtils.getForwardSenseReadBase(context.samRefSense, readBase);
-					if(forwardSenseReadBase == '=') {
-						throw new SamUtilsException(SamUtilsException.Code.ALIGNMENT_LINE_USES_EQUALS);
-					}
-					int index = SamUtils.getForwardSenseSamRefIndex(context.samRefSense, context.samReferenceLength, refStart, baseIndex);
-					switch(forwardSenseReadBase) {
-					case 'A':
-					case 'C':
-					case 'G':
-					case 'T':
-					case 'N':
-						samRefNtToBaseWithQuality.put(index, new BaseWithQuality(forwardSenseReadBase, qScore));
-						break;
-					default:
-						throw new SamUtilsException(SamUtilsException.Code.ALIGNMENT_LINE_USES_UNKNOWN_CHARACTER, Character.toString(readBase), Integer.toString(readBase));
-					}
+			for(int baseIndex = 0; baseIndex < blockLength; baseIndex++) {
+				int readIndex = (readStart+baseIndex)-1;
+				int qScore = hasQualities ? baseQualities[readIndex] : Byte.MAX_VALUE;
+				if(qScore < context.minQScore) {
+					continue;
 				}
-			});
-		}
-		
-		return samRefNtToBaseWithQuality;
-	}
-	
-	private class BaseWithQuality {
-		char base;
-		int quality;
-		public BaseWithQuality(char base, int quality) {
-			super();
-			this.base = base;
-			this.quality = quality;
+				char readBase = Character.toUpperCase((char) readBases[readIndex]);
+				char forwardSenseReadBase = SamUtils.getForwardSenseReadBase(context.samRefSense, readBase);
+				if(forwardSenseReadBase == '=') {
+					throw new SamUtilsException(SamUtilsException.Code.ALIGNMENT_LINE_USES_EQUALS);
+				}
+				int index = SamUtils.getForwardSenseSamRefIndex(context.samRefSense, context.samReferenceLength, refStart, baseIndex);
+				switch(forwardSenseReadBase) {
+				case 'A':
+				case 'C':
+				case 'G':
+				case 'T':
+				case 'N':
+					buffer.record(index, (byte) forwardSenseReadBase, (byte) qScore);
+					break;
+				default:
+					throw new SamUtilsException(SamUtilsException.Code.ALIGNMENT_LINE_USES_UNKNOWN_CHARACTER, Character.toString(readBase), Integer.toString(readBase));
+				}
+			}
 		}
 	}
 	
-	
 }
@@ -26,14 +26,9 @@
 package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
-import gnu.trove.map.TIntObjectMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
 import htsjdk.samtools.SamReader;
 import uk.ac.gla.cvr.gluetools.core.command.CmdMeta;
 import uk.ac.gla.cvr.gluetools.core.command.CommandClass;
@@ -92,7 +87,7 @@ import uk.ac.gla.cvr.gluetools.core.segments.ReferenceSegment;
 					"<minQScore> (default value is derived from the module config). \n"+
 					"No depth result will be generated for a nucleotide position if the number of contributing reads is less than <minDepth> "+
 					"(default value is derived from the module config)",
-		metaTags = {CmdMeta.consoleOnly}	
+		metaTags = {CmdMeta.consumesBinaryFile}	
 )
 public class SamDepthCommand extends SamBaseNucleotideCommand
 	<SamDepthResult, SamDepthCommandContext, SamDepthCommandInterimResult> 
@@ -103,39 +98,41 @@ public class SamDepthCommand extends SamBaseNucleotideCommand
 	protected SamDepthResult formResult(
 			CommandContext cmdContext, SamDepthCommandInterimResult mergedResult, SamReporter samReporter) {
 		
-		List<SamContributingReadsCount> contributingReadsCounts= new ArrayList<SamContributingReadsCount>(mergedResult.getRelatedRefNtToInfo().valueCollection());
+		List<SamContributingReadsCount> contributingReadsCounts = new ArrayList<SamContributingReadsCount>();
         int minDepth = getMinDepth(samReporter);
-        contributingReadsCounts = contributingReadsCounts.stream()
-        		.filter(nrc -> nrc.getTotalContributingReads() >= minDepth)
-        		.collect(Collectors.toList());
-        
-        Comparator<SamContributingReadsCount> comparator = new Comparator<SamContributingReadsCount>() {
-			@Override
-			public int compare(SamContributingReadsCount nrc1, SamContributingReadsCount nrc2) {
-				return Integer.compare(nrc1.getRelatedRefNt(), nrc2.getRelatedRefNt());
-			}};
-		Collections.sort(contributingReadsCounts, comparator);
+		int[] columnSamRefNts = mergedResult.getColumnSamRefNts();
+		boolean[] selectedColumns = mergedResult.getSelectedColumns();
+		// columns are in related ref order, so the result rows are already sorted.
+		for(int column = 0; column < columnSamRefNts.length; column++) {
+			Integer samRefNt = null;
+			if(columnSamRefNts[column] != SamBaseNucleotideCommandContext.NO_SAM_REF_NT) {
+				samRefNt = columnSamRefNts[column];
+			} else if(!selectedColumns[column]) {
+				continue;
+			}
+			SamContributingReadsCount contributingReadsCount = new SamContributingReadsCount(samRefNt, column + mergedResult.getRelatedRefMin());
+			contributingReadsCount.setTotalContributingReads(mergedResult.getContributingReads()[column]);
+			if(contributingReadsCount.getTotalContributingReads() >= minDepth) {
+				contributingReadsCounts.add(contributingReadsCount);
+			}
+		}
  		return new SamDepthResult(contributingReadsCounts);
 	}
 
 	
 	@Override
 	public SamDepthCommandInterimResult contextResult(SamDepthCommandContext context) {
-		return new SamDepthCommandInterimResult(context.getRelatedRefNtToInfo());
+		return new SamDepthCommandInterimResult(context.getRelatedRefMin(), context.getColumnSamRefNts(), 
+				context.getSelectedColumns(), context.getContributingReads());
 	}
 
 	@Override
 	public SamDepthCommandInterimResult reduceResults(SamDepthCommandInterimResult result1, SamDepthCommandInterimResult result2) {
-		SamDepthCommandInterimResult mergedResult = new SamDepthCommandInterimResult(new TIntObjectHashMap<SamContributingReadsCount>());
-		for(int key: result1.getRelatedRefNtToInfo().keys()) {
-			SamContributingReadsCount count1 = result1.getRelatedRefNtToInfo().get(key);
-			SamContributingReadsCount count2 = result2.getRelatedRefNtToInfo().get(key);
-			
-			SamContributingReadsCount mergedCount = new SamContributingReadsCount(count1.getSamRefNt(), count1.getRelatedRefNt());
-			mergedCount.setTotalContributingReads(count1.getTotalContributingReads() + count2.getTotalContributingReads());
-			mergedResult.getRelatedRefNtToInfo().put(key, mergedCount);
+		// worker contexts are finished with at this point so result1's columns can be reused.
+		for(int column = 0; column < result1.getContributingReads().length; column++) {
+			result1.getContributingReads()[column] += result2.getContributingReads()[column];
 		}
-		return mergedResult;
+		return result1;
 	}
 
 
@@ -148,33 +145,11 @@ public class SamDepthCommand extends SamBaseNucleotideCommand
 	}
 
 	@Override
-	protected Supplier<SamDepthCommandContext> getContextSupplier(SamRecordFilter samRecordFilter, SamRefInfo samRefInfo, SamRefSense samRefSense, List<QueryAlignedSegment> samRefToRelatedRefSegs, List<ReferenceSegment> selectedRefSegs, SamReporter samReporter) {
-		return () -> {
-			SamDepthCommandContext context = new SamDepthCommandContext(samReporter, samRefInfo, 
-					QueryAlignedSegment.cloneList(samRefToRelatedRefSegs), 
+	protected Supplier<SamDepthCommandContext> getContextSupplier(SamRecordFilter samRecordFilter, SamRefInfo samRefInfo, SamRefSense samRefSense, List<QueryAlignedSegment> samRefToRelatedRefSegs, SamRefToRelatedRefLookup samRefToRelatedRefLookup, List<ReferenceSegment> selectedRefSegs, SamReporter samReporter) {
+		return () -> new SamDepthCommandContext(samReporter, samRefInfo, 
+					QueryAlignedSegment.cloneList(samRefToRelatedRefSegs), samRefToRelatedRefLookup, 
 					ReferenceSegment.cloneListR(selectedRefSegs),
 					samRefSense, samRecordFilter);
-			TIntObjectMap<SamContributingReadsCount> relatedRefNtToInfo = context.getRelatedRefNtToInfo();
-			for(QueryAlignedSegment samRefToRelatedRefSeg: context.getSamRefToRelatedRefSegs()) {
-				for(int samRefNt = samRefToRelatedRefSeg.getQueryStart(); samRefNt <= samRefToRelatedRefSeg.getQueryEnd(); samRefNt++) {
-					int relatedRefNt = samRefNt+samRefToRelatedRefSeg.getQueryToReferenceOffset();
-					int resultSamRefNt = samRefNt;
-					if(context.getSamRefSense().equals(SamRefSense.REVERSE_COMPLEMENT)) {
-						// we want to report results in the SAM file's own coordinates.
-						resultSamRefNt = ReferenceSegment.reverseLocationSense(context.getSamRefInfo().getSamRefLength(), samRefNt);
-					}
-					relatedRefNtToInfo.put(relatedRefNt, new SamContributingReadsCount(resultSamRefNt, relatedRefNt));
-				}
-			}
-			for(ReferenceSegment refSeg: context.getSelectedRefSegs()) {
-				for(int relatedRefNt = refSeg.getRefStart(); relatedRefNt <= refSeg.getRefEnd(); relatedRefNt++) {
-					if(!relatedRefNtToInfo.containsKey(relatedRefNt)) {
-						relatedRefNtToInfo.put(relatedRefNt, new SamContributingReadsCount(null, relatedRefNt));
-					}
-				}
-			}
-			return context;
-		};
 	}
 
 
@@ -185,7 +160,7 @@ public class SamDepthCommand extends SamBaseNucleotideCommand
 
 	@Override
 	protected void processReadBase(SamDepthCommandContext context, String readName, int relatedRefNt, char base) {
-		context.getRelatedRefNtToInfo().get(relatedRefNt).incrementTotalContributingReads();
+		context.getContributingReads()[relatedRefNt - context.getRelatedRefMin()]++;
 	}
 
 	
@@ -2,8 +2,6 @@ package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
 
 import java.util.List;
 
-import gnu.trove.map.TIntObjectMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
 import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.BaseSamReporterCommand.SamRefInfo;
 import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporter.SamRefSense;
 import uk.ac.gla.cvr.gluetools.core.segments.QueryAlignedSegment;
@@ -11,17 +9,18 @@ import uk.ac.gla.cvr.gluetools.core.segments.ReferenceSegment;
 
 public class SamDepthCommandContext extends SamBaseNucleotideCommandContext {
 
-	private TIntObjectMap<SamContributingReadsCount> relatedRefNtToInfo;
+	// per-column depth, indexed by related ref nucleotide minus relatedRefMin
+	private int[] contributingReads;
 
 	public SamDepthCommandContext(SamReporter samReporter, SamRefInfo samRefInfo,
-			List<QueryAlignedSegment> samRefToRelatedRefSegs, List<ReferenceSegment> selectedRefSegs, 
-			SamRefSense samRefSense, SamRecordFilter samRecordFilter) {
-		super(samReporter, samRefInfo, samRefToRelatedRefSegs, selectedRefSegs, samRefSense, samRecordFilter);
-		this.relatedRefNtToInfo = new TIntObjectHashMap<SamContributingReadsCount>();
+			List<QueryAlignedSegment> samRefToRelatedRefSegs, SamRefToRelatedRefLookup samRefToRelatedRefLookup, 
+			List<ReferenceSegment> selectedRefSegs, SamRefSense samRefSense, SamRecordFilter samRecordFilter) {
+		super(samReporter, samRefInfo, samRefToRelatedRefSegs, samRefToRelatedRefLookup, selectedRefSegs, samRefSense, samRecordFilter);
+		this.contributingReads = new int[getNumColumns()];
 	}
 
-	public TIntObjectMap<SamContributingReadsCount> getRelatedRefNtToInfo() {
-		return relatedRefNtToInfo;
+	public int[] getContributingReads() {
+		return contributingReads;
 	}
 
 }
@@ -1,19 +1,33 @@
 package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
 
-import gnu.trove.map.TIntObjectMap;
-
 public class SamDepthCommandInterimResult extends SamBaseNucleotideCommandInterimResult {
-	private TIntObjectMap<SamContributingReadsCount> relatedRefNtToInfo;
+	private int relatedRefMin;
+	private int[] columnSamRefNts;
+	private boolean[] selectedColumns;
+	private int[] contributingReads;
 
-	public SamDepthCommandInterimResult(TIntObjectMap<SamContributingReadsCount> relatedRefNtToInfo) {
+	public SamDepthCommandInterimResult(int relatedRefMin, int[] columnSamRefNts, boolean[] selectedColumns, int[] contributingReads) {
 		super();
-		this.relatedRefNtToInfo = relatedRefNtToInfo;
+		this.relatedRefMin = relatedRefMin;
+		this.columnSamRefNts = columnSamRefNts;
+		this.selectedColumns = selectedColumns;
+		this.contributingReads = contributingReads;
+	}
+
+	public int getRelatedRefMin() {
+		return relatedRefMin;
+	}
+
+	public int[] getColumnSamRefNts() {
+		return columnSamRefNts;
+	}
+
+	public boolean[] getSelectedColumns() {
+		return selectedColumns;
 	}
 
-	public TIntObjectMap<SamContributingReadsCount> getRelatedRefNtToInfo() {
-		return relatedRefNtToInfo;
+	public int[] getContributingReads() {
+		return contributingReads;
 	}
-	
-	
 
 }
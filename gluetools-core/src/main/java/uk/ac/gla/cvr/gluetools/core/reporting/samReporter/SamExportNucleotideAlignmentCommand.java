@@ -172,12 +172,12 @@ public class SamExportNucleotideAlignmentCommand extends SamBaseNucleotideComman
 	@Override
 	protected Supplier<SamExportNucleotideAlignmentCommandContext> getContextSupplier(SamRecordFilter samRecordFilter, 
 			SamRefInfo samRefInfo, SamRefSense samRefSense, 
-			List<QueryAlignedSegment> samRefToRelatedRefSegs, 
+			List<QueryAlignedSegment> samRefToRelatedRefSegs, SamRefToRelatedRefLookup samRefToRelatedRefLookup, 
 			List<ReferenceSegment> selectedRefSegs, SamReporter samReporter) {
 		return () -> {
 			SamExportNucleotideAlignmentCommandContext context = 
 					new SamExportNucleotideAlignmentCommandContext(samReporter, samRefInfo, 
-							QueryAlignedSegment.cloneList(samRefToRelatedRefSegs), samRefSense, selectedRefSegs, samRecordFilter);
+							QueryAlignedSegment.cloneList(samRefToRelatedRefSegs), samRefToRelatedRefLookup, samRefSense, selectedRefSegs, samRecordFilter);
 			return context;
 		};
 	}
@@ -19,10 +19,10 @@ public class SamExportNucleotideAlignmentCommandContext extends SamBaseNucleotid
 	private int almtRowWidth;
 	
 	public SamExportNucleotideAlignmentCommandContext(SamReporter samReporter, SamRefInfo samRefInfo,
-			List<QueryAlignedSegment> samRefToRelatedRefSegs, SamRefSense samRefSense,
-			List<ReferenceSegment> selectedRefSegs, 
+			List<QueryAlignedSegment> samRefToRelatedRefSegs, SamRefToRelatedRefLookup samRefToRelatedRefLookup, 
+			SamRefSense samRefSense, List<ReferenceSegment> selectedRefSegs, 
 			SamRecordFilter samRecordFilter) {
-		super(samReporter, samRefInfo, samRefToRelatedRefSegs, selectedRefSegs, samRefSense, samRecordFilter);
+		super(samReporter, samRefInfo, samRefToRelatedRefSegs, samRefToRelatedRefLookup, selectedRefSegs, samRefSense, samRecordFilter);
 		int almtRowNt = 0;
 		for(ReferenceSegment refSeg: selectedRefSegs) {
 			for(int i = refSeg.getRefStart(); i <= refSeg.getRefEnd(); i++) {
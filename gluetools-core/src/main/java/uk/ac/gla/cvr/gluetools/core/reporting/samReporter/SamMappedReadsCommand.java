@@ -33,7 +33,6 @@ import uk.ac.gla.cvr.gluetools.core.command.CmdMeta;
 import uk.ac.gla.cvr.gluetools.core.command.CommandClass;
 import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.CompleterClass;
-import uk.ac.gla.cvr.gluetools.core.command.console.ConsoleCommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.project.module.ProvidedProjectModeCommand;
 import uk.ac.gla.cvr.gluetools.core.logging.GlueLogger;
 
@@ -50,7 +49,7 @@ import uk.ac.gla.cvr.gluetools.core.logging.GlueLogger;
 			"mapped to some other reference. "+
 			"The <sanmRefName> specifies a reference sequence named in the SAM/BAM file. If <samRefName> is omitted, it is assumed that the input "+
 			"file only names a single reference sequence, if not an error is thrown.",
-		metaTags = {CmdMeta.consoleOnly}	
+		metaTags = {CmdMeta.consumesBinaryFile}	
 )
 public class SamMappedReadsCommand extends BaseSamReporterCommand<SamMappedReadsResult> 
 	implements ProvidedProjectModeCommand {
@@ -58,13 +57,12 @@ public class SamMappedReadsCommand extends BaseSamReporterCommand<SamMappedReads
 
 	@Override
 	protected SamMappedReadsResult execute(CommandContext cmdContext, SamReporter samReporter) {
-		ConsoleCommandContext consoleCmdContext = (ConsoleCommandContext) cmdContext;
-		SamRefInfo samRefInfo = getSamRefInfo(consoleCmdContext, samReporter);
+		SamRefInfo samRefInfo = getSamRefInfo(cmdContext, samReporter);
 		ValidationStringency validationStringency = samReporter.getSamReaderValidationStringency();
 		
 		ResultStats resultStats = new ResultStats();
 
-		try(SamReader samReader = SamUtils.newSamReader(consoleCmdContext, getFileName(), validationStringency)) {
+		try(SamReader samReader = SamUtils.newSamReader(cmdContext, getFileName(), validationStringency)) {
 			SamUtils.ReferenceBasedRecordFilter recordFilter = new SamUtils.ReferenceBasedRecordFilter(samReader, getFileName(), getSuppliedSamRefName());
 			SamUtils.iterateOverSamReader(samReader, samRecord -> {
 				if(recordFilter.recordPasses(samRecord)) {
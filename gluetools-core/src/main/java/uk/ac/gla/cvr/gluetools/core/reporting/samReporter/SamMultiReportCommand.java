@@ -0,0 +1,193 @@
+/**
+ *    GLUE: A flexible system for virus sequence data
+ *    Copyright (C) 2018 The University of Glasgow
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Affero General Public License as published
+ *    by the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Affero General Public License for more details.
+
+ *    You should have received a copy of the GNU Affero General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact details:
+ *    MRC-University of Glasgow Centre for Virus Research
+ *    Sir Michael Stoker Building, Garscube Campus, 464 Bearsden Road, 
+ *    Glasgow G61 1QH, United Kingdom
+ *    
+ *    Josh Singer: josh.singer@glasgow.ac.uk
+ *    Rob Gifford: robert.gifford@glasgow.ac.uk
+*/
+package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.w3c.dom.Element;
+
+import uk.ac.gla.cvr.gluetools.core.command.CmdMeta;
+import uk.ac.gla.cvr.gluetools.core.command.CommandBuilder;
+import uk.ac.gla.cvr.gluetools.core.command.CommandClass;
+import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
+import uk.ac.gla.cvr.gluetools.core.command.CommandException;
+import uk.ac.gla.cvr.gluetools.core.command.CommandException.Code;
+import uk.ac.gla.cvr.gluetools.core.command.CompleterClass;
+import uk.ac.gla.cvr.gluetools.core.command.project.module.ProvidedProjectModeCommand;
+import uk.ac.gla.cvr.gluetools.core.command.result.CommandResult;
+import uk.ac.gla.cvr.gluetools.core.plugins.PluginConfigContext;
+import uk.ac.gla.cvr.gluetools.core.plugins.PluginConfigException;
+import uk.ac.gla.cvr.gluetools.core.plugins.PluginUtils;
+import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporterPreprocessor.SamReporterPreprocessorSession;
+
+@CommandClass(
+		commandWords={"multi-report"},
+		description = "Produce several reports from a single pass over a SAM/BAM file",
+		docoptUsages = { "-i <fileName> [-n <samRefSense>] [-s <samRefName>] -r <relRefName> -f <featureName> [-d] (-p | [-l] -t <targetRefName>) -a <linkingAlmtName> [-w <whereClause>] [-q <minQScore>] [-g <minMapQ>] [-e <minDepth>] <reportType> ..." },
+		docoptOptions = {
+				"-i <fileName>, --fileName <fileName>                       SAM/BAM input file",
+				"-n <samRefSense>, --samRefSense <samRefSense>              SAM ref seq sense",
+				"-s <samRefName>, --samRefName <samRefName>                 Specific SAM ref seq",
+				"-r <relRefName>, --relRefName <relRefName>                 Related reference sequence",
+				"-f <featureName>, --featureName <featureName>              Feature",
+				"-d, --descendentFeatures                                   Include descendent features",
+				"-p, --maxLikelihoodPlacer                                  Use ML placer module",
+				"-l, --autoAlign                                            Auto-align consensus",
+				"-t <targetRefName>, --targetRefName <targetRefName>        Target GLUE reference",
+				"-a <linkingAlmtName>, --linkingAlmtName <linkingAlmtName>  Linking alignment",
+				"-w <whereClause>, --whereClause <whereClause>              Qualify variations",
+				"-q <minQScore>, --minQScore <minQScore>                    Minimum Phred quality score",
+				"-g <minMapQ>, --minMapQ <minMapQ>                          Minimum mapping quality score",
+				"-e <minDepth>, --minDepth <minDepth>                       Minimum depth",
+		},
+		furtherHelp =
+			"This command produces several of the SAM reporter's reports using a single pass over the reads of a SAM/BAM file, "+
+			"rather than decoding the file once per report. "+
+			"Each <reportType> may be DEPTH, NUCLEOTIDE, AMINO_ACID or VARIATION_SCAN, and the results are equivalent "+
+			"to those of the 'depth', 'nucleotide', 'amino-acid' and 'variation scan' commands respectively, run with the same options. "+
+			"The result document contains the result of each report under its own root name.\n"+
+			"The --descendentFeatures and <whereClause> options apply only to the VARIATION_SCAN report.",
+		metaTags = {CmdMeta.consumesBinaryFile}
+)
+public class SamMultiReportCommand extends ReferenceLinkedSamReporterCommand<SamMultiReportResult>
+	implements ProvidedProjectModeCommand {
+
+	public static final String REPORT_TYPE = "reportType";
+	public static final String WHERE_CLAUSE = SamVariationScanCommand.WHERE_CLAUSE;
+	public static final String DESCENDENT_FEATURES = SamVariationScanCommand.DESCENDENT_FEATURES;
+
+	public enum SamReportType {
+		DEPTH,
+		NUCLEOTIDE,
+		AMINO_ACID,
+		VARIATION_SCAN
+	}
+
+	private List<SamReportType> reportTypes;
+	private String whereClause;
+	private Boolean descendentFeatures;
+
+	@Override
+	public void configure(PluginConfigContext pluginConfigContext, Element configElem) {
+		super.configure(pluginConfigContext, configElem);
+		// validated when the variation scan command is built.
+		this.whereClause = PluginUtils.configureStringProperty(configElem, WHERE_CLAUSE, false);
+		this.descendentFeatures = Optional.ofNullable(PluginUtils.configureBooleanProperty(configElem, DESCENDENT_FEATURES, false)).orElse(false);
+		Set<SamReportType> reportTypeSet = new LinkedHashSet<SamReportType>();
+		for(String reportTypeString: PluginUtils.configureStringsProperty(configElem, REPORT_TYPE, 1, null)) {
+			try {
+				reportTypeSet.add(SamReportType.valueOf(reportTypeString));
+			} catch(IllegalArgumentException iae) {
+				String msg = "Allowed values: "+Arrays.asList(SamReportType.values());
+				throw new PluginConfigException(PluginConfigException.Code.PROPERTY_FORMAT_ERROR, REPORT_TYPE, msg, reportTypeString);
+			}
+		}
+		this.reportTypes = new ArrayList<SamReportType>(reportTypeSet);
+		if(this.getFeatureName() == null || this.getRelatedRefName() == null) {
+			throw new CommandException(Code.COMMAND_USAGE_ERROR, "The <relRefName> and <featureName> arguments must be specified");
+		}
+	}
+
+	@Override
+	protected SamMultiReportResult execute(CommandContext cmdContext, SamReporter samReporter) {
+		List<SamReportPlanner<?>> reportPlanners = reportTypes.stream()
+				.map(reportType -> buildReportPlanner(cmdContext, reportType))
+				.collect(Collectors.toList());
+		try(SamReporterPreprocessorSession samReporterPreprocessorSession = SamReporterPreprocessor.getPreprocessorSession(cmdContext, getFileName(), samReporter)) {
+			List<SamReportPlan<?>> reportPlans = new ArrayList<SamReportPlan<?>>();
+			List<SamReportPass<?, ?>> allPasses = new ArrayList<SamReportPass<?, ?>>();
+			for(SamReportPlanner<?> reportPlanner: reportPlanners) {
+				SamReportPlan<?> reportPlan = reportPlanner.planReport(cmdContext, samReporter, samReporterPreprocessorSession);
+				reportPlans.add(reportPlan);
+				allPasses.addAll(reportPlan.getPasses());
+			}
+			// every pass of every report is fanned out from the same iteration over the reads.
+			SamMultiReportProcessor.runPasses(allPasses, cmdContext, samReporterPreprocessorSession,
+					samReporter.getSamReaderValidationStringency());
+			List<CommandResult> reportResults = new ArrayList<CommandResult>();
+			for(SamReportPlan<?> reportPlan: reportPlans) {
+				reportResults.add(reportPlan.formResult());
+			}
+			return new SamMultiReportResult(reportResults);
+		}
+	}
+
+	private SamReportPlanner<?> buildReportPlanner(CommandContext cmdContext, SamReportType reportType) {
+		switch(reportType) {
+		case DEPTH:
+			return setCommonOptions(cmdContext.cmdBuilder(SamDepthCommand.class)).build();
+		case NUCLEOTIDE:
+			return setCommonOptions(cmdContext.cmdBuilder(SamNucleotideCommand.class)).build();
+		case AMINO_ACID:
+			return setCommonOptions(cmdContext.cmdBuilder(SamAminoAcidCommand.class)).build();
+		case VARIATION_SCAN:
+			CommandBuilder<SamVariationScanResult, SamVariationScanCommand> variationScanBuilder =
+				setCommonOptions(cmdContext.cmdBuilder(SamVariationScanCommand.class));
+			if(whereClause != null) {
+				variationScanBuilder.setString(WHERE_CLAUSE, whereClause);
+			}
+			variationScanBuilder.setBoolean(DESCENDENT_FEATURES, descendentFeatures);
+			return variationScanBuilder.build();
+		default:
+			throw new CommandException(Code.COMMAND_FAILED_ERROR, "Unhandled report type "+reportType.name());
+		}
+	}
+
+	private <R extends CommandResult, C extends ReferenceLinkedSamReporterCommand<R>> CommandBuilder<R, C> setCommonOptions(CommandBuilder<R, C> cmdBuilder) {
+		cmdBuilder.setString(FILE_NAME, getFileName());
+		if(getSuppliedSamRefName() != null) {
+			cmdBuilder.setString(SAM_REF_NAME, getSuppliedSamRefName());
+		}
+		getSuppliedSamRefSense().ifPresent(samRefSense -> cmdBuilder.setString(SAM_REF_SENSE, samRefSense.name()));
+		cmdBuilder.setString(REL_REF_NAME, getRelatedRefName());
+		cmdBuilder.setString(FEATURE_NAME, getFeatureName());
+		cmdBuilder.setBoolean(MAX_LIKELIHOOD_PLACER, useMaxLikelihoodPlacer());
+		cmdBuilder.setBoolean(AUTO_ALIGN, useAutoAlign());
+		if(getTargetRefName() != null) {
+			cmdBuilder.setString(TARGET_REF_NAME, getTargetRefName());
+		}
+		cmdBuilder.setString(LINKING_ALMT_NAME, getLinkingAlmtName());
+		getSuppliedMinQScore().ifPresent(minQScore -> cmdBuilder.setInt(MIN_Q_SCORE, minQScore));
+		getSuppliedMinMapQ().ifPresent(minMapQ -> cmdBuilder.setInt(MIN_MAP_Q, minMapQ));
+		getSuppliedMinDepth().ifPresent(minDepth -> cmdBuilder.setInt(MIN_DEPTH, minDepth));
+		return cmdBuilder;
+	}
+
+	@CompleterClass
+	public static class Completer extends ReferenceLinkedSamReporterCommand.Completer {
+		public Completer() {
+			super();
+			registerEnumLookup("reportType", SamReportType.class);
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.ValidationStringency;
+import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
+import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporterPreprocessor.SamReporterPreprocessorSession;
+
+/*
+ * Fans each read or read pair out to the processors of several report passes,
+ * so that the passes share a single decode of the SAM/BAM file.
+ * Each worker context is an array holding one context per pass,
+ * and results are reduced element-wise.
+ */
+public class SamMultiReportProcessor implements SamPairedParallelProcessor<Object[], Object[]> {
+
+	private SamReportPass<?, ?>[] passes;
+
+	public SamMultiReportProcessor(List<SamReportPass<?, ?>> passes) {
+		super();
+		this.passes = passes.toArray(new SamReportPass<?, ?>[passes.size()]);
+	}
+
+	// run all the passes over the reads, setting the merged result on each pass.
+	public static void runPasses(List<SamReportPass<?, ?>> passes, CommandContext cmdContext,
+			SamReporterPreprocessorSession samReporterPreprocessorSession, ValidationStringency validationStringency) {
+		if(passes.isEmpty()) {
+			return;
+		}
+		if(passes.size() == 1) {
+			runSinglePass(passes.get(0), cmdContext, samReporterPreprocessorSession, validationStringency);
+			return;
+		}
+		SamMultiReportProcessor multiReportProcessor = new SamMultiReportProcessor(passes);
+		SamRefRegion samRefRegion = SamRefRegion.union(passes.stream().map(SamReportPass::getSamRefRegion).collect(Collectors.toList()));
+		Object[] mergedResults = SamUtils.pairedParallelSamIterate(multiReportProcessor::newContext, cmdContext,
+				samReporterPreprocessorSession, validationStringency, samRefRegion, multiReportProcessor);
+		for(int i = 0; i < multiReportProcessor.passes.length; i++) {
+			multiReportProcessor.passes[i].setMergedResultUnchecked(mergedResults[i]);
+		}
+	}
+
+	private static <C, IR> void runSinglePass(SamReportPass<C, IR> pass, CommandContext cmdContext,
+			SamReporterPreprocessorSession samReporterPreprocessorSession, ValidationStringency validationStringency) {
+		pass.setMergedResult(SamUtils.pairedParallelSamIterate(pass.getContextSupplier(), cmdContext,
+				samReporterPreprocessorSession, validationStringency, pass.getSamRefRegion(), pass.getProcessor()));
+	}
+
+	private Object[] newContext() {
+		Object[] contexts = new Object[passes.length];
+		for(int i = 0; i < passes.length; i++) {
+			contexts[i] = passes[i].newContext();
+		}
+		return contexts;
+	}
+
+	@Override
+	public void initContextForReader(Object[] contexts, SamReader reader) {
+		for(int i = 0; i < passes.length; i++) {
+			passes[i].initContextForReader(contexts[i], reader);
+		}
+	}
+
+	@Override
+	public void processPair(Object[] contexts, SAMRecord read1, SAMRecord read2) {
+		for(int i = 0; i < passes.length; i++) {
+			passes[i].processPair(contexts[i], read1, read2);
+		}
+	}
+
+	@Override
+	public void processSingleton(Object[] contexts, SAMRecord read) {
+		for(int i = 0; i < passes.length; i++) {
+			passes[i].processSingleton(contexts[i], read);
+		}
+	}
+
+	@Override
+	public Object[] contextResult(Object[] contexts) {
+		Object[] results = new Object[passes.length];
+		for(int i = 0; i < passes.length; i++) {
+			results[i] = passes[i].contextResult(contexts[i]);
+		}
+		return results;
+	}
+
+	@Override
+	public Object[] reduceResults(Object[] results1, Object[] results2) {
+		for(int i = 0; i < passes.length; i++) {
+			results1[i] = passes[i].reduceResults(results1[i], results2[i]);
+		}
+		return results1;
+	}
+
+}
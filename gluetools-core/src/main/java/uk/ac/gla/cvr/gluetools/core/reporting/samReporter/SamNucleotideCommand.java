@@ -26,13 +26,9 @@
 package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
-import gnu.trove.map.hash.TIntObjectHashMap;
 import uk.ac.gla.cvr.gluetools.core.command.CmdMeta;
 import uk.ac.gla.cvr.gluetools.core.command.CommandClass;
 import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
@@ -90,7 +86,7 @@ import uk.ac.gla.cvr.gluetools.core.segments.ReferenceSegment;
 					"<minQScore> (default value is derived from the module config). \n"+
 					"No summary will be generated for a nucleotide position if the number of contributing reads is less than <minDepth> "+
 					"(default value is derived from the module config)",
-		metaTags = {CmdMeta.consoleOnly}	
+		metaTags = {CmdMeta.consumesBinaryFile}	
 )
 public class SamNucleotideCommand extends SamBaseNucleotideCommand
 	<SamNucleotideResult, SamNucleotideCommandContext, SamNucleotideCommandInterimResult>
@@ -99,79 +95,64 @@ public class SamNucleotideCommand extends SamBaseNucleotideCommand
 
 	@Override
 	protected void processReadBase(SamNucleotideCommandContext context, String readName, int relatedRefNt, char base) {
-		SamNucleotideResidueCount residueCount = context.getRelatedRefNtToInfo().get(relatedRefNt);
+		int column = relatedRefNt - context.getRelatedRefMin();
 		if(base == 'A') {
-			residueCount.incrementReadsWithA();
+			context.getReadsWithA()[column]++;
 		} else if(base == 'C') {
-			residueCount.incrementReadsWithC();
+			context.getReadsWithC()[column]++;
 		} else if(base == 'G') {
-			residueCount.incrementReadsWithG();
+			context.getReadsWithG()[column]++;
 		} else if(base == 'T') {
-			residueCount.incrementReadsWithT();
+			context.getReadsWithT()[column]++;
 		}
 	}
 
 	@Override
 	protected SamNucleotideResult formResult(
 			CommandContext cmdContext, SamNucleotideCommandInterimResult mergedResult, SamReporter samReporter) {
-		List<SamNucleotideResidueCount> nucleotideReadCounts = new ArrayList<SamNucleotideResidueCount>(mergedResult.getRelatedRefNtToInfo().valueCollection());
-
+		List<SamNucleotideResidueCount> nucleotideReadCounts = new ArrayList<SamNucleotideResidueCount>();
 		int minDepth = getMinDepth(samReporter);
-		nucleotideReadCounts = nucleotideReadCounts.stream()
-        		.filter(nrc -> nrc.getTotalContributingReads() >= minDepth)
-        		.collect(Collectors.toList());
-        
-        Comparator<SamNucleotideResidueCount> comparator = new Comparator<SamNucleotideResidueCount>() {
-			@Override
-			public int compare(SamNucleotideResidueCount nrc1, SamNucleotideResidueCount nrc2) {
-				return Integer.compare(nrc1.getRelatedRefNt(), nrc2.getRelatedRefNt());
-			}};
-		Collections.sort(nucleotideReadCounts, comparator);
+		int[] columnSamRefNts = mergedResult.getColumnSamRefNts();
+		// columns are in related ref order, so the result rows are already sorted.
+		for(int column = 0; column < columnSamRefNts.length; column++) {
+			if(columnSamRefNts[column] == SamBaseNucleotideCommandContext.NO_SAM_REF_NT) {
+				continue;
+			}
+			SamNucleotideResidueCount residueCount = new SamNucleotideResidueCount(columnSamRefNts[column], column + mergedResult.getRelatedRefMin());
+			residueCount.setReadsWithA(mergedResult.getReadsWithA()[column]);
+			residueCount.setReadsWithC(mergedResult.getReadsWithC()[column]);
+			residueCount.setReadsWithG(mergedResult.getReadsWithG()[column]);
+			residueCount.setReadsWithT(mergedResult.getReadsWithT()[column]);
+			if(residueCount.getTotalContributingReads() >= minDepth) {
+				nucleotideReadCounts.add(residueCount);
+			}
+		}
  		return new SamNucleotideResult(nucleotideReadCounts);
 	}
 
 	@Override
 	public SamNucleotideCommandInterimResult contextResult(SamNucleotideCommandContext context) {
-		return new SamNucleotideCommandInterimResult(context.getRelatedRefNtToInfo());
+		return new SamNucleotideCommandInterimResult(context.getRelatedRefMin(), context.getColumnSamRefNts(), 
+				context.getReadsWithA(), context.getReadsWithC(), context.getReadsWithG(), context.getReadsWithT());
 	}
 
 	@Override
 	public SamNucleotideCommandInterimResult reduceResults(SamNucleotideCommandInterimResult result1, SamNucleotideCommandInterimResult result2) {
-		SamNucleotideCommandInterimResult mergedResult = new SamNucleotideCommandInterimResult(new TIntObjectHashMap<SamNucleotideResidueCount>());
-		
-		for(int key: result1.getRelatedRefNtToInfo().keys()) {
-			SamNucleotideResidueCount count1 = result1.getRelatedRefNtToInfo().get(key);
-			SamNucleotideResidueCount count2 = result2.getRelatedRefNtToInfo().get(key);
-			
-			SamNucleotideResidueCount mergedCount = new SamNucleotideResidueCount(count1.getSamRefNt(), count1.getRelatedRefNt());
-			mergedCount.setReadsWithA(count1.getReadsWithA() + count2.getReadsWithA());
-			mergedCount.setReadsWithC(count1.getReadsWithC() + count2.getReadsWithC());
-			mergedCount.setReadsWithG(count1.getReadsWithG() + count2.getReadsWithG());
-			mergedCount.setReadsWithT(count1.getReadsWithT() + count2.getReadsWithT());
-			mergedResult.getRelatedRefNtToInfo().put(key, mergedCount);
+		// worker contexts are finished with at this point so result1's columns can be reused.
+		for(int column = 0; column < result1.getColumnSamRefNts().length; column++) {
+			result1.getReadsWithA()[column] += result2.getReadsWithA()[column];
+			result1.getReadsWithC()[column] += result2.getReadsWithC()[column];
+			result1.getReadsWithG()[column] += result2.getReadsWithG()[column];
+			result1.getReadsWithT()[column] += result2.getReadsWithT()[column];
 		}
-		return mergedResult;
+		return result1;
 	}
 
 	@Override
-	protected Supplier<SamNucleotideCommandContext> getContextSupplier(SamRecordFilter samRecordFilter, SamRefInfo samRefInfo, SamRefSense samRefSense, List<QueryAlignedSegment> samRefToRelatedRefSegs, List<ReferenceSegment> selectedRefSegs, SamReporter samReporter) {
-		return () -> {
-			SamNucleotideCommandContext context = new SamNucleotideCommandContext(samReporter, samRefInfo, 
-					QueryAlignedSegment.cloneList(samRefToRelatedRefSegs), 
+	protected Supplier<SamNucleotideCommandContext> getContextSupplier(SamRecordFilter samRecordFilter, SamRefInfo samRefInfo, SamRefSense samRefSense, List<QueryAlignedSegment> samRefToRelatedRefSegs, SamRefToRelatedRefLookup samRefToRelatedRefLookup, List<ReferenceSegment> selectedRefSegs, SamReporter samReporter) {
+		return () -> new SamNucleotideCommandContext(samReporter, samRefInfo, 
+					QueryAlignedSegment.cloneList(samRefToRelatedRefSegs), samRefToRelatedRefLookup, 
 					ReferenceSegment.cloneListR(selectedRefSegs), samRefSense, samRecordFilter);
-			for(QueryAlignedSegment samRefToRelatedRefSeg: context.getSamRefToRelatedRefSegs()) {
-				for(int samRefNt = samRefToRelatedRefSeg.getQueryStart(); samRefNt <= samRefToRelatedRefSeg.getQueryEnd(); samRefNt++) {
-					int relatedRefNt = samRefNt+samRefToRelatedRefSeg.getQueryToReferenceOffset();
-					int resultSamRefNt = samRefNt;
-					if(context.getSamRefSense().equals(SamRefSense.REVERSE_COMPLEMENT)) {
-						// we want to report results in the SAM file's own coordinates.
-						resultSamRefNt = ReferenceSegment.reverseLocationSense(context.getSamRefInfo().getSamRefLength(), samRefNt);
-					}
-					context.getRelatedRefNtToInfo().put(relatedRefNt, new SamNucleotideResidueCount(resultSamRefNt, relatedRefNt));
-				}
-			}
-			return context;
-		};
 	}
 
 	@CompleterClass
@@ -2,8 +2,6 @@ package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
 
 import java.util.List;
 
-import gnu.trove.map.TIntObjectMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
 import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.BaseSamReporterCommand.SamRefInfo;
 import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporter.SamRefSense;
 import uk.ac.gla.cvr.gluetools.core.segments.QueryAlignedSegment;
@@ -11,19 +9,36 @@ import uk.ac.gla.cvr.gluetools.core.segments.ReferenceSegment;
 
 public class SamNucleotideCommandContext extends SamBaseNucleotideCommandContext {
 
-	private TIntObjectMap<SamNucleotideResidueCount> relatedRefNtToInfo;
+	// per-column counts, indexed by related ref nucleotide minus relatedRefMin
+	private int[] readsWithA;
+	private int[] readsWithC;
+	private int[] readsWithG;
+	private int[] readsWithT;
 
 	public SamNucleotideCommandContext(SamReporter samReporter, SamRefInfo samRefInfo,
-			List<QueryAlignedSegment> samRefToRelatedRefSegs, List<ReferenceSegment> selectedRefSegs, 
-			SamRefSense samRefSense, SamRecordFilter samRecordFilter) {
-		super(samReporter, samRefInfo, samRefToRelatedRefSegs, selectedRefSegs, samRefSense, samRecordFilter);
-		this.relatedRefNtToInfo = new TIntObjectHashMap<SamNucleotideResidueCount>();
+			List<QueryAlignedSegment> samRefToRelatedRefSegs, SamRefToRelatedRefLookup samRefToRelatedRefLookup, 
+			List<ReferenceSegment> selectedRefSegs, SamRefSense samRefSense, SamRecordFilter samRecordFilter) {
+		super(samReporter, samRefInfo, samRefToRelatedRefSegs, samRefToRelatedRefLookup, selectedRefSegs, samRefSense, samRecordFilter);
+		this.readsWithA = new int[getNumColumns()];
+		this.readsWithC = new int[getNumColumns()];
+		this.readsWithG = new int[getNumColumns()];
+		this.readsWithT = new int[getNumColumns()];
 	}
 
-	public TIntObjectMap<SamNucleotideResidueCount> getRelatedRefNtToInfo() {
-		return relatedRefNtToInfo;
+	public int[] getReadsWithA() {
+		return readsWithA;
 	}
 
-	
+	public int[] getReadsWithC() {
+		return readsWithC;
+	}
+
+	public int[] getReadsWithG() {
+		return readsWithG;
+	}
+
+	public int[] getReadsWithT() {
+		return readsWithT;
+	}
 	
 }
@@ -1,17 +1,46 @@
 package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
 
-import gnu.trove.map.TIntObjectMap;
-
 public class SamNucleotideCommandInterimResult extends SamBaseNucleotideCommandInterimResult {
-	private TIntObjectMap<SamNucleotideResidueCount> relatedRefNtToInfo;
+	private int relatedRefMin;
+	private int[] columnSamRefNts;
+	private int[] readsWithA;
+	private int[] readsWithC;
+	private int[] readsWithG;
+	private int[] readsWithT;
 
-	public SamNucleotideCommandInterimResult(TIntObjectMap<SamNucleotideResidueCount> relatedRefNtToInfo) {
+	public SamNucleotideCommandInterimResult(int relatedRefMin, int[] columnSamRefNts, 
+			int[] readsWithA, int[] readsWithC, int[] readsWithG, int[] readsWithT) {
 		super();
-		this.relatedRefNtToInfo = relatedRefNtToInfo;
+		this.relatedRefMin = relatedRefMin;
+		this.columnSamRefNts = columnSamRefNts;
+		this.readsWithA = readsWithA;
+		this.readsWithC = readsWithC;
+		this.readsWithG = readsWithG;
+		this.readsWithT = readsWithT;
+	}
+
+	public int getRelatedRefMin() {
+		return relatedRefMin;
+	}
+
+	public int[] getColumnSamRefNts() {
+		return columnSamRefNts;
+	}
+
+	public int[] getReadsWithA() {
+		return readsWithA;
+	}
+
+	public int[] getReadsWithC() {
+		return readsWithC;
+	}
+
+	public int[] getReadsWithG() {
+		return readsWithG;
 	}
 
-	public TIntObjectMap<SamNucleotideResidueCount> getRelatedRefNtToInfo() {
-		return relatedRefNtToInfo;
+	public int[] getReadsWithT() {
+		return readsWithT;
 	}
 
 }
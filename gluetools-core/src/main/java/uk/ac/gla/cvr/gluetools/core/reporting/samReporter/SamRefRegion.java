@@ -0,0 +1,54 @@
+package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
+
+import java.util.List;
+
+/*
+ * A span of a named SAM reference, 1-based inclusive coordinates in the SAM/BAM file's own sense.
+ * Used to restrict iteration over an indexed BAM file to the reads which may contribute to a report.
+ */
+public class SamRefRegion {
+
+	private String samRefName;
+	private int start;
+	private int end;
+
+	public SamRefRegion(String samRefName, int start, int end) {
+		super();
+		this.samRefName = samRefName;
+		this.start = start;
+		this.end = end;
+	}
+
+	public String getSamRefName() {
+		return samRefName;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	/**
+	 * Smallest region containing all the given regions, or null (meaning the whole file) if any of them 
+	 * is null or they are on different SAM references.
+	 */
+	public static SamRefRegion union(List<SamRefRegion> regions) {
+		if(regions.isEmpty() || regions.contains(null)) {
+			return null;
+		}
+		String samRefName = regions.get(0).getSamRefName();
+		int start = Integer.MAX_VALUE;
+		int end = Integer.MIN_VALUE;
+		for(SamRefRegion region: regions) {
+			if(!region.getSamRefName().equals(samRefName)) {
+				return null;
+			}
+			start = Math.min(start, region.getStart());
+			end = Math.max(end, region.getEnd());
+		}
+		return new SamRefRegion(samRefName, start, end);
+	}
+}
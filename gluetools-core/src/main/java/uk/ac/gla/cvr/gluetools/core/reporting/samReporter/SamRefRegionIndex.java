@@ -0,0 +1,96 @@
+package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
+
+import java.util.List;
+
+import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporter.SamRefSense;
+import uk.ac.gla.cvr.gluetools.core.segments.ReferenceSegment;
+
+/*
+ * Index over the SAM reference, in the coordinates used by the SAM/BAM file, of those positions which map to
+ * selected regions of the related reference. Allows reads whose aligned span cannot touch any selected region
+ * to be rejected in constant time, before their bases are decoded or translated.
+ * Immutable, so may be shared between worker threads.
+ */
+public class SamRefRegionIndex {
+
+	// element i is the number of selected positions among SAM ref positions 1..i
+	private int[] selectedPrefixCounts;
+
+	/**
+	 * Index of the SAM ref positions which map to any related ref position. Where the lookup was built from 
+	 * segments already trimmed to the selected region, these are exactly the positions of interest.
+	 */
+	public SamRefRegionIndex(int samRefLength, SamRefSense samRefSense, SamRefToRelatedRefLookup samRefToRelatedRefLookup) {
+		this.selectedPrefixCounts = new int[samRefLength+1];
+		for(int samRefNt = 1; samRefNt <= samRefLength; samRefNt++) {
+			int relatedRefNt = samRefToRelatedRefLookup.relatedRefNt(forwardSamRefNt(samRefLength, samRefSense, samRefNt));
+			boolean selected = relatedRefNt != SamRefToRelatedRefLookup.NOT_MAPPED;
+			selectedPrefixCounts[samRefNt] = selectedPrefixCounts[samRefNt-1] + (selected ? 1 : 0);
+		}
+	}
+
+	public SamRefRegionIndex(int samRefLength, SamRefSense samRefSense,
+			SamRefToRelatedRefLookup samRefToRelatedRefLookup, List<? extends ReferenceSegment> selectedRelatedRefSegs) {
+		Integer maxRelatedRefNt = ReferenceSegment.maxRefEnd(selectedRelatedRefSegs);
+		boolean[] relatedRefNtSelected = new boolean[maxRelatedRefNt == null ? 1 : Math.max(0, maxRelatedRefNt)+1];
+		for(ReferenceSegment selectedSeg: selectedRelatedRefSegs) {
+			for(int relatedRefNt = Math.max(1, selectedSeg.getRefStart()); relatedRefNt <= selectedSeg.getRefEnd(); relatedRefNt++) {
+				relatedRefNtSelected[relatedRefNt] = true;
+			}
+		}
+		this.selectedPrefixCounts = new int[samRefLength+1];
+		for(int samRefNt = 1; samRefNt <= samRefLength; samRefNt++) {
+			int relatedRefNt = samRefToRelatedRefLookup.relatedRefNt(forwardSamRefNt(samRefLength, samRefSense, samRefNt));
+			boolean selected = relatedRefNt > 0 && relatedRefNt < relatedRefNtSelected.length && relatedRefNtSelected[relatedRefNt];
+			selectedPrefixCounts[samRefNt] = selectedPrefixCounts[samRefNt-1] + (selected ? 1 : 0);
+		}
+	}
+
+	private static int forwardSamRefNt(int samRefLength, SamRefSense samRefSense, int samRefNt) {
+		return samRefSense == SamRefSense.REVERSE_COMPLEMENT ?
+				ReferenceSegment.reverseLocationSense(samRefLength, samRefNt) : samRefNt;
+	}
+
+	/**
+	 * True if any SAM ref position in the range samRefStart..samRefEnd (inclusive, file coordinates)
+	 * maps to a selected related ref position.
+	 */
+	public boolean overlapsSelected(int samRefStart, int samRefEnd) {
+		int start = Math.max(1, samRefStart);
+		int end = Math.min(selectedPrefixCounts.length-1, samRefEnd);
+		if(start > end) {
+			return false;
+		}
+		return selectedPrefixCounts[end] - selectedPrefixCounts[start-1] > 0;
+	}
+
+	// first selected SAM ref position (file coordinates), or null if none is selected.
+	public Integer firstSelected() {
+		for(int samRefNt = 1; samRefNt < selectedPrefixCounts.length; samRefNt++) {
+			if(selectedPrefixCounts[samRefNt] > 0) {
+				return samRefNt;
+			}
+		}
+		return null;
+	}
+
+	// last selected SAM ref position (file coordinates), or null if none is selected.
+	public Integer lastSelected() {
+		int total = selectedPrefixCounts[selectedPrefixCounts.length-1];
+		for(int samRefNt = selectedPrefixCounts.length-1; samRefNt >= 1; samRefNt--) {
+			if(selectedPrefixCounts[samRefNt-1] < total) {
+				return samRefNt;
+			}
+		}
+		return null;
+	}
+
+	// the span of the SAM reference containing every selected position, or null if none is selected.
+	public SamRefRegion toSamRefRegion(String samRefName) {
+		Integer first = firstSelected();
+		if(first == null) {
+			return null;
+		}
+		return new SamRefRegion(samRefName, first, lastSelected());
+	}
+}
@@ -0,0 +1,81 @@
+package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import uk.ac.gla.cvr.gluetools.core.segments.QueryAlignedSegment;
+
+/*
+ * Dense lookup table from forward-sense SAM ref nucleotide to related ref nucleotide, 
+ * built once from the samRefToRelatedRefSegs of a run, so that reads can be translated 
+ * without intersecting segment lists. Immutable, so may be shared between worker threads.
+ */
+public class SamRefToRelatedRefLookup {
+
+	public static final int NOT_MAPPED = -1;
+	
+	// index is SAM ref nucleotide (1-based, index 0 unused), value is related ref nucleotide or NOT_MAPPED
+	private int[] samRefNtToRelatedRefNt;
+	
+	public SamRefToRelatedRefLookup(int samRefLength, List<QueryAlignedSegment> samRefToRelatedRefSegs) {
+		int maxSamRefNt = samRefLength;
+		for(QueryAlignedSegment seg: samRefToRelatedRefSegs) {
+			maxSamRefNt = Math.max(maxSamRefNt, seg.getQueryEnd());
+		}
+		this.samRefNtToRelatedRefNt = new int[maxSamRefNt+1];
+		Arrays.fill(samRefNtToRelatedRefNt, NOT_MAPPED);
+		for(QueryAlignedSegment seg: samRefToRelatedRefSegs) {
+			int offset = seg.getQueryToReferenceOffset();
+			for(int samRefNt = seg.getQueryStart(); samRefNt <= seg.getQueryEnd(); samRefNt++) {
+				samRefNtToRelatedRefNt[samRefNt] = samRefNt + offset;
+			}
+		}
+	}
+	
+	public int relatedRefNt(int samRefNt) {
+		if(samRefNt < 1 || samRefNt >= samRefNtToRelatedRefNt.length) {
+			return NOT_MAPPED;
+		}
+		return samRefNtToRelatedRefNt[samRefNt];
+	}
+	
+	/**
+	 * Equivalent to QueryAlignedSegment.translateSegments(readToSamRefSegs, samRefToRelatedRefSegs), 
+	 * producing segments which are maximal runs where both read and related ref coordinates are contiguous.
+	 */
+	public List<QueryAlignedSegment> translateReadSegments(List<QueryAlignedSegment> readToSamRefSegs) {
+		List<QueryAlignedSegment> readToRelatedRefSegs = new ArrayList<QueryAlignedSegment>(readToSamRefSegs.size());
+		for(QueryAlignedSegment readToSamRefSeg: readToSamRefSegs) {
+			int readStart = readToSamRefSeg.getQueryStart();
+			int samRefStart = readToSamRefSeg.getRefStart();
+			int length = readToSamRefSeg.getCurrentLength();
+			int runReadStart = -1;
+			int runRelatedRefStart = -1;
+			int runLength = 0;
+			for(int i = 0; i < length; i++) {
+				int relatedRefNt = relatedRefNt(samRefStart+i);
+				if(runLength > 0 && relatedRefNt == runRelatedRefStart + runLength) {
+					runLength++;
+					continue;
+				}
+				if(runLength > 0) {
+					readToRelatedRefSegs.add(new QueryAlignedSegment(runRelatedRefStart, runRelatedRefStart + runLength - 1, 
+							runReadStart, runReadStart + runLength - 1));
+					runLength = 0;
+				}
+				if(relatedRefNt != NOT_MAPPED) {
+					runReadStart = readStart+i;
+					runRelatedRefStart = relatedRefNt;
+					runLength = 1;
+				}
+			}
+			if(runLength > 0) {
+				readToRelatedRefSegs.add(new QueryAlignedSegment(runRelatedRefStart, runRelatedRefStart + runLength - 1, 
+						runReadStart, runReadStart + runLength - 1));
+			}
+		}
+		return readToRelatedRefSegs;
+	}
+	
+}
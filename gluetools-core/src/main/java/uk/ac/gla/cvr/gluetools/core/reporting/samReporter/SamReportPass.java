@@ -0,0 +1,87 @@
+package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
+
+import java.util.function.Supplier;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+
+/*
+ * One report's share of a parallel iteration over SAM/BAM reads: a context supplier and processor,
+ * plus the reduced result once the iteration has run.
+ * The untyped delegating methods allow several passes to be fanned out from a single iteration
+ * by SamMultiReportProcessor.
+ */
+public class SamReportPass<C, IR> {
+
+	private Supplier<C> contextSupplier;
+	private SamPairedParallelProcessor<C, IR> processor;
+	// reads which do not overlap this region cannot contribute to the pass; null means the whole file.
+	private SamRefRegion samRefRegion;
+	private IR mergedResult;
+
+	public SamReportPass(Supplier<C> contextSupplier, SamPairedParallelProcessor<C, IR> processor) {
+		this(contextSupplier, processor, null);
+	}
+
+	public SamReportPass(Supplier<C> contextSupplier, SamPairedParallelProcessor<C, IR> processor, SamRefRegion samRefRegion) {
+		super();
+		this.contextSupplier = contextSupplier;
+		this.processor = processor;
+		this.samRefRegion = samRefRegion;
+	}
+
+	public Supplier<C> getContextSupplier() {
+		return contextSupplier;
+	}
+
+	public SamPairedParallelProcessor<C, IR> getProcessor() {
+		return processor;
+	}
+
+	public SamRefRegion getSamRefRegion() {
+		return samRefRegion;
+	}
+
+	public IR getMergedResult() {
+		return mergedResult;
+	}
+
+	public void setMergedResult(IR mergedResult) {
+		this.mergedResult = mergedResult;
+	}
+
+	Object newContext() {
+		return contextSupplier.get();
+	}
+
+	@SuppressWarnings("unchecked")
+	void initContextForReader(Object context, SamReader reader) {
+		processor.initContextForReader((C) context, reader);
+	}
+
+	@SuppressWarnings("unchecked")
+	void processPair(Object context, SAMRecord read1, SAMRecord read2) {
+		processor.processPair((C) context, read1, read2);
+	}
+
+	@SuppressWarnings("unchecked")
+	void processSingleton(Object context, SAMRecord read) {
+		processor.processSingleton((C) context, read);
+	}
+
+	@SuppressWarnings("unchecked")
+	Object contextResult(Object context) {
+		return processor.contextResult((C) context);
+	}
+
+	@SuppressWarnings("unchecked")
+	Object reduceResults(Object result1, Object result2) {
+		return processor.reduceResults((IR) result1, (IR) result2);
+	}
+
+	@SuppressWarnings("unchecked")
+	void setMergedResultUnchecked(Object mergedResult) {
+		this.mergedResult = (IR) mergedResult;
+	}
+
+}
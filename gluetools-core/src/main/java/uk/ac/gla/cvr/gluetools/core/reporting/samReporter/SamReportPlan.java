@@ -0,0 +1,44 @@
+package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import uk.ac.gla.cvr.gluetools.core.command.result.CommandResult;
+
+/*
+ * The read-processing passes needed by a SAM reporter command, together with the
+ * step which forms the command result from the passes' merged results.
+ * Separating planning from iteration allows the passes of several commands to
+ * be run over a single iteration of the reads.
+ */
+public class SamReportPlan<R extends CommandResult> {
+
+	private List<SamReportPass<?, ?>> passes = new ArrayList<SamReportPass<?, ?>>();
+	private Supplier<R> resultFormer;
+
+	public <C, IR> SamReportPass<C, IR> addPass(Supplier<C> contextSupplier, SamPairedParallelProcessor<C, IR> processor) {
+		return addPass(contextSupplier, processor, null);
+	}
+
+	// samRefRegion: the span of the SAM reference outside which reads cannot contribute to the pass, or null.
+	public <C, IR> SamReportPass<C, IR> addPass(Supplier<C> contextSupplier, SamPairedParallelProcessor<C, IR> processor, SamRefRegion samRefRegion) {
+		SamReportPass<C, IR> pass = new SamReportPass<C, IR>(contextSupplier, processor, samRefRegion);
+		passes.add(pass);
+		return pass;
+	}
+
+	public List<SamReportPass<?, ?>> getPasses() {
+		return passes;
+	}
+
+	public void setResultFormer(Supplier<R> resultFormer) {
+		this.resultFormer = resultFormer;
+	}
+
+	// call once the passes have been run
+	public R formResult() {
+		return resultFormer.get();
+	}
+
+}
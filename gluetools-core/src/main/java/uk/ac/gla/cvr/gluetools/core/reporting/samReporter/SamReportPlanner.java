@@ -0,0 +1,13 @@
+package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
+
+import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
+import uk.ac.gla.cvr.gluetools.core.command.result.CommandResult;
+import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporterPreprocessor.SamReporterPreprocessorSession;
+
+// SAM reporter command whose read processing may share a single iteration over the reads with other reports.
+public interface SamReportPlanner<R extends CommandResult> {
+
+	public SamReportPlan<R> planReport(CommandContext cmdContext, SamReporter samReporter,
+			SamReporterPreprocessorSession samReporterPreprocessorSession);
+
+}
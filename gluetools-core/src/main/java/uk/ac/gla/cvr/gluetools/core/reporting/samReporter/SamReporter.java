@@ -158,6 +158,7 @@ public class SamReporter extends ModulePlugin<SamReporter> {
 		registerModulePluginCmdClass(SamExportNucleotideAlignmentCommand.class);
 		registerModulePluginCmdClass(SamTargetReferenceCommand.class);
 		registerModulePluginCmdClass(SamMappedReadsCommand.class);
+		registerModulePluginCmdClass(SamMultiReportCommand.class);
 		addSimplePropertyName(MAX_LIKELIHOOD_PLACER_MODULE_NAME);
 		addSimplePropertyName(MAX_LIKELIHOOD_PLACER_DISTANCE_CUTOFF);
 		addSimplePropertyName(ALIGNER_MODULE_NAME);
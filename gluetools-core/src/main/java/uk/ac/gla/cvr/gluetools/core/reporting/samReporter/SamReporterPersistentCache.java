@@ -0,0 +1,263 @@
+package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.logging.Level;
+
+import org.apache.cayenne.exp.ExpressionFactory;
+import org.apache.cayenne.query.SelectQuery;
+import org.apache.cayenne.query.SortOrder;
+
+import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
+import uk.ac.gla.cvr.gluetools.core.command.CommandMode;
+import uk.ac.gla.cvr.gluetools.core.command.project.InsideProjectMode;
+import uk.ac.gla.cvr.gluetools.core.config.PropertiesConfiguration;
+import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
+import uk.ac.gla.cvr.gluetools.core.datamodel.alignment.Alignment;
+import uk.ac.gla.cvr.gluetools.core.datamodel.alignmentMember.AlignmentMember;
+import uk.ac.gla.cvr.gluetools.core.datamodel.module.Module;
+import uk.ac.gla.cvr.gluetools.core.datamodel.projectSetting.ProjectSettingOption;
+import uk.ac.gla.cvr.gluetools.core.datamodel.refSequence.ReferenceSequence;
+import uk.ac.gla.cvr.gluetools.core.logging.GlueLogger;
+import uk.ac.gla.cvr.gluetools.core.segments.QueryAlignedSegment;
+
+/*
+ * Optional on-disk cache, shared between preprocessor sessions, of the expensive per-sample results:
+ * the SAM consensus, the target reference chosen by the max likelihood placer and the
+ * SAM ref to target ref segments produced by the aligner.
+ *
+ * Entries are keyed by a content hash of the SAM/BAM file, the session's cache key (e.g. consensus
+ * parameters) and a config version, which covers the project name and version settings,
+ * the config of the SAM reporter, placer and aligner modules, and the project's reference sequences.
+ * Reference sequences cannot be modified once created, so their names and creation times are enough 
+ * to detect a change to the reference data. The placer's other inputs are covered by each alignment's name, 
+ * parent, constraining reference and member count, which detects members being added or removed. 
+ * Other changes, such as recomputing members' aligned segments, are not detected: after them the project's 
+ * PROJECT_VERSION setting must be changed, or the cache directory emptied, so that stale entries are not used.
+ * Each entry is a small text file whose first line is the full key. An entry's last-modified time is
+ * updated when it is read, and the least recently used entries are deleted once the total size
+ * of the cache directory exceeds the configured maximum.
+ *
+ * Failures reading or writing the cache are logged and otherwise ignored.
+ */
+public class SamReporterPersistentCache {
+
+	private static final String ENTRY_SUFFIX = ".entry";
+
+	private File cacheDir;
+	private long maxBytes;
+	private File bamFile;
+
+	// computed lazily, since hashing the file is only worthwhile if an expensive result is needed.
+	private String bamContentHash;
+	private String configVersion;
+
+	private SamReporterPersistentCache(File cacheDir, long maxBytes, File bamFile) {
+		super();
+		this.cacheDir = cacheDir;
+		this.maxBytes = maxBytes;
+		this.bamFile = bamFile;
+	}
+
+	// returns null if no persistent cache directory is configured.
+	public static SamReporterPersistentCache create(CommandContext cmdContext, String fileName) {
+		PropertiesConfiguration propertiesConfiguration = cmdContext.getGluetoolsEngine().getPropertiesConfiguration();
+		String cacheDirPath = propertiesConfiguration.getPropertyValue(SamUtils.SAM_PERSISTENT_CACHE_DIR);
+		if(cacheDirPath == null) {
+			return null;
+		}
+		File bamFile = SamUtils.samFile(cmdContext, fileName);
+		if(!bamFile.isFile()) {
+			return null;
+		}
+		File cacheDir = new File(cacheDirPath);
+		if(!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+			GlueLogger.getGlueLogger().log(Level.WARNING, "Unable to create SAM persistent cache directory "+cacheDirPath);
+			return null;
+		}
+		long maxBytes = Long.parseLong(propertiesConfiguration.getPropertyValue(SamUtils.SAM_PERSISTENT_CACHE_MAX_BYTES, "104857600"));
+		return new SamReporterPersistentCache(cacheDir, maxBytes, bamFile);
+	}
+
+	public synchronized List<String> get(CommandContext cmdContext, SamReporter samReporter, String sessionCacheKey) {
+		try {
+			String fullKey = fullKey(cmdContext, samReporter, sessionCacheKey);
+			File entryFile = entryFile(fullKey);
+			if(!entryFile.isFile()) {
+				return null;
+			}
+			List<String> lines = Files.readAllLines(entryFile.toPath(), StandardCharsets.UTF_8);
+			if(lines.isEmpty() || !lines.get(0).equals(fullKey)) {
+				return null;
+			}
+			entryFile.setLastModified(System.currentTimeMillis());
+			samReporter.log(Level.FINEST, "Persistent cache hit for "+sessionCacheKey);
+			return lines.subList(1, lines.size());
+		} catch(Exception e) {
+			GlueLogger.getGlueLogger().log(Level.WARNING, "Unable to read SAM persistent cache entry: "+e.getLocalizedMessage());
+			return null;
+		}
+	}
+
+	public synchronized void put(CommandContext cmdContext, SamReporter samReporter, String sessionCacheKey, List<String> valueLines) {
+		try {
+			String fullKey = fullKey(cmdContext, samReporter, sessionCacheKey);
+			List<String> lines = new ArrayList<String>();
+			lines.add(fullKey);
+			lines.addAll(valueLines);
+			// write then rename, so that other processes sharing the directory never see a partial entry.
+			File tmpFile = new File(cacheDir, UUID.randomUUID().toString()+".tmp");
+			Files.write(tmpFile.toPath(), lines, StandardCharsets.UTF_8);
+			Files.move(tmpFile.toPath(), entryFile(fullKey).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			evictLeastRecentlyUsed();
+		} catch(Exception e) {
+			GlueLogger.getGlueLogger().log(Level.WARNING, "Unable to write SAM persistent cache entry: "+e.getLocalizedMessage());
+		}
+	}
+
+	private void evictLeastRecentlyUsed() {
+		File[] entryFiles = cacheDir.listFiles((dir, name) -> name.endsWith(ENTRY_SUFFIX));
+		if(entryFiles == null) {
+			return;
+		}
+		long totalBytes = 0;
+		for(File entryFile: entryFiles) {
+			totalBytes += entryFile.length();
+		}
+		if(totalBytes <= maxBytes) {
+			return;
+		}
+		Arrays.sort(entryFiles, Comparator.comparingLong(File::lastModified));
+		for(File entryFile: entryFiles) {
+			if(totalBytes <= maxBytes) {
+				break;
+			}
+			long entryBytes = entryFile.length();
+			if(entryFile.delete()) {
+				totalBytes -= entryBytes;
+			}
+		}
+	}
+
+	private String fullKey(CommandContext cmdContext, SamReporter samReporter, String sessionCacheKey) throws IOException {
+		if(bamContentHash == null) {
+			bamContentHash = contentHash(bamFile);
+		}
+		if(configVersion == null) {
+			configVersion = configVersion(cmdContext, samReporter);
+		}
+		return bamContentHash+"|"+configVersion+"|"+sessionCacheKey;
+	}
+
+	private File entryFile(String fullKey) {
+		return new File(cacheDir, hexDigest(fullKey.getBytes(StandardCharsets.UTF_8))+ENTRY_SUFFIX);
+	}
+
+	private static String configVersion(CommandContext cmdContext, SamReporter samReporter) {
+		MessageDigest digest = newDigest();
+		CommandMode<?> commandMode = cmdContext.peekCommandMode();
+		if(commandMode instanceof InsideProjectMode) {
+			update(digest, ((InsideProjectMode) commandMode).getProject().getName());
+		}
+		update(digest, cmdContext.getProjectSettingValue(ProjectSettingOption.PROJECT_VERSION));
+		update(digest, cmdContext.getProjectSettingValue(ProjectSettingOption.EXTENSION_VERSION));
+		if(commandMode instanceof InsideProjectMode) {
+			SelectQuery refSeqQuery = new SelectQuery(ReferenceSequence.class);
+			refSeqQuery.addOrdering(ReferenceSequence.NAME_PROPERTY, SortOrder.ASCENDING);
+			for(ReferenceSequence refSeq: GlueDataObject.query(cmdContext, ReferenceSequence.class, refSeqQuery)) {
+				update(digest, refSeq.getName()+":"+refSeq.getCreationTime());
+			}
+			// one count query per alignment, run once per cache instance.
+			SelectQuery almtQuery = new SelectQuery(Alignment.class);
+			almtQuery.addOrdering(Alignment.NAME_PROPERTY, SortOrder.ASCENDING);
+			for(Alignment almt: GlueDataObject.query(cmdContext, Alignment.class, almtQuery)) {
+				Alignment parent = almt.getParent();
+				ReferenceSequence refSequence = almt.getRefSequence();
+				int numMembers = GlueDataObject.count(cmdContext, new SelectQuery(AlignmentMember.class, 
+						ExpressionFactory.matchDbExp(AlignmentMember.ALIGNMENT_NAME_PK_COLUMN, almt.getName())));
+				update(digest, almt.getName()+":"+(parent == null ? "" : parent.getName())+":"+
+						(refSequence == null ? "" : refSequence.getName())+":"+numMembers);
+			}
+		}
+		for(String moduleName: new String[]{samReporter.getModuleName(),
+				samReporter.getMaxLikelihoodPlacerModuleName(), samReporter.getAlignerModuleName()}) {
+			update(digest, moduleName);
+			if(moduleName != null) {
+				Module module = GlueDataObject.lookup(cmdContext, Module.class, Module.pkMap(moduleName), true);
+				if(module != null) {
+					digest.update(Optional.ofNullable(module.getConfig()).orElse(new byte[0]));
+				}
+			}
+		}
+		return toHex(digest.digest());
+	}
+
+	private static String contentHash(File file) throws IOException {
+		MessageDigest digest = newDigest();
+		byte[] buffer = new byte[65536];
+		try(InputStream inputStream = Files.newInputStream(file.toPath())) {
+			int bytesRead;
+			while((bytesRead = inputStream.read(buffer)) != -1) {
+				digest.update(buffer, 0, bytesRead);
+			}
+		}
+		return toHex(digest.digest());
+	}
+
+	private static void update(MessageDigest digest, String string) {
+		digest.update((string == null ? "" : string).getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+	}
+
+	private static String hexDigest(byte[] bytes) {
+		MessageDigest digest = newDigest();
+		digest.update(bytes);
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuffer hex = new StringBuffer();
+		for(byte b: bytes) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	public static List<String> segmentsToLines(List<QueryAlignedSegment> segments) {
+		List<String> lines = new ArrayList<String>();
+		for(QueryAlignedSegment seg: segments) {
+			lines.add(seg.getRefStart()+"\t"+seg.getRefEnd()+"\t"+seg.getQueryStart()+"\t"+seg.getQueryEnd());
+		}
+		return lines;
+	}
+
+	public static List<QueryAlignedSegment> linesToSegments(List<String> lines) {
+		List<QueryAlignedSegment> segments = new ArrayList<QueryAlignedSegment>();
+		for(String line: lines) {
+			String[] bits = line.split("\t");
+			segments.add(new QueryAlignedSegment(Integer.parseInt(bits[0]), Integer.parseInt(bits[1]),
+					Integer.parseInt(bits[2]), Integer.parseInt(bits[3])));
+		}
+		return segments;
+	}
+}
@@ -2,20 +2,34 @@ package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 
+import htsjdk.samtools.BAMRecordCodec;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordQueryNameComparator;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.ValidationStringency;
-import uk.ac.gla.cvr.gluetools.core.command.console.ConsoleCommandContext;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.SortingCollection;
+import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.config.PropertiesConfiguration;
 import uk.ac.gla.cvr.gluetools.core.curation.aligners.Aligner;
 import uk.ac.gla.cvr.gluetools.core.curation.aligners.Aligner.AlignerResult;
@@ -26,6 +40,7 @@ import uk.ac.gla.cvr.gluetools.core.datamodel.refSequence.ReferenceSequence;
 import uk.ac.gla.cvr.gluetools.core.logging.GlueLogger;
 import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporter.MemberDistance;
 import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporter.SamRefSense;
+import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamUtilsException.Code;
 import uk.ac.gla.cvr.gluetools.core.segments.QueryAlignedSegment;
 import uk.ac.gla.cvr.gluetools.core.session.SamFileSession;
 import uk.ac.gla.cvr.gluetools.core.session.SessionKey;
@@ -35,141 +50,174 @@ public class SamReporterPreprocessor {
 
 	/*
 	 * Creates a set of temporary BAM files with the following properties:
-	 * (a) reads are split arbitrarily over a number of files, equal to the number of CPUs specified for the GLUE SAM subsystem.
+	 * (a) reads are split arbitrarily over a number of files, equal to the number of CPUs specified for the GLUE SAM subsystem
+	 *     multiplied by the number of chunks per CPU.
 	 * (b) paired reads are always next to each other in the same file, with first read then second read.
 	 * (c) first of pair / second of pair flags are always correct.
+	 * Preprocessing is pipelined: the calling thread decodes the input, a second thread matches up pairs, and 
+	 * the temporary files are compressed by one writer thread per CPU, with bounded queues between the stages.
+	 * If the input is a coordinate-sorted BAM file with an index, no temporary files are created; 
+	 * instead SamUtils iterates over genomic windows of the original file.
 	 */
-	public static SamReporterPreprocessorSession getPreprocessorSession(ConsoleCommandContext consoleCmdContext, String fileName, SamReporter samReporter) {
+	public static SamReporterPreprocessorSession getPreprocessorSession(CommandContext cmdContext, String fileName, SamReporter samReporter) {
 		SessionKey sessionKey = new SessionKey(SamFileSession.SESSION_TYPE, new String[] {samReporter.getModuleName(), fileName});
-		SamFileSession currentSession = (SamFileSession) consoleCmdContext.getCurrentSession(sessionKey);
+		SamFileSession currentSession = (SamFileSession) cmdContext.getCurrentSession(sessionKey);
 		if(currentSession != null) {
 			return currentSession.getSamReporterPreprocessorSession();
 		}
-		return initPreprocessorSession(consoleCmdContext, fileName, samReporter);
+		return initPreprocessorSession(cmdContext, fileName, samReporter);
 	}
 
-	public static SamReporterPreprocessorSession initPreprocessorSession(ConsoleCommandContext consoleCmdContext,
+	public static SamReporterPreprocessorSession initPreprocessorSession(CommandContext cmdContext,
 			String fileName, SamReporter samReporter) {
 		ValidationStringency validationStringency = samReporter.getSamReaderValidationStringency();
+		PropertiesConfiguration propertiesConfiguration = cmdContext.getGluetoolsEngine().getPropertiesConfiguration();
+		boolean indexedSharding = Boolean.parseBoolean(propertiesConfiguration.getPropertyValue(SamUtils.SAM_INDEXED_SHARDING, "false"));
+		if(indexedSharding && SamUtils.isIndexedCoordinateSortedBam(cmdContext, fileName, validationStringency)) {
+			// no preprocessing required, iteration will use interval queries on the indexed file.
+			GlueLogger.getGlueLogger().finest("Using index of "+fileName+" for sharded iteration, skipping preprocessing");
+			SamReporterPreprocessorSession samReporterPreprocessorSession = new SamReporterPreprocessorSession(samReporter.getModuleName(), fileName);
+			samReporterPreprocessorSession.persistentCache = SamReporterPersistentCache.create(cmdContext, fileName);
+			samReporterPreprocessorSession.preprocessedBamPaths = new String[0];
+			samReporterPreprocessorSession.indexedBamPath = fileName;
+			return samReporterPreprocessorSession;
+		}
 		GlueLogger.getGlueLogger().finest("Preprocessing "+fileName+" into multiple BAM files");
-		PropertiesConfiguration propertiesConfiguration = consoleCmdContext.getGluetoolsEngine().getPropertiesConfiguration();
-		String tmpDirPath = propertiesConfiguration.getPropertyValue(SamUtils.SAM_TEMP_DIR_PROPERTY);
+		// the SAM temp directory property is optional, partition BAMs and spilled reads go to the JVM temp directory if it is not set.
+		String tmpDirPath = propertiesConfiguration.getPropertyValue(SamUtils.SAM_TEMP_DIR_PROPERTY, System.getProperty("java.io.tmpdir"));
 		int cpus = Integer.parseInt(propertiesConfiguration.getPropertyValue(SamUtils.SAM_NUMBER_CPUS, "4"));
-		final SAMFileWriter[] bamWriters = new SAMFileWriter[cpus];
+		// more partitions than CPUs, so that the SAM executor can balance skewed partitions over its threads.
+		int numPartitions = SamUtils.getSamNumberOfChunks(cmdContext);
+		String maxUnpairedReadsString = propertiesConfiguration.getPropertyValue(SamUtils.SAM_PREPROCESSOR_MAX_UNPAIRED_READS_IN_RAM);
+		Integer maxUnpairedReadsInRam = maxUnpairedReadsString == null ? null : Integer.parseInt(maxUnpairedReadsString);
+		String compressionLevelString = propertiesConfiguration.getPropertyValue(SamUtils.SAM_PREPROCESSOR_COMPRESSION_LEVEL);
+		Integer compressionLevel = compressionLevelString == null ? null : Integer.parseInt(compressionLevelString);
+		final SAMFileWriter[] bamWriters = new SAMFileWriter[numPartitions];
 		SamReporterPreprocessorSession samReporterPreprocessorSession = new SamReporterPreprocessorSession(samReporter.getModuleName(), fileName);
-		samReporterPreprocessorSession.preprocessedBamPaths = new String[cpus];
+		samReporterPreprocessorSession.persistentCache = SamReporterPersistentCache.create(cmdContext, fileName);
+		samReporterPreprocessorSession.preprocessedBamPaths = new String[numPartitions];
 		
 		DetailedReadLogger readLogger = new DetailedReadLogger();
+		// one thread for pair matching, one per CPU for BGZF compression.
+		ExecutorService pipelineExecutorService = Executors.newFixedThreadPool(cpus+1);
+		PipelineAbort pipelineAbort = new PipelineAbort();
 		
-		try(SamReader samReader = SamUtils.newSamReader(consoleCmdContext, fileName, validationStringency)) {
+		try(SamReader samReader = SamUtils.newSamReader(cmdContext, fileName, validationStringency)) {
 			SAMFileHeader header = samReader.getFileHeader().clone();
 			header.setSortOrder(SortOrder.unsorted);
 			SAMFileWriterFactory samFileWriterFactory = new SAMFileWriterFactory();
-			for(int i = 0; i < cpus; i++) {
+			for(int i = 0; i < numPartitions; i++) {
 				String uuid = UUID.randomUUID().toString();
 				File outputBamFile = new File(tmpDirPath, uuid+".bam");
 				samReporterPreprocessorSession.preprocessedBamPaths[i] = outputBamFile.getAbsolutePath();
-				bamWriters[i] = samFileWriterFactory.makeBAMWriter(header, true, outputBamFile);
+				if(compressionLevel == null) {
+					bamWriters[i] = samFileWriterFactory.makeBAMWriter(header, true, outputBamFile);
+				} else {
+					bamWriters[i] = samFileWriterFactory.makeBAMWriter(header, true, outputBamFile, compressionLevel);
+				}
 			}
-			Map<String, ReadPair> nameToPair = new LinkedHashMap<String, ReadPair>();
+			PartitionWriters partitionWriters = new PartitionWriters(bamWriters, cpus, pipelineExecutorService, pipelineAbort);
+			ReadPairMatcher readPairMatcher = new ReadPairMatcher(partitionWriters, readLogger, header, tmpDirPath, maxUnpairedReadsInRam);
 			
-			SamUtils.iterateOverSamReader(samReader, samRecord -> {
-				if(samRecord.getReadUnmappedFlag()) {
-					return;
-				}
-				boolean firstOfPair = false;
-				boolean secondOfPair = false;
-				if(samRecord.getReadPairedFlag()) {
-					firstOfPair = samRecord.getFirstOfPairFlag();
-					secondOfPair = samRecord.getSecondOfPairFlag();
-				}
-				if(firstOfPair || secondOfPair) {
-					String readName = samRecord.getReadName();
-					ReadPair readPair = nameToPair.remove(readName);
-					if(readPair == null) {
-						readPair = new ReadPair();
-						nameToPair.put(readName, readPair);
-					}
-					if(firstOfPair && !secondOfPair) {
-						if(readPair.read2 != null) {
-							// balanced -- 1 x firstOfPair, 1 x secondOfPair
-							writeRead(bamWriters, samRecord);
-							writeRead(bamWriters, readPair.read2);
-							readLogger.logBalancedPair(!samRecord.getReadNegativeStrandFlag(), !readPair.read2.getReadNegativeStrandFlag());
-						} else if(readPair.read1 == null) {
-							readPair.read1 = samRecord; 
-						} else {
-							// unbalanced -- 2 x firstOfPair
-							samRecord.setSecondOfPairFlag(true); // fix samRecord
-							samRecord.setFirstOfPairFlag(false);
-							writeRead(bamWriters, readPair.read1);
-							writeRead(bamWriters, samRecord);
-							readLogger.logUnbalancedPair(!readPair.read1.getReadNegativeStrandFlag(), !samRecord.getReadNegativeStrandFlag());
-						}
-					} else if(!firstOfPair && secondOfPair) {
-						if(readPair.read1 != null) {
-							// balanced -- 1 x firstOfPair, 1 x secondOfPair
-							writeRead(bamWriters, readPair.read1);
-							writeRead(bamWriters, samRecord);
-							readLogger.logBalancedPair(!readPair.read1.getReadNegativeStrandFlag(), !samRecord.getReadNegativeStrandFlag());
-						} else if(readPair.read2 == null) {
-							readPair.read2 = samRecord; 
-						} else {
-							// unbalanced -- 2 x secondOfPair
-							samRecord.setFirstOfPairFlag(true); // fix samRecord
-							samRecord.setSecondOfPairFlag(false); 
-							writeRead(bamWriters, samRecord);
-							writeRead(bamWriters, readPair.read2);
-							readLogger.logUnbalancedPair(!samRecord.getReadNegativeStrandFlag(), !readPair.read2.getReadNegativeStrandFlag());
+			// decoded reads are handed to the pair matching stage, which routes them to the partition writers.
+			StageQueue<List<SAMRecord>> decodedReads = new StageQueue<List<SAMRecord>>(pipelineAbort);
+			Future<?> matcherFuture = pipelineExecutorService.submit(() -> {
+				try {
+					List<SAMRecord> batch;
+					while((batch = decodedReads.take()) != END_OF_READS) {
+						for(SAMRecord samRecord: batch) {
+							boolean firstOfPair = false;
+							boolean secondOfPair = false;
+							if(samRecord.getReadPairedFlag()) {
+								firstOfPair = samRecord.getFirstOfPairFlag();
+								secondOfPair = samRecord.getSecondOfPairFlag();
+							}
+							if(firstOfPair || secondOfPair) {
+								readPairMatcher.addPairedRead(samRecord);
+							} else {
+								// non paired read
+								partitionWriters.writeRead(samRecord);
+								readLogger.logSingleton();
+							}
 						}
-					} else {
-						// unbalanced -- some other combination.
-						if(readPair.read1 == null) {
-							readPair.read1 = samRecord; 
-						} else {
-							readPair.read1.setFirstOfPairFlag(true); // fix read1
-							readPair.read1.setSecondOfPairFlag(false); 
-							samRecord.setSecondOfPairFlag(true); // fix samRecord
-							samRecord.setFirstOfPairFlag(false);
-							writeRead(bamWriters, readPair.read1);
-							writeRead(bamWriters, samRecord);
-							readLogger.logUnbalancedPair(!readPair.read1.getReadNegativeStrandFlag(), !samRecord.getReadNegativeStrandFlag());
-						}						
 					}
-				} else {
-					// non paired read
-					writeRead(bamWriters, samRecord);
-					readLogger.logSingleton();
+					readPairMatcher.finish();
+					partitionWriters.finish();
+				} catch(RuntimeException | Error e) {
+					// errors such as OutOfMemoryError must also abort the pipeline, otherwise the decoding thread waits forever.
+					pipelineAbort.abort(e);
+					throw e;
 				}
 			});
-			// now write out reads which claimed to be in a pair but aren't
-			// or where the mate is unmapped.
-			nameToPair.values().forEach(readPair -> {
-				SAMRecord read1 = readPair.read1;
-				if(read1 != null) {
-					read1.setFirstOfPairFlag(false);
-					writeRead(bamWriters, read1);
-					readLogger.logSingleton();
+			
+			List<SAMRecord> decodedBatch = new ArrayList<SAMRecord>(READ_BATCH_SIZE);
+			SamUtils.iterateOverSamReader(samReader, samRecord -> {
+				if(samRecord.getReadUnmappedFlag()) {
+					return;
 				}
-				SAMRecord read2 = readPair.read2;
-				if(read2 != null) {
-					read2.setSecondOfPairFlag(false);
-					writeRead(bamWriters, read2);
-					readLogger.logSingleton();
+				decodedBatch.add(samRecord);
+				if(decodedBatch.size() == READ_BATCH_SIZE) {
+					decodedReads.put(new ArrayList<SAMRecord>(decodedBatch));
+					decodedBatch.clear();
 				}
 			});
+			if(!decodedBatch.isEmpty()) {
+				decodedReads.put(decodedBatch);
+			}
+			decodedReads.put(END_OF_READS);
+			awaitStage(matcherFuture);
+			partitionWriters.awaitWriters();
 			readLogger.printMessage();
 			closeBamWriters(bamWriters, samReporterPreprocessorSession);
 
 		} catch (IOException e) {
+			abortPipeline(pipelineAbort, e, pipelineExecutorService);
+			closeBamWriters(bamWriters, samReporterPreprocessorSession);
+			samReporterPreprocessorSession.cleanup();
+			throw pipelineAbort.getFailure();
+		} catch (RuntimeException re) {
+			abortPipeline(pipelineAbort, re, pipelineExecutorService);
 			closeBamWriters(bamWriters, samReporterPreprocessorSession);
 			samReporterPreprocessorSession.cleanup();
-			throw new RuntimeException(e);
+			throw pipelineAbort.getFailure();
+		} catch (Error err) {
+			abortPipeline(pipelineAbort, err, pipelineExecutorService);
+			closeBamWriters(bamWriters, samReporterPreprocessorSession);
+			samReporterPreprocessorSession.cleanup();
+			throw err;
 		} finally {
+			pipelineExecutorService.shutdownNow();
 		}
 		return samReporterPreprocessorSession;
 	}
 
+	// stop all pipeline stages, waiting for the writer threads to finish with the BAM writers before they are closed.
+	private static void abortPipeline(PipelineAbort pipelineAbort, Throwable cause, ExecutorService pipelineExecutorService) {
+		pipelineAbort.abort(cause);
+		pipelineExecutorService.shutdownNow();
+		try {
+			if(!pipelineExecutorService.awaitTermination(10, TimeUnit.SECONDS)) {
+				GlueLogger.getGlueLogger().log(Level.WARNING, "Timed out waiting for SAM preprocessor pipeline threads to terminate");
+			}
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void awaitStage(Future<?> stageFuture) {
+		try {
+			stageFuture.get();
+		} catch(ExecutionException ee) {
+			Throwable cause = ee.getCause();
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new SamUtilsException(cause, Code.SAM_PREPROCESSOR_ERROR, cause.getLocalizedMessage());
+		} catch(InterruptedException ie) {
+			throw new SamUtilsException(ie, Code.SAM_PREPROCESSOR_ERROR, "Interrupted while waiting for preprocessor stage");
+		}
+	}
+
 	private static void closeBamWriters(final SAMFileWriter[] bamWriters,
 			SamReporterPreprocessorSession samReporterPreprocessorSession) {
 		for(int i = 0 ; i < bamWriters.length; i++) {
@@ -185,18 +233,307 @@ public class SamReporterPreprocessor {
 		}
 	}
 
-	// put the read in one of the writers, by arbitrarily selecting one based on the hash of the read name.
-	private static void writeRead(SAMFileWriter[] writers, SAMRecord read) {
-		int hashCode = read.getReadName().hashCode();
-		int writerIndex = Math.abs(hashCode) % writers.length;
-		SAMFileWriter samFileWriter = writers[writerIndex];
-		samFileWriter.addAlignment(read);
+	private static final int READ_BATCH_SIZE = 1000;
+	private static final int QUEUE_CAPACITY_BATCHES = 16;
+	// marks the end of a stage's input; compared by identity.
+	private static final List<SAMRecord> END_OF_READS = new ArrayList<SAMRecord>(0);
+
+	// set when any pipeline stage fails, so that the stages blocked on a queue give up rather than waiting forever.
+	// only the first failure is kept: later ones are usually just other stages giving up because of it.
+	private static class PipelineAbort {
+		private AtomicReference<Throwable> firstFailure = new AtomicReference<Throwable>();
+		
+		public void abort(Throwable cause) {
+			firstFailure.compareAndSet(null, cause);
+		}
+		
+		public void checkNotAborted() {
+			Throwable cause = firstFailure.get();
+			if(cause != null) {
+				throw new SamUtilsException(cause, Code.SAM_PREPROCESSOR_ERROR, 
+						"Preprocessing aborted due to failure in another pipeline stage: "+cause.getLocalizedMessage());
+			}
+		}
+		
+		// the failure to report for the pipeline as a whole; only valid once abort has been called.
+		public RuntimeException getFailure() {
+			Throwable cause = firstFailure.get();
+			if(cause instanceof RuntimeException) {
+				return (RuntimeException) cause;
+			}
+			return new SamUtilsException(cause, Code.SAM_PREPROCESSOR_ERROR, cause.getLocalizedMessage());
+		}
+	}
+
+	// bounded queue of read batches connecting two pipeline stages.
+	private static class StageQueue<B> {
+		private BlockingQueue<B> queue = new ArrayBlockingQueue<B>(QUEUE_CAPACITY_BATCHES);
+		private PipelineAbort pipelineAbort;
+
+		public StageQueue(PipelineAbort pipelineAbort) {
+			super();
+			this.pipelineAbort = pipelineAbort;
+		}
+
+		public void put(B batch) {
+			try {
+				while(!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+					pipelineAbort.checkNotAborted();
+				}
+			} catch(InterruptedException ie) {
+				throw new SamUtilsException(ie, Code.SAM_PREPROCESSOR_ERROR, "Interrupted while queueing reads");
+			}
+		}
+		
+		public B take() {
+			try {
+				B batch;
+				while((batch = queue.poll(100, TimeUnit.MILLISECONDS)) == null) {
+					pipelineAbort.checkNotAborted();
+				}
+				return batch;
+			} catch(InterruptedException ie) {
+				throw new SamUtilsException(ie, Code.SAM_PREPROCESSOR_ERROR, "Interrupted while waiting for reads");
+			}
+		}
+	}
+
+	// reads destined for a single partition.
+	private static class PartitionBatch {
+		private int partitionIndex;
+		private List<SAMRecord> reads;
+
+		public PartitionBatch(int partitionIndex, List<SAMRecord> reads) {
+			super();
+			this.partitionIndex = partitionIndex;
+			this.reads = reads;
+		}
+	}
+	
+	private static final PartitionBatch END_OF_PARTITIONS = new PartitionBatch(-1, END_OF_READS);
+	
+	/*
+	 * Final pipeline stage: each writer thread owns a fixed subset of the output BAM files and is fed by a 
+	 * bounded queue, so that BGZF compression of the partitions happens in parallel. Reads are routed to a partition 
+	 * based on the hash of the read name; since a pair's reads are routed one after the other by the single
+	 * pair matching thread, they remain adjacent in the partition's file.
+	 */
+	private static class PartitionWriters {
+		private List<StageQueue<PartitionBatch>> writerQueues = new ArrayList<StageQueue<PartitionBatch>>();
+		private List<List<SAMRecord>> partitionBatches = new ArrayList<List<SAMRecord>>();
+		private List<Future<?>> writerFutures = new ArrayList<Future<?>>();
+		
+		public PartitionWriters(SAMFileWriter[] bamWriters, int numWriterThreads, ExecutorService executorService, PipelineAbort pipelineAbort) {
+			super();
+			for(int i = 0; i < bamWriters.length; i++) {
+				partitionBatches.add(new ArrayList<SAMRecord>(READ_BATCH_SIZE));
+			}
+			for(int i = 0; i < numWriterThreads; i++) {
+				StageQueue<PartitionBatch> writerQueue = new StageQueue<PartitionBatch>(pipelineAbort);
+				writerQueues.add(writerQueue);
+				writerFutures.add(executorService.submit(() -> {
+					try {
+						PartitionBatch batch;
+						while((batch = writerQueue.take()) != END_OF_PARTITIONS) {
+							SAMFileWriter bamWriter = bamWriters[batch.partitionIndex];
+							batch.reads.forEach(bamWriter::addAlignment);
+						}
+					} catch(RuntimeException | Error e) {
+						pipelineAbort.abort(e);
+						throw e;
+					}
+				}));
+			}
+		}
+
+		// put the read in one of the partitions, by arbitrarily selecting one based on the hash of the read name.
+		public void writeRead(SAMRecord read) {
+			int hashCode = read.getReadName().hashCode();
+			int partitionIndex = Math.abs(hashCode % partitionBatches.size());
+			List<SAMRecord> partitionBatch = partitionBatches.get(partitionIndex);
+			partitionBatch.add(read);
+			if(partitionBatch.size() == READ_BATCH_SIZE) {
+				queueBatch(partitionIndex, partitionBatch);
+				partitionBatches.set(partitionIndex, new ArrayList<SAMRecord>(READ_BATCH_SIZE));
+			}
+		}
+
+		private void queueBatch(int partitionIndex, List<SAMRecord> partitionBatch) {
+			writerQueues.get(partitionIndex % writerQueues.size()).put(new PartitionBatch(partitionIndex, partitionBatch));
+		}
+		
+		// flush partially filled batches and signal the end of the reads to each writer thread.
+		public void finish() {
+			for(int i = 0; i < partitionBatches.size(); i++) {
+				List<SAMRecord> partitionBatch = partitionBatches.get(i);
+				if(!partitionBatch.isEmpty()) {
+					queueBatch(i, partitionBatch);
+				}
+			}
+			writerQueues.forEach(writerQueue -> writerQueue.put(END_OF_PARTITIONS));
+		}
+		
+		public void awaitWriters() {
+			writerFutures.forEach(writerFuture -> awaitStage(writerFuture));
+		}
 	}
 	
 	private static class ReadPair {
 		SAMRecord read1;
 		SAMRecord read2;
 	}
+
+	/*
+	 * Matches up reads which claim to be first / second of pair, writing each pair out once both reads have been seen.
+	 * Reads awaiting their mate are held in memory. If a maximum number of unpaired reads in RAM is specified and 
+	 * this is exceeded, the matcher switches to spill mode: from then on all pending and subsequent paired reads are 
+	 * added to a SortingCollection ordered by read name, which spills to sorted temporary files in the SAM temp directory.
+	 * The spilled reads are then matched at the end by merging these runs, so that peak memory is bounded.
+	 */
+	private static class ReadPairMatcher {
+		private PartitionWriters partitionWriters;
+		private DetailedReadLogger readLogger;
+		private SAMFileHeader header;
+		private String tmpDirPath;
+		private Integer maxUnpairedReadsInRam;
+		private Map<String, ReadPair> nameToPair = new LinkedHashMap<String, ReadPair>();
+		private SortingCollection<SAMRecord> spilledReads = null;
+		
+		public ReadPairMatcher(PartitionWriters partitionWriters, DetailedReadLogger readLogger, SAMFileHeader header, 
+				String tmpDirPath, Integer maxUnpairedReadsInRam) {
+			super();
+			this.partitionWriters = partitionWriters;
+			this.readLogger = readLogger;
+			this.header = header;
+			this.tmpDirPath = tmpDirPath;
+			this.maxUnpairedReadsInRam = maxUnpairedReadsInRam;
+		}
+
+		public void addPairedRead(SAMRecord samRecord) {
+			if(spilledReads != null) {
+				spilledReads.add(samRecord);
+				return;
+			}
+			matchPairedRead(nameToPair, samRecord);
+			if(maxUnpairedReadsInRam != null && nameToPair.size() > maxUnpairedReadsInRam) {
+				GlueLogger.getGlueLogger().finest("More than "+maxUnpairedReadsInRam+" unpaired reads held in memory, spilling unpaired reads to disk");
+				spilledReads = SortingCollection.newInstance(SAMRecord.class, new BAMRecordCodec(header), 
+						new SAMRecordQueryNameComparator(), maxUnpairedReadsInRam, new File(tmpDirPath));
+				nameToPair.values().forEach(readPair -> {
+					if(readPair.read1 != null) {
+						spilledReads.add(readPair.read1);
+					}
+					if(readPair.read2 != null) {
+						spilledReads.add(readPair.read2);
+					}
+				});
+				nameToPair.clear();
+			}
+		}
+		
+		public void finish() {
+			if(spilledReads == null) {
+				writeUnmatchedReads(nameToPair);
+				return;
+			}
+			try {
+				spilledReads.doneAdding();
+				// reads come back grouped by read name, so only one group needs to be held in memory at a time.
+				Map<String, ReadPair> groupNameToPair = new LinkedHashMap<String, ReadPair>();
+				String currentReadName = null;
+				try(CloseableIterator<SAMRecord> sortedReads = spilledReads.iterator()) {
+					while(sortedReads.hasNext()) {
+						SAMRecord samRecord = sortedReads.next();
+						if(currentReadName != null && !currentReadName.equals(samRecord.getReadName())) {
+							writeUnmatchedReads(groupNameToPair);
+							groupNameToPair.clear();
+						}
+						currentReadName = samRecord.getReadName();
+						matchPairedRead(groupNameToPair, samRecord);
+					}
+				}
+				writeUnmatchedReads(groupNameToPair);
+			} finally {
+				spilledReads.cleanup();
+			}
+		}
+		
+		private void matchPairedRead(Map<String, ReadPair> nameToPair, SAMRecord samRecord) {
+			boolean firstOfPair = samRecord.getFirstOfPairFlag();
+			boolean secondOfPair = samRecord.getSecondOfPairFlag();
+			String readName = samRecord.getReadName();
+			ReadPair readPair = nameToPair.remove(readName);
+			if(readPair == null) {
+				readPair = new ReadPair();
+				nameToPair.put(readName, readPair);
+			}
+			if(firstOfPair && !secondOfPair) {
+				if(readPair.read2 != null) {
+					// balanced -- 1 x firstOfPair, 1 x secondOfPair
+					partitionWriters.writeRead(samRecord);
+					partitionWriters.writeRead(readPair.read2);
+					readLogger.logBalancedPair(!samRecord.getReadNegativeStrandFlag(), !readPair.read2.getReadNegativeStrandFlag());
+				} else if(readPair.read1 == null) {
+					readPair.read1 = samRecord; 
+				} else {
+					// unbalanced -- 2 x firstOfPair
+					samRecord.setSecondOfPairFlag(true); // fix samRecord
+					samRecord.setFirstOfPairFlag(false);
+					partitionWriters.writeRead(readPair.read1);
+					partitionWriters.writeRead(samRecord);
+					readLogger.logUnbalancedPair(!readPair.read1.getReadNegativeStrandFlag(), !samRecord.getReadNegativeStrandFlag());
+				}
+			} else if(!firstOfPair && secondOfPair) {
+				if(readPair.read1 != null) {
+					// balanced -- 1 x firstOfPair, 1 x secondOfPair
+					partitionWriters.writeRead(readPair.read1);
+					partitionWriters.writeRead(samRecord);
+					readLogger.logBalancedPair(!readPair.read1.getReadNegativeStrandFlag(), !samRecord.getReadNegativeStrandFlag());
+				} else if(readPair.read2 == null) {
+					readPair.read2 = samRecord; 
+				} else {
+					// unbalanced -- 2 x secondOfPair
+					samRecord.setFirstOfPairFlag(true); // fix samRecord
+					samRecord.setSecondOfPairFlag(false); 
+					partitionWriters.writeRead(samRecord);
+					partitionWriters.writeRead(readPair.read2);
+					readLogger.logUnbalancedPair(!samRecord.getReadNegativeStrandFlag(), !readPair.read2.getReadNegativeStrandFlag());
+				}
+			} else {
+				// unbalanced -- some other combination.
+				if(readPair.read1 == null) {
+					readPair.read1 = samRecord; 
+				} else {
+					readPair.read1.setFirstOfPairFlag(true); // fix read1
+					readPair.read1.setSecondOfPairFlag(false); 
+					samRecord.setSecondOfPairFlag(true); // fix samRecord
+					samRecord.setFirstOfPairFlag(false);
+					partitionWriters.writeRead(readPair.read1);
+					partitionWriters.writeRead(samRecord);
+					readLogger.logUnbalancedPair(!readPair.read1.getReadNegativeStrandFlag(), !samRecord.getReadNegativeStrandFlag());
+				}						
+			}
+		}
+
+		// write out reads which claimed to be in a pair but aren't
+		// or where the mate is unmapped.
+		private void writeUnmatchedReads(Map<String, ReadPair> nameToPair) {
+			nameToPair.values().forEach(readPair -> {
+				SAMRecord read1 = readPair.read1;
+				if(read1 != null) {
+					read1.setFirstOfPairFlag(false);
+					partitionWriters.writeRead(read1);
+					readLogger.logSingleton();
+				}
+				SAMRecord read2 = readPair.read2;
+				if(read2 != null) {
+					read2.setSecondOfPairFlag(false);
+					partitionWriters.writeRead(read2);
+					readLogger.logSingleton();
+				}
+			});
+		}
+	}
 	
 	public static class SamReporterPreprocessorSession implements AutoCloseable {
 		
@@ -204,9 +541,16 @@ public class SamReporterPreprocessor {
 		
 		private boolean storedInCmdContext = false;
 		private String[] preprocessedBamPaths;
+		// set if the original file is a coordinate-sorted indexed BAM, in which case there are no preprocessed files.
+		private String indexedBamPath;
 		private Map<ConsensusKey, DNASequence> cachedConsensus = new LinkedHashMap<ConsensusKey, DNASequence>();
 		private Map<ConsensusKey, String> cachedTargetRefName = new LinkedHashMap<ConsensusKey, String>();
 		private Map<SamToTargetSegsKey, List<QueryAlignedSegment>> cachedSamRefToTargetRefSegs = new LinkedHashMap<SamToTargetSegsKey, List<QueryAlignedSegment>>();
+		private Map<SamToRelatedRefLookupKey, SamRefToRelatedRefLookup> cachedSamRefToRelatedRefLookups = new LinkedHashMap<SamToRelatedRefLookupKey, SamRefToRelatedRefLookup>();
+		// keyed on the (session-cached, so identity-comparable) lookup and the SAM ref sense.
+		private Map<List<Object>, SamRefRegionIndex> cachedSamRefRegionIndexes = new LinkedHashMap<List<Object>, SamRefRegionIndex>();
+		// null unless a persistent cache directory is configured; backs up the consensus / target ref / segments caches.
+		private SamReporterPersistentCache persistentCache;
 		private String samReporterName;
 		
 		public SamReporterPreprocessorSession(String samReporterName, String bamPath) {
@@ -222,55 +566,90 @@ public class SamReporterPreprocessor {
 		public String[] getPreprocessedBamPaths() {
 			return preprocessedBamPaths;
 		}
+
+		public String getIndexedBamPath() {
+			return indexedBamPath;
+		}
 		
-		public DNASequence getConsensus(ConsoleCommandContext consoleCmdContext, 
+		public DNASequence getConsensus(CommandContext cmdContext, 
 				SamReporter samReporter, ExtendedSamReporterCommand<?> samReporterCommand, boolean mayGenerateAmbiguities) {
 			ConsensusKey consensusKey = new ConsensusKey(samReporter, samReporterCommand, mayGenerateAmbiguities);
-			return getConsensus(consoleCmdContext, consensusKey);
+			return getConsensus(cmdContext, consensusKey);
 		}
 
-		private DNASequence getConsensus(ConsoleCommandContext consoleCmdContext, ConsensusKey consensusKey) {
+		private DNASequence getConsensus(CommandContext cmdContext, ConsensusKey consensusKey) {
 			DNASequence consensusSequence = cachedConsensus.get(consensusKey);
 			if(consensusSequence != null) {
 				return consensusSequence;
 			}
-			SamReporter samReporter = Module.resolveModulePlugin(consoleCmdContext, SamReporter.class, samReporterName);
-			consensusSequence = SamUtils.getSamConsensus(consoleCmdContext, bamPath, this, 
+			SamReporter samReporter = Module.resolveModulePlugin(cmdContext, SamReporter.class, samReporterName);
+			String persistentCacheKey = "consensus|"+consensusKey.toCacheKeyString();
+			if(persistentCache != null) {
+				List<String> cachedLines = persistentCache.get(cmdContext, samReporter, persistentCacheKey);
+				if(cachedLines != null && cachedLines.size() == 1) {
+					consensusSequence = new DNASequence(cachedLines.get(0));
+					cachedConsensus.put(consensusKey, consensusSequence);
+					return consensusSequence;
+				}
+			}
+			consensusSequence = SamUtils.getSamConsensus(cmdContext, bamPath, this, 
 					samReporter.getSamReaderValidationStringency(), 
 					consensusKey.suppliedSamRefName, consensusKey.minQScore, consensusKey.minMapQ, consensusKey.minDepth, 
 					consensusKey.samRefSense, consensusKey.mayGenerateAmbiguities, 
 					samReporter.getConsensusProduceAmbiguityCodes(), samReporter.getConsensusAmbiguityCodesMinDepth(), 
 					samReporter.getConsensusAmbiguityMinProportion(), samReporter.getConsensusAmbiguityMinReads());
 			cachedConsensus.put(consensusKey, consensusSequence);
+			if(persistentCache != null) {
+				persistentCache.put(cmdContext, samReporter, persistentCacheKey, Arrays.asList(consensusSequence.getSequenceAsString()));
+			}
 			return consensusSequence;
 		}
 		
-		public ReferenceSequence getTargetRefBasedOnPlacer(ConsoleCommandContext consoleCmdContext, SamReporter samReporter, ExtendedSamReporterCommand<?> samReporterCommand) {
+		public ReferenceSequence getTargetRefBasedOnPlacer(CommandContext cmdContext, SamReporter samReporter, ExtendedSamReporterCommand<?> samReporterCommand) {
 			ConsensusKey consensusKey = new ConsensusKey(samReporter, samReporterCommand, false);
 			String targetRefName = cachedTargetRefName.get(consensusKey);
 			ReferenceSequence targetRef;
 			if(targetRefName != null) {
-				targetRef = GlueDataObject.lookup(consoleCmdContext, ReferenceSequence.class, ReferenceSequence.pkMap(targetRefName));
+				targetRef = GlueDataObject.lookup(cmdContext, ReferenceSequence.class, ReferenceSequence.pkMap(targetRefName));
 				samReporter.log(Level.FINE, "Cached target reference found: "+targetRef.getName());
 			} else {
-				targetRef = getTargetRefDistance(consoleCmdContext, samReporter, consensusKey).getTargetRef();
+				targetRef = getTargetRefDistance(cmdContext, samReporter, consensusKey).getTargetRef();
 			}
 			return targetRef;
 		}
 
-		public ReferenceDistance getTargetRefDistanceBasedOnPlacer(ConsoleCommandContext consoleCmdContext, SamReporter samReporter, ExtendedSamReporterCommand<?> samReporterCommand) {
+		public ReferenceDistance getTargetRefDistanceBasedOnPlacer(CommandContext cmdContext, SamReporter samReporter, ExtendedSamReporterCommand<?> samReporterCommand) {
 			ConsensusKey consensusKey = new ConsensusKey(samReporter, samReporterCommand, false);
-			return getTargetRefDistance(consoleCmdContext, samReporter, consensusKey);
+			return getTargetRefDistance(cmdContext, samReporter, consensusKey);
 		}
 		
-		private ReferenceDistance getTargetRefDistance(ConsoleCommandContext consoleCmdContext, SamReporter samReporter,
+		private ReferenceDistance getTargetRefDistance(CommandContext cmdContext, SamReporter samReporter,
 				ConsensusKey consensusKey) {
 			ReferenceSequence targetRef;
-			DNASequence consensus = getConsensus(consoleCmdContext, consensusKey);
-			MemberDistance memberDistance = samReporter.establishTargetRefMemberUsingPlacer(consoleCmdContext, consensus);
+			String persistentCacheKey = "targetRef|"+consensusKey.toCacheKeyString();
+			if(persistentCache != null) {
+				// target ref name and placement distance
+				List<String> cachedLines = persistentCache.get(cmdContext, samReporter, persistentCacheKey);
+				if(cachedLines != null && cachedLines.size() == 2) {
+					targetRef = GlueDataObject.lookup(cmdContext, ReferenceSequence.class, ReferenceSequence.pkMap(cachedLines.get(0)), true);
+					if(targetRef != null) {
+						Double distance = cachedLines.get(1).isEmpty() ? null : Double.parseDouble(cachedLines.get(1));
+						cachedTargetRefName.put(consensusKey, targetRef.getName());
+						samReporter.log(Level.FINE, "Persistent cache of max likelihood placement selected target reference "+targetRef.getName()+", distance: "+distance);
+						return new ReferenceDistance(targetRef, distance);
+					}
+				}
+			}
+			DNASequence consensus = getConsensus(cmdContext, consensusKey);
+			MemberDistance memberDistance = samReporter.establishTargetRefMemberUsingPlacer(cmdContext, consensus);
 			AlignmentMember targetRefAlmtMember = memberDistance.getMember();
 			targetRef = targetRefAlmtMember.targetReferenceFromMember();
 			cachedTargetRefName.put(consensusKey, targetRef.getName());
+			if(persistentCache != null) {
+				Double distance = memberDistance.getDistance();
+				persistentCache.put(cmdContext, samReporter, persistentCacheKey, 
+						Arrays.asList(targetRef.getName(), distance == null ? "" : Double.toString(distance)));
+			}
 			samReporter.log(Level.FINE, "Max likelihood placement of consensus sequence selected target reference "+targetRef.getName()+", distance: "+memberDistance.getDistance());
 			return new ReferenceDistance(targetRef, memberDistance.getDistance());
 		}
@@ -292,27 +671,68 @@ public class SamReporterPreprocessor {
 		}
 		
 		
-		public List<QueryAlignedSegment> getSamRefToTargetRefSegs(ConsoleCommandContext consoleCmdContext, SamReporter samReporter, ExtendedSamReporterCommand<?> samReporterCommand, String targetRefName) {
+		public List<QueryAlignedSegment> getSamRefToTargetRefSegs(CommandContext cmdContext, SamReporter samReporter, ExtendedSamReporterCommand<?> samReporterCommand, String targetRefName) {
 			ConsensusKey consensusKey = new ConsensusKey(samReporter, samReporterCommand, false);
 			SamToTargetSegsKey samToTargetSegsKey = new SamToTargetSegsKey(consensusKey, targetRefName);
 			List<QueryAlignedSegment> samRefToTargetRefSegs = cachedSamRefToTargetRefSegs.get(samToTargetSegsKey);
 			if(samRefToTargetRefSegs != null) {
 				return samRefToTargetRefSegs;
 			}
+			String persistentCacheKey = "samRefToTargetRefSegs|"+consensusKey.toCacheKeyString()+"|"+targetRefName;
+			if(persistentCache != null) {
+				List<String> cachedLines = persistentCache.get(cmdContext, samReporter, persistentCacheKey);
+				if(cachedLines != null) {
+					samRefToTargetRefSegs = SamReporterPersistentCache.linesToSegments(cachedLines);
+					cachedSamRefToTargetRefSegs.put(samToTargetSegsKey, samRefToTargetRefSegs);
+					return samRefToTargetRefSegs;
+				}
+			}
 			// auto-align consensus to target ref
-			Aligner<?, ?> aligner = Aligner.getAligner(consoleCmdContext, samReporter.getAlignerModuleName());
+			Aligner<?, ?> aligner = Aligner.getAligner(cmdContext, samReporter.getAlignerModuleName());
 			// compute consensus if necessary.
-			DNASequence consensusSequence = getConsensus(consoleCmdContext, samReporter, samReporterCommand, false);
+			DNASequence consensusSequence = getConsensus(cmdContext, samReporter, samReporterCommand, false);
 			Map<String, DNASequence> samConsensus = new LinkedHashMap<String, DNASequence>();
 			samConsensus.put("samConsensus", consensusSequence);
-			AlignerResult alignerResult = aligner.computeConstrained(consoleCmdContext, targetRefName, samConsensus);
+			AlignerResult alignerResult = aligner.computeConstrained(cmdContext, targetRefName, samConsensus);
 			// extract segments from aligner result
 			samRefToTargetRefSegs = alignerResult.getQueryIdToAlignedSegments().get("samConsensus");
 			cachedSamRefToTargetRefSegs.put(samToTargetSegsKey, samRefToTargetRefSegs);
+			if(persistentCache != null) {
+				persistentCache.put(cmdContext, samReporter, persistentCacheKey, 
+						SamReporterPersistentCache.segmentsToLines(samRefToTargetRefSegs));
+			}
 			return samRefToTargetRefSegs;
 			
 		}
 
+		/**
+		 * Returns a dense lookup table for the given SAM ref to related ref segments, building it if 
+		 * the same segments have not already been seen in this session.
+		 */
+		public synchronized SamRefToRelatedRefLookup getSamRefToRelatedRefLookup(int samRefLength, List<QueryAlignedSegment> samRefToRelatedRefSegs) {
+			SamToRelatedRefLookupKey lookupKey = new SamToRelatedRefLookupKey(samRefLength, samRefToRelatedRefSegs);
+			SamRefToRelatedRefLookup lookup = cachedSamRefToRelatedRefLookups.get(lookupKey);
+			if(lookup == null) {
+				lookup = new SamRefToRelatedRefLookup(samRefLength, samRefToRelatedRefSegs);
+				cachedSamRefToRelatedRefLookups.put(lookupKey, lookup);
+			}
+			return lookup;
+		}
+
+		/**
+		 * Returns an index of the SAM ref positions mapped by the given lookup, building it if it has not
+		 * already been built in this session.
+		 */
+		public synchronized SamRefRegionIndex getSamRefRegionIndex(int samRefLength, SamRefSense samRefSense, SamRefToRelatedRefLookup samRefToRelatedRefLookup) {
+			List<Object> indexKey = Arrays.asList(samRefToRelatedRefLookup, samRefSense);
+			SamRefRegionIndex samRefRegionIndex = cachedSamRefRegionIndexes.get(indexKey);
+			if(samRefRegionIndex == null) {
+				samRefRegionIndex = new SamRefRegionIndex(samRefLength, samRefSense, samRefToRelatedRefLookup);
+				cachedSamRefRegionIndexes.put(indexKey, samRefRegionIndex);
+			}
+			return samRefRegionIndex;
+		}
+
 		public void cleanup() {
 			for(int i = 0 ; i < preprocessedBamPaths.length; i++) {
 				String filePath = preprocessedBamPaths[i];
@@ -395,9 +815,10 @@ public class SamReporterPreprocessor {
 			return true;
 		}
 
-		
-		
-		
+		// stable representation of the consensus parameters, used in persistent cache keys.
+		public String toCacheKeyString() {
+			return suppliedSamRefName+"|"+minDepth+"|"+minQScore+"|"+minMapQ+"|"+samRefSense+"|"+mayGenerateAmbiguities;
+		}
 		
 	}
 
@@ -448,4 +869,48 @@ public class SamReporterPreprocessor {
 	}
 
 	
+	private static class SamToRelatedRefLookupKey {
+		
+		private int samRefLength;
+		// query start, query end, ref start for each segment
+		private int[] segCoords;
+
+		public SamToRelatedRefLookupKey(int samRefLength, List<QueryAlignedSegment> samRefToRelatedRefSegs) {
+			super();
+			this.samRefLength = samRefLength;
+			this.segCoords = new int[samRefToRelatedRefSegs.size()*3];
+			int i = 0;
+			for(QueryAlignedSegment seg: samRefToRelatedRefSegs) {
+				segCoords[i++] = seg.getQueryStart();
+				segCoords[i++] = seg.getQueryEnd();
+				segCoords[i++] = seg.getRefStart();
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + samRefLength;
+			result = prime * result + Arrays.hashCode(segCoords);
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			SamToRelatedRefLookupKey other = (SamToRelatedRefLookupKey) obj;
+			if (samRefLength != other.samRefLength)
+				return false;
+			if (!Arrays.equals(segCoords, other.segCoords))
+				return false;
+			return true;
+		}
+	}
+
 }
@@ -31,7 +31,6 @@ import uk.ac.gla.cvr.gluetools.core.command.CmdMeta;
 import uk.ac.gla.cvr.gluetools.core.command.CommandClass;
 import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.CompleterClass;
-import uk.ac.gla.cvr.gluetools.core.command.console.ConsoleCommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.project.module.ProvidedProjectModeCommand;
 import uk.ac.gla.cvr.gluetools.core.plugins.PluginConfigContext;
 import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporterPreprocessor.SamReporterPreprocessorSession;
@@ -52,7 +51,7 @@ import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporterPreprocesso
 					"specified reference sequence named in the SAM/BAM file. If <samRefName> is omitted, it is assumed that the input "+
 					"file only names a single reference sequence.\n"+
 					"The <samRefSense> may be FORWARD or REVERSE_COMPLEMENT, indicating the presumed sense of the SAM reference, relative to the GLUE references.",
-		metaTags = {CmdMeta.consoleOnly}	
+		metaTags = {CmdMeta.consumesBinaryFile}	
 )
 public class SamTargetReferenceCommand extends ExtendedSamReporterCommand<SamTargetReferenceResult> implements ProvidedProjectModeCommand {
 
@@ -63,11 +62,10 @@ public class SamTargetReferenceCommand extends ExtendedSamReporterCommand<SamTar
 
 	@Override
 	protected SamTargetReferenceResult execute(CommandContext cmdContext, SamReporter samReporter) {
-		ConsoleCommandContext consoleCmdContext = (ConsoleCommandContext) cmdContext;
 
 		String samFileName = getFileName();
-		try(SamReporterPreprocessorSession samReporterPreprocessorSession = SamReporterPreprocessor.getPreprocessorSession(consoleCmdContext, samFileName, samReporter)) {
-			ReferenceDistance refDistance = samReporterPreprocessorSession.getTargetRefDistanceBasedOnPlacer(consoleCmdContext, samReporter, this);
+		try(SamReporterPreprocessorSession samReporterPreprocessorSession = SamReporterPreprocessor.getPreprocessorSession(cmdContext, samFileName, samReporter)) {
+			ReferenceDistance refDistance = samReporterPreprocessorSession.getTargetRefDistanceBasedOnPlacer(cmdContext, samReporter, this);
 			return new SamTargetReferenceResult(refDistance.getTargetRef().getName(), refDistance.getDistance());
 		}
 
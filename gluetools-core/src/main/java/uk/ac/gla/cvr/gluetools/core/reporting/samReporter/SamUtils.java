@@ -25,9 +25,11 @@
 */
 package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -36,14 +38,18 @@ import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.SAMFormatException;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.SamInputResource;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.ValidationStringency;
+import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.console.ConsoleCommandContext;
+import uk.ac.gla.cvr.gluetools.core.config.PropertiesConfiguration;
 import uk.ac.gla.cvr.gluetools.core.logging.GlueLogger;
 import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporter.SamRefSense;
 import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporterPreprocessor.SamReporterPreprocessorSession;
@@ -61,6 +67,34 @@ public class SamUtils {
 	public static String 
 		SAM_NUMBER_CPUS = "gluetools.core.sam.cpus";
 
+	// if set, the preprocessor will spill unpaired reads to disk once more than this number are held in memory.
+	public static String 
+		SAM_PREPROCESSOR_MAX_UNPAIRED_READS_IN_RAM = "gluetools.core.sam.preprocessor.max.unpaired.reads.in.ram";
+
+	// deflate level (0-9) for the temporary BAM files written by the preprocessor; these only live for one session, 
+	// so 0 (uncompressed) or 1 trade disk space for faster writing and reading. If unset, the htsjdk default level is used.
+	public static String 
+		SAM_PREPROCESSOR_COMPRESSION_LEVEL = "gluetools.core.sam.preprocessor.compression.level";
+
+	// number of chunks (preprocessed files or indexed BAM shards) per CPU. Using several chunks per CPU means the SAM 
+	// executor threads pull chunks as they become free, so that an expensive chunk does not leave other threads idle.
+	public static String 
+		SAM_CHUNKS_PER_CPU = "gluetools.core.sam.chunks.per.cpu";
+
+	// if true, coordinate-sorted, indexed BAM files are processed in parallel via interval queries 
+	// over genomic windows, rather than being preprocessed into temporary BAM files. Defaults to false.
+	public static String 
+		SAM_INDEXED_SHARDING = "gluetools.core.sam.indexed.sharding";
+
+	// if set, consensus, placement and auto-alignment results are cached in this directory, keyed by 
+	// SAM/BAM file content, so that they can be reused when the same file is analysed again.
+	public static String 
+		SAM_PERSISTENT_CACHE_DIR = "gluetools.core.sam.persistent.cache.dir";
+
+	// maximum total size of the persistent cache directory, least recently used entries are evicted beyond this.
+	public static String 
+		SAM_PERSISTENT_CACHE_MAX_BYTES = "gluetools.core.sam.persistent.cache.max.bytes";
+
 	
 	public static int getForwardSenseSamRefIndex(SamRefSense samRefSense, int samRefLength, int refStart, int baseIndex) {
 		switch(samRefSense) {
@@ -114,9 +148,28 @@ public class SamUtils {
 		return samReference;
 	}
 
-	public static SamReader newSamReader(ConsoleCommandContext consoleCmdContext, String fileName, ValidationStringency validationStringency) {
-		InputStream samInputStream = 
-				ConsoleCommandContext.inputStreamFromFile(consoleCmdContext.fileStringToFile(fileName));
+	/**
+	 * In the console, the SAM/BAM file name is resolved relative to the console's load/save directory.
+	 * Elsewhere, for example in the web API, only a file spooled from the request's upload may be read.
+	 */
+	public static File samFile(CommandContext cmdContext, String fileName) {
+		if(cmdContext instanceof ConsoleCommandContext) {
+			return ((ConsoleCommandContext) cmdContext).fileStringToFile(fileName);
+		}
+		File file = new File(fileName);
+		if(!cmdContext.isDisposableFile(file)) {
+			throw new SamUtilsException(Code.SAM_BAM_FILE_NOT_UPLOADED, fileName);
+		}
+		return file;
+	}
+
+	public static SamReader newSamReader(CommandContext cmdContext, String fileName, ValidationStringency validationStringency) {
+		return newSamReader(samFile(cmdContext, fileName), validationStringency);
+	}
+
+	// for files which GLUE has created itself, such as preprocessed BAM files.
+	public static SamReader newSamReader(File file, ValidationStringency validationStringency) {
+		InputStream samInputStream = ConsoleCommandContext.inputStreamFromFile(file);
 		SamReaderFactory samReaderFactory = SamReaderFactory.makeDefault();
 		if(validationStringency != null) {
 			samReaderFactory.validationStringency(validationStringency);
@@ -124,7 +177,34 @@ public class SamUtils {
 		return samReaderFactory.open(SamInputResource.of(samInputStream));
 	}
 	
-	public static DNASequence getSamConsensus(ConsoleCommandContext cmdContext, String fileName, 
+	public static SamReader newIndexedSamReader(CommandContext cmdContext, String fileName, ValidationStringency validationStringency) {
+		SamReaderFactory samReaderFactory = SamReaderFactory.makeDefault();
+		if(validationStringency != null) {
+			samReaderFactory.validationStringency(validationStringency);
+		}
+		return samReaderFactory.open(samFile(cmdContext, fileName));
+	}
+
+	/**
+	 * Returns true if the file is a coordinate-sorted BAM file with an accompanying index,
+	 * and so is suitable for sharded iteration over genomic windows.
+	 */
+	public static boolean isIndexedCoordinateSortedBam(CommandContext cmdContext, String fileName, ValidationStringency validationStringency) {
+		File file = samFile(cmdContext, fileName);
+		if(!file.isFile()) {
+			return false;
+		}
+		try(SamReader samReader = newIndexedSamReader(cmdContext, fileName, validationStringency)) {
+			return samReader.type() == SamReader.Type.BAM_TYPE && 
+					samReader.hasIndex() && 
+					samReader.getFileHeader().getSortOrder() == SortOrder.coordinate;
+		} catch (Exception e) {
+			GlueLogger.getGlueLogger().finest("Unable to check whether "+fileName+" is an indexed BAM file: "+e.getLocalizedMessage());
+			return false;
+		}
+	}
+	
+	public static DNASequence getSamConsensus(CommandContext cmdContext, String fileName, 
 			SamReporterPreprocessorSession samReporterPreprocessorSession, ValidationStringency validationStringency, String samRefName,
 			int minQScore, int minMapQ, int minDepth, SamRefSense samRefSense, 
 			boolean mayGenerateAmbiguities, boolean consensusProduceAmbiguityCodes, int consensusAmbiguityCodesMinDepth,
@@ -213,6 +293,13 @@ public class SamUtils {
 
 	
 	
+	public static int getSamNumberOfChunks(CommandContext cmdContext) {
+		PropertiesConfiguration propertiesConfiguration = cmdContext.getGluetoolsEngine().getPropertiesConfiguration();
+		int cpus = Integer.parseInt(propertiesConfiguration.getPropertyValue(SAM_NUMBER_CPUS, "4"));
+		int chunksPerCpu = Integer.parseInt(propertiesConfiguration.getPropertyValue(SAM_CHUNKS_PER_CPU, "4"));
+		return cpus * Math.max(1, chunksPerCpu);
+	}
+
 	public static void iterateOverSamReader(SamReader samReader, Consumer<SAMRecord> recordConsumer) {
 		try {
 			samReader.forEach(recordConsumer);
@@ -221,30 +308,93 @@ public class SamUtils {
 		}
 	}
 
-	public static <M, R> R pairedParallelSamIterate(Supplier<M> contextSupplier, ConsoleCommandContext consoleCmdContext, 
+	public static <M, R> R pairedParallelSamIterate(Supplier<M> contextSupplier, CommandContext cmdContext, 
 			SamReporterPreprocessorSession samReporterPreprocessorSession, ValidationStringency validationStringency, 
 			SamPairedParallelProcessor<M, R> samPairedParallelProcessor) {
-		R reducedResult = null;
+		return pairedParallelSamIterate(contextSupplier, cmdContext, samReporterPreprocessorSession, 
+				validationStringency, null, samPairedParallelProcessor);
+	}
+
+	/*
+	 * samRefRegion, if non-null, is the span outside which reads cannot contribute to the result. 
+	 * It is used to restrict the interval queries made on an indexed BAM file; preprocessed BAM 
+	 * files are always iterated in full, so processors must still reject irrelevant reads themselves.
+	 */
+	public static <M, R> R pairedParallelSamIterate(Supplier<M> contextSupplier, CommandContext cmdContext, 
+			SamReporterPreprocessorSession samReporterPreprocessorSession, ValidationStringency validationStringency, 
+			SamRefRegion samRefRegion, SamPairedParallelProcessor<M, R> samPairedParallelProcessor) {
+		if(samReporterPreprocessorSession.getIndexedBamPath() != null) {
+			return shardedParallelSamIterate(contextSupplier, cmdContext, samReporterPreprocessorSession.getIndexedBamPath(), 
+					validationStringency, samRefRegion, samPairedParallelProcessor);
+		}
 		List<SamReader> readers = new ArrayList<SamReader>();
 
 		GlueLogger.getGlueLogger().finest("Running SamPairedParallelProcessor "+samPairedParallelProcessor.getClass().getSimpleName());
-		List<M> contexts = new ArrayList<M>();
-		List<PairedParallelSamWorker<M, R>> workers = new ArrayList<PairedParallelSamWorker<M, R>>();
+		List<Callable<R>> workers = new ArrayList<Callable<R>>();
 		SimpleReadLogger readLogger = new SimpleReadLogger();
 		for(int i = 0; i < samReporterPreprocessorSession.getPreprocessedBamPaths().length; i++) {
 			M context = contextSupplier.get();;
-			contexts.add(context);
 			SamReader samReader = 
-					SamUtils.newSamReader(consoleCmdContext, samReporterPreprocessorSession.getPreprocessedBamPaths()[i], validationStringency);
+					SamUtils.newSamReader(new File(samReporterPreprocessorSession.getPreprocessedBamPaths()[i]), validationStringency);
 			readers.add(samReader);
 			samPairedParallelProcessor.initContextForReader(context, samReader);
 			workers.add(new PairedParallelSamWorker<M, R>(context, samReader, samPairedParallelProcessor, readLogger));
 		}
+		return invokeWorkersAndReduce(cmdContext, samPairedParallelProcessor, readers, workers, readLogger);
+	}
+
+	/*
+	 * Alternative to iterating over preprocessed BAM files, for coordinate-sorted indexed BAM files. 
+	 * The SAM references are split into genomic windows, and each worker opens its own 
+	 * reader with an interval query over its window, so no preprocessing pass is required.
+	 * Each read is handled by the worker whose window contains its alignment start. 
+	 * A pair is handled by the worker whose window contains the leftmost mate; if the other mate 
+	 * starts beyond the end of that window, it is fetched via a separate mate reader.
+	 * If a region is supplied, only its SAM reference span is split into windows; reads starting before the 
+	 * region but overlapping it are handled by the first window, and mates which do not overlap the region 
+	 * are ignored.
+	 */
+	private static <M, R> R shardedParallelSamIterate(Supplier<M> contextSupplier, CommandContext cmdContext, 
+			String indexedBamPath, ValidationStringency validationStringency, SamRefRegion samRefRegion, 
+			SamPairedParallelProcessor<M, R> samPairedParallelProcessor) {
+		List<SamReader> readers = new ArrayList<SamReader>();
+
+		GlueLogger.getGlueLogger().finest("Running SamPairedParallelProcessor "+samPairedParallelProcessor.getClass().getSimpleName()+" over indexed BAM shards");
+		List<Callable<R>> workers = new ArrayList<Callable<R>>();
+		SimpleReadLogger readLogger = new SimpleReadLogger();
+		int numChunks = getSamNumberOfChunks(cmdContext);
+		try {
+			List<SamShard> shards;
+			try(SamReader headerReader = newIndexedSamReader(cmdContext, indexedBamPath, validationStringency)) {
+				shards = SamShard.computeShards(headerReader.getFileHeader().getSequenceDictionary().getSequences(), numChunks, samRefRegion);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			for(SamShard shard: shards) {
+				M context = contextSupplier.get();
+				SamReader shardReader = newIndexedSamReader(cmdContext, indexedBamPath, validationStringency);
+				readers.add(shardReader);
+				SamReader mateReader = newIndexedSamReader(cmdContext, indexedBamPath, validationStringency);
+				readers.add(mateReader);
+				samPairedParallelProcessor.initContextForReader(context, shardReader);
+				workers.add(new IndexedShardSamWorker<M, R>(context, shard, shardReader, mateReader, samPairedParallelProcessor, readLogger));
+			}
+		} catch(RuntimeException re) {
+			closeReaders(readers);
+			throw re;
+		}
+		return invokeWorkersAndReduce(cmdContext, samPairedParallelProcessor, readers, workers, readLogger);
+	}
+
+	private static <M, R> R invokeWorkersAndReduce(CommandContext cmdContext, SamPairedParallelProcessor<M, R> samPairedParallelProcessor, 
+			List<SamReader> readers, List<Callable<R>> workers, SimpleReadLogger readLogger) {
+		R reducedResult = null;
 		List<R> results = new ArrayList<R>();
 
 		try {
 
-			ExecutorService samExecutorService = consoleCmdContext.getGluetoolsEngine().getSamExecutorService();
+			// there are normally several workers per executor thread; each thread picks up the next worker as it becomes free.
+			ExecutorService samExecutorService = cmdContext.getGluetoolsEngine().getSamExecutorService();
 			List<Future<R>> futures = samExecutorService.invokeAll(workers);
 			for(Future<R> future: futures) { // pick up results plus any exceptions.
 				results.add(future.get()); 
@@ -253,11 +403,7 @@ public class SamUtils {
 		} catch (Exception e) {
 			throw new SamUtilsException(e, Code.SAM_PAIRED_READS_ERROR,  "Error during paired parallel SAM iteration: "+e.getLocalizedMessage());
 		} finally {
-			readers.forEach(reader -> { try {
-				reader.close();
-			} catch (Exception e) {
-				GlueLogger.getGlueLogger().warning("Unable to close SamReader: "+e.getLocalizedMessage());
-			} });
+			closeReaders(readers);
 		}
 		
 		reducedResult = results.get(0);
@@ -266,7 +412,14 @@ public class SamUtils {
 		}
 		
 		return reducedResult;
-		
+	}
+
+	private static void closeReaders(List<SamReader> readers) {
+		readers.forEach(reader -> { try {
+			reader.close();
+		} catch (Exception e) {
+			GlueLogger.getGlueLogger().warning("Unable to close SamReader: "+e.getLocalizedMessage());
+		} });
 	}
 	
 
@@ -330,6 +483,173 @@ public class SamUtils {
 		}
 	}
 
+	// a genomic window on a single SAM reference, 1-based inclusive coordinates, within the iterated region of that reference.
+	private static class SamShard {
+		private String samRefName;
+		private int start;
+		private int end;
+		private int regionStart;
+		private int regionEnd;
+		
+		public SamShard(String samRefName, int start, int end, int regionStart, int regionEnd) {
+			super();
+			this.samRefName = samRefName;
+			this.start = start;
+			this.end = end;
+			this.regionStart = regionStart;
+			this.regionEnd = regionEnd;
+		}
+		
+		// split the references, or just the region if supplied, into windows of roughly equal length, at least one per reference.
+		public static List<SamShard> computeShards(List<SAMSequenceRecord> samRefs, int numShards, SamRefRegion samRefRegion) {
+			List<SamShard> regionShards = new ArrayList<SamShard>();
+			for(SAMSequenceRecord samRef: samRefs) {
+				int samRefLength = Math.max(1, samRef.getSequenceLength());
+				if(samRefRegion == null) {
+					regionShards.add(new SamShard(samRef.getSequenceName(), 1, samRefLength, 1, samRefLength));
+				} else if(samRef.getSequenceName().equals(samRefRegion.getSamRefName())) {
+					int regionStart = Math.max(1, Math.min(samRefRegion.getStart(), samRefLength));
+					int regionEnd = Math.max(regionStart, Math.min(samRefRegion.getEnd(), samRefLength));
+					regionShards.add(new SamShard(samRef.getSequenceName(), regionStart, regionEnd, regionStart, regionEnd));
+				}
+			}
+			long totalLength = 0;
+			for(SamShard regionShard: regionShards) {
+				totalLength += (regionShard.regionEnd - regionShard.regionStart) + 1;
+			}
+			int windowLength = (int) Math.max(1, (totalLength + numShards - 1) / numShards);
+			List<SamShard> shards = new ArrayList<SamShard>();
+			for(SamShard regionShard: regionShards) {
+				for(int start = regionShard.regionStart; start <= regionShard.regionEnd; start += windowLength) {
+					int end = (int) Math.min((long) start + windowLength - 1, regionShard.regionEnd);
+					shards.add(new SamShard(regionShard.samRefName, start, end, regionShard.regionStart, regionShard.regionEnd));
+				}
+			}
+			return shards;
+		}
+	}
+	
+	private static class IndexedShardSamWorker<M, R> implements Callable<R> {
+
+		private M context;
+		private SamShard shard;
+		private SamReader shardReader;
+		private SamReader mateReader;
+		private SamPairedParallelProcessor<M, R> samPairedParallelProcessor;
+		private SimpleReadLogger readLogger;
+		// leftmost mates waiting for their partner, which starts later in this shard.
+		private Map<String, SAMRecord> nameToPendingRead = new LinkedHashMap<String, SAMRecord>();
+		
+		public IndexedShardSamWorker(M context, SamShard shard, SamReader shardReader, SamReader mateReader,
+				SamPairedParallelProcessor<M, R> samPairedParallelProcessor, SimpleReadLogger readLogger) {
+			super();
+			this.context = context;
+			this.shard = shard;
+			this.shardReader = shardReader;
+			this.mateReader = mateReader;
+			this.samPairedParallelProcessor = samPairedParallelProcessor;
+			this.readLogger = readLogger;
+		}
+
+		@Override
+		public R call() throws Exception {
+			try(SAMRecordIterator shardIterator = shardReader.query(shard.samRefName, shard.start, shard.end, false)) {
+				while(shardIterator.hasNext()) {
+					processRecord(shardIterator.next());
+				}
+			} catch(SAMFormatException sfe) {
+				throw new SamUtilsException(sfe, Code.SAM_FORMAT_ERROR, sfe.getMessage());
+			}
+			// mates which were never found are treated as singletons.
+			nameToPendingRead.values().forEach(samRecord -> {
+				samPairedParallelProcessor.processSingleton(context, samRecord);
+				readLogger.logSingleton();
+			});
+			return samPairedParallelProcessor.contextResult(context);
+		}
+
+		private void processRecord(SAMRecord samRecord) {
+			// reads starting before the region but overlapping it are treated as starting at the region start.
+			int alignmentStart = Math.max(samRecord.getAlignmentStart(), shard.regionStart);
+			if(samRecord.getReadUnmappedFlag() || alignmentStart < shard.start || alignmentStart > shard.end) {
+				// reads overlapping the window but starting outside it belong to another shard.
+				return;
+			}
+			if(!hasMappedMateOnSameReference(samRecord)) {
+				processSingleton(samRecord);
+				return;
+			}
+			int mateAlignmentStart = samRecord.getMateAlignmentStart();
+			if(mateAlignmentStart > shard.regionEnd) {
+				// the mate lies beyond the region so cannot contribute.
+				processSingleton(samRecord);
+				return;
+			}
+			if(mateAlignmentStart < shard.regionStart) {
+				// the mate starts before the region; it contributes only if it overlaps the region, in which 
+				// case it is also treated as starting at the region start.
+				SAMRecord mate = queryMate(samRecord);
+				if(mate == null || mate.getAlignmentEnd() < shard.regionStart) {
+					processSingleton(samRecord);
+					return;
+				}
+				mateAlignmentStart = shard.regionStart;
+			}
+			if(mateAlignmentStart < shard.start) {
+				// pair was handled by the shard containing the mate.
+				return;
+			}
+			if(mateAlignmentStart > shard.end) {
+				SAMRecord mate = queryMate(samRecord);
+				if(mate == null) {
+					processSingleton(samRecord);
+				} else {
+					processPair(samRecord, mate);
+				}
+				return;
+			}
+			SAMRecord pendingRead = nameToPendingRead.remove(samRecord.getReadName());
+			if(pendingRead == null) {
+				nameToPendingRead.put(samRecord.getReadName(), samRecord);
+			} else {
+				processPair(pendingRead, samRecord);
+			}
+		}
+		
+		// the mate of the read, or null if it cannot be found unambiguously, in which case the read is treated as a singleton.
+		// htsjdk rejects reads flagged as both first and second of pair, and reads with more than one mate.
+		private SAMRecord queryMate(SAMRecord samRecord) {
+			try {
+				return mateReader.queryMate(samRecord);
+			} catch(IllegalArgumentException | SAMFormatException e) {
+				GlueLogger.getGlueLogger().finest("Unable to find mate of read "+samRecord.getReadName()+": "+e.getMessage());
+				return null;
+			}
+		}
+
+		private void processSingleton(SAMRecord samRecord) {
+			samPairedParallelProcessor.processSingleton(context, samRecord);
+			readLogger.logSingleton();
+		}
+
+		private void processPair(SAMRecord mateA, SAMRecord mateB) {
+			if(mateB.getFirstOfPairFlag() && !mateA.getFirstOfPairFlag()) {
+				samPairedParallelProcessor.processPair(context, mateB, mateA);
+			} else {
+				samPairedParallelProcessor.processPair(context, mateA, mateB);
+			}
+			readLogger.logPair();
+		}
+
+		private static boolean hasMappedMateOnSameReference(SAMRecord samRecord) {
+			return samRecord.getReadPairedFlag() && 
+					(samRecord.getFirstOfPairFlag() || samRecord.getSecondOfPairFlag()) &&
+					!samRecord.getMateUnmappedFlag() && 
+					!samRecord.isSecondaryOrSupplementary() &&
+					samRecord.getMateReferenceIndex().equals(samRecord.getReferenceIndex());
+		}
+	}
+
 	public static int worstQScore(String qualityString, int queryStart, int queryEnd) {
 		int worstQScore = qualityCharToQScore(SegmentUtils.base1Char(qualityString, queryStart));
 		for(int i = queryStart+1; i <= queryEnd; i++) {
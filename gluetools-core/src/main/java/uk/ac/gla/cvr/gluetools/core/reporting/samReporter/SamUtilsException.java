@@ -38,7 +38,9 @@ public class SamUtilsException extends GlueException {
 		SAM_BAM_FILE_HAS_MULTIPLE_REFERENCES("fileName"),
 		SAM_BAM_FILE_MISSING_REFERENCE("fileName", "samRefName"),
 		SAM_FORMAT_ERROR("errorTxt"),
-		SAM_PAIRED_READS_ERROR("errorTxt");
+		SAM_PAIRED_READS_ERROR("errorTxt"),
+		SAM_PREPROCESSOR_ERROR("errorTxt"),
+		SAM_BAM_FILE_NOT_UPLOADED("fileName");
 
 		private String[] argNames;
 		private Code(String... argNames) {
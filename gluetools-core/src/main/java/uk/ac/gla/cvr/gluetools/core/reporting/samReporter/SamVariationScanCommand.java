@@ -32,6 +32,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
@@ -39,16 +41,16 @@ import java.util.stream.Collectors;
 import org.apache.cayenne.exp.Expression;
 import org.w3c.dom.Element;
 
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SamReader;
-import htsjdk.samtools.ValidationStringency;
 import uk.ac.gla.cvr.gluetools.core.command.CmdMeta;
 import uk.ac.gla.cvr.gluetools.core.command.CommandClass;
 import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.CommandException;
 import uk.ac.gla.cvr.gluetools.core.command.CommandException.Code;
 import uk.ac.gla.cvr.gluetools.core.command.CompleterClass;
-import uk.ac.gla.cvr.gluetools.core.command.console.ConsoleCommandContext;
 import uk.ac.gla.cvr.gluetools.core.command.project.module.ProvidedProjectModeCommand;
 import uk.ac.gla.cvr.gluetools.core.datamodel.GlueDataObject;
 import uk.ac.gla.cvr.gluetools.core.datamodel.alignment.Alignment;
@@ -62,7 +64,7 @@ import uk.ac.gla.cvr.gluetools.core.plugins.PluginUtils;
 import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporter.SamRefSense;
 import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamReporterPreprocessor.SamReporterPreprocessorSession;
 import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamVariationScanCommand.VariationContext;
-import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamVariationScanCommand.VariationResult;
+import uk.ac.gla.cvr.gluetools.core.reporting.samReporter.SamVariationScanCommand.VariationCounts;
 import uk.ac.gla.cvr.gluetools.core.segments.QueryAlignedSegment;
 import uk.ac.gla.cvr.gluetools.core.segments.ReferenceSegment;
 import uk.ac.gla.cvr.gluetools.core.segments.ReferenceSegmentTree;
@@ -75,7 +77,7 @@ import uk.ac.gla.cvr.gluetools.utils.StringUtils;
 @CommandClass(
 		commandWords={"variation", "scan"}, 
 		description = "Scan a SAM/BAM file for variations", 
-		docoptUsages = { "-i <fileName> [-n <samRefSense>] [-s <samRefName>] -r <relRefName> -f <featureName> [-d] (-p | [-l] -t <targetRefName>) -a <linkingAlmtName> [-w <whereClause>] [-q <minQScore>] [-g <minMapQ>] [-e <minDepth>] [-P <minPresentPct>] [-A <minAbsentPct>]" },
+		docoptUsages = { "-i <fileName> [-n <samRefSense>] [-s <samRefName>] -r <relRefName> -f <featureName> [-d] (-p | [-l] -t <targetRefName>) -a <linkingAlmtName> [-w <whereClause>] [-q <minQScore>] [-g <minMapQ>] [-e <minDepth>] [-P <minPresentPct>] [-A <minAbsentPct>] [-x <thresholdPct> [-z <zScore>]]" },
 		docoptOptions = { 
 				"-i <fileName>, --fileName <fileName>                       SAM/BAM input file",
 				"-n <samRefSense>, --samRefSense <samRefSense>              SAM ref seq sense",
@@ -93,6 +95,8 @@ import uk.ac.gla.cvr.gluetools.utils.StringUtils;
 				"-e <minDepth>, --minDepth <minDepth>                       Minimum depth",
 				"-P <minPresentPct>, --minPresentPct <minPresentPct>        Show present at minimum percentage",
 				"-A <minAbsentPct>, --minAbsentPct <minAbsentPct>           Show absent at minimum percentage",
+				"-x <thresholdPct>, --thresholdPct <thresholdPct>           Stop once decided against threshold",
+				"-z <zScore>, --zScore <zScore>                             Confidence z-score for threshold",
 		},
 		furtherHelp = 
 			"This command scans a SAM/BAM file for variations. "+
@@ -124,22 +128,34 @@ import uk.ac.gla.cvr.gluetools.utils.StringUtils;
 			"No result will be generated for a variation if the number of contributing reads is less than <minDepth> "+
 			"(default value is derived from the module config).\n"+
 			"Scanned variations will only display in the result if the percentage of reads where the variation is present is at least <minPresentPct> (default 0), and "+
-			"if the percentage of reads where it is absent is at least <minAbsentPct> (default 0).",
-		metaTags = {CmdMeta.consoleOnly}	
+			"if the percentage of reads where it is absent is at least <minAbsentPct> (default 0).\n"+
+			"If <thresholdPct> is supplied, the scan only needs to decide whether the percentage of reads where each variation "+
+			"is present is above or below this threshold. Running counts for each variation are aggregated across all the "+
+			"parallel workers scanning the file, and once at least <minDepth> "+
+			"reads have contributed and the Wilson score interval for the percentage present (using <zScore>, default 1.96) "+
+			"lies entirely above or below <thresholdPct>, no further reads are scanned for that variation. "+
+			"In this mode the reported read counts and percentages are those accumulated up to the point of decision, "+
+			"and an additional decidedEarly column shows which variations were decided before all reads had been scanned.",
+		metaTags = {CmdMeta.consumesBinaryFile}	
 )
 public class SamVariationScanCommand extends ReferenceLinkedSamReporterCommand<SamVariationScanResult> 
-	implements ProvidedProjectModeCommand, SamPairedParallelProcessor<VariationContext, VariationResult>{
+	implements ProvidedProjectModeCommand, SamPairedParallelProcessor<VariationContext, VariationCounts>, 
+	SamReportPlanner<SamVariationScanResult> {
 
 	public static final String WHERE_CLAUSE = "whereClause";
 	public static final String DESCENDENT_FEATURES = "descendentFeatures";
 	
 	public static final String MIN_PRESENT_PCT = "minPresentPct";
 	public static final String MIN_ABSENT_PCT = "minAbsentPct";
+	public static final String THRESHOLD_PCT = "thresholdPct";
+	public static final String Z_SCORE = "zScore";
 	
 	private Expression whereClause;
 	private Boolean descendentFeatures;
 	private Double minPresentPct;
 	private Double minAbsentPct;
+	private Double thresholdPct;
+	private Double zScore;
 	
 	@Override
 	public void configure(PluginConfigContext pluginConfigContext,
@@ -150,6 +166,8 @@ public class SamVariationScanCommand extends ReferenceLinkedSamReporterCommand<S
 	
 		this.minPresentPct = Optional.ofNullable(PluginUtils.configureDoubleProperty(configElem, MIN_PRESENT_PCT, 0.0, true, 100.0, true, false)).orElse(0.0);
 		this.minAbsentPct = Optional.ofNullable(PluginUtils.configureDoubleProperty(configElem, MIN_ABSENT_PCT, 0.0, true, 100.0, true, false)).orElse(0.0);
+		this.thresholdPct = PluginUtils.configureDoubleProperty(configElem, THRESHOLD_PCT, 0.0, true, 100.0, true, false);
+		this.zScore = Optional.ofNullable(PluginUtils.configureDoubleProperty(configElem, Z_SCORE, 0.0, false, null, false, false)).orElse(1.96);
 		if(this.getFeatureName() == null || this.getRelatedRefName() == null) {
 			throw new CommandException(Code.COMMAND_USAGE_ERROR, "The <relRefName> and <featureName> arguments must be specified");
 		}
@@ -165,161 +183,222 @@ public class SamVariationScanCommand extends ReferenceLinkedSamReporterCommand<S
 
 	@Override
 	protected SamVariationScanResult execute(CommandContext cmdContext, SamReporter samReporter) {
+		try(SamReporterPreprocessorSession samReporterPreprocessorSession = SamReporterPreprocessor.getPreprocessorSession(cmdContext, getFileName(), samReporter)) {
+			SamReportPlan<SamVariationScanResult> samReportPlan = planReport(cmdContext, samReporter, samReporterPreprocessorSession);
+			SamMultiReportProcessor.runPasses(samReportPlan.getPasses(), cmdContext, samReporterPreprocessorSession, 
+					samReporter.getSamReaderValidationStringency());
+			return samReportPlan.formResult();
+		}
+	}
+
+	@Override
+	public SamReportPlan<SamVariationScanResult> planReport(CommandContext cmdContext, SamReporter samReporter, 
+			SamReporterPreprocessorSession samReporterPreprocessorSession) {
 		Feature namedFeature = GlueDataObject.lookup(cmdContext, Feature.class, Feature.pkMap(getFeatureName()));
 		
-		ConsoleCommandContext consoleCmdContext = (ConsoleCommandContext) cmdContext;
 
-		SamRefInfo samRefInfo = getSamRefInfo(consoleCmdContext, samReporter);
+		SamRefInfo samRefInfo = getSamRefInfo(cmdContext, samReporter);
 		
 		ReferenceSequence targetRef;
 		String samFileName = getFileName();
-		ValidationStringency validationStringency = samReporter.getSamReaderValidationStringency();
-		
-		try(SamReporterPreprocessorSession samReporterPreprocessorSession = SamReporterPreprocessor.getPreprocessorSession(consoleCmdContext, samFileName, samReporter)) {
-			if(useMaxLikelihoodPlacer()) {
-				targetRef = samReporterPreprocessorSession.getTargetRefBasedOnPlacer(consoleCmdContext, samReporter, this);
-			} else {
-				targetRef = GlueDataObject.lookup(cmdContext, ReferenceSequence.class, 
-						ReferenceSequence.pkMap(getTargetRefName()));
-			}
 
-			Alignment linkingAlmt = GlueDataObject.lookup(cmdContext, Alignment.class, 
-					Alignment.pkMap(getLinkingAlmtName()));
-			ReferenceSequence relatedRef = linkingAlmt.getRelatedRef(cmdContext, getRelatedRefName());
+		if(useMaxLikelihoodPlacer()) {
+			targetRef = samReporterPreprocessorSession.getTargetRefBasedOnPlacer(cmdContext, samReporter, this);
+		} else {
+			targetRef = GlueDataObject.lookup(cmdContext, ReferenceSequence.class, 
+					ReferenceSequence.pkMap(getTargetRefName()));
+		}
 
-			List<Feature> featuresToScan = new ArrayList<Feature>();
-			featuresToScan.add(namedFeature);
-			if(descendentFeatures) {
-				featuresToScan.addAll(namedFeature.getDescendents());
-			}
-			
-			List<QueryAlignedSegment> samRefToTargetRefSegs = getSamRefToTargetRefSegs(cmdContext, samReporter, samReporterPreprocessorSession, consoleCmdContext, targetRef);
+		Alignment linkingAlmt = GlueDataObject.lookup(cmdContext, Alignment.class, 
+				Alignment.pkMap(getLinkingAlmtName()));
+		ReferenceSequence relatedRef = linkingAlmt.getRelatedRef(cmdContext, getRelatedRefName());
 
-			AlignmentMember linkingAlmtMember = targetRef.getLinkingAlignmentMembership(getLinkingAlmtName());
+		List<Feature> featuresToScan = new ArrayList<Feature>();
+		featuresToScan.add(namedFeature);
+		if(descendentFeatures) {
+			featuresToScan.addAll(namedFeature.getDescendents());
+		}
+		
+		List<QueryAlignedSegment> samRefToTargetRefSegs = getSamRefToTargetRefSegs(cmdContext, samReporter, samReporterPreprocessorSession, targetRef);
 
-			// translate segments to linking alignment coords
-			List<QueryAlignedSegment> samRefToLinkingAlmtSegs = linkingAlmt.translateToAlmt(cmdContext, 
-					linkingAlmtMember.getSequence().getSource().getName(), linkingAlmtMember.getSequence().getSequenceID(), 
-					samRefToTargetRefSegs);
-			
-			List<VariationScanReadCount> variationScanReadCounts = new ArrayList<VariationScanReadCount>();
-			
-				for(Feature featureToScan: featuresToScan) {
+		AlignmentMember linkingAlmtMember = targetRef.getLinkingAlignmentMembership(getLinkingAlmtName());
 
-					samReporter.log(Level.FINE, "Scanning for variations defined on reference: "+relatedRef.getName()+", feature: "+featureToScan.getName());
+		// translate segments to linking alignment coords
+		List<QueryAlignedSegment> samRefToLinkingAlmtSegs = linkingAlmt.translateToAlmt(cmdContext, 
+				linkingAlmtMember.getSequence().getSource().getName(), linkingAlmtMember.getSequence().getSequenceID(), 
+				samRefToTargetRefSegs);
+		
+		SamReportPlan<SamVariationScanResult> samReportPlan = new SamReportPlan<SamVariationScanResult>();
+		// one pass per scanned feature, all run over the same iteration of the reads.
+		List<SamReportPass<VariationContext, VariationCounts>> featurePasses = new ArrayList<SamReportPass<VariationContext, VariationCounts>>();
+		
+		for(Feature featureToScan: featuresToScan) {
 
-					FeatureLocation featureLoc = 
-							GlueDataObject.lookup(cmdContext, FeatureLocation.class, 
-									FeatureLocation.pkMap(relatedRef.getName(), featureToScan.getName()), true);
-					if(featureLoc == null) {
-						continue;
-					}
+			samReporter.log(Level.FINE, "Scanning for variations defined on reference: "+relatedRef.getName()+", feature: "+featureToScan.getName());
+
+			FeatureLocation featureLoc = 
+					GlueDataObject.lookup(cmdContext, FeatureLocation.class, 
+							FeatureLocation.pkMap(relatedRef.getName(), featureToScan.getName()), true);
+			if(featureLoc == null) {
+				continue;
+			}
 
-					List<Variation> variationsToScan = featureLoc.getVariationsQualified(cmdContext, whereClause);
-					if(variationsToScan.isEmpty()) {
-						continue;
+			List<Variation> variationsToScan = featureLoc.getVariationsQualified(cmdContext, whereClause);
+			if(variationsToScan.isEmpty()) {
+				continue;
+			}
+			// translate segments to related reference
+			List<QueryAlignedSegment> samRefToRelatedRefSegsFull = linkingAlmt.translateToRelatedRef(cmdContext, samRefToLinkingAlmtSegs, relatedRef);
+
+			// trim down to the feature area.
+			List<ReferenceSegment> featureRefSegs = featureLoc.getSegments().stream()
+					.map(seg -> seg.asReferenceSegment()).collect(Collectors.toList());
+			List<QueryAlignedSegment> samRefToRelatedRefSegs = 
+					ReferenceSegment.intersection(samRefToRelatedRefSegsFull, featureRefSegs, ReferenceSegment.cloneLeftSegMerger());
+
+			SamRefSense samRefSense = getSamRefSense(samReporter);
+
+			SamRefToRelatedRefLookup samRefToRelatedRefLookup = 
+					samReporterPreprocessorSession.getSamRefToRelatedRefLookup(samRefInfo.getSamRefLength(), samRefToRelatedRefSegs);
+
+			// variation info and the SAM ref region index are built once per feature; counts are kept per context.
+			List<VariationInfo> variationInfos = new ArrayList<VariationInfo>();
+			List<ReferenceSegment> allSegmentsToCover = new ArrayList<ReferenceSegment>();
+			for(Variation variation: variationsToScan) {
+				List<ReferenceSegment> segmentsToCover = variation.getScanner(cmdContext).getSegmentsToCover();
+				allSegmentsToCover.addAll(segmentsToCover);
+				variationInfos.add(new VariationInfo(variation.pkMap(), ReferenceSegment.minRefStart(segmentsToCover), ReferenceSegment.maxRefEnd(segmentsToCover)));
+			}
+			// when a threshold is supplied, decisions are made on counts aggregated across all contexts of the pass.
+			VariationDecisions variationDecisions = null;
+			if(thresholdPct != null) {
+				variationDecisions = new VariationDecisions(variationInfos.size());
+			}
+			final VariationDecisions passVariationDecisions = variationDecisions;
+			SamRefRegionIndex samRefRegionIndex = new SamRefRegionIndex(samRefInfo.getSamRefLength(), samRefSense, 
+					samRefToRelatedRefLookup, allSegmentsToCover);
+			
+			Supplier<VariationContext> contextSupplier = () -> {
+				VariationContext context = new VariationContext();
+				context.cmdContext = cmdContext;
+				context.samRefInfo = samRefInfo;
+				context.samRefSense = samRefSense;
+				context.varCovSegTree = new ReferenceSegmentTree<VariationCoverageSegment>();
+				synchronized(variationsToScan) {
+					// build a segment tree of the variations.
+					for(int variationIndex = 0; variationIndex < variationsToScan.size(); variationIndex++) {
+						Variation variation = variationsToScan.get(variationIndex);
+						BaseVariationScanner<?> scanner = variation.getScanner(cmdContext);
+						final int scannerVariationIndex = variationIndex;
+						scanner.getSegmentsToCover()
+						.forEach(seg2cover -> 
+							context.varCovSegTree.add(
+								new VariationCoverageSegment(scanner, scannerVariationIndex, seg2cover.getRefStart(), seg2cover.getRefEnd())));
+						context.variationNameToIndex.put(variation.getName(), variationIndex);
 					}
-					// translate segments to related reference
-					List<QueryAlignedSegment> samRefToRelatedRefSegsFull = linkingAlmt.translateToRelatedRef(cmdContext, samRefToLinkingAlmtSegs, relatedRef);
-
-					// trim down to the feature area.
-					List<ReferenceSegment> featureRefSegs = featureLoc.getSegments().stream()
-							.map(seg -> seg.asReferenceSegment()).collect(Collectors.toList());
-					List<QueryAlignedSegment> samRefToRelatedRefSegs = 
-							ReferenceSegment.intersection(samRefToRelatedRefSegsFull, featureRefSegs, ReferenceSegment.cloneLeftSegMerger());
-
-					SamRefSense samRefSense = getSamRefSense(samReporter);
-
-					Supplier<VariationContext> contextSupplier = () -> {
-						VariationContext context = new VariationContext();
-						context.cmdContext = cmdContext;
-						context.samRefInfo = samRefInfo;
-						context.samRefSense = samRefSense;
-						context.varCovSegTree = new ReferenceSegmentTree<VariationCoverageSegment>();
-						synchronized(variationsToScan) {
-							// build a segment tree of the variations.
-							for(Variation variation: variationsToScan) {
-								BaseVariationScanner<?> scanner = variation.getScanner(cmdContext);
-								List<ReferenceSegment> segmentsToCover = scanner.getSegmentsToCover();
-								segmentsToCover
-								.forEach(seg2cover -> 
-									context.varCovSegTree.add(
-										new VariationCoverageSegment(scanner, seg2cover.getRefStart(), seg2cover.getRefEnd())));
-								
-								String name = variation.getName();
-								Map<String, String> pkMap = variation.pkMap();
-								context.variationNameToInfo.put(name, new VariationInfo(pkMap, ReferenceSegment.minRefStart(segmentsToCover), ReferenceSegment.maxRefEnd(segmentsToCover)));
-							}
-						}
-						synchronized(samRefToRelatedRefSegs) {
-							context.samRefToRelatedRefSegs = QueryAlignedSegment.cloneList(samRefToRelatedRefSegs);
-						}
-						context.suppliedSamRefName = getSuppliedSamRefName();
-						context.samFileName = samFileName;
-						context.samReporter = samReporter;
-						return context;
-					};
-					
-					VariationResult reducedResult = 
-							SamUtils.pairedParallelSamIterate(contextSupplier, consoleCmdContext, samReporterPreprocessorSession, validationStringency, this);
-					
-					List<VariationInfo> variationInfos = new ArrayList<VariationInfo>(reducedResult.variationNameToInfo.values());
-
-					final int minDepth = getMinDepth(samReporter);
-					
-					variationScanReadCounts.addAll(
-							variationInfos.stream()
-							.filter(vInfo -> vInfo.contributingReads >= minDepth)
-							.map(vInfo -> {
-								int readsWherePresent = vInfo.readsConfirmedPresent;
-								int readsWhereAbsent = vInfo.readsConfirmedAbsent;
-								int numReadsDenom = readsWherePresent + readsWhereAbsent;
-								double pctWherePresent = 0.0;
-								double pctWhereAbsent = 0.0;
-								if(numReadsDenom > 0) {
-									pctWherePresent = 100.0 * readsWherePresent / numReadsDenom;
-									pctWhereAbsent = 100.0 * readsWhereAbsent / numReadsDenom;
-								}
-								return new VariationScanReadCount(vInfo.variationPkMap,
-										vInfo.refStart, vInfo.refEnd,
-										readsWherePresent, pctWherePresent, 
-										readsWhereAbsent, pctWhereAbsent);
-							})
-							.collect(Collectors.toList())
-							);
 				}
-			variationScanReadCounts = variationScanReadCounts
-					.stream()
-					.filter(vsrc -> vsrc.getPctWherePresent() >= minPresentPct)
-					.filter(vsrc -> vsrc.getPctWhereAbsent() >= minAbsentPct)
-					.collect(Collectors.toList());
-			VariationScanReadCount.sortVariationScanReadCounts(variationScanReadCounts);
-			return new SamVariationScanResult(variationScanReadCounts);
+				context.variationCounts = new VariationCounts(variationInfos, passVariationDecisions);
+				// immutable, shared across workers
+				context.samRefRegionIndex = samRefRegionIndex;
+				context.samRefToRelatedRefLookup = samRefToRelatedRefLookup;
+				context.suppliedSamRefName = getSuppliedSamRefName();
+				context.samFileName = samFileName;
+				context.samReporter = samReporter;
+				return context;
+			};
+			
+			featurePasses.add(samReportPlan.addPass(contextSupplier, this, samRefRegionIndex.toSamRefRegion(samRefInfo.getSamRefName())));
 		}
-		
+		samReportPlan.setResultFormer(() -> formResult(samReporter, featurePasses));
+		return samReportPlan;
+	}
+
+	private SamVariationScanResult formResult(SamReporter samReporter, List<SamReportPass<VariationContext, VariationCounts>> featurePasses) {
+		List<VariationScanReadCount> variationScanReadCounts = new ArrayList<VariationScanReadCount>();
+		final int minDepth = getMinDepth(samReporter);
+		for(SamReportPass<VariationContext, VariationCounts> featurePass: featurePasses) {
+			VariationCounts counts = featurePass.getMergedResult();
+			for(int i = 0; i < counts.variationInfos.size(); i++) {
+				if(counts.contributingReads[i] < minDepth) {
+					continue;
+				}
+				VariationInfo vInfo = counts.variationInfos.get(i);
+				int readsWherePresent = counts.readsConfirmedPresent[i];
+				int readsWhereAbsent = counts.readsConfirmedAbsent[i];
+				int numReadsDenom = readsWherePresent + readsWhereAbsent;
+				double pctWherePresent = 0.0;
+				double pctWhereAbsent = 0.0;
+				if(numReadsDenom > 0) {
+					pctWherePresent = 100.0 * readsWherePresent / numReadsDenom;
+					pctWhereAbsent = 100.0 * readsWhereAbsent / numReadsDenom;
+				}
+				boolean decidedEarly = counts.variationDecisions != null && counts.variationDecisions.isDecided(i);
+				variationScanReadCounts.add(new VariationScanReadCount(vInfo.variationPkMap,
+						vInfo.refStart, vInfo.refEnd,
+						readsWherePresent, pctWherePresent, 
+						readsWhereAbsent, pctWhereAbsent, decidedEarly));
+			}
+		}
+		variationScanReadCounts = variationScanReadCounts
+				.stream()
+				.filter(vsrc -> vsrc.getPctWherePresent() >= minPresentPct)
+				.filter(vsrc -> vsrc.getPctWhereAbsent() >= minAbsentPct)
+				.collect(Collectors.toList());
+		VariationScanReadCount.sortVariationScanReadCounts(variationScanReadCounts);
+		return new SamVariationScanResult(variationScanReadCounts, thresholdPct != null);
 	}
 
 
 	private void recordScanResults(VariationContext context,
 			List<VariationScanResult<?>> variationScanResults) {
 		// record the presence / absence
+		VariationCounts counts = context.variationCounts;
+		VariationDecisions variationDecisions = counts.variationDecisions;
 		for(VariationScanResult<?> variationScanResult: variationScanResults) {
-			String variationName = variationScanResult.getVariationName();
-			VariationInfo variationInfo = context.variationNameToInfo.get(variationName);
+			int variationIndex = context.variationNameToIndex.get(variationScanResult.getVariationName());
 			if(variationScanResult.isSufficientCoverage()) {
-				variationInfo.contributingReads++;
-				if(variationScanResult.isPresent()) {
-					variationInfo.readsConfirmedPresent++;
+				boolean present = variationScanResult.isPresent();
+				counts.contributingReads[variationIndex]++;
+				if(present) {
+					counts.readsConfirmedPresent[variationIndex]++;
 				} else {
-					variationInfo.readsConfirmedAbsent++;
-				} 
+					counts.readsConfirmedAbsent[variationIndex]++;
+				}
+				if(variationDecisions != null && !variationDecisions.isDecided(variationIndex)) {
+					variationDecisions.recordRead(variationIndex, present, getMinDepth(context.samReporter));
+				}
 			}
 		}
 	}
 
+	// true if the Wilson score interval for the proportion of reads where the variation is present lies 
+	// entirely above or below the threshold.
+	private boolean isDecidedOnCounts(int contributingReads, int readsPresent, int readsAbsent, int minDepth) {
+		if(contributingReads < minDepth) {
+			return false;
+		}
+		int n = readsPresent + readsAbsent;
+		if(n == 0) {
+			return false;
+		}
+		double threshold = thresholdPct / 100.0;
+		double pHat = ((double) readsPresent) / n;
+		double z2 = zScore * zScore;
+		double denominator = 1.0 + z2 / n;
+		double centre = (pHat + z2 / (2.0 * n)) / denominator;
+		double halfWidth = (zScore * Math.sqrt(pHat * (1.0 - pHat) / n + z2 / (4.0 * n * n))) / denominator;
+		return centre - halfWidth > threshold || centre + halfWidth < threshold;
+	}
+
 
 	public List<VariationScanResult<?>> scanResultsForRead(
 			VariationContext context, SAMRecord samRecord) {
+		// cheap rejection of reads which cannot overlap any variation, or when every variation has been decided.
+		VariationDecisions variationDecisions = context.variationCounts.variationDecisions;
+		if((variationDecisions != null && variationDecisions.allDecided()) || 
+				!context.samRefRegionIndex.overlapsSelected(samRecord.getAlignmentStart(), samRecord.getAlignmentEnd())) {
+			return new ArrayList<VariationScanResult<?>>();
+		}
 		List<QueryAlignedSegment> readToSamRefSegs = context.samReporter.getReadToSamRefSegs(samRecord);
 		String readString = samRecord.getReadString().toUpperCase();
 		String qualityString = samRecord.getBaseQualityString();
@@ -329,7 +408,7 @@ public class SamVariationScanCommand extends ReferenceLinkedSamReporterCommand<S
 			qualityString = StringUtils.reverseString(qualityString);
 		}
 
-		List<QueryAlignedSegment> readToRelatedRefSegs = QueryAlignedSegment.translateSegments(readToSamRefSegs, context.samRefToRelatedRefSegs);
+		List<QueryAlignedSegment> readToRelatedRefSegs = context.samRefToRelatedRefLookup.translateReadSegments(readToSamRefSegs);
 		List<QueryAlignedSegment> readToRelatedRefSegsMerged = 
 				ReferenceSegment.mergeAbutting(readToRelatedRefSegs, 
 						QueryAlignedSegment.mergeAbuttingFunctionQueryAlignedSegment(), 
@@ -340,6 +419,9 @@ public class SamVariationScanCommand extends ReferenceLinkedSamReporterCommand<S
 		for(QueryAlignedSegment readToRelatedRefSeg: readToRelatedRefSegsMerged) {
 			List<VariationCoverageSegment> overlappingVarCovSegs = new LinkedList<VariationCoverageSegment>();
 			context.varCovSegTree.findOverlapping(readToRelatedRefSeg.getRefStart(), readToRelatedRefSeg.getRefEnd(), overlappingVarCovSegs);
+			if(variationDecisions != null) {
+				overlappingVarCovSegs.removeIf(varCovSeg -> variationDecisions.isDecided(varCovSeg.getVariationIndex()));
+			}
 			// remove those variations where the read quality is not good enough.
 			List<VariationCoverageSegment> filteredVarCovSegs = filterVarCovSegsOnReadQuality(getMinQScore(context.samReporter), qualityString, readToRelatedRefSeg, overlappingVarCovSegs);
 			varCovSegs.addAll(filteredVarCovSegs);
@@ -390,9 +472,6 @@ public class SamVariationScanCommand extends ReferenceLinkedSamReporterCommand<S
 	private class VariationInfo {
 		Map<String, String> variationPkMap;
 		int refStart, refEnd;
-		int contributingReads = 0;
-		int readsConfirmedPresent = 0;
-		int readsConfirmedAbsent = 0;
 		public VariationInfo(Map<String,String> variationPkMap, int refStart, int refEnd) {
 			super();
 			this.variationPkMap = variationPkMap;
@@ -406,20 +485,77 @@ public class SamVariationScanCommand extends ReferenceLinkedSamReporterCommand<S
 		public SamRefInfo samRefInfo;
 		public String samFileName;
 		public String suppliedSamRefName;
-		public List<QueryAlignedSegment> samRefToRelatedRefSegs;
+		public SamRefToRelatedRefLookup samRefToRelatedRefLookup;
 		public SamReporter samReporter;
 		public SamRefSense samRefSense;
 		public ReferenceSegmentTree<VariationCoverageSegment> varCovSegTree;
-		Map<String, VariationInfo> variationNameToInfo = new LinkedHashMap<String, VariationInfo>();
+		public SamRefRegionIndex samRefRegionIndex;
+		TObjectIntMap<String> variationNameToIndex = new TObjectIntHashMap<String>();
+		VariationCounts variationCounts;
 		public SamRecordFilter samRecordFilter;
 
 	}
 
-	public static class VariationResult {
-		Map<String, VariationInfo> variationNameToInfo;
-
+	// per-variation read counts, indexed in the same order as variationInfos.
+	public static class VariationCounts {
+		List<VariationInfo> variationInfos;
+		// shared by all contexts of the same pass, null unless a threshold is supplied.
+		VariationDecisions variationDecisions;
+		int[] contributingReads;
+		int[] readsConfirmedPresent;
+		int[] readsConfirmedAbsent;
+		
+		private VariationCounts(List<VariationInfo> variationInfos, VariationDecisions variationDecisions) {
+			this.variationInfos = variationInfos;
+			this.variationDecisions = variationDecisions;
+			this.contributingReads = new int[variationInfos.size()];
+			this.readsConfirmedPresent = new int[variationInfos.size()];
+			this.readsConfirmedAbsent = new int[variationInfos.size()];
+		}
 	}
 	
+	// Running per-variation counts aggregated across all the contexts of a pass, so that the threshold 
+	// decision is based on every read scanned so far, rather than on one worker's share of the reads.
+	// Reads in flight on other workers when a variation is decided may still be added to the counts.
+	private class VariationDecisions {
+		private AtomicIntegerArray contributingReads;
+		private AtomicIntegerArray readsPresent;
+		private AtomicIntegerArray readsAbsent;
+		private AtomicIntegerArray decided;
+		private AtomicInteger undecidedVariations;
+
+		private VariationDecisions(int numVariations) {
+			this.contributingReads = new AtomicIntegerArray(numVariations);
+			this.readsPresent = new AtomicIntegerArray(numVariations);
+			this.readsAbsent = new AtomicIntegerArray(numVariations);
+			this.decided = new AtomicIntegerArray(numVariations);
+			this.undecidedVariations = new AtomicInteger(numVariations);
+		}
+
+		private void recordRead(int variationIndex, boolean present, int minDepth) {
+			int contributing = contributingReads.incrementAndGet(variationIndex);
+			int numPresent, numAbsent;
+			if(present) {
+				numPresent = readsPresent.incrementAndGet(variationIndex);
+				numAbsent = readsAbsent.get(variationIndex);
+			} else {
+				numPresent = readsPresent.get(variationIndex);
+				numAbsent = readsAbsent.incrementAndGet(variationIndex);
+			}
+			if(isDecidedOnCounts(contributing, numPresent, numAbsent, minDepth) && decided.compareAndSet(variationIndex, 0, 1)) {
+				undecidedVariations.decrementAndGet();
+			}
+		}
+
+		private boolean isDecided(int variationIndex) {
+			return decided.get(variationIndex) == 1;
+		}
+
+		private boolean allDecided() {
+			return undecidedVariations.get() == 0;
+		}
+	}
+
 	@CompleterClass
 	public static class Completer extends ReferenceLinkedSamReporterCommand.Completer {
 		public Completer() {
@@ -429,10 +565,16 @@ public class SamVariationScanCommand extends ReferenceLinkedSamReporterCommand<S
 
 	private class VariationCoverageSegment extends ReferenceSegment {
 		private BaseVariationScanner<?> variationScanner;
+		private int variationIndex;
 
-		public VariationCoverageSegment(BaseVariationScanner<?> variationScanner, int refStart, int refEnd) {
+		public VariationCoverageSegment(BaseVariationScanner<?> variationScanner, int variationIndex, int refStart, int refEnd) {
 			super(refStart, refEnd);
 			this.variationScanner = variationScanner;
+			this.variationIndex = variationIndex;
+		}
+
+		public int getVariationIndex() {
+			return variationIndex;
 		}
 
 		public BaseVariationScanner<?> getVariationScanner() {
@@ -490,29 +632,19 @@ public class SamVariationScanCommand extends ReferenceLinkedSamReporterCommand<S
 
 
 	@Override
-	public VariationResult contextResult(VariationContext context) {
-		VariationResult variationResult = new VariationResult();
-		variationResult.variationNameToInfo = context.variationNameToInfo;
-		return variationResult;
+	public VariationCounts contextResult(VariationContext context) {
+		return context.variationCounts;
 	}
 
 
 	@Override
-	public VariationResult reduceResults(VariationResult result1, VariationResult result2) {
-		VariationResult reducedResult = new VariationResult();
-		reducedResult.variationNameToInfo = result1.variationNameToInfo;
-		result2.variationNameToInfo.forEach((name, info) -> {
-			VariationInfo existingVInfo = reducedResult.variationNameToInfo.get(name);
-			if(existingVInfo == null) {
-				reducedResult.variationNameToInfo.put(name, info);
-			} else {
-				existingVInfo.contributingReads += info.contributingReads;
-				existingVInfo.readsConfirmedAbsent += info.readsConfirmedAbsent;
-				existingVInfo.readsConfirmedPresent += info.readsConfirmedPresent;
-			}
-		});
-		return reducedResult;
-
+	public VariationCounts reduceResults(VariationCounts result1, VariationCounts result2) {
+		for(int i = 0; i < result1.contributingReads.length; i++) {
+			result1.contributingReads[i] += result2.contributingReads[i];
+			result1.readsConfirmedPresent[i] += result2.readsConfirmedPresent[i];
+			result1.readsConfirmedAbsent[i] += result2.readsConfirmedAbsent[i];
+		}
+		return result1;
 	}
 	
 }
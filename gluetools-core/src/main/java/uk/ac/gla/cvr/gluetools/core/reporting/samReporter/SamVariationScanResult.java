@@ -25,9 +25,11 @@
 */
 package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import uk.ac.gla.cvr.gluetools.core.command.result.BaseTableResult;
+import uk.ac.gla.cvr.gluetools.core.command.result.TableColumn;
 
 public class SamVariationScanResult extends BaseTableResult<VariationScanReadCount> {
 
@@ -38,19 +40,29 @@ public class SamVariationScanResult extends BaseTableResult<VariationScanReadCou
 		READS_PRESENT = "readsPresent",
 		PCT_PRESENT = "pctPresent",
 		READS_ABSENT = "readsAbsent",
-		PCT_ABSENT = "pctAbsent";
+		PCT_ABSENT = "pctAbsent",
+		DECIDED_EARLY = "decidedEarly";
 	
 	
-	public SamVariationScanResult(List<VariationScanReadCount> rowData) {
-		super("samVariationsScanResult", 
-				rowData,
-				column(REF_SEQ_NAME, vsrc -> vsrc.getVariationReferenceName()), 
-				column(FEATURE_NAME, vsrc -> vsrc.getVariationFeatureName()), 
-				column(VARIATION_NAME, vsrc -> vsrc.getVariationName()), 
-				column(READS_PRESENT, vsrc -> vsrc.getReadsWherePresent()), 
-				column(PCT_PRESENT, vsrc -> vsrc.getPctWherePresent()), 
-				column(READS_ABSENT, vsrc -> vsrc.getReadsWhereAbsent()),
-				column(PCT_ABSENT, vsrc -> vsrc.getPctWhereAbsent()));
+	public SamVariationScanResult(List<VariationScanReadCount> rowData, boolean thresholdScan) {
+		super("samVariationsScanResult", rowData, getColumns(thresholdScan));
+	}
+
+	// the decidedEarly column is only present when the scan used a threshold.
+	@SuppressWarnings("unchecked")
+	private static TableColumn<VariationScanReadCount>[] getColumns(boolean thresholdScan) {
+		List<TableColumn<VariationScanReadCount>> columnsList = new ArrayList<TableColumn<VariationScanReadCount>>();
+		columnsList.add(column(REF_SEQ_NAME, vsrc -> vsrc.getVariationReferenceName()));
+		columnsList.add(column(FEATURE_NAME, vsrc -> vsrc.getVariationFeatureName()));
+		columnsList.add(column(VARIATION_NAME, vsrc -> vsrc.getVariationName()));
+		columnsList.add(column(READS_PRESENT, vsrc -> vsrc.getReadsWherePresent()));
+		columnsList.add(column(PCT_PRESENT, vsrc -> vsrc.getPctWherePresent()));
+		columnsList.add(column(READS_ABSENT, vsrc -> vsrc.getReadsWhereAbsent()));
+		columnsList.add(column(PCT_ABSENT, vsrc -> vsrc.getPctWhereAbsent()));
+		if(thresholdScan) {
+			columnsList.add(column(DECIDED_EARLY, vsrc -> vsrc.isDecidedEarly()));
+		}
+		return (TableColumn<VariationScanReadCount>[]) columnsList.toArray(new TableColumn<?>[0]);
 	}
 
 }
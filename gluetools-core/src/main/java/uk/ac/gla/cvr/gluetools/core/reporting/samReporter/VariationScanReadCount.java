@@ -41,9 +41,10 @@ public class VariationScanReadCount {
 	private double pctWherePresent;
 	private int readsWhereAbsent;
 	private double pctWhereAbsent;
+	private boolean decidedEarly;
 	
 	public VariationScanReadCount(Map<String,String> variationPkMap, int minLocStart, int maxLocEnd, int readsWherePresent,
-			double pctWherePresent, int readsWhereAbsent, double pctWhereAbsent) {
+			double pctWherePresent, int readsWhereAbsent, double pctWhereAbsent, boolean decidedEarly) {
 		super();
 		this.variationPkMap = variationPkMap;
 		this.minLocStart = minLocStart;
@@ -52,6 +53,7 @@ public class VariationScanReadCount {
 		this.pctWherePresent = pctWherePresent;
 		this.readsWhereAbsent = readsWhereAbsent;
 		this.pctWhereAbsent = pctWhereAbsent;
+		this.decidedEarly = decidedEarly;
 	}
 	
 	public Map<String, String> getVariationPkMap() {
@@ -93,6 +95,11 @@ public class VariationScanReadCount {
 	public double getPctWhereAbsent() {
 		return pctWhereAbsent;
 	}
+
+	// true if a threshold scan stopped counting reads for this variation before all reads had been scanned.
+	public boolean isDecidedEarly() {
+		return decidedEarly;
+	}
 	
 	public static void sortVariationScanReadCounts(List<VariationScanReadCount> variationScanReadCounts) {
 		Comparator<VariationScanReadCount> comparator = new Comparator<VariationScanReadCount>(){
@@ -11,16 +11,22 @@ import uk.ac.gla.cvr.gluetools.core.requestQueue.Request;
 public class QueueAssignmentRequestFilter extends BaseRequestFilter {
 
 	private String queueName;
+	// optional priority for requests assigned by this filter; higher priority requests are run first.
+	private Integer priority;
 	
 	@Override
 	public void configure(PluginConfigContext pluginConfigContext, Element configElem) {
 		super.configure(pluginConfigContext, configElem);
 		this.queueName = PluginUtils.configureStringProperty(configElem, "queueName", true);
+		this.priority = PluginUtils.configureIntProperty(configElem, "priority", false);
 	}
 	
 	@Override
 	protected boolean allowRequestLocal(Request request) {
 		request.setQueueName(queueName);
+		if(priority != null) {
+			request.setPriority(priority);
+		}
 		return true;
 	}
 
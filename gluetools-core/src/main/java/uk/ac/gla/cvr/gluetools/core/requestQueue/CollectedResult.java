@@ -0,0 +1,62 @@
+package uk.ac.gla.cvr.gluetools.core.requestQueue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import uk.ac.gla.cvr.gluetools.core.command.result.CommandResult;
+import uk.ac.gla.cvr.gluetools.utils.CommandDocumentJsonUtils;
+
+/*
+ * The result of a collected request, either held in memory, as a result object or as JSON already serialized 
+ * by the ResultSpillManager, or spilled to disk by the ResultSpillManager.
+ * A spilled result's file is deleted once it has been read.
+ */
+public class CollectedResult {
+
+	private CommandResult cmdResult;
+	private byte[] serializedJson;
+	private File spillFile;
+
+	public CollectedResult(CommandResult cmdResult, byte[] serializedJson, File spillFile) {
+		super();
+		this.cmdResult = cmdResult;
+		this.serializedJson = serializedJson;
+		this.spillFile = spillFile;
+	}
+
+	public boolean isSpilled() {
+		return spillFile != null;
+	}
+
+	public CommandResult getCommandResult() {
+		if(spillFile != null) {
+			try {
+				cmdResult = ResultSpillManager.readSpilledResult(spillFile);
+			} finally {
+				ResultSpillManager.deleteSpillFile(spillFile);
+				spillFile = null;
+			}
+		} else if(serializedJson != null) {
+			cmdResult = ResultSpillManager.readSerializedResult(serializedJson);
+			serializedJson = null;
+		}
+		return cmdResult;
+	}
+
+	// write the result as JSON, streaming it from disk if it was spilled, or copying it if it was already serialized.
+	public void writeJson(OutputStream outputStream) throws IOException {
+		if(spillFile != null) {
+			try {
+				ResultSpillManager.writeSpilledJson(spillFile, outputStream);
+			} finally {
+				ResultSpillManager.deleteSpillFile(spillFile);
+				spillFile = null;
+			}
+		} else if(serializedJson != null) {
+			outputStream.write(serializedJson);
+		} else {
+			CommandDocumentJsonUtils.commandDocumentWriteJson(outputStream, cmdResult.getCommandDocument());
+		}
+	}
+}
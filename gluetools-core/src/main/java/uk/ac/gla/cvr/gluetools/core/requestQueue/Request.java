@@ -10,11 +10,20 @@ public class Request {
 	private String[] commandWords;
 	
 	private String queueName = RequestQueue.DEFAULT_QUEUE_NAME;
+	// requests with a higher priority are run before any queued requests with a lower priority.
+	private int priority = 0;
+	// identity of the client which submitted the request, used for fair queuing; null if unknown.
+	private String clientID;
 	
 	public Request(String modePath, Command<?> command) {
+		this(modePath, command, null);
+	}
+
+	public Request(String modePath, Command<?> command, String clientID) {
 		super();
 		this.modePath = modePath;
 		this.command = command;
+		this.clientID = clientID;
 		this.commandWords = CommandUsage.cmdWordsForCmdClass(command.getClass());
 	}
 
@@ -34,6 +43,18 @@ public class Request {
 		return queueName;
 	}
 
+	public int getPriority() {
+		return priority;
+	}
+
+	public void setPriority(int priority) {
+		this.priority = priority;
+	}
+
+	public String getClientID() {
+		return clientID;
+	}
+
 	public Command<?> getCommand() {
 		return command;
 	}
@@ -1,42 +1,175 @@
 package uk.ac.gla.cvr.gluetools.core.requestQueue;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
 
 import org.w3c.dom.Element;
 
+import uk.ac.gla.cvr.gluetools.core.logging.GlueLogger;
 import uk.ac.gla.cvr.gluetools.core.plugins.Plugin;
 import uk.ac.gla.cvr.gluetools.core.plugins.PluginConfigContext;
 import uk.ac.gla.cvr.gluetools.core.plugins.PluginUtils;
+import uk.ac.gla.cvr.gluetools.core.requestQueue.RequestQueueManagerException.Code;
 
+/*
+ * A named queue of requests, run by a fixed number of workers.
+ *
+ * Queued requests are not handed to the executor in arrival order. Whenever a worker is free,
+ * the queue dispatches the queued request with the highest priority. Among requests of equal priority,
+ * clients are served by weighted fair queuing: each client's requests are given successive virtual
+ * finish times spaced by 1/weight, and the earliest virtual finish time is dispatched first.
+ * So a client which submits many requests at once does not delay other clients' requests.
+ * Requests from a client which already has maxRunningPerClient requests running are held back.
+ *
+ * Changes to the queue are made under the queue's lock, but the queued tickets are kept in a concurrent
+ * set ordered by dispatch order, with the enqueue sequence number as the final tie-break, so a ticket's
+ * place in the queue can be read at any time without locking.
+ *
+ * A queued or running request may be cancelled. Cancelling a running request interrupts its worker thread,
+ * which also destroys any external process it is waiting on. If maxRunTimeMs is configured, running requests 
+ * are cancelled in this way once they exceed it.
+ *
+ * If adaptiveWorkers is configured, the number of workers is adjusted periodically between its min and max bounds.
+ * Workers are added while requests wait too long in the queue and the CPU has spare capacity, for example when 
+ * running requests mostly wait on external processes or the database. Workers are removed when the CPU is 
+ * overloaded or the queue is idle.
+ */
 public class RequestQueue implements Plugin {
 
-	// only queue that exists if no queue manager is defined. 
+	// only queue that exists if no queue manager is defined.
 	// also, queue that requests are assigned to if no explicit assignment is made.
 	public static final String DEFAULT_QUEUE_NAME = "default";
-	
+
+	// weight of clients which are not given an explicit weight.
+	public static final double DEFAULT_CLIENT_WEIGHT = 1.0;
+
+	// fair queuing key for requests whose client is not identified.
+	private static final String UNIDENTIFIED_CLIENT = "";
+
 	private String queueName;
-	private int numWorkers;
+	// may change over time if adaptiveWorkers is configured.
+	private volatile int numWorkers;
 	private int maxRequests;
-	
+	// null means no limit.
+	private Integer maxRunningPerClient;
+	private Map<String, Double> clientIDToWeight = new LinkedHashMap<String, Double>();
+	// null means no limit.
+	private Integer maxRunTimeMs;
+	// null means a fixed number of workers.
+	private AdaptiveWorkers adaptiveWorkers;
+
+	// wall clock, used for queue wait times and completion times.
+	private LongSupplier clock = System::currentTimeMillis;
 	private ExecutorService executorService;
+	// only created if there is a run time limit or adaptive worker sizing.
+	private ScheduledExecutorService queueScheduler;
+	private Map<String, ScheduledFuture<?>> runTimeLimits = new ConcurrentHashMap<String, ScheduledFuture<?>>();
+
+	private ConcurrentSkipListSet<RequestTicket> queuedTickets = new ConcurrentSkipListSet<RequestTicket>(DISPATCH_ORDER);
+	private Map<String, RequestTicket> runningTickets = new ConcurrentHashMap<String, RequestTicket>();
+
+	// fair queuing state, guarded by this queue's lock.
+	private int numQueued = 0;
+	private double virtualTime = 0.0;
+	private long nextSequenceNumber = 0;
+	private Map<String, Double> clientKeyToLastVirtualFinish = new LinkedHashMap<String, Double>();
+	private Map<String, Integer> clientKeyToNumRunning = new LinkedHashMap<String, Integer>();
+
+	// queue wait times of tickets dispatched since the last worker adjustment, guarded by this queue's lock.
+	private long dispatchedWaitSumMs = 0;
+	private int numDispatched = 0;
 
-	private Map<String, RequestTicket> queuedTickets = new LinkedHashMap<String, RequestTicket>();
-	private Map<String, RequestTicket> runningTickets = new LinkedHashMap<String, RequestTicket>();
-	
 	@Override
 	public void configure(PluginConfigContext pluginConfigContext, Element configElem) {
 		this.queueName = PluginUtils.configureStringProperty(configElem, "queueName", true);
 		this.numWorkers = PluginUtils.configureIntProperty(configElem, "numWorkers", true);
 		this.maxRequests = PluginUtils.configureIntProperty(configElem, "maxRequests", true);
+		this.maxRunningPerClient = PluginUtils.configureIntProperty(configElem, "maxRunningPerClient", 1, true, null, false, false);
+		this.maxRunTimeMs = PluginUtils.configureIntProperty(configElem, "maxRunTimeMs", 1, true, null, false, false);
+		List<Element> clientWeightElems = PluginUtils.findConfigElements(configElem, "clientWeight");
+		for(Element clientWeightElem: clientWeightElems) {
+			ClientWeight clientWeight = new ClientWeight();
+			clientWeight.configure(pluginConfigContext, clientWeightElem);
+			clientIDToWeight.put(clientWeight.getClientID(), clientWeight.getWeight());
+		}
+		Element adaptiveWorkersElem = PluginUtils.findConfigElement(configElem, "adaptiveWorkers");
+		if(adaptiveWorkersElem != null) {
+			this.adaptiveWorkers = new AdaptiveWorkers();
+			adaptiveWorkers.configure(pluginConfigContext, adaptiveWorkersElem);
+			this.numWorkers = Math.max(adaptiveWorkers.getMinWorkers(), Math.min(adaptiveWorkers.getMaxWorkers(), numWorkers));
+		}
 	}
 
-	public Map<String, RequestTicket> getQueuedTickets() {
-		return queuedTickets;
+	public static class AdaptiveWorkers implements Plugin {
+		private int minWorkers;
+		private int maxWorkers;
+		private int targetQueueWaitMs;
+		private double maxCpuLoad;
+		private int adjustIntervalMs;
+		@Override
+		public void configure(PluginConfigContext pluginConfigContext, Element configElem) {
+			Plugin.super.configure(pluginConfigContext, configElem);
+			minWorkers = PluginUtils.configureIntProperty(configElem, "minWorkers", 1, true, null, false, true);
+			maxWorkers = PluginUtils.configureIntProperty(configElem, "maxWorkers", minWorkers, true, null, false, true);
+			targetQueueWaitMs = Optional.ofNullable(PluginUtils.configureIntProperty(configElem, "targetQueueWaitMs", 0, true, null, false, false)).orElse(2000);
+			maxCpuLoad = Optional.ofNullable(PluginUtils.configureDoubleProperty(configElem, "maxCpuLoad", 0.0, false, 1.0, true, false)).orElse(0.9);
+			adjustIntervalMs = Optional.ofNullable(PluginUtils.configureIntProperty(configElem, "adjustIntervalMs", 100, true, null, false, false)).orElse(5000);
+		}
+		public int getMinWorkers() {
+			return minWorkers;
+		}
+		public int getMaxWorkers() {
+			return maxWorkers;
+		}
+		public int getAdjustIntervalMs() {
+			return adjustIntervalMs;
+		}
+		// one step at a time, so that the effect of each change is measured before the next.
+		public int adjustedNumWorkers(int numWorkers, int numQueued, int numRunning, long queueWaitMs, double cpuLoad) {
+			if(numQueued > 0 && queueWaitMs > targetQueueWaitMs && cpuLoad < maxCpuLoad && numWorkers < maxWorkers) {
+				return numWorkers+1;
+			}
+			if(cpuLoad > maxCpuLoad && numWorkers > minWorkers) {
+				return numWorkers-1;
+			}
+			if(numQueued == 0 && numRunning < numWorkers && numWorkers > minWorkers) {
+				return numWorkers-1;
+			}
+			return numWorkers;
+		}
+	}
+
+	public static class ClientWeight implements Plugin {
+		private String clientID;
+		private double weight;
+		@Override
+		public void configure(PluginConfigContext pluginConfigContext, Element configElem) {
+			Plugin.super.configure(pluginConfigContext, configElem);
+			clientID = PluginUtils.configureStringProperty(configElem, "clientID", true);
+			weight = PluginUtils.configureDoubleProperty(configElem, "weight", 0.0, false, null, false, true);
+		}
+		public String getClientID() {
+			return clientID;
+		}
+		public double getWeight() {
+			return weight;
+		}
 	}
 
 	public Map<String, RequestTicket> getRunningTickets() {
@@ -55,6 +188,22 @@ public class RequestQueue implements Plugin {
 		return maxRequests;
 	}
 
+	public Integer getMaxRunningPerClient() {
+		return maxRunningPerClient;
+	}
+
+	public void setMaxRunningPerClient(Integer maxRunningPerClient) {
+		this.maxRunningPerClient = maxRunningPerClient;
+	}
+
+	public Integer getMaxRunTimeMs() {
+		return maxRunTimeMs;
+	}
+
+	public void setMaxRunTimeMs(Integer maxRunTimeMs) {
+		this.maxRunTimeMs = maxRunTimeMs;
+	}
+
 	public RequestQueue() {
 		super();
 	}
@@ -65,14 +214,51 @@ public class RequestQueue implements Plugin {
 		this.numWorkers = numWorkers;
 		this.maxRequests = maxRequests;
 	}
-	
+
+	// for tests: dispatched tasks are handed to the given executor, and times are read from the given clock.
+	RequestQueue(String queueName, int numWorkers, int maxRequests, ExecutorService executorService, LongSupplier clock) {
+		this(queueName, numWorkers, maxRequests);
+		this.executorService = executorService;
+		this.clock = clock;
+	}
+
+	public void setClientWeight(String clientID, double weight) {
+		clientIDToWeight.put(clientID, weight);
+	}
+
 	public void init() {
-		this.executorService = new ThreadPoolExecutor(numWorkers, numWorkers,
-                0L, TimeUnit.MILLISECONDS,
+		if(executorService == null) {
+			this.executorService = createExecutorService();
+		}
+		if(maxRunTimeMs != null || adaptiveWorkers != null) {
+			this.queueScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> 
+				new Thread(runnable, "Request queue '"+queueName+"' scheduler thread"));
+		}
+		if(adaptiveWorkers != null) {
+			int adjustIntervalMs = adaptiveWorkers.getAdjustIntervalMs();
+			this.queueScheduler.scheduleWithFixedDelay(this::adjustNumWorkers, adjustIntervalMs, adjustIntervalMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private ExecutorService createExecutorService() {
+		// tickets are only handed to the executor when a worker is free, so its own queue stays short.
+		if(adaptiveWorkers == null) {
+			return new ThreadPoolExecutor(numWorkers, numWorkers,
+	                0L, TimeUnit.MILLISECONDS,
+	                new LinkedBlockingQueue<Runnable>());
+		}
+		// threads beyond those currently needed time out while idle.
+		ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(adaptiveWorkers.getMaxWorkers(), adaptiveWorkers.getMaxWorkers(),
+                60L, TimeUnit.SECONDS,
                 new LinkedBlockingQueue<Runnable>());
+		threadPoolExecutor.allowCoreThreadTimeOut(true);
+		return threadPoolExecutor;
 	}
-	
+
 	public void dispose() {
+		if(this.queueScheduler != null) {
+			this.queueScheduler.shutdownNow();
+		}
 		if(this.executorService != null) {
 			this.executorService.shutdownNow();
 		}
@@ -82,6 +268,188 @@ public class RequestQueue implements Plugin {
 		return executorService;
 	}
 
-	
-	
+	/**
+	 * Add a ticket to the queue, running it immediately if a worker is available.
+	 * The ticket's command future must be runnable, i.e. not yet handed to any executor.
+	 */
+	public synchronized void enqueue(RequestTicket requestTicket) {
+		if(numQueued >= maxRequests) {
+			throw new RequestQueueManagerException(Code.QUEUE_FULL, "Request rejected from queue '"+queueName+
+					"', this queue is at its maximum load of "+maxRequests+". Please try again later.");
+		}
+		String clientKey = clientKey(requestTicket);
+		Double lastVirtualFinish = clientKeyToLastVirtualFinish.get(clientKey);
+		double virtualStart = lastVirtualFinish == null ? virtualTime : Math.max(virtualTime, lastVirtualFinish);
+		double virtualFinish = virtualStart + (1.0 / clientWeight(requestTicket.getClientID()));
+		clientKeyToLastVirtualFinish.put(clientKey, virtualFinish);
+		requestTicket.setSequenceNumber(nextSequenceNumber++);
+		requestTicket.setVirtualFinishTime(virtualFinish);
+		requestTicket.setEnqueueTime(clock.getAsLong());
+		requestTicket.setCode(RequestTicket.Code.QUEUED);
+		requestTicket.setRequestQueue(this);
+		queuedTickets.add(requestTicket);
+		numQueued++;
+		dispatch();
+	}
+
+	/**
+	 * Called when a running ticket's command has finished, freeing its worker for the next ticket.
+	 */
+	public synchronized void ticketFinished(RequestTicket requestTicket) {
+		ScheduledFuture<?> runTimeLimit = runTimeLimits.remove(requestTicket.getId());
+		if(runTimeLimit != null) {
+			runTimeLimit.cancel(false);
+		}
+		if(runningTickets.remove(requestTicket.getId()) != null) {
+			String clientKey = clientKey(requestTicket);
+			int numRunning = clientKeyToNumRunning.get(clientKey) - 1;
+			if(numRunning == 0) {
+				clientKeyToNumRunning.remove(clientKey);
+			} else {
+				clientKeyToNumRunning.put(clientKey, numRunning);
+			}
+		}
+		dispatch();
+	}
+
+	// hand the best eligible queued tickets to the executor while workers are free.
+	private void dispatch() {
+		while(runningTickets.size() < numWorkers) {
+			RequestTicket nextTicket = null;
+			// the set is in dispatch order, so the first eligible ticket is the best one.
+			for(RequestTicket queuedTicket: queuedTickets) {
+				if(clientMayRunAnother(clientKey(queuedTicket))) {
+					nextTicket = queuedTicket;
+					break;
+				}
+			}
+			if(nextTicket == null) {
+				break;
+			}
+			// set running before removal, so that a concurrent reader never sees a queued ticket missing from the set.
+			nextTicket.setCode(RequestTicket.Code.RUNNING);
+			queuedTickets.remove(nextTicket);
+			numQueued--;
+			runningTickets.put(nextTicket.getId(), nextTicket);
+			dispatchedWaitSumMs += clock.getAsLong() - nextTicket.getEnqueueTime();
+			numDispatched++;
+			clientKeyToNumRunning.merge(clientKey(nextTicket), 1, Integer::sum);
+			virtualTime = Math.max(virtualTime, nextTicket.getVirtualFinishTime());
+			if(queuedTickets.isEmpty()) {
+				// queue has drained, so every client's last virtual finish time is behind the virtual clock.
+				clientKeyToLastVirtualFinish.clear();
+			}
+			executorService.execute(nextTicket.getCommandTask());
+			if(maxRunTimeMs != null) {
+				RequestTicket runningTicket = nextTicket;
+				runTimeLimits.put(runningTicket.getId(), queueScheduler.schedule(() -> 
+					cancel(runningTicket, "Request exceeded the maximum run time of "+maxRunTimeMs+"ms on queue '"+queueName+"'"), 
+					maxRunTimeMs, TimeUnit.MILLISECONDS));
+			}
+		}
+	}
+
+	/**
+	 * Cancel a queued or running ticket. A queued ticket is removed from the queue and will never run; 
+	 * cancelling its task releases the resources held by the ticket's context. 
+	 * A running ticket's worker thread is interrupted; its worker is freed once the command stops.
+	 * Returns false if the ticket had already finished.
+	 */
+	public synchronized boolean cancel(RequestTicket requestTicket, String reason) {
+		if(queuedTickets.remove(requestTicket)) {
+			numQueued--;
+			requestTicket.setCancellationReason(reason);
+			requestTicket.getCommandTask().cancel(false);
+			requestTicket.setCompletionTime(clock.getAsLong());
+			requestTicket.setCode(RequestTicket.Code.COMPLETE);
+			return true;
+		}
+		if(runningTickets.containsKey(requestTicket.getId())) {
+			requestTicket.setCancellationReason(reason);
+			return requestTicket.getCommandTask().cancel(true);
+		}
+		return false;
+	}
+
+	/*
+	 * Measures queue wait as the larger of the mean wait of recently dispatched tickets and the wait of the 
+	 * longest-waiting queued ticket, since no tickets may have been dispatched if every worker is busy. 
+	 * Queued tickets held back by maxRunningPerClient are left out of both the wait and the queued count, 
+	 * since an extra worker would not let them run sooner. 
+	 * System rather than process CPU load is used so that external processes run by requests are included.
+	 */
+	private synchronized void adjustNumWorkers() {
+		try {
+			long currentTime = clock.getAsLong();
+			long queueWaitMs = numDispatched == 0 ? 0 : dispatchedWaitSumMs / numDispatched;
+			int numDispatchable = 0;
+			for(RequestTicket queuedTicket: queuedTickets) {
+				if(clientMayRunAnother(clientKey(queuedTicket))) {
+					numDispatchable++;
+					queueWaitMs = Math.max(queueWaitMs, currentTime - queuedTicket.getEnqueueTime());
+				}
+			}
+			dispatchedWaitSumMs = 0;
+			numDispatched = 0;
+			int newNumWorkers = adaptiveWorkers.adjustedNumWorkers(numWorkers, numDispatchable, runningTickets.size(), queueWaitMs, systemCpuLoad());
+			if(newNumWorkers != numWorkers) {
+				GlueLogger.getGlueLogger().finest("Request queue '"+queueName+"' workers adjusted from "+numWorkers+" to "+newNumWorkers);
+				this.numWorkers = newNumWorkers;
+				dispatch();
+			}
+		} catch(RuntimeException re) {
+			// an exception would cancel subsequent scheduled runs, so it is logged instead.
+			GlueLogger.getGlueLogger().log(Level.WARNING, "Error adjusting workers of request queue '"+queueName+"': "+re.getLocalizedMessage(), re);
+		}
+	}
+
+	// fraction of the whole system's CPU capacity in use, between 0.0 and 1.0.
+	@SuppressWarnings("deprecation")
+	private static double systemCpuLoad() {
+		OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+		if(osBean instanceof com.sun.management.OperatingSystemMXBean) {
+			double cpuLoad = ((com.sun.management.OperatingSystemMXBean) osBean).getSystemCpuLoad();
+			if(cpuLoad >= 0.0) {
+				return cpuLoad;
+			}
+		}
+		double loadAverage = osBean.getSystemLoadAverage();
+		if(loadAverage < 0.0) {
+			return 0.0;
+		}
+		return Math.min(1.0, loadAverage / osBean.getAvailableProcessors());
+	}
+
+	/**
+	 * Number of queued tickets ahead of the given ticket in dispatch order. Does not lock the queue, so 
+	 * the result may be momentarily out of date while tickets are being enqueued or dispatched.
+	 */
+	public int placeInQueue(RequestTicket requestTicket) {
+		return queuedTickets.headSet(requestTicket).size();
+	}
+
+	private boolean clientMayRunAnother(String clientKey) {
+		if(maxRunningPerClient == null) {
+			return true;
+		}
+		Integer numRunning = clientKeyToNumRunning.get(clientKey);
+		return numRunning == null || numRunning < maxRunningPerClient;
+	}
+
+	private double clientWeight(String clientID) {
+		Double weight = clientID == null ? null : clientIDToWeight.get(clientID);
+		return weight == null ? DEFAULT_CLIENT_WEIGHT : weight;
+	}
+
+	private static String clientKey(RequestTicket requestTicket) {
+		String clientID = requestTicket.getClientID();
+		return clientID == null ? UNIDENTIFIED_CLIENT : clientID;
+	}
+
+	// highest priority first, then earliest virtual finish time, then arrival order.
+	private static final Comparator<RequestTicket> DISPATCH_ORDER =
+			Comparator.comparingInt((RequestTicket ticket) -> -ticket.getPriority())
+			.thenComparingDouble(RequestTicket::getVirtualFinishTime)
+			.thenComparingLong(RequestTicket::getSequenceNumber);
+
 }
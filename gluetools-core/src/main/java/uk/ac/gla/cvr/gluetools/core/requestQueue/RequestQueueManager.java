@@ -1,13 +1,23 @@
 package uk.ac.gla.cvr.gluetools.core.requestQueue;
 
-import java.util.ArrayList;
+import java.io.File;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.logging.Level;
 
 import org.w3c.dom.Element;
 
@@ -20,6 +30,7 @@ import uk.ac.gla.cvr.gluetools.core.plugins.PluginConfigContext;
 import uk.ac.gla.cvr.gluetools.core.plugins.PluginFactory;
 import uk.ac.gla.cvr.gluetools.core.plugins.PluginUtils;
 import uk.ac.gla.cvr.gluetools.core.requestQueue.RequestQueueManagerException.Code;
+import uk.ac.gla.cvr.gluetools.core.requestQueue.ResultSpillManager.SerializedResult;
 
 public class RequestQueueManager implements Plugin {
 
@@ -27,23 +38,44 @@ public class RequestQueueManager implements Plugin {
 	 * Uncollected tickets removed from the map after a certain amount of time so that results get garbage collected.
 	 * Clients should be polling for tickets more frequently.
 	 */
-	private static final long RETAIN_OUTSTANDING_TICKETS_LIMIT_MS = 30000;
+	private static final int DEFAULT_RETAIN_COMPLETED_RESULTS_MS = 30000;
 
-	private static final long OUTSTANDING_TICKETS_THREAD_SLEEP_TIME_MS = 5000;
+	// upper bound on how long a single long-poll request may block.
+	private static final int DEFAULT_MAX_AWAIT_MS = 60000;
+
+	private static final int DEFAULT_RESULT_SPILL_THRESHOLD_BYTES = 8388608;
+
+	private static final long OUTSTANDING_TICKETS_SWEEP_INTERVAL_MS = 5000;
 
 	private Map<String, RequestQueue> requestQueues = new LinkedHashMap<String, RequestQueue>();
 	
-	private Map<String, RequestTicket> uncollectedTickets = new LinkedHashMap<String, RequestTicket>();
+	// concurrent, so that status polling, submission and collection do not contend on a shared lock.
+	private Map<String, RequestTicket> uncollectedTickets = new ConcurrentHashMap<String, RequestTicket>();
 	
 	private boolean isInited;
 	
-	private int nextRequestID = 1;
+	private AtomicInteger nextRequestID = new AtomicInteger(1);
+	
+	private ScheduledExecutorService uncollectedTicketsSweeper;
+	// responds to long-polls whose wait has timed out.
+	private ScheduledExecutorService awaitTimeoutScheduler;
 	
-	private Thread uncollectedTicketsThread;
-	private boolean keepRunning = true;
+	private int retainCompletedResultsMs = DEFAULT_RETAIN_COMPLETED_RESULTS_MS;
+	private int maxAwaitMs = DEFAULT_MAX_AWAIT_MS;
+	// null if results are never spilled to disk.
+	private String resultSpillDir;
+	private int resultSpillThresholdBytes = DEFAULT_RESULT_SPILL_THRESHOLD_BYTES;
+	private ResultSpillManager resultSpillManager;
 	
 	@Override
 	public void configure(PluginConfigContext pluginConfigContext, Element configElem) {
+		this.retainCompletedResultsMs = Optional.ofNullable(PluginUtils.configureIntProperty(configElem, "retainCompletedResultsMs", 0, true, null, false, false))
+				.orElse(DEFAULT_RETAIN_COMPLETED_RESULTS_MS);
+		this.maxAwaitMs = Optional.ofNullable(PluginUtils.configureIntProperty(configElem, "maxAwaitMs", 0, true, null, false, false))
+				.orElse(DEFAULT_MAX_AWAIT_MS);
+		this.resultSpillDir = PluginUtils.configureStringProperty(configElem, "resultSpillDir", false);
+		this.resultSpillThresholdBytes = Optional.ofNullable(PluginUtils.configureIntProperty(configElem, "resultSpillThresholdBytes", 0, true, null, false, false))
+				.orElse(DEFAULT_RESULT_SPILL_THRESHOLD_BYTES);
 		List<Element> requestQueueElems = PluginUtils.findConfigElements(configElem, "requestQueue");
 		for(Element requestQueueElem: requestQueueElems) {
 			RequestQueue requestQueue = new RequestQueue();
@@ -69,40 +101,21 @@ public class RequestQueueManager implements Plugin {
 	}
 
 	public void init() {
+		if(resultSpillDir != null) {
+			this.resultSpillManager = new ResultSpillManager(resultSpillDir, resultSpillThresholdBytes);
+		}
 		for(RequestQueue requestQueue: requestQueues.values()) {
 			requestQueue.init();
 		}
-		this.uncollectedTicketsThread = new Thread(new Runnable() {
-			@Override
-			public void run() {
-				while(keepRunning) {
-					synchronized(uncollectedTickets) {
-						List<String> requestIDsToRemove = new ArrayList<String>();
-						for(RequestTicket ticket: uncollectedTickets.values()) {
-							if(ticket.getCommandFuture().isDone()) {
-								Long completionTime = ticket.getCompletionTime();
-								if(completionTime == null) {
-									ticket.setCompletionTime(System.currentTimeMillis());
-								} else {
-									if(System.currentTimeMillis() - completionTime > RETAIN_OUTSTANDING_TICKETS_LIMIT_MS) {
-										requestIDsToRemove.add(ticket.getId());
-									}
-								}
-							}
-						}
-						for(String requestID: requestIDsToRemove) {
-							GlueLogger.getGlueLogger().finest("Removing uncollected ticket for request "+requestID);
-							uncollectedTickets.remove(requestID);
-						}
-					}
-					try {
-						Thread.sleep(OUTSTANDING_TICKETS_THREAD_SLEEP_TIME_MS);
-					} catch (InterruptedException e) {}
-				}
-			}
-			
-		}, "Request queue manager uncollected tickets thread");
-		this.uncollectedTicketsThread.start();
+		this.uncollectedTicketsSweeper = Executors.newSingleThreadScheduledExecutor(runnable -> 
+			new Thread(runnable, "Request queue manager uncollected tickets thread"));
+		this.uncollectedTicketsSweeper.scheduleWithFixedDelay(this::removeExpiredTickets, 
+				OUTSTANDING_TICKETS_SWEEP_INTERVAL_MS, OUTSTANDING_TICKETS_SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		ScheduledThreadPoolExecutor awaitTimeoutScheduler = new ScheduledThreadPoolExecutor(1, runnable -> 
+			new Thread(runnable, "Request queue manager await timeout thread"));
+		// most long-polls respond on completion, so their timeouts should not accumulate in the scheduler.
+		awaitTimeoutScheduler.setRemoveOnCancelPolicy(true);
+		this.awaitTimeoutScheduler = awaitTimeoutScheduler;
 		this.isInited = true;
 	}
 	
@@ -110,15 +123,48 @@ public class RequestQueueManager implements Plugin {
 		for(RequestQueue requestQueue: requestQueues.values()) {
 			requestQueue.dispose();
 		}
-		if(this.uncollectedTicketsThread != null) {
-			this.keepRunning = false;
+		if(this.awaitTimeoutScheduler != null) {
+			this.awaitTimeoutScheduler.shutdownNow();
+		}
+		if(this.uncollectedTicketsSweeper != null) {
+			this.uncollectedTicketsSweeper.shutdownNow();
 			try {
-				this.uncollectedTicketsThread.join();
+				this.uncollectedTicketsSweeper.awaitTermination(OUTSTANDING_TICKETS_SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
 			} catch (InterruptedException e) {}
 		}
 	}
+
+	// an exception would cancel subsequent scheduled runs, so it is logged instead.
+	private void removeExpiredTickets() {
+		try {
+			long currentTime = System.currentTimeMillis();
+			for(RequestTicket ticket: uncollectedTickets.values()) {
+				if(ticket.getCommandFuture().isDone()) {
+					Long completionTime = ticket.getCompletionTime();
+					if(completionTime == null) {
+						ticket.setCompletionTime(currentTime);
+					} else if(currentTime - completionTime > retainCompletedResultsMs) {
+						// only removes the entry if it has not been collected in the meantime.
+						if(uncollectedTickets.remove(ticket.getId(), ticket)) {
+							GlueLogger.getGlueLogger().finest("Removing uncollected ticket for request "+ticket.getId());
+							File spilledResultFile = ticket.getSpilledResultFile();
+							if(spilledResultFile != null) {
+								ResultSpillManager.deleteSpillFile(spilledResultFile);
+							}
+						}
+					}
+				}
+			}
+		} catch(RuntimeException re) {
+			GlueLogger.getGlueLogger().log(Level.WARNING, "Error removing expired request tickets: "+re.getLocalizedMessage(), re);
+		}
+	}
 	
-	public RequestStatus submitRequest(CommandContext cmdContext, Request request) {
+	/**
+	 * Submit a request to its queue. If resultMaySpill is true and a result spill directory is configured, 
+	 * a large result is kept on disk rather than on the heap until it is collected.
+	 */
+	public RequestStatus submitRequest(CommandContext cmdContext, Request request, boolean resultMaySpill) {
 		String queueName = request.getQueueName();
 		RequestQueue requestQueue = getQueue(queueName);
 		if(requestQueue == null) {
@@ -126,100 +172,178 @@ public class RequestQueueManager implements Plugin {
 					"Request was assigned to queue '"+queueName+"' but no queue with this name has been configured");
 		}
 
-		final RequestTicket requestTicket;
-		String requestID;
-		synchronized(uncollectedTickets) {
-			synchronized(requestQueue) {
-				Map<String, RequestTicket> queuedTickets = requestQueue.getQueuedTickets();
-				int currentLengthOfQueue = queuedTickets.values().size();
-				if(currentLengthOfQueue >= requestQueue.getMaxRequests()) {
-					throw new RequestQueueManagerException(Code.QUEUE_FULL, "Request rejected from queue '"+requestQueue.getQueueName()+
-							"', this queue is at its maximum load of "+requestQueue.getMaxRequests()+". Please try again later.");
-				}
-				requestID = Integer.toString(nextRequestID);
-				nextRequestID++;
-				requestTicket = new RequestTicket(requestID, cmdContext);
-				Map<String, RequestTicket> runningTickets = requestQueue.getRunningTickets();
-				if(runningTickets.size() < requestQueue.getNumWorkers()) {
-					// request should be immediately run so don't return QUEUED unnecessarily
-					requestTicket.setCode(RequestTicket.Code.RUNNING); 
-					requestTicket.setPlaceInQueue(-1); 
-					runningTickets.put(requestID, requestTicket);
-				} else {
-					requestTicket.setCode(RequestTicket.Code.QUEUED);
-					requestTicket.setPlaceInQueue(currentLengthOfQueue); 
-					queuedTickets.put(requestID, requestTicket);
+		final String requestID = Integer.toString(nextRequestID.getAndIncrement());
+		final RequestTicket requestTicket = new RequestTicket(requestID, cmdContext, request.getClientID(), request.getPriority());
+		// whichever of the command and a cancellation before it starts claims the ticket first finishes it.
+		final AtomicBoolean ticketClaimed = new AtomicBoolean(false);
+		// the task is handed to the queue's executor by the queue itself, once the ticket is chosen to run.
+		FutureTask<CommandResult> cmdResultTask = new FutureTask<CommandResult>(new Callable<CommandResult>() {
+			@Override
+			public CommandResult call() throws Exception {
+				if(ticketClaimed.getAndSet(true)) {
+					return null;
 				}
-				uncollectedTickets.put(requestID, requestTicket);
-
-				ExecutorService executorService = requestQueue.getExecutorService();
-				Future<CommandResult> cmdResultFuture = executorService.submit(new Callable<CommandResult>() {
-					@Override
-					public CommandResult call() throws Exception {
-						CommandResult cmdResult;
-						try {
-							cmdResult = GluetoolsEngine.getInstance().runWithGlueClassloader(new Supplier<CommandResult>(){
-								@Override
-								public CommandResult get() {
-									synchronized(requestQueue) {
-										Map<String, RequestTicket> queuedTickets = requestQueue.getQueuedTickets();
-										if(queuedTickets.remove(requestID) != null) {
-											// request may have gone straight into runningTickets map.
-											Map<String, RequestTicket> runningTickets = requestQueue.getRunningTickets();
-											runningTickets.put(requestID, requestTicket);
-											for(RequestTicket queuedTicket: queuedTickets.values()) {
-												queuedTicket.decrementPlaceInQueue();
-											}
-											requestTicket.setCode(RequestTicket.Code.RUNNING);
-											requestTicket.setPlaceInQueue(-1);
-										}
-									}
-									GlueLogger.getGlueLogger().info("Executing request "+requestID+" on queue '"+queueName+"'");
-									requestTicket.setStartTime(System.currentTimeMillis());
-									CommandResult result = request.getCommand().execute(cmdContext);
-									return result;
-								}
-							});
-						} finally {
-							requestTicket.setCompletionTime(System.currentTimeMillis());
-							synchronized(requestQueue) {
-								requestQueue.getRunningTickets().remove(requestID);
-							}
-							requestTicket.setCode(RequestTicket.Code.COMPLETE);
-							double seconds = ((double) (requestTicket.getCompletionTime() - requestTicket.getStartTime())) / 1000.0;
-							GlueLogger.getGlueLogger().info("Request "+requestID+" on queue '"+queueName+"' completed in "+String.format("%.2f", seconds));
-							cmdContext.dispose();
+				CommandResult cmdResult;
+				try {
+					cmdResult = GluetoolsEngine.getInstance().runWithGlueClassloader(new Supplier<CommandResult>(){
+						@Override
+						public CommandResult get() {
+							GlueLogger.getGlueLogger().info("Executing request "+requestID+" on queue '"+queueName+"'");
+							requestTicket.setStartTime(System.currentTimeMillis());
+							CommandResult result = request.getCommand().execute(cmdContext);
+							return result;
+						}
+					});
+					if(resultMaySpill && resultSpillManager != null && cmdResult != null) {
+						SerializedResult serializedResult = resultSpillManager.serializeResult(requestID, cmdResult);
+						if(serializedResult != null) {
+							requestTicket.setSerializedResultJson(serializedResult.getJsonBytes());
+							requestTicket.setSpilledResultFile(serializedResult.getSpillFile());
+							cmdResult = null;
 						}
-						return cmdResult;
 					}
-				});
-				requestTicket.setCmdResultFuture(cmdResultFuture);
+				} finally {
+					finishTicket(requestTicket, requestQueue, cmdContext);
+				}
+				return cmdResult;
 			}
+		}) {
+			// a task cancelled before it starts never calls its callable, for example a ticket cancelled 
+			// while queued, so the ticket is finished here instead, releasing its context and temporary files.
+			@Override
+			protected void done() {
+				if(isCancelled() && !ticketClaimed.getAndSet(true)) {
+					finishTicket(requestTicket, requestQueue, cmdContext);
+				}
+			}
+		};
+		requestTicket.setCmdResultFuture(cmdResultTask);
+		// registered before it is enqueued, so that its status is available as soon as it may run.
+		uncollectedTickets.put(requestID, requestTicket);
+		try {
+			requestQueue.enqueue(requestTicket);
+		} catch(RuntimeException re) {
+			uncollectedTickets.remove(requestID);
+			throw re;
 		}
 		return requestStatus(requestID);
 	}
-	
-	public CommandResult collectRequestSync(String id) {
-		RequestTicket requestTicket;
-		synchronized(uncollectedTickets) {
-			requestTicket = uncollectedTickets.remove(id);
+
+	private void finishTicket(RequestTicket requestTicket, RequestQueue requestQueue, CommandContext cmdContext) {
+		try {
+			requestTicket.setCompletionTime(System.currentTimeMillis());
+			requestQueue.ticketFinished(requestTicket);
+			Long startTime = requestTicket.getStartTime();
+			if(startTime == null) {
+				GlueLogger.getGlueLogger().info("Request "+requestTicket.getId()+" on queue '"+requestQueue.getQueueName()+"' cancelled before it started");
+			} else {
+				double seconds = ((double) (requestTicket.getCompletionTime() - startTime)) / 1000.0;
+				GlueLogger.getGlueLogger().info("Request "+requestTicket.getId()+" on queue '"+requestQueue.getQueueName()+"' completed in "+String.format("%.2f", seconds));
+			}
+			cmdContext.dispose();
+		} finally {
+			// responds to any long-polls waiting on the ticket.
+			requestTicket.complete();
 		}
+	}
+
+	public CommandResult collectRequestSync(String id) {
+		return collectRequest(id).getCommandResult();
+	}
+
+	/**
+	 * Wait for the request to complete and collect its result, which may have been spilled to disk. 
+	 * Throws any error raised by the command.
+	 */
+	public CollectedResult collectRequest(String id) {
+		RequestTicket requestTicket = uncollectedTickets.remove(id);
 		if(requestTicket == null) {
 			throw new RequestQueueManagerException(RequestQueueManagerException.Code.EXPIRED_OR_NON_EXISTENT_REQUEST, 
 					"Request with ID "+id+" is expired or non-existent.");
 		}
-		return requestTicket.getCommandResult();
+		CommandResult cmdResult = requestTicket.getCommandResult();
+		return new CollectedResult(cmdResult, requestTicket.getSerializedResultJson(), requestTicket.getSpilledResultFile());
 	}
 	
 	public RequestStatus requestStatus(String id) {
-		RequestTicket requestTicket;
-		synchronized(uncollectedTickets) {
-			requestTicket = uncollectedTickets.get(id);
-			if(requestTicket == null) {
-				throw new RequestQueueManagerException(RequestQueueManagerException.Code.EXPIRED_OR_NON_EXISTENT_REQUEST, 
-						"Request with ID "+id+" is expired or non-existent.");
+		return requestStatus(getUncollectedTicket(id));
+	}
+
+	private static RequestStatus requestStatus(RequestTicket requestTicket) {
+		return new RequestStatus(requestTicket.getId(), requestTicket.getCode(), requestTicket.getPlaceInQueue(), requestTicket.getRunningDescription());
+	}
+
+	/**
+	 * Long-poll variant of requestStatus: passes the request's status to the consumer once the request has completed, 
+	 * or once the timeout (capped at maxAwaitMs) has elapsed. Does not block the calling thread; the consumer is 
+	 * called on the thread which completes the request, or on the await timeout thread.
+	 */
+	public void awaitRequestStatus(String id, long timeoutMs, Consumer<RequestStatus> statusConsumer) {
+		RequestTicket requestTicket = getUncollectedTicket(id);
+		long waitMs = Math.max(0, Math.min(timeoutMs, maxAwaitMs));
+		StatusAwaiter statusAwaiter = new StatusAwaiter(requestTicket, statusConsumer);
+		statusAwaiter.timeout = awaitTimeoutScheduler.schedule(statusAwaiter, waitMs, TimeUnit.MILLISECONDS);
+		requestTicket.addCompletionListener(statusAwaiter);
+	}
+
+	// passes the ticket's status to the consumer exactly once, whether the ticket completes or the wait times out first.
+	private static class StatusAwaiter implements Runnable {
+		private RequestTicket requestTicket;
+		private Consumer<RequestStatus> statusConsumer;
+		private AtomicBoolean responded = new AtomicBoolean(false);
+		private volatile ScheduledFuture<?> timeout;
+
+		public StatusAwaiter(RequestTicket requestTicket, Consumer<RequestStatus> statusConsumer) {
+			super();
+			this.requestTicket = requestTicket;
+			this.statusConsumer = statusConsumer;
+		}
+
+		@Override
+		public void run() {
+			if(responded.getAndSet(true)) {
+				return;
+			}
+			ScheduledFuture<?> timeout = this.timeout;
+			if(timeout != null) {
+				timeout.cancel(false);
+			}
+			requestTicket.removeCompletionListener(this);
+			// the consumer may be called on a worker thread, which must not be disrupted by it.
+			try {
+				statusConsumer.accept(requestStatus(requestTicket));
+			} catch(RuntimeException re) {
+				GlueLogger.getGlueLogger().log(Level.WARNING, "Error responding with status of request "+requestTicket.getId()+": "+re.getLocalizedMessage(), re);
 			}
-			return new RequestStatus(id, requestTicket.getCode(), requestTicket.getPlaceInQueue(), requestTicket.getRunningDescription());
 		}
 	}
+
+	/**
+	 * Cancel a queued or running request. The ticket is retained, so collecting its result reports the cancellation.
+	 */
+	public RequestStatus cancelRequest(String id) {
+		RequestTicket requestTicket = getUncollectedTicket(id);
+		RequestQueue requestQueue = requestTicket.getRequestQueue();
+		if(requestQueue != null) {
+			requestQueue.cancel(requestTicket, "Request "+id+" was cancelled by the client");
+		}
+		return requestStatus(id);
+	}
+
+	private RequestTicket getUncollectedTicket(String id) {
+		RequestTicket requestTicket = uncollectedTickets.get(id);
+		if(requestTicket == null) {
+			throw new RequestQueueManagerException(RequestQueueManagerException.Code.EXPIRED_OR_NON_EXISTENT_REQUEST, 
+					"Request with ID "+id+" is expired or non-existent.");
+		}
+		return requestTicket;
+	}
+
+	public int getRetainCompletedResultsMs() {
+		return retainCompletedResultsMs;
+	}
+
+	public int getMaxAwaitMs() {
+		return maxAwaitMs;
+	}
 }
@@ -1,8 +1,12 @@
 package uk.ac.gla.cvr.gluetools.core.requestQueue;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 
 import uk.ac.gla.cvr.gluetools.core.GlueException;
@@ -13,9 +17,15 @@ import uk.ac.gla.cvr.gluetools.core.logging.GlueLogger;
 public class RequestTicket {
 
 	private String id;
-	private Future<CommandResult> cmdResultFuture;
-	private Long startTime;
-	private Long completionTime;
+	// volatile rather than synchronized, so that status polling takes no locks.
+	private volatile FutureTask<CommandResult> cmdResultFuture;
+	private volatile Long startTime;
+	private volatile Long completionTime;
+	// one of these is set if the result was serialized to JSON, in which case the future's result is null.
+	private volatile byte[] serializedResultJson;
+	private volatile File spilledResultFile;
+	// set if the request was cancelled, reported when the result is collected.
+	private volatile String cancellationReason;
 	
 	public enum Code {
 		QUEUED,
@@ -23,14 +33,28 @@ public class RequestTicket {
 		COMPLETE,
 	}
 	
-	private Code code = Code.QUEUED;
-	private int placeInQueue;
+	private volatile Code code = Code.QUEUED;
+	// run once the ticket is complete, guarded by this ticket's lock.
+	private List<Runnable> completionListeners = new ArrayList<Runnable>();
+	private volatile RequestQueue requestQueue;
 	private CommandContext cmdContext;
+	private String clientID;
+	private int priority;
+	// set by the RequestQueue when the ticket is enqueued.
+	private long sequenceNumber;
+	private double virtualFinishTime;
+	private long enqueueTime;
 	
 	public RequestTicket(String id, CommandContext cmdContext) {
+		this(id, cmdContext, null, 0);
+	}
+
+	public RequestTicket(String id, CommandContext cmdContext, String clientID, int priority) {
 		super();
 		this.id = id;
 		this.cmdContext = cmdContext;
+		this.clientID = clientID;
+		this.priority = priority;
 	}
 	
 	public String getId() {
@@ -40,20 +64,57 @@ public class RequestTicket {
 	public Future<CommandResult> getCommandFuture() {
 		return cmdResultFuture;
 	}
+
+	// the task which runs the command; handed to the executor by the RequestQueue.
+	public FutureTask<CommandResult> getCommandTask() {
+		return cmdResultFuture;
+	}
+
+	public String getClientID() {
+		return clientID;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
+
+	public void setSequenceNumber(long sequenceNumber) {
+		this.sequenceNumber = sequenceNumber;
+	}
+
+	public long getEnqueueTime() {
+		return enqueueTime;
+	}
+
+	public void setEnqueueTime(long enqueueTime) {
+		this.enqueueTime = enqueueTime;
+	}
+
+	public double getVirtualFinishTime() {
+		return virtualFinishTime;
+	}
+
+	public void setVirtualFinishTime(double virtualFinishTime) {
+		this.virtualFinishTime = virtualFinishTime;
+	}
 	
-	public synchronized Long getCompletionTime() {
+	public Long getCompletionTime() {
 		return completionTime;
 	}
 
-	public synchronized void setCompletionTime(Long completionTime) {
+	public void setCompletionTime(Long completionTime) {
 		this.completionTime = completionTime;
 	}
 
-	public synchronized Long getStartTime() {
+	public Long getStartTime() {
 		return startTime;
 	}
 
-	public synchronized void setStartTime(Long startTime) {
+	public void setStartTime(Long startTime) {
 		this.startTime = startTime;
 	}
 
@@ -70,35 +131,91 @@ public class RequestTicket {
 		} catch (InterruptedException e) {
 			throw new RequestQueueManagerException(e, RequestQueueManagerException.Code.REQUEST_INTERRUPTED, e.getLocalizedMessage());
 		} catch (CancellationException e) {
-			throw new RequestQueueManagerException(e, RequestQueueManagerException.Code.REQUEST_CANCELLED, e.getLocalizedMessage());
+			String reason = cancellationReason != null ? cancellationReason : e.getLocalizedMessage();
+			throw new RequestQueueManagerException(e, RequestQueueManagerException.Code.REQUEST_CANCELLED, reason);
 		}
 	}
 
-	public synchronized Code getCode() {
+	public Code getCode() {
 		return code;
 	}
 
-	public synchronized int getPlaceInQueue() {
-		return placeInQueue;
+	// computed on demand by the queue, -1 if the ticket is not queued.
+	public int getPlaceInQueue() {
+		RequestQueue requestQueue = this.requestQueue;
+		if(requestQueue == null || code != Code.QUEUED) {
+			return -1;
+		}
+		return requestQueue.placeInQueue(this);
 	}
 
-	public synchronized void setCode(Code code) {
+	public void setCode(Code code) {
 		this.code = code;
 	}
 
-	public synchronized void setPlaceInQueue(int placeInQueue) {
-		this.placeInQueue = placeInQueue;
+	// the listener is run immediately if the ticket is already complete.
+	public void addCompletionListener(Runnable listener) {
+		synchronized(this) {
+			if(code != Code.COMPLETE) {
+				completionListeners.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+
+	public synchronized void removeCompletionListener(Runnable listener) {
+		completionListeners.remove(listener);
+	}
+
+	// called once the ticket's command has finished, or the ticket was cancelled before its command started.
+	public void complete() {
+		List<Runnable> listeners;
+		synchronized(this) {
+			this.code = Code.COMPLETE;
+			listeners = new ArrayList<Runnable>(completionListeners);
+			completionListeners.clear();
+		}
+		listeners.forEach(Runnable::run);
+	}
+
+	public void setRequestQueue(RequestQueue requestQueue) {
+		this.requestQueue = requestQueue;
+	}
+
+	public RequestQueue getRequestQueue() {
+		return requestQueue;
 	}
 
-	public synchronized void decrementPlaceInQueue() {
-		this.placeInQueue--;
+	public String getCancellationReason() {
+		return cancellationReason;
+	}
+
+	public void setCancellationReason(String cancellationReason) {
+		this.cancellationReason = cancellationReason;
 	}
 
 	public String getRunningDescription() {
 		return cmdContext.getRunningDescription();
 	}
 
-	public void setCmdResultFuture(Future<CommandResult> cmdResultFuture) {
+	public void setCmdResultFuture(FutureTask<CommandResult> cmdResultFuture) {
 		this.cmdResultFuture = cmdResultFuture;
 	}
+
+	public byte[] getSerializedResultJson() {
+		return serializedResultJson;
+	}
+
+	public void setSerializedResultJson(byte[] serializedResultJson) {
+		this.serializedResultJson = serializedResultJson;
+	}
+
+	public File getSpilledResultFile() {
+		return spilledResultFile;
+	}
+
+	public void setSpilledResultFile(File spilledResultFile) {
+		this.spilledResultFile = spilledResultFile;
+	}
 }
@@ -0,0 +1,218 @@
+package uk.ac.gla.cvr.gluetools.core.requestQueue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.stream.JsonGenerator;
+
+import uk.ac.gla.cvr.gluetools.core.command.result.CommandResult;
+import uk.ac.gla.cvr.gluetools.core.document.CommandDocument;
+import uk.ac.gla.cvr.gluetools.core.logging.GlueLogger;
+import uk.ac.gla.cvr.gluetools.core.requestQueue.RequestQueueManagerException.Code;
+import uk.ac.gla.cvr.gluetools.utils.CommandDocumentJsonUtils;
+import uk.ac.gla.cvr.gluetools.utils.JsonUtils;
+
+/*
+ * Keeps large results of completed asynchronous requests on disk rather than on the heap until they are collected.
+ *
+ * A result is serialized to JSON in memory until it exceeds the threshold, at which point the JSON is written
+ * gzipped to a file in the spill directory instead. Either way the result itself can be discarded: a result 
+ * under the threshold is kept as its JSON bytes, so it is not serialized a second time when it is collected.
+ * Spill files are deleted when the result is collected or when the uncollected ticket expires.
+ * Any spill files left in the directory by a previous run are deleted on startup.
+ */
+public class ResultSpillManager {
+
+	private static final String SPILL_FILE_SUFFIX = ".json.gz";
+	private static final int BUFFER_SIZE = 65536;
+
+	private Path spillDir;
+	private long thresholdBytes;
+
+	public ResultSpillManager(String spillDirString, long thresholdBytes) {
+		super();
+		this.thresholdBytes = thresholdBytes;
+		try {
+			this.spillDir = Paths.get(spillDirString);
+		} catch(InvalidPathException ipe) {
+			throw new RequestQueueManagerException(ipe, Code.CONFIG_ERROR, "Invalid result spill directory: "+spillDirString);
+		}
+		try {
+			if(!Files.exists(spillDir)) {
+				Files.createDirectories(spillDir);
+			}
+		} catch(IOException ioe) {
+			throw new RequestQueueManagerException(ioe, Code.CONFIG_ERROR, "Unable to create result spill directory: "+ioe.getLocalizedMessage());
+		}
+		if(!Files.isDirectory(spillDir)) {
+			throw new RequestQueueManagerException(Code.CONFIG_ERROR, "Result spill path is not a directory: "+spillDirString);
+		}
+		deleteLeftoverSpillFiles();
+	}
+
+	private void deleteLeftoverSpillFiles() {
+		try(DirectoryStream<Path> spillFiles = Files.newDirectoryStream(spillDir, "*"+SPILL_FILE_SUFFIX)) {
+			for(Path spillFile: spillFiles) {
+				Files.deleteIfExists(spillFile);
+			}
+		} catch(IOException ioe) {
+			GlueLogger.getGlueLogger().warning("Unable to delete leftover result spill files: "+ioe.getLocalizedMessage());
+		}
+	}
+
+	public long getThresholdBytes() {
+		return thresholdBytes;
+	}
+
+	/**
+	 * Serialize the result to JSON, spilling it to disk if it exceeds the threshold.
+	 * Returns null if the result could not be serialized, in which case the result itself should be kept.
+	 */
+	public SerializedResult serializeResult(String requestID, CommandResult cmdResult) {
+		if(cmdResult == null) {
+			return null;
+		}
+		File spillFile = spillDir.resolve(UUID.randomUUID().toString()+SPILL_FILE_SUFFIX).toFile();
+		SpillOutputStream spillOutputStream = new SpillOutputStream(spillFile);
+		try {
+			try(Writer writer = new OutputStreamWriter(spillOutputStream, StandardCharsets.UTF_8)) {
+				JsonGenerator jsonGenerator = JsonUtils.jsonGenerator(writer);
+				CommandDocumentJsonUtils.commandDocumentGenerateJson(jsonGenerator, cmdResult.getCommandDocument());
+				jsonGenerator.flush();
+			}
+		} catch(Exception e) {
+			GlueLogger.getGlueLogger().log(Level.WARNING, "Unable to spill result of request "+requestID+" to disk: "+e.getLocalizedMessage());
+			deleteSpillFile(spillFile);
+			return null;
+		}
+		if(!spillOutputStream.spilled) {
+			return new SerializedResult(spillOutputStream.memoryBuffer.toByteArray(), null);
+		}
+		GlueLogger.getGlueLogger().finest("Result of request "+requestID+" spilled to "+spillFile.getPath());
+		return new SerializedResult(null, spillFile);
+	}
+
+	// result JSON, either in memory or in a gzipped spill file.
+	public static class SerializedResult {
+		private byte[] jsonBytes;
+		private File spillFile;
+
+		private SerializedResult(byte[] jsonBytes, File spillFile) {
+			this.jsonBytes = jsonBytes;
+			this.spillFile = spillFile;
+		}
+
+		public byte[] getJsonBytes() {
+			return jsonBytes;
+		}
+
+		public File getSpillFile() {
+			return spillFile;
+		}
+	}
+
+	// write the spilled JSON to the output stream, uncompressed.
+	public static void writeSpilledJson(File spillFile, OutputStream outputStream) throws IOException {
+		try(InputStream inputStream = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(spillFile.toPath()), BUFFER_SIZE))) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int bytesRead;
+			while((bytesRead = inputStream.read(buffer)) != -1) {
+				outputStream.write(buffer, 0, bytesRead);
+			}
+		}
+	}
+
+	// rebuild the result from its spilled JSON.
+	public static CommandResult readSpilledResult(File spillFile) {
+		try(Reader reader = new InputStreamReader(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(spillFile.toPath()), BUFFER_SIZE)), StandardCharsets.UTF_8)) {
+			return readSerializedResult(reader);
+		} catch(IOException ioe) {
+			throw new RequestQueueManagerException(ioe, Code.REQUEST_ERROR, "Unable to read spilled result: "+ioe.getLocalizedMessage());
+		}
+	}
+
+	// rebuild the result from JSON held in memory.
+	public static CommandResult readSerializedResult(byte[] jsonBytes) {
+		return readSerializedResult(new InputStreamReader(new ByteArrayInputStream(jsonBytes), StandardCharsets.UTF_8));
+	}
+
+	private static CommandResult readSerializedResult(Reader reader) {
+		JsonObject jsonObject = Json.createReader(reader).readObject();
+		return new SpilledCommandResult(CommandDocumentJsonUtils.jsonObjectToCommandDocument(jsonObject));
+	}
+
+	public static void deleteSpillFile(File spillFile) {
+		try {
+			Files.deleteIfExists(spillFile.toPath());
+		} catch(IOException ioe) {
+			GlueLogger.getGlueLogger().warning("Unable to delete result spill file "+spillFile.getPath()+": "+ioe.getLocalizedMessage());
+		}
+	}
+
+	private static class SpilledCommandResult extends CommandResult {
+		public SpilledCommandResult(CommandDocument commandDocument) {
+			super(commandDocument);
+		}
+	}
+
+	// buffers in memory until the threshold is exceeded, then switches to the gzipped spill file.
+	private class SpillOutputStream extends OutputStream {
+		private File spillFile;
+		private ByteArrayOutputStream memoryBuffer = new ByteArrayOutputStream();
+		private OutputStream fileOutputStream;
+		private boolean spilled = false;
+
+		public SpillOutputStream(File spillFile) {
+			this.spillFile = spillFile;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if(!spilled && memoryBuffer.size() + len > thresholdBytes) {
+				fileOutputStream = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(spillFile.toPath()), BUFFER_SIZE));
+				memoryBuffer.writeTo(fileOutputStream);
+				memoryBuffer = null;
+				spilled = true;
+			}
+			if(spilled) {
+				fileOutputStream.write(b, off, len);
+			} else {
+				memoryBuffer.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if(fileOutputStream != null) {
+				fileOutputStream.close();
+			}
+		}
+	}
+}
@@ -25,6 +25,9 @@
 */
 package uk.ac.gla.cvr.gluetools.utils;
 
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -54,6 +57,14 @@ public class CommandDocumentJsonUtils {
 		commandDocument.accept(jsonGeneratorCmdDocVisitor);
 	}
 
+	// writes the document as UTF-8 JSON directly to the stream, without building a String or JsonObject. 
+	// the stream is flushed but not closed.
+	public static void commandDocumentWriteJson(OutputStream outputStream, CommandDocument commandDocument) {
+		JsonGenerator jsonGenerator = JsonUtils.jsonGenerator(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+		commandDocumentGenerateJson(jsonGenerator, commandDocument);
+		jsonGenerator.flush();
+	}
+
 	
 	public static CommandDocument jsonObjectToCommandDocument(JsonObject jsonObject) {
 		List<String> jsonKeySet = new ArrayList<String>(jsonObject.keySet());
@@ -43,6 +43,7 @@ public class ProcessUtils {
 
 	private static final int PROCESS_WAIT_INTERVAL_MS = 5;
 	private static final int DRAIN_BUFFER_SIZE = 65536;
+	private static final int PROCESS_DESTROY_WAIT_MS = 10000;
 
 
 	public static class ProcessResult {
@@ -142,7 +143,11 @@ public class ProcessUtils {
 				}
 				try {
 					processComplete = process.waitFor(PROCESS_WAIT_INTERVAL_MS, TimeUnit.MILLISECONDS);
-				} catch (InterruptedException e) {}
+				} catch (InterruptedException ie) {
+					// e.g. the request was cancelled or exceeded its run time; the process is destroyed below.
+					Thread.currentThread().interrupt();
+					throw new ProcessUtilsException(ie, ProcessUtilsException.Code.PROCESS_INTERRUPTED, commandWords[0]);
+				}
 				IOException outIoe = outBytesDrainer.getIoException();
 				if(outIoe != null) {
 					throw new ProcessUtilsException(outIoe, 
@@ -176,7 +181,7 @@ public class ProcessUtils {
 				}
 			}
 			if(process != null && process.isAlive()) {
-				try { process.destroyForcibly().waitFor(); } catch (InterruptedException e) {}
+				destroyProcessTree(process);
 			}
 			if(logStdErr) {
 				if(errBytesDrainerThread != null) {
@@ -195,6 +200,22 @@ public class ProcessUtils {
 	}
 	
 	
+	// programs such as RAxML or MAFFT may start their own child processes, these are destroyed first.
+	private static void destroyProcessTree(Process process) {
+		process.descendants().forEach(ProcessHandle::destroyForcibly);
+		process.destroyForcibly();
+		boolean interrupted = Thread.interrupted();
+		try {
+			process.waitFor(PROCESS_DESTROY_WAIT_MS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			interrupted = true;
+		} finally {
+			if(interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
 	private static int drainBytes(InputStream fromStream, byte[] drainBuffer, OutputStream toStream) throws IOException {
 		int bytesRead = fromStream.read(drainBuffer, 0, drainBuffer.length);
 		if(bytesRead > 0) {
@@ -36,7 +36,8 @@ public class ProcessUtilsException extends GlueException {
 		PROCESS_IO_STDIN_ERROR("command", "errorTxt"),
 		PROCESS_IO_STDOUT_ERROR("command", "errorTxt"),
 		PROCESS_IO_STDERR_ERROR("command", "errorTxt"),
-		PROCESS_EXIT_CODE_ERROR("command", "exitCode");
+		PROCESS_EXIT_CODE_ERROR("command", "exitCode"),
+		PROCESS_INTERRUPTED("command");
 
 		private String[] argNames;
 		private Code(String... argNames) {
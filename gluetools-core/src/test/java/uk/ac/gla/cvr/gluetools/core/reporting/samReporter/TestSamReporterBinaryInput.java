@@ -0,0 +1,105 @@
+/**
+ *    GLUE: A flexible system for virus sequence data
+ *    Copyright (C) 2018 The University of Glasgow
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Affero General Public License as published
+ *    by the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Affero General Public License for more details.
+
+ *    You should have received a copy of the GNU Affero General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact details:
+ *    MRC-University of Glasgow Centre for Virus Research
+ *    Sir Michael Stoker Building, Garscube Campus, 464 Bearsden Road, 
+ *    Glasgow G61 1QH, United Kingdom
+ *    
+ *    Josh Singer: josh.singer@glasgow.ac.uk
+ *    Rob Gifford: robert.gifford@glasgow.ac.uk
+*/
+package uk.ac.gla.cvr.gluetools.core.reporting.samReporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.gla.cvr.gluetools.core.command.CmdMeta;
+import uk.ac.gla.cvr.gluetools.core.command.Command;
+import uk.ac.gla.cvr.gluetools.core.command.CommandContext;
+import uk.ac.gla.cvr.gluetools.core.command.CommandUsage;
+
+public class TestSamReporterBinaryInput {
+
+	// commands which only read the SAM/BAM file and return a result, so may take an uploaded file in the web API.
+	private static final List<Class<? extends Command>> READ_ONLY_COMMANDS = Arrays.asList(
+			ListSamReferenceCommand.class,
+			SamMappedReadsCommand.class,
+			SamDepthCommand.class,
+			SamNucleotideCommand.class,
+			SamAminoAcidCommand.class,
+			SamCodonTripletsCommand.class,
+			SamVariationScanCommand.class,
+			SamTargetReferenceCommand.class,
+			SamMultiReportCommand.class);
+
+	// commands which write files on the server, so must stay in the console.
+	private static final List<Class<? extends Command>> FILE_WRITING_COMMANDS = Arrays.asList(
+			SamExportNucleotideAlignmentCommand.class,
+			SamNucleotideConsensusCommand.class);
+
+	@Test
+	public void testReadOnlyCommandsConsumeBinaryFile() {
+		for(Class<? extends Command> cmdClass: READ_ONLY_COMMANDS) {
+			Assert.assertTrue(cmdClass.getSimpleName(), CommandUsage.hasMetaTagForCmdClass(cmdClass, CmdMeta.consumesBinaryFile));
+			Assert.assertFalse(cmdClass.getSimpleName(), CommandUsage.hasMetaTagForCmdClass(cmdClass, CmdMeta.consoleOnly));
+		}
+	}
+
+	@Test
+	public void testFileWritingCommandsStayConsoleOnly() {
+		for(Class<? extends Command> cmdClass: FILE_WRITING_COMMANDS) {
+			Assert.assertTrue(cmdClass.getSimpleName(), CommandUsage.hasMetaTagForCmdClass(cmdClass, CmdMeta.consoleOnly));
+			Assert.assertFalse(cmdClass.getSimpleName(), CommandUsage.hasMetaTagForCmdClass(cmdClass, CmdMeta.consumesBinaryFile));
+		}
+	}
+
+	@Test
+	public void testSamFileOutsideConsoleMustBeSpooled() throws IOException {
+		File spooledFile = File.createTempFile("testSamReporterBinaryInput", ".bam");
+		spooledFile.deleteOnExit();
+		CommandContext cmdContext = new NonConsoleCommandContext();
+		cmdContext.addDisposableFile(spooledFile);
+		Assert.assertEquals(spooledFile, SamUtils.samFile(cmdContext, spooledFile.getAbsolutePath()));
+		try {
+			SamUtils.samFile(cmdContext, new File(spooledFile.getParentFile(), "other.bam").getAbsolutePath());
+			Assert.fail("Expected SamUtilsException");
+		} catch(SamUtilsException sue) {
+			Assert.assertEquals(SamUtilsException.Code.SAM_BAM_FILE_NOT_UPLOADED, sue.getCode());
+		}
+		cmdContext.deleteDisposableFiles();
+	}
+
+	private static class NonConsoleCommandContext extends CommandContext {
+		public NonConsoleCommandContext() {
+			super(null, "test");
+		}
+		@Override
+		protected CommandContext createParallelWorkerInternal() {
+			throw new UnsupportedOperationException();
+		}
+		@Override
+		public boolean hasAuthorisation(String authorisationName) {
+			return true;
+		}
+	}
+}
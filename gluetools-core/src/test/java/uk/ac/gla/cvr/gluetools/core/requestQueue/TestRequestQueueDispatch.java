@@ -0,0 +1,191 @@
+/**
+ *    GLUE: A flexible system for virus sequence data
+ *    Copyright (C) 2018 The University of Glasgow
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Affero General Public License as published
+ *    by the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Affero General Public License for more details.
+
+ *    You should have received a copy of the GNU Affero General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact details:
+ *    MRC-University of Glasgow Centre for Virus Research
+ *    Sir Michael Stoker Building, Garscube Campus, 464 Bearsden Road, 
+ *    Glasgow G61 1QH, United Kingdom
+ *    
+ *    Josh Singer: josh.singer@glasgow.ac.uk
+ *    Rob Gifford: robert.gifford@glasgow.ac.uk
+*/
+package uk.ac.gla.cvr.gluetools.core.requestQueue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.gla.cvr.gluetools.core.command.result.CommandResult;
+
+// dispatch order and limits, with an executor which records dispatched tickets instead of running them.
+public class TestRequestQueueDispatch {
+
+	private RecordingExecutor executor = new RecordingExecutor();
+	private AtomicLong time = new AtomicLong(1000);
+	private Map<Runnable, RequestTicket> taskToTicket = new IdentityHashMap<Runnable, RequestTicket>();
+
+	@Test
+	public void testHigherPriorityDispatchedFirst() {
+		RequestQueue requestQueue = requestQueue(1);
+		RequestTicket blocker = enqueue(requestQueue, "blocker", "clientA", 0);
+		enqueue(requestQueue, "low1", "clientA", 0);
+		enqueue(requestQueue, "low2", "clientB", 0);
+		RequestTicket high = enqueue(requestQueue, "high", "clientC", 5);
+		Assert.assertEquals(0, high.getPlaceInQueue());
+		finishInTurn(requestQueue, blocker);
+		Assert.assertEquals(Arrays.asList("blocker", "high", "low1", "low2"), dispatchedIds());
+	}
+
+	@Test
+	public void testFairQueuingInterleavesClients() {
+		RequestQueue requestQueue = requestQueue(1);
+		RequestTicket blocker = enqueue(requestQueue, "blocker", "clientC", 0);
+		enqueue(requestQueue, "a1", "clientA", 0);
+		enqueue(requestQueue, "a2", "clientA", 0);
+		enqueue(requestQueue, "a3", "clientA", 0);
+		RequestTicket b1 = enqueue(requestQueue, "b1", "clientB", 0);
+		// b1 has the same virtual finish time as a1, so arrival order decides between them.
+		Assert.assertEquals(1, b1.getPlaceInQueue());
+		finishInTurn(requestQueue, blocker);
+		Assert.assertEquals(Arrays.asList("blocker", "a1", "b1", "a2", "a3"), dispatchedIds());
+	}
+
+	@Test
+	public void testClientWeightSpacesVirtualFinishTimes() {
+		RequestQueue requestQueue = requestQueue(1);
+		requestQueue.setClientWeight("clientA", 2.0);
+		RequestTicket blocker = enqueue(requestQueue, "blocker", "clientC", 0);
+		// clientA's finish times are spaced by 1/2, clientB's by 1.
+		enqueue(requestQueue, "a1", "clientA", 0);
+		enqueue(requestQueue, "a2", "clientA", 0);
+		enqueue(requestQueue, "a3", "clientA", 0);
+		enqueue(requestQueue, "a4", "clientA", 0);
+		enqueue(requestQueue, "b1", "clientB", 0);
+		enqueue(requestQueue, "b2", "clientB", 0);
+		finishInTurn(requestQueue, blocker);
+		Assert.assertEquals(Arrays.asList("blocker", "a1", "a2", "b1", "a3", "a4", "b2"), dispatchedIds());
+	}
+
+	@Test
+	public void testPerClientLimitHoldsBackClient() {
+		RequestQueue requestQueue = requestQueue(3);
+		requestQueue.setMaxRunningPerClient(1);
+		RequestTicket a1 = enqueue(requestQueue, "a1", "clientA", 0);
+		RequestTicket a2 = enqueue(requestQueue, "a2", "clientA", 0);
+		enqueue(requestQueue, "b1", "clientB", 0);
+		// a worker is free, but clientA already has its one running ticket.
+		Assert.assertEquals(Arrays.asList("a1", "b1"), dispatchedIds());
+		Assert.assertEquals(RequestTicket.Code.QUEUED, a2.getCode());
+		finish(requestQueue, a1);
+		Assert.assertEquals(Arrays.asList("a1", "b1", "a2"), dispatchedIds());
+	}
+
+	@Test
+	public void testCancelQueuedTicket() {
+		RequestQueue requestQueue = requestQueue(1);
+		RequestTicket blocker = enqueue(requestQueue, "blocker", "clientA", 0);
+		RequestTicket cancelled = enqueue(requestQueue, "cancelled", "clientA", 0);
+		RequestTicket waiting = enqueue(requestQueue, "waiting", "clientB", 0);
+		Assert.assertEquals(1, waiting.getPlaceInQueue());
+		time.set(2000);
+		Assert.assertTrue(requestQueue.cancel(cancelled, "test"));
+		Assert.assertEquals(RequestTicket.Code.COMPLETE, cancelled.getCode());
+		Assert.assertEquals(Long.valueOf(2000), cancelled.getCompletionTime());
+		Assert.assertEquals(0, waiting.getPlaceInQueue());
+		finishInTurn(requestQueue, blocker);
+		Assert.assertEquals(Arrays.asList("blocker", "waiting"), dispatchedIds());
+	}
+
+	private RequestQueue requestQueue(int numWorkers) {
+		RequestQueue requestQueue = new RequestQueue("test", numWorkers, 100, executor, time::get);
+		requestQueue.init();
+		return requestQueue;
+	}
+
+	private RequestTicket enqueue(RequestQueue requestQueue, String id, String clientID, int priority) {
+		RequestTicket ticket = new RequestTicket(id, null, clientID, priority);
+		ticket.setCmdResultFuture(new FutureTask<CommandResult>(() -> null));
+		taskToTicket.put(ticket.getCommandTask(), ticket);
+		requestQueue.enqueue(ticket);
+		return ticket;
+	}
+
+	private void finish(RequestQueue requestQueue, RequestTicket ticket) {
+		Assert.assertEquals(RequestTicket.Code.RUNNING, ticket.getCode());
+		ticket.setCode(RequestTicket.Code.COMPLETE);
+		requestQueue.ticketFinished(ticket);
+	}
+
+	// with one worker: finish each dispatched ticket in turn, until the queue is empty.
+	private void finishInTurn(RequestQueue requestQueue, RequestTicket firstTicket) {
+		int numFinished = 0;
+		finish(requestQueue, firstTicket);
+		numFinished++;
+		while(executor.tasks.size() > numFinished) {
+			finish(requestQueue, taskToTicket.get(executor.tasks.get(numFinished)));
+			numFinished++;
+		}
+	}
+
+	private List<String> dispatchedIds() {
+		List<String> ids = new ArrayList<String>();
+		for(Runnable task: executor.tasks) {
+			ids.add(taskToTicket.get(task).getId());
+		}
+		return ids;
+	}
+
+	private static class RecordingExecutor extends AbstractExecutorService {
+		private List<Runnable> tasks = new ArrayList<Runnable>();
+		private boolean shutdown = false;
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+		@Override
+		public void shutdown() {
+			shutdown = true;
+		}
+		@Override
+		public List<Runnable> shutdownNow() {
+			shutdown = true;
+			return new ArrayList<Runnable>();
+		}
+		@Override
+		public boolean isShutdown() {
+			return shutdown;
+		}
+		@Override
+		public boolean isTerminated() {
+			return shutdown;
+		}
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) {
+			return shutdown;
+		}
+	}
+}
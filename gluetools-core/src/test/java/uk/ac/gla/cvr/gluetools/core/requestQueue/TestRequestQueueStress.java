@@ -0,0 +1,171 @@
+/**
+ *    GLUE: A flexible system for virus sequence data
+ *    Copyright (C) 2018 The University of Glasgow
+ *
+ *    This program is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU Affero General Public License as published
+ *    by the Free Software Foundation, either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU Affero General Public License for more details.
+
+ *    You should have received a copy of the GNU Affero General Public License
+ *    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *    Contact details:
+ *    MRC-University of Glasgow Centre for Virus Research
+ *    Sir Michael Stoker Building, Garscube Campus, 464 Bearsden Road, 
+ *    Glasgow G61 1QH, United Kingdom
+ *    
+ *    Josh Singer: josh.singer@glasgow.ac.uk
+ *    Rob Gifford: robert.gifford@glasgow.ac.uk
+*/
+package uk.ac.gla.cvr.gluetools.core.requestQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.gla.cvr.gluetools.core.command.result.CommandResult;
+
+// stress test: many submitting threads and many status-polling threads against one queue.
+// checks that bookkeeping stays correct and limits hold under contention; it does not measure throughput or latency.
+public class TestRequestQueueStress {
+
+	private static final int NUM_WORKERS = 4;
+	private static final int NUM_SUBMITTERS = 4;
+	private static final int NUM_POLLERS = 8;
+	private static final int TICKETS_PER_SUBMITTER = 500;
+	private static final int NUM_CLIENTS = 5;
+	private static final int MAX_RUNNING_PER_CLIENT = 2;
+	private static final long TIMEOUT_MS = 30000;
+
+	@Test(timeout = TIMEOUT_MS)
+	public void testSubmitAndPoll() throws Exception {
+		RequestQueue requestQueue = new RequestQueue("stress", NUM_WORKERS, NUM_SUBMITTERS * TICKETS_PER_SUBMITTER);
+		requestQueue.setMaxRunningPerClient(MAX_RUNNING_PER_CLIENT);
+		requestQueue.init();
+		List<RequestTicket> tickets = new ArrayList<RequestTicket>();
+		AtomicInteger numRunning = new AtomicInteger(0);
+		AtomicInteger maxNumRunning = new AtomicInteger(0);
+		AtomicInteger[] clientNumRunning = new AtomicInteger[NUM_CLIENTS];
+		AtomicInteger maxClientNumRunning = new AtomicInteger(0);
+		for(int c = 0; c < NUM_CLIENTS; c++) {
+			clientNumRunning[c] = new AtomicInteger(0);
+		}
+		for(int i = 0; i < NUM_SUBMITTERS * TICKETS_PER_SUBMITTER; i++) {
+			int clientIndex = i % NUM_CLIENTS;
+			RequestTicket ticket = new RequestTicket(Integer.toString(i), null, "client"+clientIndex, 0);
+			ticket.setCmdResultFuture(new FutureTask<CommandResult>(() -> {
+				try {
+					maxNumRunning.accumulateAndGet(numRunning.incrementAndGet(), Math::max);
+					maxClientNumRunning.accumulateAndGet(clientNumRunning[clientIndex].incrementAndGet(), Math::max);
+					Thread.sleep(0, 100000);
+					clientNumRunning[clientIndex].decrementAndGet();
+					numRunning.decrementAndGet();
+				} finally {
+					ticket.setCode(RequestTicket.Code.COMPLETE);
+					requestQueue.ticketFinished(ticket);
+				}
+				return null;
+			}));
+			tickets.add(ticket);
+		}
+
+		AtomicBoolean submissionsDone = new AtomicBoolean(false);
+		// assertion failures in submitter / poller threads are collected here and rethrown on the test thread.
+		AtomicReference<Throwable> threadFailure = new AtomicReference<Throwable>();
+		CountDownLatch startLatch = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+		AtomicInteger nextToSubmit = new AtomicInteger(0);
+		for(int s = 0; s < NUM_SUBMITTERS; s++) {
+			threads.add(new Thread(recordingFailure(threadFailure, () -> {
+				awaitQuietly(startLatch);
+				int index;
+				while((index = nextToSubmit.getAndIncrement()) < tickets.size()) {
+					requestQueue.enqueue(tickets.get(index));
+				}
+			})));
+		}
+		for(int p = 0; p < NUM_POLLERS; p++) {
+			threads.add(new Thread(recordingFailure(threadFailure, () -> {
+				awaitQuietly(startLatch);
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				while(!submissionsDone.get()) {
+					int submitted = Math.min(nextToSubmit.get(), tickets.size());
+					if(submitted == 0) {
+						continue;
+					}
+					RequestTicket ticket = tickets.get(random.nextInt(submitted));
+					int placeInQueue = ticket.getPlaceInQueue();
+					Assert.assertTrue(placeInQueue >= -1);
+					ticket.getCode();
+				}
+			})));
+		}
+		threads.forEach(Thread::start);
+		startLatch.countDown();
+		try {
+			for(RequestTicket ticket: tickets) {
+				while(threadFailure.get() == null && 
+						(ticket.getCommandFuture() == null || !ticket.getCommandFuture().isDone())) {
+					Thread.sleep(1);
+				}
+			}
+		} finally {
+			submissionsDone.set(true);
+			for(Thread thread: threads) {
+				thread.join();
+			}
+			requestQueue.dispose();
+			requestQueue.getExecutorService().awaitTermination(5, TimeUnit.SECONDS);
+		}
+		rethrowIfFailed(threadFailure);
+		for(RequestTicket ticket: tickets) {
+			Assert.assertEquals(RequestTicket.Code.COMPLETE, ticket.getCode());
+			Assert.assertEquals(-1, ticket.getPlaceInQueue());
+		}
+		Assert.assertTrue(maxNumRunning.get() <= NUM_WORKERS);
+		Assert.assertTrue(maxClientNumRunning.get() <= MAX_RUNNING_PER_CLIENT);
+	}
+
+	private static Runnable recordingFailure(AtomicReference<Throwable> threadFailure, Runnable runnable) {
+		return () -> {
+			try {
+				runnable.run();
+			} catch(Throwable t) {
+				threadFailure.compareAndSet(null, t);
+			}
+		};
+	}
+
+	private static void rethrowIfFailed(AtomicReference<Throwable> threadFailure) throws Exception {
+		Throwable failure = threadFailure.get();
+		if(failure instanceof Error) {
+			throw (Error) failure;
+		}
+		if(failure instanceof Exception) {
+			throw (Exception) failure;
+		}
+	}
+
+	private static void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
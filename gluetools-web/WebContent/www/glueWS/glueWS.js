@@ -43,6 +43,15 @@ glueWS.factory('glueWS', function ($http, glueWebToolConfig, $analytics, dialogs
 			var url = asyncURL+"/async/request-status/"+requestID;
 			return $http.get(url);
 		},
+		// long-poll: the server responds once the request completes, or with its current status after timeoutMs.
+		awaitGlueRequestStatus: function(requestID, timeoutMs) {
+			var url = asyncURL+"/async/await-request-status/"+requestID;
+			return $http.get(url, {params: {timeoutMs: timeoutMs || 30000}});
+		},
+		cancelGlueRequest: function(requestID) {
+			var url = asyncURL+"/async/cancel-request/"+requestID;
+			return $http.post(url);
+		},
 		collectGlueRequestResult: function(requestID) {
 			var url = asyncURL+"/async/collect-result/"+requestID;
 			return $http.get(url);
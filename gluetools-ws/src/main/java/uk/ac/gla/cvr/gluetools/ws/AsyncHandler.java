@@ -1,15 +1,21 @@
 package uk.ac.gla.cvr.gluetools.ws;
 
 import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
 
 import uk.ac.gla.cvr.gluetools.core.GluetoolsEngine;
-import uk.ac.gla.cvr.gluetools.core.command.result.CommandResult;
+import uk.ac.gla.cvr.gluetools.core.requestQueue.CollectedResult;
 import uk.ac.gla.cvr.gluetools.core.requestQueue.RequestQueueManager;
 import uk.ac.gla.cvr.gluetools.core.requestQueue.RequestStatus;
 
@@ -25,15 +31,39 @@ public class AsyncHandler {
 		return requestStatus.toJsonString();
 	}
 	
+	// long-poll: responds once the request has completed, or with its current status once the timeout has elapsed.
+	// the response is suspended rather than holding a servlet thread while waiting.
+	@Produces(MediaType.APPLICATION_JSON)
+	@Path("/await-request-status/{requestID}")
+	@GET
+	public void awaitRequestStatus(@PathParam("requestID") String requestID, 
+			@QueryParam("timeoutMs") @DefaultValue("30000") long timeoutMs, @Context HttpServletResponse response, 
+			@Suspended AsyncResponse asyncResponse) {
+		RequestQueueManager requestQueueManager = GluetoolsEngine.getInstance().getRequestQueueManager();
+		WsCmdContext.addCacheDisablingHeaders(response);
+		requestQueueManager.awaitRequestStatus(requestID, timeoutMs, 
+				requestStatus -> asyncResponse.resume(requestStatus.toJsonString()));
+	}
+	
+	@Produces(MediaType.APPLICATION_JSON)
+	@Path("/cancel-request/{requestID}")
+	@POST
+	public String cancelRequest(@PathParam("requestID") String requestID, @Context HttpServletResponse response) {
+		RequestQueueManager requestQueueManager = GluetoolsEngine.getInstance().getRequestQueueManager();
+		RequestStatus requestStatus = requestQueueManager.cancelRequest(requestID);
+		WsCmdContext.addCacheDisablingHeaders(response);
+		return requestStatus.toJsonString();
+	}
+	
+	// results spilled to disk are streamed from their file rather than being loaded back onto the heap.
 	@Produces(MediaType.APPLICATION_JSON)
 	@Path("/collect-result/{requestID}")
 	@GET
-	public String collectResult(@PathParam("requestID") String requestID, @Context HttpServletResponse response) {
+	public StreamingOutput collectResult(@PathParam("requestID") String requestID, @Context HttpServletResponse response) {
 		RequestQueueManager requestQueueManager = GluetoolsEngine.getInstance().getRequestQueueManager();
-		CommandResult cmdResult = requestQueueManager.collectRequestSync(requestID);
-		String resultString = WsCmdContext.serializeToJson(cmdResult);
+		CollectedResult collectedResult = requestQueueManager.collectRequest(requestID);
 		WsCmdContext.addCacheDisablingHeaders(response);
-		return resultString;
+		return collectedResult::writeJson;
 	}
 
 }
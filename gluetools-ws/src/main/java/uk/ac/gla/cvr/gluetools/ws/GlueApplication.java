@@ -43,7 +43,9 @@ import javax.servlet.annotation.WebListener;
 import javax.ws.rs.ApplicationPath;
 
 import org.glassfish.jersey.media.multipart.MultiPartFeature;
+import org.glassfish.jersey.message.GZipEncoder;
 import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.filter.EncodingFilter;
 
 import uk.ac.gla.cvr.gluetools.core.GluetoolsEngine;
 import uk.ac.gla.cvr.gluetools.core.logging.GlueLogger;
@@ -61,6 +63,8 @@ public class GlueApplication extends ResourceConfig implements ServletContextLis
     	registerInstances(new GlueRequestHandler());
     	registerInstances(new GlueExceptionHandler());
     	register(MultiPartFeature.class);
+    	// gzip response bodies for clients which send Accept-Encoding: gzip.
+    	EncodingFilter.enableFor(this, GZipEncoder.class);
 	}
 
 
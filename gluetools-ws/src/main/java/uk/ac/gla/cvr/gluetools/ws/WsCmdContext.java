@@ -25,9 +25,12 @@
 */
 package uk.ac.gla.cvr.gluetools.ws;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.LinkedList;
@@ -35,7 +38,6 @@ import java.util.List;
 import java.util.function.Supplier;
 import java.util.logging.Logger;
 
-import javax.json.stream.JsonGenerator;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.NotFoundException;
@@ -46,6 +48,7 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.cayenne.configuration.server.ServerRuntime;
 import org.apache.commons.io.IOUtils;
@@ -77,7 +80,6 @@ import uk.ac.gla.cvr.gluetools.core.requestQueue.RequestStatus;
 import uk.ac.gla.cvr.gluetools.utils.CommandDocumentJsonUtils;
 import uk.ac.gla.cvr.gluetools.utils.CommandDocumentXmlUtils;
 import uk.ac.gla.cvr.gluetools.utils.GlueXmlUtils;
-import uk.ac.gla.cvr.gluetools.utils.JsonUtils;
 
 public class WsCmdContext extends CommandContext {
 
@@ -100,11 +102,12 @@ public class WsCmdContext extends CommandContext {
 	@Consumes(MediaType.APPLICATION_JSON)
 	@Produces(MediaType.APPLICATION_JSON)
 	@SuppressWarnings("rawtypes")
-	public String postAsCommand(@Context HttpHeaders requestHeaders, String commandString, @Context HttpServletResponse response) {
+	public StreamingOutput postAsCommand(@Context HttpHeaders requestHeaders, String commandString, @Context HttpServletResponse response) {
 		GlueDataObject.resetTimeSpentInDbOperations();
 		CommandDocument commandDocument = CommandFormatUtils.commandDocumentFromJsonString(commandString);
 		Document cmdXmlDocument = CommandDocumentXmlUtils.commandDocumentToXmlDocument(commandDocument);
 		Element cmdDocElem = cmdXmlDocument.getDocumentElement();
+		checkNoClientBinaryInputFile(cmdDocElem, commandString);
 		Class<? extends Command> cmdClass = commandClassFromElement(cmdDocElem);
 		if(cmdClass != null) {
 			checkCommmandIsExecutable(cmdClass);
@@ -115,24 +118,24 @@ public class WsCmdContext extends CommandContext {
 		}
 		@SuppressWarnings("unused")
 		long cmdExecutionStart = System.currentTimeMillis();
-		String resultString;
+		StreamingOutput resultOutput;
 		if(glueAsync(requestHeaders)) {
-			RequestStatus requestStatus = invokeCommandAsync(commandString, command);
-			resultString = requestStatus.toJsonString();
+			RequestStatus requestStatus = invokeCommandAsync(commandString, command, glueClientID(requestHeaders));
+			resultOutput = streamString(requestStatus.toJsonString());
 		} else {
-			CommandResult cmdResult = invokeCommandSync(commandString, command);
+			CommandResult cmdResult = invokeCommandSync(commandString, command, glueClientID(requestHeaders));
 			// logger.info("Time spent in database operations: "+(GlueDataObject.getTimeSpentInDbOperations())+"ms");
 			//logger.info("Time spent in command execution: "+(System.currentTimeMillis() - cmdExecutionStart )+"ms");
-			resultString = serializeToJson(cmdResult);
+			resultOutput = streamJson(cmdResult);
 		}
 		addCacheDisablingHeaders(response);
-		return resultString;
+		return resultOutput;
 	}
 	
 	@POST()
 	@Consumes(MediaType.MULTIPART_FORM_DATA)
 	@Produces(MediaType.APPLICATION_JSON)
-	public String postAsCommandMultipart(
+	public StreamingOutput postAsCommandMultipart(
 			@Context HttpHeaders requestHeaders, 
 			@FormDataParam("file") InputStream fileInputStream,
 			@FormDataParam("command") String commandString, 
@@ -146,7 +149,7 @@ public class WsCmdContext extends CommandContext {
 	@POST()
 	@Consumes(MediaType.MULTIPART_FORM_DATA)
 	@Produces(MediaType.TEXT_HTML)
-	public String postAsCommandMultipartInternetExplorer(
+	public StreamingOutput postAsCommandMultipartInternetExplorer(
 			@Context HttpHeaders requestHeaders, 
 			@FormDataParam("file") InputStream fileInputStream,
 			@FormDataParam("command") String commandString, 
@@ -156,53 +159,101 @@ public class WsCmdContext extends CommandContext {
 
 	
 	@SuppressWarnings({ "rawtypes" })
-	private String multipartCommand(HttpHeaders requestHeaders, InputStream fileInputStream,
+	private StreamingOutput multipartCommand(HttpHeaders requestHeaders, InputStream fileInputStream,
 			String commandString, HttpServletResponse response) {
 		GlueDataObject.resetTimeSpentInDbOperations();
 		CommandDocument commandDocument = CommandFormatUtils.commandDocumentFromJsonString(commandString);
 		Document commandXmlDocument = CommandDocumentXmlUtils.commandDocumentToXmlDocument(commandDocument);
 		
 		Element cmdDocElem = commandXmlDocument.getDocumentElement();
+		checkNoClientBinaryInputFile(cmdDocElem, commandString);
 		Class<? extends Command> cmdClass = commandClassFromElement(cmdDocElem);
 		if(cmdClass == null) {
 			throw new CommandException(CommandException.Code.UNKNOWN_COMMAND, commandString, fullPath);
 		}
 		String[] cmdWords = CommandUsage.cmdWordsForCmdClass(cmdClass);
-		if(!CommandUsage.hasMetaTagForCmdClass(cmdClass, CmdMeta.consumesBinary)) {
+		boolean consumesBinaryFile = CommandUsage.hasMetaTagForCmdClass(cmdClass, CmdMeta.consumesBinaryFile);
+		if(!consumesBinaryFile && !CommandUsage.hasMetaTagForCmdClass(cmdClass, CmdMeta.consumesBinary)) {
 			throw new CommandException(CommandException.Code.COMMAND_DOES_NOT_CONSUME_BINARY, 
 					String.join(" ", cmdWords));
 		}
-		byte[] fileBytes;
-		try {
-			fileBytes = IOUtils.toByteArray(fileInputStream);
-		} catch(IOException ioe) {
-			throw new CommandException(ioe, CommandException.Code.COMMAND_BINARY_INPUT_IO_ERROR, cmdWords, ioe.getLocalizedMessage());
-		}
 		Element currentElem = cmdDocElem;
 		for(int i = 1; i < cmdWords.length; i ++) {
 			currentElem = GlueXmlUtils.findChildElements(currentElem, cmdWords[i]).get(0);
 		}
-		String fileBase64 = new String(Base64.getEncoder().encode(fileBytes));
-		GlueXmlUtils.appendElementWithText(currentElem, Command.BINARY_INPUT_PROPERTY, fileBase64);
-		Command command = commandFromElement(cmdDocElem);
+		if(consumesBinaryFile) {
+			// stream the upload straight to a temporary file, avoiding holding it in memory or encoding it into the command XML.
+			File binaryInputFile = spoolBinaryInput(fileInputStream, cmdWords);
+			GlueXmlUtils.appendElementWithText(currentElem, Command.BINARY_INPUT_FILE_PROPERTY, binaryInputFile.getAbsolutePath());
+		} else {
+			byte[] fileBytes;
+			try {
+				fileBytes = IOUtils.toByteArray(fileInputStream);
+			} catch(IOException ioe) {
+				throw new CommandException(ioe, CommandException.Code.COMMAND_BINARY_INPUT_IO_ERROR, cmdWords, ioe.getLocalizedMessage());
+			}
+			String fileBase64 = new String(Base64.getEncoder().encode(fileBytes));
+			GlueXmlUtils.appendElementWithText(currentElem, Command.BINARY_INPUT_PROPERTY, fileBase64);
+		}
+		Command command;
+		try {
+			command = commandFromElement(cmdDocElem);
+		} catch(RuntimeException re) {
+			deleteDisposableFiles();
+			throw re;
+		}
 		if(command == null) {
+			deleteDisposableFiles();
 			throw new CommandException(CommandException.Code.UNKNOWN_COMMAND, commandString, fullPath);
 		}
 		@SuppressWarnings("unused")
 		long cmdExecutionStart = System.currentTimeMillis();
-		String resultString;
+		StreamingOutput resultOutput;
 		if(glueAsync(requestHeaders)) {
-			RequestStatus requestStatus = invokeCommandAsync(commandString, command);
-			resultString = requestStatus.toJsonString();
+			RequestStatus requestStatus;
+			try {
+				requestStatus = invokeCommandAsync(commandString, command, glueClientID(requestHeaders));
+			} catch(RuntimeException re) {
+				// request was not queued, so the context will not be disposed.
+				deleteDisposableFiles();
+				throw re;
+			}
+			resultOutput = streamString(requestStatus.toJsonString());
 		} else {
-			CommandResult cmdResult = invokeCommandSync(commandString, command);
+			CommandResult cmdResult;
+			try {
+				cmdResult = invokeCommandSync(commandString, command, glueClientID(requestHeaders));
+			} finally {
+				deleteDisposableFiles();
+			}
 			// logger.info("Time spent in database operations: "+(GlueDataObject.getTimeSpentInDbOperations())+"ms");
 			//logger.info("Time spent in command execution: "+(System.currentTimeMillis() - cmdExecutionStart )+"ms");
-			resultString = serializeToJson(cmdResult);
+			resultOutput = streamJson(cmdResult);
 		}
 
 		addCacheDisablingHeaders(response);
-		return resultString;
+		return resultOutput;
+	}
+
+	// the binary input file property names a file on the server, so only the server may set it, from an upload.
+	private static void checkNoClientBinaryInputFile(Element cmdDocElem, String commandString) {
+		if(cmdDocElem.getElementsByTagName(Command.BINARY_INPUT_FILE_PROPERTY).getLength() > 0) {
+			throw new CommandException(CommandException.Code.CLIENT_SUPPLIED_BINARY_INPUT_FILE, commandString);
+		}
+	}
+
+	// the file is deleted when this context is disposed, i.e. once the request has completed.
+	private File spoolBinaryInput(InputStream fileInputStream, String[] cmdWords) {
+		File binaryInputFile = null;
+		try {
+			binaryInputFile = File.createTempFile("glueBinaryInput", ".bin");
+			addDisposableFile(binaryInputFile);
+			Files.copy(fileInputStream, binaryInputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch(IOException ioe) {
+			deleteDisposableFiles();
+			throw new CommandException(ioe, CommandException.Code.COMMAND_BINARY_INPUT_IO_ERROR, cmdWords, ioe.getLocalizedMessage());
+		}
+		return binaryInputFile;
 	}
 
 	private boolean glueAsync(HttpHeaders requestHeaders) {
@@ -210,16 +261,23 @@ public class WsCmdContext extends CommandContext {
 		return glueAsyncHeaderVal != null && glueAsyncHeaderVal.size() > 0 && glueAsyncHeaderVal.get(0).equals("true");
 	}
 	
-	public static String serializeToJson(CommandResult cmdResult) {
-		@SuppressWarnings("unused")
-		long jsonSerializationStart = System.currentTimeMillis();
-		StringWriter stringWriter = new StringWriter();
-		JsonGenerator jsonGenerator = JsonUtils.jsonGenerator(stringWriter);
-		CommandDocumentJsonUtils.commandDocumentGenerateJson(jsonGenerator, cmdResult.getCommandDocument());
-		jsonGenerator.flush();
-		String cmdResultString = stringWriter.toString();
-		//logger.info("Time spent in JSON serialization: "+(System.currentTimeMillis() - jsonSerializationStart)+"ms");
-		return cmdResultString;
+	// optional client identity, used by the request queues to share workers fairly between clients.
+	private String glueClientID(HttpHeaders requestHeaders) {
+		List<String> glueClientIDHeaderVal = requestHeaders.getRequestHeader("glue-client-id");
+		if(glueClientIDHeaderVal != null && glueClientIDHeaderVal.size() > 0) {
+			return glueClientIDHeaderVal.get(0);
+		}
+		return null;
+	}
+	
+	// the result document is written as JSON directly to the response, rather than first being rendered to a String.
+	// the response is gzip-encoded by the EncodingFilter if the client accepts it.
+	public static StreamingOutput streamJson(CommandResult cmdResult) {
+		return outputStream -> CommandDocumentJsonUtils.commandDocumentWriteJson(outputStream, cmdResult.getCommandDocument());
+	}
+
+	public static StreamingOutput streamString(String string) {
+		return outputStream -> outputStream.write(string.getBytes(StandardCharsets.UTF_8));
 	}
 	
 	
@@ -283,17 +341,22 @@ public class WsCmdContext extends CommandContext {
 		}
 	}
 	
-	private CommandResult invokeCommandSync(String commandString, Command<?> command) {
-		RequestStatus requestStatus = invokeCommandAsync(commandString, command);
+	// the result is collected as soon as the request completes, so there is no point spilling it to disk.
+	private CommandResult invokeCommandSync(String commandString, Command<?> command, String clientID) {
+		RequestStatus requestStatus = submitCommand(commandString, command, clientID, false);
 		RequestQueueManager requestQueueManager = getGluetoolsEngine().getRequestQueueManager();
 		return requestQueueManager.collectRequestSync(requestStatus.getRequestID());
 	}
 	
-	private RequestStatus invokeCommandAsync(String commandString, Command<?> command) {
+	private RequestStatus invokeCommandAsync(String commandString, Command<?> command, String clientID) {
+		return submitCommand(commandString, command, clientID, true);
+	}
+
+	private RequestStatus submitCommand(String commandString, Command<?> command, String clientID, boolean resultMaySpill) {
 		GluetoolsEngine gluetoolsEngine = getGluetoolsEngine();
 		RequestGatekeeper requestGatekeeper = gluetoolsEngine.getRequestGatekeeper();
 		String modePath = getModePath();
-		Request request = new Request(modePath, command);
+		Request request = new Request(modePath, command, clientID);
 		boolean allowRequest = requestGatekeeper.allowRequest(request);
 		if(!allowRequest) {
 			String commandWords = String.join(" ", request.getCommandWords());
@@ -305,7 +368,7 @@ public class WsCmdContext extends CommandContext {
 		}
 		RequestQueueManager requestQueueManager = gluetoolsEngine.getRequestQueueManager();
 		
-		RequestStatus requestStatus = requestQueueManager.submitRequest(this, request);
+		RequestStatus requestStatus = requestQueueManager.submitRequest(this, request, resultMaySpill);
 		logger.info("Request ticket "+requestStatus.getRequestID()+" allocated to command : "+commandString);
 		return requestStatus;
 	}